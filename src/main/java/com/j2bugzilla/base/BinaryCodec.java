@@ -0,0 +1,543 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.j2bugzilla.base.Flag.Status;
+
+/**
+ * The {@code BinaryCodec} converts {@link Bug Bugs}, {@link Comment Comments}, {@link Attachment Attachments},
+ * {@link Product Products}, {@link Flag Flags} and {@link BugSummary BugSummaries} to and from a compact binary record format. It is the
+ * building block of {@link BinaryEncoder} and {@link BinaryDecoder}, which most callers should use instead;
+ * it is exposed for stores which need to lay records out themselves.
+ * 
+ * Each record is a tag byte naming its type followed by its fields. Integers are written as variable-length
+ * quantities, and field names along with values of enum-like fields such as status, priority or product are
+ * written as indexes into a symbol table. A codec adds symbols to its table as it encodes; the symbols
+ * returned by {@link #getNewSymbols()} must reach the decoding side, as a
+ * {@link #encodeSymbols(List) symbol record}, before the records which use them, and are then passed to
+ * {@link #markPublished(List)}.
+ * 
+ * New fields are only ever appended to a record type. Decoders ignore fields they do not understand at
+ * the end of a record, and skip whole records of unknown types, so older readers can consume newer data.
+ * The {@link #VERSION format version} changes only for incompatible changes.
+ * 
+ * Symbols learned by decoding a symbol record count as already published, so a single codec may also
+ * read back its own output, as a log-structured store does. This class is thread-safe.
+ */
+public class BinaryCodec {
+
+	/**
+	 * The version of the record format written by this codec.
+	 */
+	public static final int VERSION = 1;
+	
+	/**
+	 * Marks the start of a {@link BinaryEncoder} stream
+	 */
+	static final byte[] MAGIC = { 'J', '2', 'B', 'Z' };
+	
+	static final byte RECORD_SYMBOLS = 0;
+	static final byte RECORD_BUG = 1;
+	static final byte RECORD_COMMENT = 2;
+	static final byte RECORD_ATTACHMENT = 3;
+	static final byte RECORD_PRODUCT = 4;
+	static final byte RECORD_FLAG = 5;
+	static final byte RECORD_SUMMARY = 6;
+	
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_STRING = 1;
+	private static final byte TYPE_SYMBOL = 2;
+	private static final byte TYPE_INT = 3;
+	private static final byte TYPE_TRUE = 4;
+	private static final byte TYPE_FALSE = 5;
+	private static final byte TYPE_DOUBLE = 6;
+	private static final byte TYPE_DATE = 7;
+	private static final byte TYPE_BYTES = 8;
+	private static final byte TYPE_ARRAY = 9;
+	private static final byte TYPE_MAP = 10;
+	private static final byte TYPE_LONG = 11;
+	
+	/**
+	 * Bug fields whose values repeat heavily between bugs and are worth adding to the symbol table
+	 */
+	private static final Set<String> SYMBOL_FIELDS = new HashSet<String>(Arrays.asList(
+			"status", "resolution", "priority", "severity", "product", "component", "version", 
+			"op_sys", "platform", "classification", "target_milestone", "assigned_to", "creator",
+			"qa_contact", "setter", "name", "cc", "keywords"));
+	
+	/**
+	 * Strings longer than this are never added to the symbol table
+	 */
+	private static final int MAX_SYMBOL_LENGTH = 256;
+	
+	/**
+	 * Once the symbol table holds this many entries, further strings are written literally
+	 */
+	private static final int MAX_SYMBOLS = 65536;
+	
+	private final List<String> symbols = new ArrayList<String>();
+	
+	private final Map<String, Integer> symbolIndex = new HashMap<String, Integer>();
+	
+	/**
+	 * Index of the first symbol not yet returned by {@link #takeNewSymbols()}
+	 */
+	private int published = 0;
+	
+	/**
+	 * Encodes a {@link Bug} with all of the fields exposed by {@link Bug#getParameterMap()}.
+	 * @param bug The {@code Bug} to encode.
+	 * @return The encoded record.
+	 */
+	public synchronized byte[] encodeBug(Bug bug) {
+		Output out = new Output(RECORD_BUG);
+		writeValue(out, bug.getParameterMap(), false);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Encodes a {@link Comment}.
+	 * @param comment The {@code Comment} to encode.
+	 * @return The encoded record.
+	 */
+	public synchronized byte[] encodeComment(Comment comment) {
+		Output out = new Output(RECORD_COMMENT);
+		writeValue(out, comment.getID(), false);
+		writeValue(out, comment.getText(), false);
+		writeValue(out, comment.getBugID(), false);
+		writeValue(out, comment.getCreator(), true);
+		writeValue(out, comment.getTime(), false);
+		writeValue(out, comment.isPrivate(), false);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Encodes an {@link Attachment}, including its data.
+	 * @param attachment The {@code Attachment} to encode.
+	 * @return The encoded record.
+	 */
+	public synchronized byte[] encodeAttachment(Attachment attachment) {
+		Output out = new Output(RECORD_ATTACHMENT);
+		writeValue(out, attachment.getAttachmentID(), false);
+		writeValue(out, attachment.getBugID(), false);
+		writeValue(out, attachment.getFileName(), false);
+		writeValue(out, attachment.getMIMEType(), true);
+		writeValue(out, attachment.getSummary(), false);
+		writeValue(out, attachment.getCreator(), true);
+		writeValue(out, attachment.createdOn(), false);
+		writeValue(out, attachment.lastChangedOn(), false);
+		writeValue(out, attachment.getRawData(), false);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Encodes a {@link Product} and its versions.
+	 * @param product The {@code Product} to encode.
+	 * @return The encoded record.
+	 */
+	public synchronized byte[] encodeProduct(Product product) {
+		Output out = new Output(RECORD_PRODUCT);
+		writeValue(out, product.getID(), false);
+		writeValue(out, product.getName(), true);
+		writeValue(out, product.getDescription(), false);
+		List<ProductVersion> versions = product.getProductVersions();
+		Object[] pairs = new Object[versions.size() * 2];
+		for(int i = 0; i < versions.size(); i++) {
+			pairs[2 * i] = versions.get(i).getID();
+			pairs[2 * i + 1] = versions.get(i).getName();
+		}
+		writeValue(out, pairs, true);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Encodes a {@link Flag}.
+	 * @param flag The {@code Flag} to encode.
+	 * @return The encoded record.
+	 */
+	public synchronized byte[] encodeFlag(Flag flag) {
+		Output out = new Output(RECORD_FLAG);
+		writeValue(out, flag.getName(), true);
+		writeValue(out, flag.getStatus().ordinal(), false);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Encodes a {@link BugSummary}.
+	 * @param summary The {@code BugSummary} to encode.
+	 * @return The encoded record.
+	 */
+	public synchronized byte[] encodeSummary(BugSummary summary) {
+		Output out = new Output(RECORD_SUMMARY);
+		writeValue(out, summary.getID(), false);
+		writeValue(out, summary.getStatus(), true);
+		writeValue(out, summary.getResolution(), true);
+		writeValue(out, summary.getAssignee(), true);
+		writeValue(out, summary.getSummary(), false);
+		writeValue(out, summary.getLastChangeTime(), false);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Encodes a symbol record which teaches a decoder the given symbols.
+	 * @param newSymbols Symbols in the order they were added, as returned by {@link #getNewSymbols()}.
+	 * @return The encoded record.
+	 */
+	public byte[] encodeSymbols(List<String> newSymbols) {
+		Output out = new Output(RECORD_SYMBOLS);
+		out.writeVarint(newSymbols.size());
+		for(String symbol : newSymbols) {
+			out.writeString(symbol);
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Returns the symbols added to this codec's table which have not yet been published. They are returned
+	 * again by later calls until {@link #markPublished(List)} is called, so that a symbol record which
+	 * could not be written is not forgotten.
+	 * @return A possibly empty {@code List} of symbols, in the order they were added.
+	 */
+	public synchronized List<String> getNewSymbols() {
+		return new ArrayList<String>(symbols.subList(published, symbols.size()));
+	}
+	
+	/**
+	 * Records that a symbol record holding the given symbols has reached the decoding side.
+	 * @param newSymbols Symbols as returned by {@link #getNewSymbols()}.
+	 */
+	public synchronized void markPublished(List<String> newSymbols) {
+		if(published + newSymbols.size() > symbols.size()) {
+			throw new IllegalArgumentException("More symbols published than were added");
+		}
+		published += newSymbols.size();
+	}
+	
+	/**
+	 * Adds symbols which the decoding side already knows, such as those read back from an existing
+	 * stream that is about to be continued.
+	 */
+	synchronized void addPublishedSymbols(List<String> known) {
+		for(String symbol : known) {
+			addSymbol(symbol);
+		}
+		published = symbols.size();
+	}
+	
+	/**
+	 * Returns every symbol in this codec's table.
+	 * @return The symbols, in the order they were added.
+	 */
+	public synchronized List<String> getSymbols() {
+		return Collections.unmodifiableList(new ArrayList<String>(symbols));
+	}
+	
+	/**
+	 * Decodes a single record. Symbol records are added to this codec's table, and records of
+	 * unknown types are skipped; both produce null.
+	 * @param record A buffer positioned at the start of a record and limited to its end.
+	 * @return A {@link Bug}, {@link Comment}, {@link Attachment}, {@link Product}, {@link Flag} or
+	 * {@link BugSummary}, or null.
+	 * @throws IOException If the record is malformed or refers to an unknown symbol.
+	 */
+	public synchronized Object decode(ByteBuffer record) throws IOException {
+		try {
+			byte tag = record.get();
+			switch(tag) {
+			case RECORD_SYMBOLS:
+				int count = readVarint(record);
+				for(int i = 0; i < count; i++) {
+					addSymbol(readString(record));
+				}
+				published = symbols.size();
+				return null;
+			case RECORD_BUG:
+				@SuppressWarnings("unchecked")
+				Map<String, Object> state = (Map<String, Object>)readValue(record);
+				return new BugFactory().createBug(state);
+			case RECORD_COMMENT:
+				return decodeComment(record);
+			case RECORD_ATTACHMENT:
+				return decodeAttachment(record);
+			case RECORD_PRODUCT:
+				return decodeProduct(record);
+			case RECORD_FLAG:
+				String name = (String)readValue(record);
+				return new Flag(name, Status.values()[(Integer)readValue(record)]);
+			case RECORD_SUMMARY:
+				return decodeSummary(record);
+			default:
+				return null;
+			}
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Truncated record");
+		} catch(ClassCastException e) {
+			throw new IOException("Malformed record: " + e.getMessage());
+		} catch(IndexOutOfBoundsException e) {
+			throw new IOException("Malformed record: " + e.getMessage());
+		} catch(IllegalStateException e) {
+			throw new IOException("Malformed record: " + e.getMessage());
+		}
+	}
+	
+	private Comment decodeComment(ByteBuffer in) {
+		int id = (Integer)readValue(in);
+		String text = (String)readValue(in);
+		//Records written before these fields were added end after the text
+		int bugId = in.hasRemaining() ? (Integer)readValue(in) : -1;
+		String creator = in.hasRemaining() ? (String)readValue(in) : null;
+		Date time = in.hasRemaining() ? (Date)readValue(in) : null;
+		boolean isPrivate = in.hasRemaining() && (Boolean)readValue(in);
+		return new Comment(id, bugId, text, creator, time, isPrivate);
+	}
+	
+	private BugSummary decodeSummary(ByteBuffer in) {
+		int id = (Integer)readValue(in);
+		String status = (String)readValue(in);
+		String resolution = (String)readValue(in);
+		String assignee = (String)readValue(in);
+		String summary = (String)readValue(in);
+		return new BugSummary(id, status, resolution, assignee, summary, (Date)readValue(in));
+	}
+	
+	private Attachment decodeAttachment(ByteBuffer in) {
+		AttachmentFactory factory = new AttachmentFactory().newAttachment();
+		factory.setID((Integer)readValue(in));
+		factory.setBugID((Integer)readValue(in));
+		factory.setName((String)readValue(in));
+		factory.setMime((String)readValue(in));
+		factory.setSummary((String)readValue(in));
+		factory.setCreator((String)readValue(in));
+		Date created = (Date)readValue(in);
+		if(created != null) { factory.setCreationDate(created); }
+		Date modified = (Date)readValue(in);
+		if(modified != null) { factory.setModifiedDate(modified); }
+		factory.setData((byte[])readValue(in));
+		return factory.createAttachment();
+	}
+	
+	private Product decodeProduct(ByteBuffer in) {
+		int id = (Integer)readValue(in);
+		Product product = new Product(id, (String)readValue(in));
+		product.setDescription((String)readValue(in));
+		Object[] pairs = (Object[])readValue(in);
+		for(int i = 0; i + 1 < pairs.length; i += 2) {
+			product.addProductVersion(new ProductVersion((Integer)pairs[i], (String)pairs[i + 1]));
+		}
+		return product;
+	}
+	
+	private void addSymbol(String symbol) {
+		symbolIndex.put(symbol, symbols.size());
+		symbols.add(symbol);
+	}
+	
+	/**
+	 * Returns the symbol table index for a string, adding it if there is room.
+	 * @return The index, or -1 if the string should be written literally.
+	 */
+	private int symbol(String str) {
+		Integer index = symbolIndex.get(str);
+		if(index != null) { return index; }
+		if(str.length() > MAX_SYMBOL_LENGTH || symbols.size() >= MAX_SYMBOLS) { return -1; }
+		addSymbol(str);
+		return symbols.size() - 1;
+	}
+	
+	private void writeValue(Output out, Object value, boolean symbolic) {
+		if(value == null) {
+			out.write(TYPE_NULL);
+		} else if(value instanceof String) {
+			String str = (String)value;
+			int index = symbolic ? symbol(str) : -1;
+			if(index >= 0) {
+				out.write(TYPE_SYMBOL);
+				out.writeVarint(index);
+			} else {
+				out.write(TYPE_STRING);
+				out.writeString(str);
+			}
+		} else if(value instanceof Integer) {
+			out.write(TYPE_INT);
+			out.writeSignedVarint((Integer)value);
+		} else if(value instanceof Long) {
+			out.write(TYPE_LONG);
+			out.writeSignedVarint((Long)value);
+		} else if(value instanceof Boolean) {
+			out.write((Boolean)value ? TYPE_TRUE : TYPE_FALSE);
+		} else if(value instanceof Double) {
+			out.write(TYPE_DOUBLE);
+			long bits = Double.doubleToLongBits((Double)value);
+			for(int shift = 56; shift >= 0; shift -= 8) {
+				out.write((int)(bits >>> shift));
+			}
+		} else if(value instanceof Date) {
+			out.write(TYPE_DATE);
+			out.writeSignedVarint(((Date)value).getTime());
+		} else if(value instanceof byte[]) {
+			byte[] bytes = (byte[])value;
+			out.write(TYPE_BYTES);
+			out.writeVarint(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		} else if(value instanceof Object[]) {
+			Object[] array = (Object[])value;
+			out.write(TYPE_ARRAY);
+			out.writeVarint(array.length);
+			for(Object element : array) {
+				writeValue(out, element, symbolic);
+			}
+		} else if(value instanceof Map<?, ?>) {
+			Map<?, ?> map = (Map<?, ?>)value;
+			out.write(TYPE_MAP);
+			out.writeVarint(map.size());
+			for(Map.Entry<?, ?> entry : map.entrySet()) {
+				String key = entry.getKey().toString();
+				writeValue(out, key, true);
+				writeValue(out, entry.getValue(), SYMBOL_FIELDS.contains(key));
+			}
+		} else {
+			throw new IllegalArgumentException("Cannot encode value of type " + value.getClass().getName());
+		}
+	}
+	
+	private Object readValue(ByteBuffer in) {
+		byte type = in.get();
+		switch(type) {
+		case TYPE_NULL:
+			return null;
+		case TYPE_STRING:
+			return readString(in);
+		case TYPE_SYMBOL:
+			return symbols.get(readVarint(in));
+		case TYPE_INT:
+			return (int)readSignedVarint(in);
+		case TYPE_LONG:
+			return readSignedVarint(in);
+		case TYPE_TRUE:
+			return Boolean.TRUE;
+		case TYPE_FALSE:
+			return Boolean.FALSE;
+		case TYPE_DOUBLE:
+			return in.getDouble();
+		case TYPE_DATE:
+			return new Date(readSignedVarint(in));
+		case TYPE_BYTES:
+			byte[] bytes = new byte[readVarint(in)];
+			in.get(bytes);
+			return bytes;
+		case TYPE_ARRAY:
+			Object[] array = new Object[readVarint(in)];
+			for(int i = 0; i < array.length; i++) {
+				array[i] = readValue(in);
+			}
+			return array;
+		case TYPE_MAP:
+			int size = readVarint(in);
+			Map<String, Object> map = new HashMap<String, Object>();
+			for(int i = 0; i < size; i++) {
+				String key = (String)readValue(in);
+				map.put(key, readValue(in));
+			}
+			return map;
+		default:
+			throw new IllegalStateException("Unknown value type " + type);
+		}
+	}
+	
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0) { return value; }
+		}
+		throw new IllegalStateException("Malformed variable-length integer");
+	}
+	
+	private static long readSignedVarint(ByteBuffer in) {
+		long raw = 0;
+		for(int shift = 0; shift < 70; shift += 7) {
+			byte b = in.get();
+			raw |= (long)(b & 0x7F) << shift;
+			if(b >= 0) { return (raw >>> 1) ^ -(raw & 1); }
+		}
+		throw new IllegalStateException("Malformed variable-length integer");
+	}
+	
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[readVarint(in)];
+		in.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * A growable buffer with the primitive writes used by the record format.
+	 */
+	static final class Output extends ByteArrayOutputStream {
+		
+		Output(byte tag) {
+			super(64);
+			write(tag);
+		}
+		
+		void writeVarint(int value) {
+			while((value & ~0x7F) != 0) {
+				write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			write(value);
+		}
+		
+		void writeSignedVarint(long value) {
+			long raw = (value << 1) ^ (value >> 63);
+			while((raw & ~0x7FL) != 0) {
+				write((int)(raw & 0x7F) | 0x80);
+				raw >>>= 7;
+			}
+			write((int)raw);
+		}
+		
+		void writeString(String str) {
+			try {
+				byte[] bytes = str.getBytes("UTF-8");
+				writeVarint(bytes.length);
+				write(bytes, 0, bytes.length);
+			} catch(IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The {@code BinaryDecoder} reads back a stream written by a {@link BinaryEncoder}. Objects are
+ * decoded one at a time as they are requested, so streams of any length can be processed in
+ * constant memory.
+ * 
+ * This class is not thread-safe.
+ */
+public class BinaryDecoder {
+
+	private final InputStream in;
+	
+	private final BinaryCodec codec = new BinaryCodec();
+	
+	/**
+	 * Bytes read from the stream so far
+	 */
+	private long consumed = 0;
+	
+	/**
+	 * Bytes of the stream taken up by the header and complete records
+	 */
+	private long position;
+	
+	/**
+	 * Creates a new {@link BinaryDecoder} and reads the stream header.
+	 * @param in The {@code InputStream} to read from.
+	 * @throws IOException If the header is missing, or the stream was written in an unsupported format version.
+	 */
+	public BinaryDecoder(InputStream in) throws IOException {
+		this.in = in;
+		byte[] magic = new byte[BinaryCodec.MAGIC.length];
+		readFully(magic);
+		for(int i = 0; i < magic.length; i++) {
+			if(magic[i] != BinaryCodec.MAGIC[i]) { throw new IOException("Not a J2Bugzilla binary stream"); }
+		}
+		int version = in.read();
+		if(version != BinaryCodec.VERSION) { 
+			throw new IOException("Unsupported format version " + version); 
+		}
+		consumed++;
+		position = consumed;
+	}
+	
+	/**
+	 * Reads the next object from the stream.
+	 * @return A {@link Bug}, {@link Comment}, {@link Attachment}, {@link Product} or {@link Flag}, 
+	 * or null at the end of the stream.
+	 * @throws IOException If the stream cannot be read or is malformed.
+	 */
+	public Object read() throws IOException {
+		while(true) {
+			int length = readLength();
+			if(length < 0) { return null; }
+			byte[] record = new byte[length];
+			readFully(record);
+			Object obj = codec.decode(ByteBuffer.wrap(record));
+			position = consumed;
+			if(obj != null) { return obj; }
+		}
+	}
+	
+	/**
+	 * Reads the next object from the stream, which must be a {@link Bug}.
+	 * @return The {@code Bug}, or null at the end of the stream.
+	 * @throws IOException If the stream cannot be read, or holds a different object next.
+	 */
+	public Bug readBug() throws IOException {
+		return read(Bug.class);
+	}
+	
+	/**
+	 * Reads the next object from the stream, which must be a {@link Comment}.
+	 * @return The {@code Comment}, or null at the end of the stream.
+	 * @throws IOException If the stream cannot be read, or holds a different object next.
+	 */
+	public Comment readComment() throws IOException {
+		return read(Comment.class);
+	}
+	
+	/**
+	 * Reads the next object from the stream, which must be an {@link Attachment}.
+	 * @return The {@code Attachment}, or null at the end of the stream.
+	 * @throws IOException If the stream cannot be read, or holds a different object next.
+	 */
+	public Attachment readAttachment() throws IOException {
+		return read(Attachment.class);
+	}
+	
+	/**
+	 * Reads the next object from the stream, which must be a {@link Product}.
+	 * @return The {@code Product}, or null at the end of the stream.
+	 * @throws IOException If the stream cannot be read, or holds a different object next.
+	 */
+	public Product readProduct() throws IOException {
+		return read(Product.class);
+	}
+	
+	/**
+	 * Reads the next object from the stream, which must be a {@link Flag}.
+	 * @return The {@code Flag}, or null at the end of the stream.
+	 * @throws IOException If the stream cannot be read, or holds a different object next.
+	 */
+	public Flag readFlag() throws IOException {
+		return read(Flag.class);
+	}
+	
+	/**
+	 * Reads the next object from the stream, which must be a {@link BugSummary}.
+	 * @return The {@code BugSummary}, or null at the end of the stream.
+	 * @throws IOException If the stream cannot be read, or holds a different object next.
+	 */
+	public BugSummary readSummary() throws IOException {
+		return read(BugSummary.class);
+	}
+	
+	/**
+	 * Returns the length of the stream read so far, up to the end of the last complete record. If
+	 * reading stopped at a record cut short, for example by a crash while it was being written, this
+	 * is the length to which the stream should be truncated before it is continued.
+	 * @return A byte count, including the stream header.
+	 */
+	public long getPosition() {
+		return position;
+	}
+	
+	/**
+	 * Returns the symbols read from the stream so far.
+	 */
+	List<String> getSymbols() {
+		return codec.getSymbols();
+	}
+	
+	private <T> T read(Class<T> type) throws IOException {
+		Object obj = read();
+		if(obj != null && !type.isInstance(obj)) {
+			throw new IOException("Expected " + type.getSimpleName() + " but found " + obj.getClass().getSimpleName());
+		}
+		return type.cast(obj);
+	}
+	
+	/**
+	 * Reads a record length, returning -1 at a clean end of stream.
+	 */
+	private int readLength() throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			int b = in.read();
+			if(b < 0) {
+				if(shift == 0) { return -1; }
+				throw new EOFException("Truncated record length");
+			}
+			consumed++;
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) { return value; }
+		}
+		throw new IOException("Malformed record length");
+	}
+	
+	private void readFully(byte[] buffer) throws IOException {
+		int read = 0;
+		while(read < buffer.length) {
+			int count = in.read(buffer, read, buffer.length - read);
+			if(count < 0) { throw new EOFException("Unexpected end of stream"); }
+			read += count;
+			consumed += count;
+		}
+	}
+	
+	/**
+	 * Closes the underlying stream.
+	 * @throws IOException If the stream cannot be closed.
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+	
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * The {@code BinaryEncoder} writes a stream of {@link Bug Bugs}, {@link Comment Comments}, 
+ * {@link Attachment Attachments}, {@link Product Products} and {@link Flag Flags} in the compact
+ * format described by {@link BinaryCodec}, to be read back with a {@link BinaryDecoder}.
+ * 
+ * The stream starts with a short header carrying the format version, followed by length-prefixed
+ * records. Symbols are shared by every record in the stream, so repeated field names and values
+ * such as products, statuses and email addresses cost only a byte or two after their first use.
+ * Objects are written as they are passed in; nothing is buffered beyond the underlying stream.
+ * 
+ * This class is not thread-safe.
+ */
+public class BinaryEncoder {
+
+	private final OutputStream out;
+	
+	private final BinaryCodec codec = new BinaryCodec();
+	
+	/**
+	 * Creates a new {@link BinaryEncoder} and writes the stream header.
+	 * @param out The {@code OutputStream} to write to.
+	 * @throws IOException If the header cannot be written.
+	 */
+	public BinaryEncoder(OutputStream out) throws IOException {
+		this.out = out;
+		out.write(BinaryCodec.MAGIC);
+		out.write(BinaryCodec.VERSION);
+	}
+	
+	private BinaryEncoder(OutputStream out, List<String> symbols) {
+		this.out = out;
+		codec.addPublishedSymbols(symbols);
+	}
+	
+	/**
+	 * Creates a {@link BinaryEncoder} which continues an existing stream, such as a file opened for
+	 * appending. The stream must first have been read to its end with a {@link BinaryDecoder}, and
+	 * truncated to that decoder's {@link BinaryDecoder#getPosition() position}; no header is written,
+	 * and the symbols already in the stream are reused.
+	 * @param out The {@code OutputStream} positioned at the end of the existing stream.
+	 * @param decoder The decoder which read the existing stream.
+	 * @return A new encoder.
+	 */
+	public static BinaryEncoder resume(OutputStream out, BinaryDecoder decoder) {
+		return new BinaryEncoder(out, decoder.getSymbols());
+	}
+	
+	/**
+	 * Writes a {@link Bug} with all of the fields exposed by {@link Bug#getParameterMap()}.
+	 * @param bug The {@code Bug} to write.
+	 * @throws IOException If the stream cannot be written.
+	 */
+	public void writeBug(Bug bug) throws IOException {
+		writeRecord(codec.encodeBug(bug));
+	}
+	
+	/**
+	 * Writes a {@link Comment}.
+	 * @param comment The {@code Comment} to write.
+	 * @throws IOException If the stream cannot be written.
+	 */
+	public void writeComment(Comment comment) throws IOException {
+		writeRecord(codec.encodeComment(comment));
+	}
+	
+	/**
+	 * Writes an {@link Attachment}, including its data.
+	 * @param attachment The {@code Attachment} to write.
+	 * @throws IOException If the stream cannot be written.
+	 */
+	public void writeAttachment(Attachment attachment) throws IOException {
+		writeRecord(codec.encodeAttachment(attachment));
+	}
+	
+	/**
+	 * Writes a {@link Product} and its versions.
+	 * @param product The {@code Product} to write.
+	 * @throws IOException If the stream cannot be written.
+	 */
+	public void writeProduct(Product product) throws IOException {
+		writeRecord(codec.encodeProduct(product));
+	}
+	
+	/**
+	 * Writes a {@link Flag}.
+	 * @param flag The {@code Flag} to write.
+	 * @throws IOException If the stream cannot be written.
+	 */
+	public void writeFlag(Flag flag) throws IOException {
+		writeRecord(codec.encodeFlag(flag));
+	}
+	
+	/**
+	 * Writes a {@link BugSummary}.
+	 * @param summary The {@code BugSummary} to write.
+	 * @throws IOException If the stream cannot be written.
+	 */
+	public void writeSummary(BugSummary summary) throws IOException {
+		writeRecord(codec.encodeSummary(summary));
+	}
+	
+	private void writeRecord(byte[] record) throws IOException {
+		List<String> symbols = codec.getNewSymbols();
+		if(!symbols.isEmpty()) {
+			write(codec.encodeSymbols(symbols));
+			codec.markPublished(symbols);
+		}
+		write(record);
+	}
+	
+	private void write(byte[] record) throws IOException {
+		int length = record.length;
+		while((length & ~0x7F) != 0) {
+			out.write((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		out.write(length);
+		out.write(record);
+	}
+	
+	/**
+	 * Flushes the underlying stream.
+	 * @throws IOException If the stream cannot be flushed.
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	/**
+	 * Closes the underlying stream.
+	 * @throws IOException If the stream cannot be closed.
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+	
+}
@@ -16,6 +16,7 @@
 package com.j2bugzilla.base;
 
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -48,6 +49,22 @@ public class Bug {
 	 */
 	private Map<String, Object> internalState;
 	
+	/**
+	 * True while {@link #internalState} is a record owned by someone else, such as an XML-RPC
+	 * response, which must be copied before this {@code Bug} changes it.
+	 */
+	private boolean shared;
+	
+	/**
+	 * The version reported among the internals by older installations, converted on first use
+	 */
+	private String internalVersion;
+	
+	/**
+	 * The flags of this bug, parsed on first use
+	 */
+	private Set<Flag> flags;
+	
 	/**
 	 * Constructor for creating a new {@link Bug} to submit to an installation.
 	 * The constructor ensures any required values in {@link #requiredKeys} are set, and throws
@@ -56,8 +73,21 @@ public class Bug {
 	 * @param state A <code>Map</code> pairing required keys to values
 	 */
 	Bug(Map<String, Object> state) {
+		this(state, false);
+	}
+	
+	/**
+	 * Constructor for a {@link Bug} which may be backed directly by a record received from Bugzilla.
+	 * Fields are read from the record as their getters are called; the record is only copied if this
+	 * {@code Bug} is modified.
+	 * 
+	 * @param state A <code>Map</code> pairing required keys to values
+	 * @param shared {@code true} if {@code state} must not be modified by this {@code Bug}
+	 */
+	Bug(Map<String, Object> state, boolean shared) {
 		checkRequiredFields(state);
 		internalState = state;
+		this.shared = shared;
 	}
 	
 	/**
@@ -68,12 +98,31 @@ public class Bug {
 	 */
 	private static void checkRequiredFields(Map<String, Object> state) {
 		for(String str : requiredKeys) {
-			if(!state.containsKey(str)) {
+			if(!state.containsKey(str) && !("version".equals(str) && hasInternalVersion(state))) {
 				throw new IllegalStateException("Missing key/value pair: " + str);
 			}
 		}
 	}
 
+	/**
+	 * Older versions of Bugzilla do not return the version in the bug itself, only among its internals.
+	 */
+	private static boolean hasInternalVersion(Map<String, Object> state) {
+		Object internals = state.get("internals");
+		return internals instanceof Map && ((Map<?, ?>)internals).containsKey("version");
+	}
+	
+	/**
+	 * Returns the {@code Map} of fields for modification, copying it first if it is still shared.
+	 */
+	private Map<String, Object> writableState() {
+		if(shared) {
+			internalState = new HashMap<String, Object>(internalState);
+			shared = false;
+		}
+		return internalState;
+	}
+
 	/**
 	 * Returns how highly this bug is ranked. Since this field can be edited between installations, you may wish to
 	 * {@link com.j2bugzilla.rpc.GetLegalValues check its legal values}.
@@ -114,7 +163,7 @@ public class Bug {
 	 * @param alias A {@code String} representing a unique alias for this bug.
 	 */
 	public void setAlias(String alias) {
-		internalState.put("alias", alias);
+		writableState().put("alias", alias);
 	}
 	
 	/**
@@ -130,7 +179,7 @@ public class Bug {
 	 * @param summary A {@code String} representing the summary describing this bug.
 	 */
 	public void setSummary(String summary) {
-		internalState.put("summary", summary);
+		writableState().put("summary", summary);
 	}
 	
 	/**
@@ -147,7 +196,7 @@ public class Bug {
 	 * @param product A {@code String} representing the product name.
 	 */
 	public void setProduct(String product) {
-		internalState.put("product", product);
+		writableState().put("product", product);
 	}
 	
 	/**
@@ -165,7 +214,7 @@ public class Bug {
 	 * @param component A {@code String} representing the component name.
 	 */
 	public void setComponent(String component) {
-		internalState.put("component", component);
+		writableState().put("component", component);
 	}
 	
 	/**
@@ -173,7 +222,15 @@ public class Bug {
 	 * @return the version associated with this {@link Bug}
 	 */
 	public String getVersion() {
-		return (String)internalState.get("version");
+		if(internalState.containsKey("version")) {
+			return (String)internalState.get("version");
+		}
+		if(internalVersion == null) {
+			Object version = ((Map<?, ?>)internalState.get("internals")).get("version");
+			//Some installations report the version as a number
+			internalVersion = version == null ? null : version.toString();
+		}
+		return internalVersion;
 	}
 	
 	/**
@@ -183,7 +240,7 @@ public class Bug {
 	 * @param version A {@code String} describing the version number of the product affected by this bug.
 	 */
 	public void setVersion(String version) {
-		internalState.put("version", version);
+		writableState().put("version", version);
 	}
 	
 	/**
@@ -206,7 +263,7 @@ public class Bug {
 	 * @see {@link #setResolution(String)}
 	 */
 	public void setStatus(String status) {
-		internalState.put("status", status);
+		writableState().put("status", status);
 	}
 	
 	/**
@@ -229,7 +286,7 @@ public class Bug {
 	 * @see {@link #clearResolution()}
 	 */
 	public void setResolution(String resolution) {
-		internalState.put("resolution", resolution);
+		writableState().put("resolution", resolution);
 	}
 	
 	/**
@@ -240,7 +297,7 @@ public class Bug {
 	 * a set resolution.
 	 */
 	public void clearResolution() {
-		internalState.remove("resolution");
+		writableState().remove("resolution");
 	}
 	
 	/**
@@ -257,7 +314,7 @@ public class Bug {
 	 * @param os A {@code String} representing the operating system name.
 	 */
 	public void setOperatingSystem(String os) {
-		internalState.put("op_sys", os);
+		writableState().put("op_sys", os);
 	}
 	
 	/**
@@ -275,15 +332,32 @@ public class Bug {
 	 * @param platform A {@code String} representing the platform name.
 	 */
 	public void setPlatform(String platform) {
-		internalState.put("platform", platform);
+		writableState().put("platform", platform);
 	}
 	
 	/**
-	 * Returns the {@code Set} of all {@link Flag Flags} recorded for this {@link Bug}.
+	 * Returns the time this {@link Bug} was last changed on the installation. Bugs which have not
+	 * been retrieved from Bugzilla, or were retrieved without this field, return null.
+	 * @return A {@code Date} representing the last modification of this bug.
+	 */
+	public Date getLastChangeTime() {
+		return (Date) internalState.get("last_change_time");
+	}
+	
+	/**
+	 * Returns the {@code Set} of all {@link Flag Flags} recorded for this {@link Bug}. The flags are
+	 * parsed the first time this method is called, and the same read-only {@code Set} is returned afterwards.
 	 * @return A collection of {@code Flags} recorded by the Bugzilla installation against this {@code Bug}.
 	 */
 	public Set<Flag> getFlags() {
-		Object[] flagObjs = (Object[])internalState.get("flags");
+		if(flags == null) {
+			flags = parseFlags((Object[])internalState.get("flags"));
+		}
+		return flags;
+	}
+	
+	private static Set<Flag> parseFlags(Object[] flagObjs) {
+		if(flagObjs == null) { return Collections.emptySet(); }
 		Set<Flag> flags = new HashSet<Flag>();
 		for(Object obj : flagObjs) {
 			@SuppressWarnings("unchecked")
@@ -318,6 +392,9 @@ public class Bug {
 		for(String key : internalState.keySet()) {
 			params.put(key, internalState.get(key));
 		}
+		if(!internalState.containsKey("version")) {
+			params.put("version", getVersion());
+		}
 		return Collections.unmodifiableMap(params);
 	}
 	
@@ -54,6 +54,18 @@ public class BugFactory {
 		return new Bug(copyProps);
 	}
 	
+	/**
+	 * Creates a new {@link Bug} backed directly by the provided {@code Map}, such as a record
+	 * returned from an XML-RPC method. Unlike {@link #createBug(Map)}, the properties are not copied
+	 * up front: each field is only converted when its getter is first called, and the {@code Map} is
+	 * copied only if the {@code Bug} is later modified. Callers must not change the {@code Map} afterwards.
+	 * @param properties A {@code Map<String, Object>} describing the internal structure of a bug.
+	 * @return A new {@code Bug} object.
+	 */
+	public Bug createLazyBug(Map<String, Object> properties) {
+		return new Bug(properties, true);
+	}
+	
 	/**
 	 * Sets up this {@link BugFactory} to produce a new {@link Bug}.
 	 * This method must be called before any {@code setXxx()} methods or the
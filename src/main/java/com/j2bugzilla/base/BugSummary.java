@@ -0,0 +1,188 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * The {@code BugSummary} class holds the handful of fields needed to list a bug in a table: its ID,
+ * status, resolution, assignee, summary and the time it last changed. Searches and lookups can ask
+ * Bugzilla to return only these {@link #getFields() fields}, which keeps both the response and the decoded objects
+ * far smaller than full {@link Bug Bugs}.
+ * 
+ * Instances are immutable, and two summaries are equal when all of their fields are equal, so they may
+ * be shared freely between threads and used as cached values.
+ */
+public final class BugSummary {
+
+	/**
+	 * The fields Bugzilla must return for a {@link BugSummary}, suitable for the
+	 * {@code include_fields} parameter of {@code Bug.get} and {@code Bug.search}.
+	 */
+	private static final String[] FIELDS = { "id", "status", "resolution", "assigned_to", "summary", "last_change_time" };
+	
+	/**
+	 * Marks a missing last change time, so that the time can be held as a primitive
+	 */
+	private static final long NO_TIME = Long.MIN_VALUE;
+	
+	private final int id;
+	
+	private final String status;
+	
+	private final String resolution;
+	
+	private final String assignee;
+	
+	private final String summary;
+	
+	private final long lastChangeTime;
+	
+	/**
+	 * Creates a new {@link BugSummary}.
+	 * @param id The ID of the bug.
+	 * @param status The status of the bug.
+	 * @param resolution The resolution of the bug, or null if it is open.
+	 * @param assignee The login name of the user the bug is assigned to.
+	 * @param summary The one-line summary of the bug.
+	 * @param lastChangeTime When the bug last changed, or null if unknown.
+	 */
+	public BugSummary(int id, String status, String resolution, String assignee, String summary, Date lastChangeTime) {
+		this.id = id;
+		this.status = status;
+		this.resolution = resolution;
+		this.assignee = assignee;
+		this.summary = summary;
+		this.lastChangeTime = lastChangeTime == null ? NO_TIME : lastChangeTime.getTime();
+	}
+	
+	/**
+	 * Creates a new {@link BugSummary} from a bug record returned by an XML-RPC method. Fields other than
+	 * the {@link #getFields() summary fields} are ignored.
+	 * @param record A {@code Map} describing a bug.
+	 * @return A new {@code BugSummary}.
+	 */
+	public static BugSummary fromRecord(Map<?, ?> record) {
+		String resolution = (String)record.get("resolution");
+		return new BugSummary((Integer)record.get("id"), (String)record.get("status"), 
+				"".equals(resolution) ? null : resolution, (String)record.get("assigned_to"), 
+				(String)record.get("summary"), (Date)record.get("last_change_time"));
+	}
+	
+	/**
+	 * Creates a new {@link BugSummary} from the fields of a full {@link Bug} retrieved from Bugzilla.
+	 * @param bug The {@code Bug} to summarize.
+	 * @return A new {@code BugSummary}.
+	 */
+	public static BugSummary of(Bug bug) {
+		return fromRecord(bug.getParameterMap());
+	}
+	
+	/**
+	 * Returns the names of the fields Bugzilla must return to build a {@link BugSummary}.
+	 * @return A new array of field names, suitable for the {@code include_fields} parameter.
+	 */
+	public static String[] getFields() {
+		return FIELDS.clone();
+	}
+	
+	/**
+	 * Returns the ID of the summarized bug.
+	 * @return The bug ID.
+	 */
+	public int getID() {
+		return id;
+	}
+	
+	/**
+	 * Returns the status of the summarized bug.
+	 * @return A {@code String} such as {@code "NEW"} or {@code "RESOLVED"}.
+	 */
+	public String getStatus() {
+		return status;
+	}
+	
+	/**
+	 * Returns the resolution of the summarized bug.
+	 * @return A {@code String} such as {@code "FIXED"}, or null if the bug is open.
+	 */
+	public String getResolution() {
+		return resolution;
+	}
+	
+	/**
+	 * Returns the user the summarized bug is assigned to.
+	 * @return The assignee's login name.
+	 */
+	public String getAssignee() {
+		return assignee;
+	}
+	
+	/**
+	 * Returns the one-line summary of the bug.
+	 * @return The summary text.
+	 */
+	public String getSummary() {
+		return summary;
+	}
+	
+	/**
+	 * Returns when the summarized bug last changed.
+	 * @return A new {@code Date}, or null if the time was not returned.
+	 */
+	public Date getLastChangeTime() {
+		return lastChangeTime == NO_TIME ? null : new Date(lastChangeTime);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) { return true; }
+		if(!(obj instanceof BugSummary)) { return false; }
+		BugSummary other = (BugSummary)obj;
+		return id == other.id && lastChangeTime == other.lastChangeTime && equal(status, other.status)
+				&& equal(resolution, other.resolution) && equal(assignee, other.assignee) 
+				&& equal(summary, other.summary);
+	}
+	
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		int result = id;
+		result = 31 * result + (int)(lastChangeTime ^ (lastChangeTime >>> 32));
+		result = 31 * result + (status == null ? 0 : status.hashCode());
+		result = 31 * result + (summary == null ? 0 : summary.hashCode());
+		return result;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "Bug " + id + " [" + status + (resolution == null ? "" : " " + resolution) + "] " + summary;
+	}
+	
+}
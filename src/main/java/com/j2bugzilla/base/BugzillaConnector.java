@@ -17,23 +17,45 @@ package com.j2bugzilla.base;
 
 
 import com.j2bugzilla.rpc.LogIn;
+import com.j2bugzilla.rpc.LogOut;
 
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.XmlRpcRequestConfig;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
 import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.client.XmlRpcHttpClientConfig;
 import org.apache.xmlrpc.client.XmlRpcSunHttpTransport;
 import org.apache.xmlrpc.client.XmlRpcSunHttpTransportFactory;
 import org.apache.xmlrpc.client.XmlRpcTransport;
@@ -51,18 +73,109 @@ import org.apache.xmlrpc.client.XmlRpcTransportFactory;
  */
 public class BugzillaConnector {
 	
+	/**
+	 * Webservice methods without side effects, which are coalesced by default.
+	 */
+	private static final String[] READ_ONLY_METHODS = { "Bug.get", "Bug.comments", "Bug.search", 
+		"Bug.attachments", "Bug.history", "Bug.fields", "Product.get", "Product.get_accessible_products", "Bugzilla.version" };
+	
 	/**
 	 * The {@link XmlRpcClient} handles all requests to Bugzilla by transforming method names and
 	 * parameters into properly formatted XML documents, which it then transmits to the host.
 	 */
 	private XmlRpcClient client;	
 
+	/**
+	 * The client configuration each request's own configuration is copied from.
+	 */
+	private XmlRpcClientConfigImpl baseConfig;
+
+	/**
+	 * The XML-RPC endpoint of the connected installation.
+	 */
+	private URL serverURL;
+
 	/**
 	 * The token represents a login and is used in place of login cookies.
 	 * See {@link com.j2bugzilla.rpc.LogIn#getToken()}
 	 */
 	private String token;
 	
+	/**
+	 * Changes whenever the installation or the logged-in user may have changed
+	 */
+	private final AtomicLong session = new AtomicLong();
+	
+	/**
+	 * Cookies received from the installation, shared by every transport this connector creates.
+	 */
+	private final List<String> cookies = new CopyOnWriteArrayList<String>();
+	
+	/**
+	 * Optional limit on the number of requests in flight at once.
+	 */
+	private volatile ConcurrencyLimiter concurrencyLimiter;
+	
+	/**
+	 * Optional per-method rate limits, keyed by {@link BugzillaMethod#getMethodName()}.
+	 */
+	private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<String, RateLimiter>();
+	
+	/**
+	 * Optional breaker which fails requests fast while the installation is unreachable.
+	 */
+	private volatile CircuitBreaker circuitBreaker;
+	
+	/**
+	 * The longest a request may wait for a rate or concurrency permit, in nanoseconds.
+	 */
+	private volatile long queueTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+	
+	/**
+	 * Whether identical concurrent requests for read-only methods share a single HTTP call.
+	 */
+	private volatile boolean coalescing = false;
+	
+	/**
+	 * Names of the methods whose requests may be shared between callers.
+	 */
+	private final Set<String> coalescedMethods = new CopyOnWriteArraySet<String>(Arrays.asList(READ_ONLY_METHODS));
+	
+	/**
+	 * Shared requests currently in flight.
+	 */
+	private final ConcurrentMap<RequestKey, SharedCall> inFlight = new ConcurrentHashMap<RequestKey, SharedCall>();
+	
+	/**
+	 * Methods which take a single bug ID and are answered from the {@link NegativeCache}.
+	 */
+	private static final String[] BUG_LOOKUP_METHODS = { "Bug.get", "Bug.comments", "Bug.attachments", "Bug.history" };
+	
+	/**
+	 * Optional cache of bug IDs known to be missing or hidden.
+	 */
+	private volatile NegativeCache negativeCache;
+	
+	/**
+	 * Default time allowed to open a connection, in milliseconds; 0 waits indefinitely.
+	 */
+	private volatile int connectTimeoutMillis = 0;
+	
+	/**
+	 * Default time allowed to wait for response data, in milliseconds; 0 waits indefinitely.
+	 */
+	private volatile int readTimeoutMillis = 0;
+	
+	/**
+	 * Runs requests submitted through {@link #executeMethodAsync(BugzillaMethod)}; created on first use.
+	 */
+	private ExecutorService executor;
+	
+	/**
+	 * Aborts requests which run past their deadline; created on first use.
+	 */
+	private ScheduledExecutorService watchdog;
+	
 	/**
 	 * Use this method to designate a host to connect to. You must call this method 
 	 * before executing any other methods of this object.
@@ -133,6 +246,9 @@ public class BugzillaConnector {
             config.setBasicPassword(httpPasswd);
         }
         config.setServerURL(host);
+        serverURL = host;
+        baseConfig = config;
+        newSession();
 
         client = new XmlRpcClient();
         client.setConfig(config);
@@ -143,10 +259,9 @@ public class BugzillaConnector {
          */
         XmlRpcTransportFactory factory = new XmlRpcSunHttpTransportFactory(client) {
         	
-        	private final XmlRpcTransport transport = new TransportWithCookies(client);
-        	
 			public XmlRpcTransport getTransport() {
-				return transport;
+				//A transport holds the connection of a single request, so each request gets its own
+				return new TransportWithCookies(client, cookies);
 			}
 		};
 		client.setTransportFactory(factory);
@@ -162,35 +277,624 @@ public class BugzillaConnector {
 	 * @throws BugzillaException If the XML-RPC library returns a fault, a {@link BugzillaException}
 	 * with a descriptive error message for that fault will be thrown.
 	 */
-	@SuppressWarnings("unchecked")//Must cast Object from client.execute()
 	public void executeMethod(BugzillaMethod method) throws BugzillaException {
+		execute(method, newCall(-1));
+	}
+	
+	/**
+	 * Executes a method as {@link #executeMethod(BugzillaMethod)} does, but gives up once the given time
+	 * has passed. The deadline covers the whole call, including any time spent waiting for a rate limit
+	 * or concurrency permit; the connect and read timeouts of the request are shortened to fit within it.
+	 * If the deadline passes while the request is in progress, the HTTP exchange is aborted.
+	 * 
+	 * @param method A {@link BugzillaMethod} to call on the connected installation
+	 * @param timeout The maximum time the call may take.
+	 * @param unit The {@link TimeUnit} of the {@code timeout} argument.
+	 * @throws BugzillaException If the installation returns a fault, or the deadline passes.
+	 */
+	public void executeMethod(BugzillaMethod method, long timeout, TimeUnit unit) throws BugzillaException {
+		execute(method, newCall(unit.toNanos(timeout)));
+	}
+	
+	/**
+	 * Executes a method on a background thread. The returned {@link Future} yields the method itself
+	 * once its result map has been set, or throws an {@link java.util.concurrent.ExecutionException ExecutionException}
+	 * wrapping the {@link BugzillaException} raised by the call. Cancelling the {@code Future} aborts the
+	 * HTTP exchange if the request is already in progress.
+	 * 
+	 * @param method A {@link BugzillaMethod} to call on the connected installation
+	 * @return A {@code Future} completing with {@code method}.
+	 * @see #setExecutorService(ExecutorService)
+	 */
+	public <T extends BugzillaMethod> Future<T> executeMethodAsync(T method) {
+		return submit(method, newCall(-1));
+	}
+	
+	/**
+	 * Executes a method on a background thread as {@link #executeMethodAsync(BugzillaMethod)} does,
+	 * with a deadline measured from the time of submission.
+	 * 
+	 * @param method A {@link BugzillaMethod} to call on the connected installation
+	 * @param timeout The maximum time the call may take, including time spent waiting for a thread.
+	 * @param unit The {@link TimeUnit} of the {@code timeout} argument.
+	 * @return A {@code Future} completing with {@code method}.
+	 */
+	public <T extends BugzillaMethod> Future<T> executeMethodAsync(T method, long timeout, TimeUnit unit) {
+		return submit(method, newCall(unit.toNanos(timeout)));
+	}
+	
+	private <T extends BugzillaMethod> Future<T> submit(T method, CallConfig call) {
+		MethodFuture<T> future = new MethodFuture<T>(method, call);
+		getExecutor().execute(future);
+		return future;
+	}
+	
+	/**
+	 * Creates the configuration for a single request.
+	 * @param timeoutNanos The time allowed for the request, or a negative value for no deadline.
+	 */
+	private CallConfig newCall(long timeoutNanos) {
 		if(client == null) { 
 			throw new IllegalStateException("Cannot execute a method without connecting!");
 		}//We are not currently connected to an installation
+		return new CallConfig(baseConfig, timeoutNanos);
+	}
+	
+	private void execute(BugzillaMethod method, CallConfig call) throws BugzillaException {
+		String methodName = method.getMethodName();
 		Map<Object, Object> params = new HashMap<Object, Object>();
 		if (token != null) {
 			params.put("Bugzilla_token", token);
 		}
 		
 		params.putAll(method.getParameterMap());
+		
+		NegativeCache cache = negativeCache;
+		int bugId = -1;
+		if(cache != null && Arrays.asList(BUG_LOOKUP_METHODS).contains(methodName)) {
+			bugId = singleBugId(params.get("ids"));
+			int faultCode = bugId < 0 ? 0 : cache.getFaultCode(bugId);
+			if(faultCode != 0) {
+				throw XmlExceptionHandler.handleFault(new XmlRpcException(faultCode, 
+						"Bug " + bugId + " is unavailable (cached)"));
+			}
+		}
+		
+		Map<Object, Object> results;
+		try {
+			if(coalescing && coalescedMethods.contains(methodName)) {
+				results = sendShared(methodName, params, call);
+			} else {
+				results = send(methodName, params, call);
+			}
+		} catch(BugzillaException e) {
+			if(bugId >= 0 && e.getCause() instanceof XmlRpcException 
+					&& XmlExceptionHandler.isBugUnavailable((XmlRpcException)e.getCause())) {
+				cache.put(bugId, ((XmlRpcException)e.getCause()).code);
+			}
+			throw e;
+		}
+		
+		method.setResultMap(results);
+		if (method instanceof LogIn) {
+			LogIn login = (LogIn)method;
+			setToken(login.getToken());
+		} else if (method instanceof LogOut) {
+			newSession();
+		}
+	}
+	
+	/**
+	 * Extracts the bug ID from an {@code ids} parameter naming exactly one bug by number.
+	 * @return The bug ID, or -1 if the parameter names several bugs or uses an alias.
+	 */
+	private static int singleBugId(Object ids) {
+		Object id = ids;
+		if(ids instanceof Object[]) {
+			Object[] arr = (Object[])ids;
+			id = arr.length == 1 ? arr[0] : null;
+		} else if(ids instanceof int[]) {
+			int[] arr = (int[])ids;
+			return arr.length == 1 ? arr[0] : -1;
+		} else if(ids instanceof List<?>) {
+			List<?> list = (List<?>)ids;
+			id = list.size() == 1 ? list.get(0) : null;
+		}
+		return id instanceof Integer ? (Integer)id : -1;
+	}
+	
+	/**
+	 * Sends a request unless an identical one is already in flight, in which case this thread waits
+	 * for and shares its result.
+	 */
+	private Map<Object, Object> sendShared(String methodName, Map<Object, Object> params, CallConfig call) 
+			throws BugzillaException {
+		RequestKey key = new RequestKey(methodName, params);
+		while(true) {
+			SharedCall shared = new SharedCall();
+			SharedCall existing = inFlight.putIfAbsent(key, shared);
+			if(existing == null) {
+				try {
+					Map<Object, Object> results = send(methodName, params, call);
+					shared.complete(results);
+					return results;
+				} catch(BugzillaException e) {
+					//A failure caused by the leader's own deadline or cancellation is not shared
+					if(!call.isCancelled() && !call.isExpired()) {
+						shared.fail(e);
+					}
+					throw e;
+				} finally {
+					inFlight.remove(key);
+					//Followers of a cancelled or crashed call send the request themselves
+					shared.abandon();
+				}
+			}
+			
+			Map<Object, Object> results = existing.await(methodName, call);
+			if(results != null) {
+				return results;
+			}
+		}
+	}
+	
+	/**
+	 * Sends a single request to the installation, subject to the circuit breaker and any rate or
+	 * concurrency limits.
+	 * @return The read-only result map of the request.
+	 */
+	@SuppressWarnings("unchecked")//Must cast Object from client.execute()
+	private Map<Object, Object> send(String methodName, Map<Object, Object> params, final CallConfig call) 
+			throws BugzillaException {
 		Object[] obj = {params};
+		
+		CircuitBreaker breaker = circuitBreaker;
+		CircuitBreaker.Permit permit = null;
+		if(breaker != null) {
+			permit = breaker.tryAcquire();
+			if(permit == null) {
+				throw new BugzillaException("The circuit breaker for " + serverURL + " is open; "
+						+ methodName + " was not sent");
+			}
+		}
+		
+		ConcurrencyLimiter limiter = concurrencyLimiter;
 		try {
-			Object results = client.execute(method.getMethodName(), obj);
-			if(!(results instanceof Map<?, ?>)) { results = Collections.emptyMap(); }
-			Map<Object, Object> readOnlyResults = Collections.unmodifiableMap((Map<Object, Object>)results);
-			method.setResultMap(readOnlyResults);
-			if (method instanceof LogIn) {
-				LogIn login = (LogIn)method;
-				setToken(login.getToken());
+			acquirePermits(methodName, limiter, call);
+		} catch(BugzillaException e) {
+			if(permit != null) { permit.recordIgnored(); }
+			throw e;
+		}
+		
+		ScheduledFuture<?> abort = null;
+		long start = System.nanoTime();
+		boolean dropped = true;
+		boolean abandoned = false;
+		try {
+			if(call.hasDeadline()) {
+				abort = getWatchdog().schedule(new Runnable() {
+					public void run() {
+						call.cancel(true);
+					}
+				}, call.remainingNanos(), TimeUnit.NANOSECONDS);
 			}
+			call.applyTimeouts(connectTimeoutMillis, readTimeoutMillis);
+			
+			Object results = client.execute(call, methodName, obj);
+			dropped = false;
+			if(!(results instanceof Map<?, ?>)) { results = Collections.emptyMap(); }
+			return Collections.unmodifiableMap((Map<Object, Object>)results);
 		} catch (XmlRpcException e) {
+			if(call.isCancelled() && !call.isTimedOut()) {
+				abandoned = true;
+				throw new BugzillaException(methodName + " was cancelled", e);
+			}
+			dropped = XmlExceptionHandler.isTransportFailure(e);
+			if(dropped && call.isExpired()) {
+				throw new BugzillaException(methodName + " did not complete before its deadline", e);
+			}
 			BugzillaException wrapperException = XmlExceptionHandler.handleFault(e);
 			throw wrapperException;
+		} finally {
+			if(abort != null) {
+				abort.cancel(false);
+			}
+			if(limiter != null) {
+				if(abandoned) {
+					limiter.release();
+				} else {
+					limiter.release(System.nanoTime() - start, dropped);
+				}
+			}
+			if(permit != null) {
+				//Running out of the caller's own time says nothing about the installation
+				if(abandoned || call.isTimedOut() || (dropped && call.isExpired())) {
+					permit.recordIgnored();
+				} else if(dropped) {
+					permit.recordFailure();
+				} else {
+					permit.recordSuccess();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Waits for the rate limit of the named method and for a concurrency permit, if either is configured.
+	 * @param methodName The webservice method about to be called.
+	 * @param limiter The {@link ConcurrencyLimiter} in effect for this call, or null.
+	 * @param call The configuration of the call, which may bound the wait by its deadline.
+	 * @throws BugzillaException If a permit could not be obtained in time.
+	 */
+	private void acquirePermits(String methodName, ConcurrencyLimiter limiter, CallConfig call) throws BugzillaException {
+		RateLimiter rateLimiter = rateLimiters.get(methodName);
+		long wait = queueTimeoutNanos;
+		if(call.hasDeadline()) {
+			wait = Math.min(wait, call.remainingNanos());
+		}
+		try {
+			if(rateLimiter != null && !rateLimiter.acquire(wait, TimeUnit.NANOSECONDS)) {
+				throw new BugzillaException("Rate limit exceeded for " + methodName + "; the request was not sent");
+			}
+			if(call.hasDeadline()) {
+				wait = Math.min(wait, call.remainingNanos());
+			}
+			if(limiter != null && !limiter.acquire(wait, TimeUnit.NANOSECONDS)) {
+				throw new BugzillaException("Too many requests in flight; " + methodName + " was not sent");
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BugzillaException("Interrupted while waiting to send " + methodName, e);
+		}
+	}
+	
+	/**
+	 * Attaches a {@link NegativeCache} to this connector. Bug IDs the installation reports as nonexistent
+	 * or not visible are remembered, and further {@code Bug.get}, {@code Bug.comments}, 
+	 * {@code Bug.attachments} and {@code Bug.history} requests for them fail immediately until the entry
+	 * expires or is invalidated.
+	 * @param cache A {@code NegativeCache}, or null to stop caching faults.
+	 */
+	public void setNegativeCache(NegativeCache cache) {
+		negativeCache = cache;
+	}
+	
+	/**
+	 * Enables or disables request coalescing. While enabled, a request for a read-only method which
+	 * is identical to one already in flight -- the same method name and equal parameter maps -- is not
+	 * sent again; its caller waits for the in-flight request and receives the same read-only result map.
+	 * Failures are shared the same way. Coalescing is disabled by default.
+	 * @param enabled Whether to coalesce identical concurrent requests.
+	 * @see #setCoalesced(String, boolean)
+	 */
+	public void setCoalescing(boolean enabled) {
+		coalescing = enabled;
+	}
+	
+	/**
+	 * Marks a webservice method as safe to coalesce. Only methods without side effects should be
+	 * coalesced; by default these are {@code Bug.get}, {@code Bug.comments}, {@code Bug.search},
+	 * {@code Bug.attachments}, {@code Bug.history}, {@code Bug.fields}, {@code Product.get}, 
+	 * {@code Product.get_accessible_products} and {@code Bugzilla.version}.
+	 * @param methodName The name of the method, as returned by {@link BugzillaMethod#getMethodName()}.
+	 * @param coalesced Whether identical concurrent requests for this method may be shared.
+	 */
+	public void setCoalesced(String methodName, boolean coalesced) {
+		if(coalesced) {
+			coalescedMethods.add(methodName);
+		} else {
+			coalescedMethods.remove(methodName);
+		}
+	}
+	
+	/**
+	 * Sets the default time allowed to open a connection to the installation. Calls made with a deadline
+	 * use the shorter of this value and the time remaining.
+	 * @param timeout The connect timeout, or 0 to wait indefinitely (the default).
+	 * @param unit The {@link TimeUnit} of the {@code timeout} argument.
+	 */
+	public void setConnectTimeout(long timeout, TimeUnit unit) {
+		connectTimeoutMillis = toTimeoutMillis(timeout, unit);
+	}
+	
+	/**
+	 * Sets the default time allowed to wait for data from the installation once a request has been sent.
+	 * Calls made with a deadline use the shorter of this value and the time remaining.
+	 * @param timeout The read timeout, or 0 to wait indefinitely (the default).
+	 * @param unit The {@link TimeUnit} of the {@code timeout} argument.
+	 */
+	public void setReadTimeout(long timeout, TimeUnit unit) {
+		readTimeoutMillis = toTimeoutMillis(timeout, unit);
+	}
+	
+	private static int toTimeoutMillis(long timeout, TimeUnit unit) {
+		if(timeout < 0) { throw new IllegalArgumentException("Timeout cannot be negative"); }
+		long millis = unit.toMillis(timeout);
+		if(millis == 0 && timeout > 0) { return 1; }//Zero would mean no timeout at all
+		return (int)Math.min(Integer.MAX_VALUE, millis);
+	}
+	
+	/**
+	 * Sets the {@link ExecutorService} used to run methods passed to {@link #executeMethodAsync(BugzillaMethod)}.
+	 * By default, a cached pool of daemon threads is created on first use.
+	 * @param executorService An {@code ExecutorService} owned by the caller.
+	 */
+	public synchronized void setExecutorService(ExecutorService executorService) {
+		executor = executorService;
+	}
+	
+	private synchronized ExecutorService getExecutor() {
+		if(executor == null) {
+			executor = Executors.newCachedThreadPool(new DaemonThreadFactory("j2bugzilla-async"));
+		}
+		return executor;
+	}
+	
+	private synchronized ScheduledExecutorService getWatchdog() {
+		if(watchdog == null) {
+			watchdog = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("j2bugzilla-deadline"));
+		}
+		return watchdog;
+	}
+	
+	/**
+	 * Limits the number of requests this connector sends concurrently. Requests beyond the limit wait
+	 * for up to the {@link #setQueueTimeout(long, TimeUnit) queue timeout} before failing.
+	 * @param limiter A {@link ConcurrencyLimiter}, or null to remove any limit.
+	 */
+	public void setConcurrencyLimiter(ConcurrencyLimiter limiter) {
+		concurrencyLimiter = limiter;
+	}
+	
+	/**
+	 * Guards this connector with a {@link CircuitBreaker}. While the breaker is open,
+	 * {@link #executeMethod(BugzillaMethod)} fails immediately with a {@link BugzillaException}
+	 * rather than waiting for the unreachable installation to time out.
+	 * @param breaker A {@code CircuitBreaker} for the connected host, or null to remove it.
+	 */
+	public void setCircuitBreaker(CircuitBreaker breaker) {
+		circuitBreaker = breaker;
+	}
+	
+	/**
+	 * Limits the rate at which a particular webservice method is called through this connector.
+	 * Requests beyond the rate wait for up to the {@link #setQueueTimeout(long, TimeUnit) queue timeout}
+	 * before failing.
+	 * @param methodName The name of the method to limit, as returned by {@link BugzillaMethod#getMethodName()}.
+	 * @param limiter A {@link RateLimiter}, or null to remove the limit for this method.
+	 */
+	public void setRateLimiter(String methodName, RateLimiter limiter) {
+		if(limiter == null) {
+			rateLimiters.remove(methodName);
+		} else {
+			rateLimiters.put(methodName, limiter);
 		}
 	}
+	
+	/**
+	 * Sets the longest a request may wait for a rate limit or concurrency permit before
+	 * {@link #executeMethod(BugzillaMethod)} gives up with a {@link BugzillaException}. Defaults to 30 seconds.
+	 * @param timeout The maximum wait.
+	 * @param unit The {@link TimeUnit} of the {@code timeout} argument.
+	 */
+	public void setQueueTimeout(long timeout, TimeUnit unit) {
+		queueTimeoutNanos = unit.toNanos(timeout);
+	}
 
 	public void setToken(String t) {
 		token = t;
+		newSession();
+	}
+	
+	/**
+	 * Starts a new session after the installation or login changes. Bugs hidden from the previous
+	 * user may be visible now, and the other way round, so cached faults are dropped.
+	 */
+	private void newSession() {
+		session.incrementAndGet();
+		NegativeCache cache = negativeCache;
+		if(cache != null) {
+			cache.invalidateAll();
+		}
+	}
+	
+	/**
+	 * Returns a number identifying the installation and login this connector currently uses. It changes
+	 * whenever the connector connects, a {@link LogIn} or {@link LogOut} is executed, or the token is set,
+	 * so that results cached for one user can be told apart from those of the next.
+	 * @return The current session number.
+	 */
+	public long getSession() {
+		return session.get();
+	}
+	
+	/**
+	 * The client configuration of a single request. Besides the per-request timeouts, it tracks the
+	 * request's deadline and the connection in use, so that the exchange can be aborted from another thread.
+	 */
+	private static final class CallConfig extends XmlRpcClientConfigImpl {
+		
+		private static final long serialVersionUID = 3504393441256720376L;
+		
+		private final boolean hasDeadline;
+		
+		private final long deadline;
+		
+		private transient URLConnection connection;
+		
+		private volatile boolean cancelled = false;
+		
+		private volatile boolean timedOut = false;
+		
+		CallConfig(XmlRpcClientConfigImpl base, long timeoutNanos) {
+			setServerURL(base.getServerURL());
+			setBasicUserName(base.getBasicUserName());
+			setBasicPassword(base.getBasicPassword());
+			hasDeadline = timeoutNanos >= 0;
+			deadline = System.nanoTime() + Math.max(timeoutNanos, 0);
+		}
+		
+		boolean hasDeadline() {
+			return hasDeadline;
+		}
+		
+		long remainingNanos() {
+			return deadline - System.nanoTime();
+		}
+		
+		boolean isExpired() {
+			return hasDeadline && remainingNanos() <= 0;
+		}
+		
+		/**
+		 * Sets the connect and reply timeouts from the connector defaults, shortened to fit the deadline.
+		 */
+		void applyTimeouts(int connectMillis, int readMillis) {
+			int connect = connectMillis;
+			int read = readMillis;
+			if(hasDeadline) {
+				int remaining = toTimeoutMillis(Math.max(remainingNanos(), 1), TimeUnit.NANOSECONDS);
+				connect = connect == 0 ? remaining : Math.min(connect, remaining);
+				read = read == 0 ? remaining : Math.min(read, remaining);
+			}
+			setConnectionTimeout(connect);
+			setReplyTimeout(read);
+		}
+		
+		/**
+		 * Records the connection carrying this request, so that {@link #cancel(boolean)} can close it.
+		 * @throws IOException If the request has already been cancelled.
+		 */
+		synchronized void attach(URLConnection conn) throws IOException {
+			if(cancelled) { throw new IOException("Request was cancelled before it was sent"); }
+			connection = conn;
+		}
+		
+		/**
+		 * Aborts this request, closing its connection if it is already open.
+		 * @param deadlinePassed {@code true} if the request is aborted because its deadline passed.
+		 */
+		void cancel(boolean deadlinePassed) {
+			URLConnection conn;
+			synchronized(this) {
+				if(cancelled) { return; }
+				timedOut = deadlinePassed;
+				cancelled = true;
+				conn = connection;
+			}
+			if(conn instanceof HttpURLConnection) {
+				((HttpURLConnection)conn).disconnect();
+			}
+		}
+		
+		boolean isCancelled() {
+			return cancelled;
+		}
+		
+		boolean isTimedOut() {
+			return timedOut;
+		}
+	}
+	
+	/**
+	 * The outcome of a request shared between several callers by request coalescing.
+	 */
+	private static final class SharedCall {
+		
+		private final CountDownLatch done = new CountDownLatch(1);
+		
+		private Map<Object, Object> results;
+		
+		private BugzillaException failure;
+		
+		void complete(Map<Object, Object> results) {
+			this.results = results;
+			done.countDown();
+		}
+		
+		void fail(BugzillaException failure) {
+			this.failure = failure;
+			done.countDown();
+		}
+		
+		/**
+		 * Releases any followers without an outcome, if the call neither completed nor failed.
+		 */
+		void abandon() {
+			done.countDown();
+		}
+		
+		/**
+		 * Waits for the shared call to finish, within the deadline of the waiting caller's own call.
+		 * @return The shared result map, or null if the call was abandoned and must be sent again.
+		 * @throws BugzillaException If the shared call failed, or the wait was interrupted or timed out.
+		 */
+		Map<Object, Object> await(String methodName, CallConfig call) throws BugzillaException {
+			try {
+				if(call.hasDeadline()) {
+					if(!done.await(call.remainingNanos(), TimeUnit.NANOSECONDS)) {
+						throw new BugzillaException(methodName + " did not complete before its deadline");
+					}
+				} else {
+					done.await();
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BugzillaException("Interrupted while waiting for a shared " + methodName + " request", e);
+			}
+			if(failure != null) {
+				throw new BugzillaException(failure.getMessage(), failure.getCause());
+			}
+			return results;
+		}
+	}
+	
+	/**
+	 * A {@link FutureTask} which aborts the HTTP exchange of its request when cancelled.
+	 */
+	private final class MethodFuture<T extends BugzillaMethod> extends FutureTask<T> {
+		
+		private final CallConfig call;
+		
+		MethodFuture(final T method, final CallConfig call) {
+			super(new Callable<T>() {
+				public T call() throws BugzillaException {
+					execute(method, call);
+					return method;
+				}
+			});
+			this.call = call;
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if(cancelled) {
+				call.cancel(false);
+			}
+			return cancelled;
+		}
+	}
+	
+	/**
+	 * Creates the daemon threads used for asynchronous execution, so that an idle connector
+	 * never keeps the JVM alive.
+	 */
+	private static final class DaemonThreadFactory implements ThreadFactory {
+		
+		private final AtomicInteger count = new AtomicInteger();
+		
+		private final String prefix;
+		
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+		
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
 	}
 	
 	/**
@@ -207,20 +911,44 @@ public class BugzillaConnector {
 		/**
 		 * A {@code List} of cookies received from the installation, used for authentication
 		 */
-		private List<String> cookies = new ArrayList<String>();
+		private final List<String> cookies;
 		
 		/**
 		 * Creates a new {@link TransportWithCookies} object.
 		 * @param pClient The {@link XmlRpcClient} that does the heavy lifting.
+		 * @param cookies The cookie store shared by all transports of a connector.
 		 */
-		public TransportWithCookies(XmlRpcClient pClient) {
+		public TransportWithCookies(XmlRpcClient pClient, List<String> cookies) {
 			super(pClient);
+			this.cookies = cookies;
 		}
 		
 		private URLConnection conn;
 		
+		/**
+		 * The configuration of the request this transport is sending
+		 */
+		private XmlRpcRequestConfig requestConfig;
+		
+		public Object sendRequest(XmlRpcRequest request) throws XmlRpcException {
+			requestConfig = request.getConfig();
+			return super.sendRequest(request);
+		}
+		
+		/**
+		 * The Sun transport ignores the configured timeouts, so they are applied here along with
+		 * registering the connection with its request for cancellation.
+		 */
 		protected URLConnection newURLConnection(URL pURL) throws IOException {
             conn = super.newURLConnection(pURL);
+            if(requestConfig instanceof XmlRpcHttpClientConfig) {
+            	XmlRpcHttpClientConfig httpConfig = (XmlRpcHttpClientConfig)requestConfig;
+            	conn.setConnectTimeout(httpConfig.getConnectionTimeout());
+            	conn.setReadTimeout(httpConfig.getReplyTimeout());
+            }
+            if(requestConfig instanceof CallConfig) {
+            	((CallConfig)requestConfig).attach(conn);
+            }
             return conn;
 		}
 		
@@ -253,16 +981,14 @@ public class BugzillaConnector {
 		 * @param conn
 		 */
 		private void getCookies(URLConnection conn) {
-	    	  if(cookies.size()==0) {
-	    		  Map<String, List<String>> headers = conn.getHeaderFields();
-	    		  if(headers.containsKey("Set-Cookie")) {//avoid NPE
-	    			  List<String> vals = headers.get("Set-Cookie");
-			    	  for(String str : vals) {
-			    		  cookies.add(str);
-			    	  }
-	    		  }					    	  
-	    	  }
-	    	  
+			synchronized(cookies) {
+				if(cookies.size()==0) {
+					Map<String, List<String>> headers = conn.getHeaderFields();
+					if(headers.containsKey("Set-Cookie")) {//avoid NPE
+						cookies.addAll(headers.get("Set-Cookie"));
+					}
+				}
+			}
 	    }
 		
 	}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code CircuitBreaker} stops a {@link BugzillaConnector} from sending requests to an installation
+ * which is not responding. It watches the outcome of the most recent requests; once the share of requests
+ * which failed to reach the server passes a threshold, the breaker <em>opens</em> and every further request
+ * fails immediately with a {@link BugzillaException} instead of waiting for a network timeout.
+ * 
+ * After a cool-down period the breaker becomes <em>half-open</em> and lets a small number of trial
+ * requests through. If they all succeed the breaker closes again; if any of them fails it re-opens for
+ * another cool-down period.
+ * 
+ * Only failures to talk to the installation count against the breaker. A fault returned by Bugzilla,
+ * such as a request for a nonexistent bug, shows that the server is up and counts as a success. A request
+ * abandoned because its own deadline passed or it was cancelled counts neither way.
+ * 
+ * A breaker describes the health of one host. Connectors talking to the same host may share a breaker.
+ * This class is thread-safe.
+ * 
+ * @see BugzillaConnector#setCircuitBreaker(CircuitBreaker)
+ */
+public class CircuitBreaker {
+
+	/**
+	 * The {@code State} enum describes whether a {@link CircuitBreaker} is currently letting requests through.
+	 */
+	public enum State {
+		/**
+		 * Requests are sent normally and their outcomes are recorded.
+		 */
+		CLOSED,
+		
+		/**
+		 * Requests fail immediately without being sent.
+		 */
+		OPEN,
+		
+		/**
+		 * A limited number of trial requests are sent to probe whether the installation has recovered.
+		 */
+		HALF_OPEN
+	}
+	
+	private static final double DEFAULT_FAILURE_RATE = 0.5;
+	private static final int DEFAULT_WINDOW_SIZE = 20;
+	private static final int DEFAULT_MINIMUM_CALLS = 10;
+	private static final long DEFAULT_OPEN_MILLIS = 30000;
+	private static final int DEFAULT_TRIAL_CALLS = 3;
+	
+	private final double failureRateThreshold;
+	
+	private final int minimumCalls;
+	
+	private final long openNanos;
+	
+	private final int trialCalls;
+	
+	private final List<CircuitBreakerListener> listeners = new CopyOnWriteArrayList<CircuitBreakerListener>();
+	
+	/**
+	 * Outcomes of the most recent requests, used as a ring buffer; {@code true} marks a failure
+	 */
+	private final boolean[] window;
+	
+	private int windowPos = 0;
+	
+	private int recorded = 0;
+	
+	private int failures = 0;
+	
+	private State state = State.CLOSED;
+	
+	private long openedAt;
+	
+	private int trialsStarted = 0;
+	
+	private int trialsSucceeded = 0;
+	
+	/**
+	 * Incremented on every change of state, so that outcomes of requests admitted before it can be ignored
+	 */
+	private long generation = 0;
+	
+	/**
+	 * Transitions not yet reported to listeners, oldest first
+	 */
+	private final Queue<State[]> pendingTransitions = new LinkedList<State[]>();
+	
+	private boolean delivering = false;
+	
+	/**
+	 * Creates a new {@link CircuitBreaker} which opens once half of the last 20 requests have failed,
+	 * stays open for 30 seconds, and then closes after 3 successful trial requests.
+	 */
+	public CircuitBreaker() {
+		this(DEFAULT_FAILURE_RATE, DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_OPEN_MILLIS, 
+				TimeUnit.MILLISECONDS, DEFAULT_TRIAL_CALLS);
+	}
+	
+	/**
+	 * Creates a new {@link CircuitBreaker} with the given thresholds.
+	 * @param failureRateThreshold The share of failed requests, between 0 and 1, at which the breaker opens.
+	 * @param windowSize The number of most recent requests the failure rate is computed over.
+	 * @param minimumCalls The number of requests which must be recorded before the breaker may open.
+	 * @param openDuration How long the breaker stays open before allowing trial requests.
+	 * @param unit The {@link TimeUnit} of the {@code openDuration} argument.
+	 * @param trialCalls The number of trial requests which must succeed for a half-open breaker to close.
+	 */
+	public CircuitBreaker(double failureRateThreshold, int windowSize, int minimumCalls, long openDuration,
+			TimeUnit unit, int trialCalls) {
+		if(failureRateThreshold <= 0 || failureRateThreshold > 1) {
+			throw new IllegalArgumentException("Failure rate threshold must lie in (0, 1]");
+		}
+		if(windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+			throw new IllegalArgumentException("Minimum calls must lie between 1 and the window size");
+		}
+		if(trialCalls < 1) { throw new IllegalArgumentException("At least one trial call is required"); }
+		this.failureRateThreshold = failureRateThreshold;
+		this.window = new boolean[windowSize];
+		this.minimumCalls = minimumCalls;
+		this.openNanos = unit.toNanos(openDuration);
+		this.trialCalls = trialCalls;
+	}
+	
+	/**
+	 * Decides whether a request may be sent now. Every request allowed through must later be reported
+	 * exactly once, with one of {@link Permit#recordSuccess()}, {@link Permit#recordFailure()} or
+	 * {@link Permit#recordIgnored()} on the returned {@link Permit}.
+	 * @return A {@code Permit} if the request may be sent, or null if it should fail immediately.
+	 */
+	public Permit tryAcquire() {
+		Permit permit;
+		synchronized(this) {
+			if(state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+				transition(State.HALF_OPEN);
+				trialsStarted = 0;
+				trialsSucceeded = 0;
+			}
+			if(state == State.CLOSED) {
+				permit = new Permit(generation);
+			} else if(state == State.HALF_OPEN && trialsStarted < trialCalls) {
+				trialsStarted++;
+				permit = new Permit(generation);
+			} else {
+				permit = null;
+			}
+		}
+		deliverTransitions();
+		return permit;
+	}
+	
+	private void recordSuccess(Permit permit) {
+		synchronized(this) {
+			if(permit.generation != generation) { return; }
+			if(state == State.HALF_OPEN) {
+				trialsSucceeded++;
+				if(trialsSucceeded >= trialCalls) {
+					transition(State.CLOSED);
+					resetWindow();
+				}
+			} else if(state == State.CLOSED) {
+				record(false);
+			}
+		}
+		deliverTransitions();
+	}
+	
+	private void recordFailure(Permit permit) {
+		synchronized(this) {
+			if(permit.generation != generation) { return; }
+			if(state == State.HALF_OPEN) {
+				open();
+			} else if(state == State.CLOSED) {
+				record(true);
+				if(recorded >= minimumCalls && failures >= failureRateThreshold * recorded) {
+					open();
+				}
+			}
+		}
+		deliverTransitions();
+	}
+	
+	private synchronized void recordIgnored(Permit permit) {
+		if(permit.generation == generation && state == State.HALF_OPEN && trialsStarted > 0) {
+			trialsStarted--;
+		}
+	}
+	
+	/**
+	 * Returns the current {@link State} of this breaker.
+	 * @return The breaker state.
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+	
+	/**
+	 * Registers a listener to be notified of every change of {@link State}.
+	 * @param listener A {@link CircuitBreakerListener}.
+	 */
+	public void addListener(CircuitBreakerListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Unregisters a listener previously passed to {@link #addListener(CircuitBreakerListener)}.
+	 * @param listener A {@link CircuitBreakerListener}.
+	 */
+	public void removeListener(CircuitBreakerListener listener) {
+		listeners.remove(listener);
+	}
+	
+	private void record(boolean failure) {
+		if(recorded == window.length) {
+			if(window[windowPos]) { failures--; }
+		} else {
+			recorded++;
+		}
+		window[windowPos] = failure;
+		if(failure) { failures++; }
+		windowPos = (windowPos + 1) % window.length;
+	}
+	
+	private void resetWindow() {
+		windowPos = 0;
+		recorded = 0;
+		failures = 0;
+	}
+	
+	private void open() {
+		transition(State.OPEN);
+		openedAt = System.nanoTime();
+		resetWindow();
+	}
+	
+	/**
+	 * Changes state and queues the transition for {@link #deliverTransitions()}. Must hold the lock.
+	 */
+	private void transition(State to) {
+		pendingTransitions.add(new State[] {state, to});
+		state = to;
+		generation++;
+	}
+	
+	/**
+	 * Notifies listeners of queued transitions. Called outside the lock so listeners may query the breaker;
+	 * only one thread delivers at a time, so that transitions are reported in the order they happened.
+	 */
+	private void deliverTransitions() {
+		synchronized(this) {
+			if(delivering || pendingTransitions.isEmpty()) { return; }
+			delivering = true;
+		}
+		boolean done = false;
+		try {
+			while(true) {
+				State[] transition;
+				synchronized(this) {
+					transition = pendingTransitions.poll();
+					if(transition == null) {
+						delivering = false;
+						done = true;
+						return;
+					}
+				}
+				for(CircuitBreakerListener listener : listeners) {
+					listener.stateChanged(this, transition[0], transition[1]);
+				}
+			}
+		} finally {
+			if(!done) {
+				synchronized(this) {
+					delivering = false;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * A {@code Permit} is handed out by {@link CircuitBreaker#tryAcquire()} for each request allowed through,
+	 * and is used to report the outcome of that request. Outcomes reported after the breaker has changed
+	 * {@link State} since the permit was issued are ignored, so that, for example, a slow request admitted
+	 * while the breaker was closed is not counted as a trial once it has become half-open.
+	 */
+	public final class Permit {
+		
+		private final long generation;
+		
+		private boolean reported = false;
+		
+		private Permit(long generation) {
+			this.generation = generation;
+		}
+		
+		/**
+		 * Records that the request received a response from the installation.
+		 */
+		public void recordSuccess() {
+			if(markReported()) { CircuitBreaker.this.recordSuccess(this); }
+		}
+		
+		/**
+		 * Records that the request failed to reach the installation.
+		 */
+		public void recordFailure() {
+			if(markReported()) { CircuitBreaker.this.recordFailure(this); }
+		}
+		
+		/**
+		 * Records that the request was never sent, or was abandoned by the client because of its own
+		 * deadline or a cancellation, so that it counts neither for nor against the installation.
+		 */
+		public void recordIgnored() {
+			if(markReported()) { CircuitBreaker.this.recordIgnored(this); }
+		}
+		
+		private synchronized boolean markReported() {
+			if(reported) { return false; }
+			reported = true;
+			return true;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import com.j2bugzilla.base.CircuitBreaker.State;
+
+/**
+ * A {@code CircuitBreakerListener} is notified whenever a {@link CircuitBreaker} changes {@link State}.
+ * Transitions are reported one at a time and in the order they happened, on the thread of a request which
+ * caused one of them, so listeners should return quickly.
+ */
+public interface CircuitBreakerListener {
+
+	/**
+	 * Called after a {@link CircuitBreaker} has moved from one {@link State} to another.
+	 * @param breaker The {@code CircuitBreaker} which changed state.
+	 * @param from The previous state.
+	 * @param to The new state.
+	 */
+	void stateChanged(CircuitBreaker breaker, State from, State to);
+	
+}
@@ -15,6 +15,8 @@
  */
 package com.j2bugzilla.base;
 
+import java.util.Date;
+
 /**
  * The {@code Comment} class represents a comment entered for a particular
  * {@link Bug} in a Bugzilla installation. Each comment has a unique ID, and
@@ -35,14 +37,51 @@ public class Comment {
 	 */
 	private final String text;
 	
+	/**
+	 * The ID of the {@link Bug} this {@link Comment} belongs to
+	 */
+	private final int bugId;
+	
+	/**
+	 * The login name of the user who wrote this {@link Comment}
+	 */
+	private final String creator;
+	
+	/**
+	 * When this {@link Comment} was made
+	 */
+	private final Date time;
+	
+	/**
+	 * Whether this {@link Comment} is visible only to the insider group
+	 */
+	private final boolean isPrivate;
+	
 	/**
 	 * Creates a new {@link Comment} from a Bugzilla installation
 	 * @param id The unique ID of this comment
 	 * @param text The text content of this comment
 	 */
 	public Comment(int id, String text) {
+		this(id, -1, text, null, null, false);
+	}
+	
+	/**
+	 * Creates a new {@link Comment} from a Bugzilla installation, with the details of who made it and when
+	 * @param id The unique ID of this comment
+	 * @param bugId The ID of the bug this comment belongs to
+	 * @param text The text content of this comment
+	 * @param creator The login name of the comment's author
+	 * @param time When the comment was made
+	 * @param isPrivate Whether the comment is private
+	 */
+	public Comment(int id, int bugId, String text, String creator, Date time, boolean isPrivate) {
 		this.id = id;
+		this.bugId = bugId;
 		this.text = text;
+		this.creator = creator;
+		this.time = time == null ? null : new Date(time.getTime());
+		this.isPrivate = isPrivate;
 	}
 	
 	/**
@@ -50,8 +89,7 @@ public class Comment {
 	 * @param text The text content of this comment
 	 */
 	public Comment(String text) {
-		this.id = -1;
-		this.text = text;
+		this(-1, text);
 	}
 	
 	/**
@@ -68,5 +106,32 @@ public class Comment {
 		return text;
 	}
 	
+	/**
+	 * @return The ID of the {@link Bug} this {@link Comment} belongs to, or -1 if it is not known
+	 */
+	public int getBugID() {
+		return bugId;
+	}
+	
+	/**
+	 * @return The login name of the author of this {@link Comment}, or null if it is not known
+	 */
+	public String getCreator() {
+		return creator;
+	}
+	
+	/**
+	 * @return When this {@link Comment} was made, or null if it is not known
+	 */
+	public Date getTime() {
+		return time == null ? null : new Date(time.getTime());
+	}
+	
+	/**
+	 * @return Whether this {@link Comment} is private to the installation's insider group
+	 */
+	public boolean isPrivate() {
+		return isPrivate;
+	}
 	
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@code ConcurrencyLimiter} bounds the number of requests a {@link BugzillaConnector} may have
+ * in flight against its installation at any one time. The limit is not fixed: it is adjusted after
+ * every request from the observed latency using an additive-increase, multiplicative-decrease (AIMD)
+ * scheme. While latency stays close to the best latency seen so far the limit grows slowly; once
+ * latency climbs past a tolerance, or a request fails at the transport level, the limit is cut back.
+ * This keeps the number of concurrent requests near what the server can actually handle.
+ *
+ * Requests which cannot obtain a permit immediately wait in a bounded queue. A request is rejected
+ * when the queue is full, or when it could not obtain a permit within the allowed wait time.
+ *
+ * This class is thread-safe.
+ */
+public class ConcurrencyLimiter {
+
+	private static final int DEFAULT_MIN_LIMIT = 1;
+	private static final int DEFAULT_INITIAL_LIMIT = 10;
+	private static final int DEFAULT_MAX_LIMIT = 100;
+	private static final int DEFAULT_MAX_QUEUED = 1000;
+
+	/**
+	 * Fraction of the current limit kept after a congestion signal
+	 */
+	private static final double BACKOFF_RATIO = 0.75;
+
+	/**
+	 * A latency sample above this multiple of the baseline latency is taken as a sign of congestion
+	 */
+	private static final double LATENCY_TOLERANCE = 2.0;
+
+	/**
+	 * How quickly the baseline latency drifts upward towards slower samples, so that a permanent
+	 * change in server speed is eventually accepted as the new normal
+	 */
+	private static final double BASELINE_DRIFT = 0.01;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final int maxQueued;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition permitReleased = lock.newCondition();
+
+	private double limit;
+
+	private int inFlight = 0;
+
+	private int queued = 0;
+
+	/**
+	 * The best recent latency in nanoseconds, or 0 before the first sample
+	 */
+	private double baselineNanos = 0;
+
+	/**
+	 * Creates a new {@link ConcurrencyLimiter} with default bounds: the limit starts at 10 concurrent
+	 * requests and may range between 1 and 100, with at most 1000 requests waiting.
+	 */
+	public ConcurrencyLimiter() {
+		this(DEFAULT_MIN_LIMIT, DEFAULT_INITIAL_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_MAX_QUEUED);
+	}
+
+	/**
+	 * Creates a new {@link ConcurrencyLimiter} with the given bounds.
+	 * @param minLimit The lowest the limit may fall, at least 1.
+	 * @param initialLimit The limit used before any latency has been observed.
+	 * @param maxLimit The highest the limit may grow.
+	 * @param maxQueued The maximum number of requests allowed to wait for a permit.
+	 */
+	public ConcurrencyLimiter(int minLimit, int initialLimit, int maxLimit, int maxQueued) {
+		if(minLimit < 1) { throw new IllegalArgumentException("Minimum limit must be at least 1"); }
+		if(initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("Initial limit must lie between the minimum and maximum limits");
+		}
+		if(maxQueued < 0) { throw new IllegalArgumentException("Queue length cannot be negative"); }
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.maxQueued = maxQueued;
+		this.limit = initialLimit;
+	}
+
+	/**
+	 * Obtains a permit to send a request, waiting up to the given time for one to become available.
+	 * Every successful call must be matched by exactly one call to {@link #release(long, boolean)}.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The {@link TimeUnit} of the {@code timeout} argument.
+	 * @return {@code true} if a permit was obtained, or {@code false} if the queue was full or the wait timed out.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting.
+	 */
+	public boolean acquire(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			if(queued == 0 && inFlight < currentLimit()) {
+				inFlight++;
+				return true;
+			}
+			if(queued >= maxQueued) { return false; }
+
+			queued++;
+			try {
+				while(inFlight >= currentLimit()) {
+					if(nanos <= 0) { return false; }
+					nanos = permitReleased.awaitNanos(nanos);
+				}
+				inFlight++;
+				return true;
+			} finally {
+				queued--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a permit obtained from {@link #acquire(long, TimeUnit)} and feeds the outcome of the
+	 * request into the limit calculation.
+	 * @param latencyNanos How long the request took, in nanoseconds.
+	 * @param dropped {@code true} if the request failed without a response from the server, for
+	 * example because of a timeout or a refused connection.
+	 */
+	public void release(long latencyNanos, boolean dropped) {
+		lock.lock();
+		try {
+			boolean saturated = inFlight >= currentLimit() / 2;
+			inFlight--;
+
+			if(dropped) {
+				decrease();
+			} else {
+				if(baselineNanos == 0 || latencyNanos < baselineNanos) {
+					baselineNanos = latencyNanos;
+				} else {
+					baselineNanos += (latencyNanos - baselineNanos) * BASELINE_DRIFT;
+				}
+
+				if(latencyNanos > baselineNanos * LATENCY_TOLERANCE) {
+					decrease();
+				} else if(saturated) {
+					//Only grow while the current limit is actually in use
+					limit = Math.min(maxLimit, limit + 1.0 / limit);
+				}
+			}
+			permitReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a permit obtained from {@link #acquire(long, TimeUnit)} for a request which was abandoned
+	 * by its caller, without feeding its outcome into the limit calculation.
+	 */
+	public void release() {
+		lock.lock();
+		try {
+			inFlight--;
+			permitReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void decrease() {
+		limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+	}
+
+	private int currentLimit() {
+		return (int)limit;
+	}
+
+	/**
+	 * Returns the current number of requests allowed in flight at once.
+	 * @return The current concurrency limit.
+	 */
+	public int getLimit() {
+		lock.lock();
+		try {
+			return currentLimit();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of requests currently holding a permit.
+	 * @return The number of requests in flight.
+	 */
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of requests currently waiting for a permit.
+	 * @return The number of queued requests.
+	 */
+	public int getQueued() {
+		lock.lock();
+		try {
+			return queued;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A {@code HistoryEntry} is one change set from the activity log of a {@link Bug}: the fields a
+ * single user changed at a single time. Each changed field is described by a {@link FieldChange}.
+ */
+public class HistoryEntry {
+
+	/**
+	 * The login name of the user who made the change
+	 */
+	private final String who;
+	
+	/**
+	 * When the change was made, in milliseconds since the epoch
+	 */
+	private final long when;
+	
+	private final FieldChange[] changes;
+	
+	/**
+	 * Creates a new {@link HistoryEntry}.
+	 * @param who The login name of the user who made the change
+	 * @param when When the change was made
+	 * @param changes The fields which were changed
+	 */
+	public HistoryEntry(String who, Date when, FieldChange... changes) {
+		this.who = who;
+		this.when = when.getTime();
+		this.changes = changes.clone();
+	}
+	
+	/**
+	 * @return The login name of the user who made this change
+	 */
+	public String getWho() {
+		return who;
+	}
+	
+	/**
+	 * @return When this change was made
+	 */
+	public Date getWhen() {
+		return new Date(when);
+	}
+	
+	/**
+	 * @return The fields changed in this change set
+	 */
+	public List<FieldChange> getChanges() {
+		return Collections.unmodifiableList(Arrays.asList(changes));
+	}
+	
+	/**
+	 * A {@code FieldChange} records the values removed from and added to one field of a {@link Bug}.
+	 * For multi-valued fields such as CC, several values may be listed, separated by commas.
+	 */
+	public static class FieldChange {
+		
+		private final String fieldName;
+		
+		private final String removed;
+		
+		private final String added;
+		
+		private final int attachmentId;
+		
+		/**
+		 * Creates a new {@link FieldChange}.
+		 * @param fieldName The name of the field which changed
+		 * @param removed The values removed, or an empty string
+		 * @param added The values added, or an empty string
+		 * @param attachmentId The ID of the attachment changed, or -1 if the change was to the bug itself
+		 */
+		public FieldChange(String fieldName, String removed, String added, int attachmentId) {
+			this.fieldName = fieldName;
+			this.removed = removed;
+			this.added = added;
+			this.attachmentId = attachmentId;
+		}
+		
+		/**
+		 * @return The name of the field which changed
+		 */
+		public String getFieldName() {
+			return fieldName;
+		}
+		
+		/**
+		 * @return The values removed from the field, or an empty string
+		 */
+		public String getRemoved() {
+			return removed;
+		}
+		
+		/**
+		 * @return The values added to the field, or an empty string
+		 */
+		public String getAdded() {
+			return added;
+		}
+		
+		/**
+		 * @return The ID of the {@link Attachment} whose field changed, or -1 for a change to the bug itself
+		 */
+		public int getAttachmentID() {
+			return attachmentId;
+		}
+	}
+	
+}
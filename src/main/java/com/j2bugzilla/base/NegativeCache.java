@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code NegativeCache} remembers, for a short time, which bug IDs the installation reported as
+ * nonexistent or not visible to the current user. While a bug ID is cached, a {@link BugzillaConnector}
+ * fails requests for it from {@link com.j2bugzilla.rpc.GetBug GetBug},
+ * {@link com.j2bugzilla.rpc.BugComments BugComments}, {@link com.j2bugzilla.rpc.GetAttachments GetAttachments}
+ * and {@link com.j2bugzilla.rpc.BugHistory BugHistory} immediately, with the same {@link BugzillaException}
+ * the installation produced, instead of sending them.
+ * 
+ * The cache holds a bounded number of entries, evicting the least recently used one when full.
+ * Entries expire after a fixed time; they can also be removed explicitly with {@link #invalidate(int)}
+ * or {@link #invalidateAll()}, for example after creating a bug or changing its visibility. Logging in or
+ * out, setting a token or connecting to another installation through the connector clears the cache,
+ * since it changes which bugs can be seen.
+ * 
+ * This class is thread-safe.
+ * 
+ * @see BugzillaConnector#setNegativeCache(NegativeCache)
+ */
+public class NegativeCache {
+
+	private static final int DEFAULT_MAX_ENTRIES = 10000;
+	
+	private static final long DEFAULT_TTL_SECONDS = 60;
+	
+	private final long ttlNanos;
+	
+	private final Map<Integer, CachedFault> entries;
+	
+	/**
+	 * Creates a new {@link NegativeCache} holding up to 10000 bug IDs for one minute each.
+	 */
+	public NegativeCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_SECONDS, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Creates a new {@link NegativeCache}.
+	 * @param maxEntries The maximum number of bug IDs to remember.
+	 * @param ttl How long each bug ID is remembered.
+	 * @param unit The {@link TimeUnit} of the {@code ttl} argument.
+	 */
+	public NegativeCache(final int maxEntries, long ttl, TimeUnit unit) {
+		if(maxEntries < 1) { throw new IllegalArgumentException("Cache must hold at least one entry"); }
+		this.ttlNanos = unit.toNanos(ttl);
+		this.entries = new LinkedHashMap<Integer, CachedFault>(16, 0.75f, true) {
+			private static final long serialVersionUID = -1887003478126785815L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, CachedFault> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the fault code cached for a bug ID.
+	 * @param bugId The ID of a bug.
+	 * @return The Bugzilla fault code returned for that bug, or 0 if none is cached.
+	 */
+	public synchronized int getFaultCode(int bugId) {
+		CachedFault entry = entries.get(bugId);
+		if(entry == null) { return 0; }
+		if(System.nanoTime() - entry.cachedAt >= ttlNanos) {
+			entries.remove(bugId);
+			return 0;
+		}
+		return entry.faultCode;
+	}
+	
+	/**
+	 * Records that the installation returned a fault for a bug ID.
+	 * @param bugId The ID of a bug.
+	 * @param faultCode The Bugzilla fault code returned for it.
+	 */
+	public synchronized void put(int bugId, int faultCode) {
+		entries.put(bugId, new CachedFault(faultCode, System.nanoTime()));
+	}
+	
+	/**
+	 * Forgets any fault cached for a bug ID, so the next request for it is sent to the installation.
+	 * @param bugId The ID of a bug.
+	 */
+	public synchronized void invalidate(int bugId) {
+		entries.remove(bugId);
+	}
+	
+	/**
+	 * Forgets every cached fault.
+	 */
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+	
+	/**
+	 * Returns the number of bug IDs currently cached, including any which have expired but
+	 * have not yet been looked up again.
+	 * @return The number of entries.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	private static final class CachedFault {
+		
+		private final int faultCode;
+		
+		private final long cachedAt;
+		
+		CachedFault(int faultCode, long cachedAt) {
+			this.faultCode = faultCode;
+			this.cachedAt = cachedAt;
+		}
+	}
+	
+}
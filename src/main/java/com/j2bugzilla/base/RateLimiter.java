@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code RateLimiter} is a token bucket which limits how often a particular webservice method
+ * may be called through a {@link BugzillaConnector}. Tokens are added at a steady rate up to a fixed
+ * burst size; each request consumes one token. Requests arriving while the bucket is empty reserve
+ * a future token and wait for it, so waiting requests are served in arrival order.
+ *
+ * This class is thread-safe.
+ *
+ * @see BugzillaConnector#setRateLimiter(String, RateLimiter)
+ */
+public class RateLimiter {
+
+	private final double permitsPerNano;
+
+	private final double burst;
+
+	/**
+	 * Tokens currently available. This value becomes negative when requests have reserved future tokens.
+	 */
+	private double tokens;
+
+	private long lastRefill;
+
+	/**
+	 * Creates a new {@link RateLimiter}.
+	 * @param permitsPerSecond The sustained number of requests allowed each second.
+	 * @param burst The number of requests which may be sent back to back after a quiet period.
+	 */
+	public RateLimiter(double permitsPerSecond, int burst) {
+		if(permitsPerSecond <= 0) { throw new IllegalArgumentException("Rate must be positive"); }
+		if(burst < 1) { throw new IllegalArgumentException("Burst size must be at least 1"); }
+		this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Takes one token from the bucket, waiting for it if necessary. If the token would not become
+	 * available within the given time, this method returns immediately without consuming anything.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The {@link TimeUnit} of the {@code timeout} argument.
+	 * @return {@code true} if a token was obtained, {@code false} if the wait would exceed the timeout.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting.
+	 */
+	public boolean acquire(long timeout, TimeUnit unit) throws InterruptedException {
+		long wait;
+		synchronized(this) {
+			refill();
+			if(tokens >= 1) {
+				tokens -= 1;
+				return true;
+			}
+			wait = (long)Math.ceil((1 - tokens) / permitsPerNano);
+			if(wait > unit.toNanos(timeout)) { return false; }
+			tokens -= 1;
+		}
+
+		try {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		} catch(InterruptedException e) {
+			synchronized(this) {
+				tokens += 1;
+			}
+			throw e;
+		}
+		return true;
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerNano);
+		lastRefill = now;
+	}
+
+}
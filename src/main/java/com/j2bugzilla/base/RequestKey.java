@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.base;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@code RequestKey} identifies a webservice request by its method name and parameters, so that
+ * identical requests can be recognized. Parameter maps are compared by value: arrays, which Java
+ * compares by identity, are normalized to lists, so two {@link BugzillaMethod BugzillaMethods}
+ * asking for {@code new Integer[] { 1, 2 }} produce equal keys.
+ * 
+ * {@code RequestKey} objects are immutable.
+ */
+public final class RequestKey {
+
+	private final String methodName;
+	
+	private final Object params;
+	
+	private final int hash;
+	
+	/**
+	 * Creates a new {@link RequestKey} for the given method name and parameters.
+	 * @param methodName The name of the webservice method.
+	 * @param params The parameters passed to the method.
+	 */
+	public RequestKey(String methodName, Map<?, ?> params) {
+		this.methodName = methodName;
+		this.params = normalize(params);
+		this.hash = 31 * methodName.hashCode() + this.params.hashCode();
+	}
+	
+	/**
+	 * Creates a new {@link RequestKey} describing the request a {@link BugzillaMethod} would send.
+	 * @param method A {@code BugzillaMethod}.
+	 * @return A key for the method's name and parameter map.
+	 */
+	public static RequestKey of(BugzillaMethod method) {
+		return new RequestKey(method.getMethodName(), method.getParameterMap());
+	}
+	
+	/**
+	 * Returns the name of the webservice method this key describes.
+	 * @return A method name such as {@code Bug.get}.
+	 */
+	public String getMethodName() {
+		return methodName;
+	}
+	
+	private static Object normalize(Object value) {
+		if(value == null) { return null; }
+		if(value.getClass().isArray()) {
+			int length = Array.getLength(value);
+			List<Object> list = new ArrayList<Object>(length);
+			for(int i = 0; i < length; i++) {
+				list.add(normalize(Array.get(value, i)));
+			}
+			return Collections.unmodifiableList(list);
+		}
+		if(value instanceof Map<?, ?>) {
+			Map<?, ?> map = (Map<?, ?>)value;
+			Map<Object, Object> copy = new HashMap<Object, Object>();
+			for(Map.Entry<?, ?> entry : map.entrySet()) {
+				copy.put(normalize(entry.getKey()), normalize(entry.getValue()));
+			}
+			return Collections.unmodifiableMap(copy);
+		}
+		if(value instanceof Collection<?>) {
+			List<Object> list = new ArrayList<Object>();
+			for(Object element : (Collection<?>)value) {
+				list.add(normalize(element));
+			}
+			return Collections.unmodifiableList(list);
+		}
+		return value;
+	}
+	
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) { return true; }
+		if(!(obj instanceof RequestKey)) { return false; }
+		RequestKey other = (RequestKey)obj;
+		return hash == other.hash && methodName.equals(other.methodName) && params.equals(other.params);
+	}
+	
+	@Override
+	public String toString() {
+		return methodName + params;
+	}
+	
+}
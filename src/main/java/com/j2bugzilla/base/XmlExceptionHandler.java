@@ -96,4 +96,25 @@ public final class XmlExceptionHandler {
 		return new BugzillaException(message, exception);
 	}
 	
+	/**
+	 * Determines whether a {@link XmlRpcException} was caused by a failure to talk to the installation,
+	 * such as a refused connection or a timeout, rather than a fault returned by Bugzilla itself.
+	 * Faults returned by Bugzilla always carry a non-zero fault code.
+	 * @param exception An exception raised while executing a method.
+	 * @return {@code true} if no valid response was received from the installation.
+	 */
+	static boolean isTransportFailure(XmlRpcException exception) {
+		return exception.code == 0;
+	}
+	
+	/**
+	 * Determines whether a {@link XmlRpcException} reports that a requested bug does not exist or
+	 * cannot be seen by the current user.
+	 * @param exception An exception raised while executing a method.
+	 * @return {@code true} for the nonexistent bug and view permission faults.
+	 */
+	static boolean isBugUnavailable(XmlRpcException exception) {
+		return exception.code == NONEXISTENT_BUG || exception.code == VIEW_PERMISSION_DENIED;
+	}
+	
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import com.j2bugzilla.base.Bug;
+
+/**
+ * A {@code BugChangeEvent} describes one bug which changed on the installation and has been applied
+ * to a local {@link BugStore}.
+ */
+public class BugChangeEvent {
+
+	private final Bug bug;
+	
+	private final Bug previous;
+	
+	/**
+	 * Creates a new {@link BugChangeEvent}.
+	 * @param bug The bug as it now stands.
+	 * @param previous The copy of the bug held before the change, or null if it is new to the store.
+	 */
+	public BugChangeEvent(Bug bug, Bug previous) {
+		this.bug = bug;
+		this.previous = previous;
+	}
+	
+	/**
+	 * Returns the bug as it now stands.
+	 * @return The changed {@link Bug}.
+	 */
+	public Bug getBug() {
+		return bug;
+	}
+	
+	/**
+	 * Returns the copy of the bug held by the store before this change.
+	 * @return The previous {@link Bug}, or null if the bug was not stored before.
+	 */
+	public Bug getPrevious() {
+		return previous;
+	}
+	
+	/**
+	 * Returns whether the bug was not held by the store before this change.
+	 * @return {@code true} for a newly mirrored bug.
+	 */
+	public boolean isNew() {
+		return previous == null;
+	}
+	
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+/**
+ * A {@code BugChangeListener} is notified of each new or modified bug applied to a {@link BugStore}
+ * by {@link BugSync}. Listeners are called on the thread running the synchronization, after the
+ * bug has been stored.
+ */
+public interface BugChangeListener {
+
+	/**
+	 * Called after a changed bug has been written to the local store.
+	 * @param event A {@link BugChangeEvent} describing the change.
+	 */
+	void bugChanged(BugChangeEvent event);
+	
+}
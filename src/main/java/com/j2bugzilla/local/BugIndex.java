@@ -0,0 +1,349 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.Bug;
+
+/**
+ * The {@code BugIndex} answers simple questions about a local set of bugs, such as "all NEW bugs in
+ * component X assigned to Y", without going to the installation. For each indexed {@link Field} it keeps
+ * a {@link BitSet} per value, with one bit for each bug ID having that value; a query intersects the
+ * bitmaps of its conditions, starting with the smallest, which takes microseconds even for large stores.
+ * 
+ * An index is filled from a {@link BugStore} with {@link #build(BugStore)} and kept current incrementally:
+ * registered with {@link BugSync#addListener(BugChangeListener)}, it updates the entries of every bug the
+ * synchronization changes. Bugs can also be added or removed directly.
+ * 
+ * This class is thread-safe.
+ */
+public class BugIndex implements BugChangeListener {
+
+	/**
+	 * The fields a {@link BugIndex} can look bugs up by.
+	 */
+	public enum Field {
+		
+		/**
+		 * The status of a bug
+		 */
+		STATUS("status"),
+		
+		/**
+		 * The product a bug is filed under
+		 */
+		PRODUCT("product"),
+		
+		/**
+		 * The component a bug is filed under
+		 */
+		COMPONENT("component"),
+		
+		/**
+		 * The login name of the user a bug is assigned to
+		 */
+		ASSIGNEE("assigned_to"),
+		
+		/**
+		 * The priority of a bug
+		 */
+		PRIORITY("priority"),
+		
+		/**
+		 * The keywords of a bug. A bug is found under each of its keywords.
+		 */
+		KEYWORDS("keywords");
+		
+		private final String name;
+		
+		/**
+		 * Creates a new {@link Field} with the designated name
+		 * @param name The name of the bug field Bugzilla returns
+		 */
+		Field(String name) {
+			this.name = name;
+		}
+	}
+	
+	private static final String[] NO_VALUES = new String[0];
+	
+	/**
+	 * For each field, the bitmap of bug IDs having each value
+	 */
+	private final Map<Field, Map<String, BitSet>> postings = new EnumMap<Field, Map<String, BitSet>>(Field.class);
+	
+	/**
+	 * The values each indexed bug was indexed under, by field ordinal, so that they can be removed again
+	 */
+	private final Map<Integer, String[][]> indexed = new HashMap<Integer, String[][]>();
+	
+	/**
+	 * Every indexed bug ID
+	 */
+	private final BitSet all = new BitSet();
+	
+	/**
+	 * Creates a new, empty {@link BugIndex}.
+	 */
+	public BugIndex() {
+		for(Field field : Field.values()) {
+			postings.put(field, new HashMap<String, BitSet>());
+		}
+	}
+	
+	/**
+	 * Creates a new {@link BugIndex} holding every bug in a {@link BugStore}.
+	 * @param store The {@code BugStore} to index.
+	 * @return A new {@code BugIndex}.
+	 * @throws BugStoreException If the store cannot be read.
+	 */
+	public static BugIndex build(BugStore store) throws BugStoreException {
+		BugIndex index = new BugIndex();
+		for(int id : store.getIDs()) {
+			Bug bug = store.get(id);
+			if(bug != null) {
+				index.add(bug);
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Adds a bug to the index, replacing its previous entries if it was already indexed.
+	 * @param bug The {@link Bug} to index.
+	 */
+	public void add(Bug bug) {
+		Map<Object, Object> fields = bug.getParameterMap();
+		Field[] allFields = Field.values();
+		String[][] values = new String[allFields.length][];
+		for(Field field : allFields) {
+			values[field.ordinal()] = valuesOf(fields.get(field.name));
+		}
+		
+		synchronized(this) {
+			int id = bug.getID();
+			remove(id);
+			for(Field field : allFields) {
+				Map<String, BitSet> fieldPostings = postings.get(field);
+				for(String value : values[field.ordinal()]) {
+					BitSet ids = fieldPostings.get(value);
+					if(ids == null) {
+						ids = new BitSet();
+						fieldPostings.put(value, ids);
+					}
+					ids.set(id);
+				}
+			}
+			indexed.put(id, values);
+			all.set(id);
+		}
+	}
+	
+	private static String[] valuesOf(Object value) {
+		if(value == null) { return NO_VALUES; }
+		if(value instanceof Object[]) {
+			Object[] array = (Object[])value;
+			String[] values = new String[array.length];
+			for(int i = 0; i < array.length; i++) {
+				values[i] = String.valueOf(array[i]);
+			}
+			return values;
+		}
+		return new String[] { value.toString() };
+	}
+	
+	/**
+	 * Removes a bug from the index.
+	 * @param id The ID of the bug to remove.
+	 * @return {@code true} if the bug was indexed.
+	 */
+	public synchronized boolean remove(int id) {
+		String[][] values = indexed.remove(id);
+		if(values == null) { return false; }
+		for(Field field : Field.values()) {
+			Map<String, BitSet> fieldPostings = postings.get(field);
+			for(String value : values[field.ordinal()]) {
+				BitSet ids = fieldPostings.get(value);
+				ids.clear(id);
+				if(ids.isEmpty()) {
+					fieldPostings.remove(value);
+				}
+			}
+		}
+		all.clear(id);
+		return true;
+	}
+	
+	/**
+	 * Updates the index with a bug changed by a {@link BugSync}.
+	 * @param event The {@link BugChangeEvent} describing the change.
+	 */
+	@Override
+	public void bugChanged(BugChangeEvent event) {
+		add(event.getBug());
+	}
+	
+	/**
+	 * Returns the number of bugs indexed.
+	 * @return The number of bugs.
+	 */
+	public synchronized int size() {
+		return indexed.size();
+	}
+	
+	/**
+	 * Returns how many indexed bugs have a value in a field, without building a query.
+	 * @param field The {@link Field} to look in.
+	 * @param value The value to count.
+	 * @return The number of bugs.
+	 */
+	public synchronized int count(Field field, String value) {
+		BitSet ids = postings.get(field).get(value);
+		return ids == null ? 0 : ids.cardinality();
+	}
+	
+	/**
+	 * Starts a query over this index. Conditions added to the query are joined with AND.
+	 * @return A new, unrestricted {@link Query}, which matches every indexed bug.
+	 */
+	public Query query() {
+		return new Query();
+	}
+	
+	/**
+	 * A conjunction of conditions evaluated against a {@link BugIndex}.
+	 */
+	public final class Query {
+		
+		private final List<Object> conditions = new ArrayList<Object>();
+		
+		private final List<Field> conditionFields = new ArrayList<Field>();
+		
+		private Query() { }
+		
+		/**
+		 * Restricts the query to bugs whose field has the given value.
+		 * @param field The {@link Field} to compare.
+		 * @param value The value to match.
+		 * @return A reference to this {@code Query}.
+		 */
+		public Query where(Field field, String value) {
+			conditionFields.add(field);
+			conditions.add(value);
+			return this;
+		}
+		
+		/**
+		 * Restricts the query to bugs whose field has any of the given values.
+		 * @param field The {@link Field} to compare.
+		 * @param values The values to accept.
+		 * @return A reference to this {@code Query}.
+		 */
+		public Query whereAny(Field field, String... values) {
+			conditionFields.add(field);
+			conditions.add(values.clone());
+			return this;
+		}
+		
+		/**
+		 * Evaluates the query.
+		 * @return A new {@code BitSet} with a bit set for the ID of each matching bug.
+		 */
+		public BitSet toBitSet() {
+			synchronized(BugIndex.this) {
+				List<BitSet> sets = new ArrayList<BitSet>(conditions.size());
+				for(int i = 0; i < conditions.size(); i++) {
+					sets.add(postingsFor(conditionFields.get(i), conditions.get(i)));
+				}
+				if(sets.isEmpty()) { return (BitSet)all.clone(); }
+				
+				//Start from the smallest bitmap so that the intersection shrinks as fast as possible
+				BitSet smallest = sets.get(0);
+				for(BitSet set : sets) {
+					if(set.cardinality() < smallest.cardinality()) { smallest = set; }
+				}
+				BitSet result = (BitSet)smallest.clone();
+				for(BitSet set : sets) {
+					if(result.isEmpty()) { break; }
+					if(set != smallest) { result.and(set); }
+				}
+				return result;
+			}
+		}
+		
+		/**
+		 * Returns the postings for one condition, which are shared and must not be modified.
+		 */
+		private BitSet postingsFor(Field field, Object condition) {
+			Map<String, BitSet> fieldPostings = postings.get(field);
+			if(condition instanceof String[]) {
+				BitSet union = new BitSet();
+				for(String value : (String[])condition) {
+					BitSet ids = fieldPostings.get(value);
+					if(ids != null) { union.or(ids); }
+				}
+				return union;
+			}
+			BitSet ids = fieldPostings.get(condition);
+			return ids == null ? new BitSet() : ids;
+		}
+		
+		/**
+		 * Evaluates the query.
+		 * @return The IDs of the matching bugs, in ascending order.
+		 */
+		public int[] getIDs() {
+			BitSet result = toBitSet();
+			int[] ids = new int[result.cardinality()];
+			int i = 0;
+			for(int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+				ids[i++] = id;
+			}
+			return ids;
+		}
+		
+		/**
+		 * Evaluates the query and counts the matches.
+		 * @return The number of matching bugs.
+		 */
+		public int count() {
+			return toBitSet().cardinality();
+		}
+		
+		/**
+		 * Evaluates the query and reads the matching bugs from a {@link BugStore}.
+		 * @param store The {@code BugStore} the index was built from.
+		 * @return The matching {@link Bug Bugs}, in ascending order of ID.
+		 * @throws BugStoreException If the store cannot be read.
+		 */
+		public List<Bug> getBugs(BugStore store) throws BugStoreException {
+			int[] ids = getIDs();
+			List<Bug> bugs = new ArrayList<Bug>(ids.length);
+			for(int id : ids) {
+				Bug bug = store.get(id);
+				if(bug != null) { bugs.add(bug); }
+			}
+			return bugs;
+		}
+	}
+	
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.util.Collection;
+import java.util.Date;
+
+import com.j2bugzilla.base.Bug;
+
+/**
+ * A {@code BugStore} holds local copies of {@link Bug Bugs} retrieved from a Bugzilla installation,
+ * keyed by bug ID. Alongside the bugs themselves, it records a high-water mark for each product: a
+ * time by which every earlier {@link Bug#getLastChangeTime() change} has been mirrored, from which
+ * {@link BugSync} resumes its next poll.
+ * 
+ * Implementations must be safe for use from multiple threads.
+ */
+public interface BugStore {
+
+	/**
+	 * Returns the stored copy of a bug.
+	 * @param id The ID of the bug.
+	 * @return The stored {@link Bug}, or null if the store does not hold that bug.
+	 * @throws BugStoreException If the store cannot be read.
+	 */
+	Bug get(int id) throws BugStoreException;
+	
+	/**
+	 * Adds a bug to the store, replacing any bug previously stored with the same ID.
+	 * @param bug A {@link Bug} retrieved from the installation, which must have an ID.
+	 * @throws BugStoreException If the store cannot be written.
+	 */
+	void put(Bug bug) throws BugStoreException;
+	
+	/**
+	 * Removes a bug from the store.
+	 * @param id The ID of the bug.
+	 * @return {@code true} if the store held the bug.
+	 * @throws BugStoreException If the store cannot be written.
+	 */
+	boolean remove(int id) throws BugStoreException;
+	
+	/**
+	 * Returns the IDs of every stored bug.
+	 * @return A snapshot of the stored bug IDs.
+	 */
+	Collection<Integer> getIDs();
+	
+	/**
+	 * Returns the number of stored bugs.
+	 * @return The number of bugs.
+	 */
+	int size();
+	
+	/**
+	 * Returns the high-water mark recorded for a product.
+	 * @param product The name of a product.
+	 * @return The time up to which that product is mirrored, or null if it has never been synchronized.
+	 */
+	Date getHighWaterMark(String product);
+	
+	/**
+	 * Records the high-water mark for a product.
+	 * @param product The name of a product.
+	 * @param mark The time up to which that product is mirrored.
+	 * @throws BugStoreException If the store cannot be written.
+	 */
+	void setHighWaterMark(String product, Date mark) throws BugStoreException;
+	
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+/**
+ * A {@code BugStoreException} indicates that a {@link BugStore} or {@link CommentStore} could not read or write its
+ * underlying storage.
+ */
+public class BugStoreException extends Exception {
+
+	private static final long serialVersionUID = 2381905623158452287L;
+
+	/**
+	 * Constructs a new {@link BugStoreException} with the given message and cause.
+	 * @param message A custom error message describing the issue
+	 * @param cause The root cause of the exception
+	 */
+	public BugStoreException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+	/**
+	 * Constructs a new {@link BugStoreException} with the given message.
+	 * @param message A custom error message describing the issue
+	 */
+	public BugStoreException(String message) {
+		super(message);
+	}
+	
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.rpc.BugCursor;
+import com.j2bugzilla.rpc.BugzillaTime;
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+
+/**
+ * The {@code BugSync} keeps a {@link BugStore} in step with one or more products on a Bugzilla
+ * installation. Each call to {@link #sync()} searches only for bugs whose {@code last_change_time}
+ * is at or after the product's high-water mark, stores them, advances the mark, and reports every
+ * new or modified bug to the registered {@link BugChangeListener BugChangeListeners}. The first
+ * synchronization of a product has no mark and so retrieves all of its bugs.
+ * 
+ * The new high-water mark is the time of the installation's database, read with
+ * {@link BugzillaTime} before a poll starts searching, so the local clock plays no part. A bug changed
+ * while the poll runs may or may not be returned by it, but is always returned by the next one. Because
+ * the polls overlap, and Bugzilla's search is inclusive, bugs may be returned again although they have
+ * not changed since they were stored; they are recognised by their {@code last_change_time} and not
+ * reported twice.
+ * 
+ * Searches are paged with a {@link BugCursor} in order of bug ID, so that large initial synchronizations
+ * stay within the result limits of the installation, and bugs changing while a poll runs cannot shift
+ * others across a page boundary. This requires Bugzilla 5.0 or later.
+ * 
+ * This class is not thread-safe; callers should run one synchronization at a time.
+ */
+public class BugSync {
+
+	private static final int DEFAULT_PAGE_SIZE = 500;
+	
+	private final BugzillaConnector conn;
+	
+	private final BugStore store;
+	
+	private final Set<String> products = new CopyOnWriteArraySet<String>();
+	
+	private final List<BugChangeListener> listeners = new CopyOnWriteArrayList<BugChangeListener>();
+	
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	
+	/**
+	 * Creates a new {@link BugSync}.
+	 * @param conn A {@link BugzillaConnector} connected to the installation to mirror.
+	 * @param store The {@link BugStore} to keep up to date.
+	 */
+	public BugSync(BugzillaConnector conn, BugStore store) {
+		this.conn = conn;
+		this.store = store;
+	}
+	
+	/**
+	 * Adds a product to the set mirrored by this {@link BugSync}.
+	 * @param product The name of a product on the installation.
+	 */
+	public void addProduct(String product) {
+		products.add(product);
+	}
+	
+	/**
+	 * Removes a product from the set mirrored by this {@link BugSync}. Bugs already stored are kept.
+	 * @param product The name of a product on the installation.
+	 */
+	public void removeProduct(String product) {
+		products.remove(product);
+	}
+	
+	/**
+	 * Sets the number of bugs requested by each search.
+	 * @param pageSize A positive page size.
+	 */
+	public void setPageSize(int pageSize) {
+		if(pageSize < 1) { throw new IllegalArgumentException("Page size must be positive"); }
+		this.pageSize = pageSize;
+	}
+	
+	/**
+	 * Registers a {@link BugChangeListener} to receive each changed bug.
+	 * @param listener A listener.
+	 */
+	public void addListener(BugChangeListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Unregisters a {@link BugChangeListener}.
+	 * @param listener A listener previously added.
+	 */
+	public void removeListener(BugChangeListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Polls the installation for bugs changed since the previous synchronization of each product and
+	 * applies them to the store. If a product fails part way through, the bugs already applied are
+	 * kept but its high-water mark is left where it was, so the next poll covers them again.
+	 * @return The {@link BugChangeEvent BugChangeEvents} produced, in the order they were applied.
+	 * @throws BugzillaException If a search fails.
+	 * @throws BugStoreException If the store cannot be written.
+	 */
+	public List<BugChangeEvent> sync() throws BugzillaException, BugStoreException {
+		List<BugChangeEvent> events = new ArrayList<BugChangeEvent>();
+		for(String product : products) {
+			events.addAll(sync(product));
+		}
+		return Collections.unmodifiableList(events);
+	}
+	
+	private List<BugChangeEvent> sync(String product) throws BugzillaException, BugStoreException {
+		List<BugChangeEvent> events = new ArrayList<BugChangeEvent>();
+		Date mark = store.getHighWaterMark(product);
+		
+		BugzillaTime time = new BugzillaTime();
+		conn.executeMethod(time);
+		Date newMark = time.getDatabaseTime();
+		if(newMark == null) {
+			throw new BugzillaException("The installation did not report its database time");
+		}
+		
+		List<SearchQuery> queries = new ArrayList<SearchQuery>();
+		queries.add(new SearchQuery(SearchLimiter.PRODUCT, product));
+		if(mark != null) {
+			queries.add(new SearchQuery(SearchLimiter.LAST_CHANGE_TIME, mark));
+		}
+		BugCursor cursor = new BugCursor(pageSize, queries.toArray(new SearchQuery[queries.size()]));
+		
+		while(cursor.hasNext()) {
+			for(Bug bug : cursor.next(conn)) {
+				Date changed = bug.getLastChangeTime();
+				Bug previous = store.get(bug.getID());
+				if(previous != null && changed != null && changed.equals(previous.getLastChangeTime())) {
+					//Already mirrored by the previous poll
+					continue;
+				}
+				store.put(bug);
+				BugChangeEvent event = new BugChangeEvent(bug, previous);
+				events.add(event);
+				for(BugChangeListener listener : listeners) {
+					listener.bugChanged(event);
+				}
+			}
+		}
+		
+		if(!newMark.equals(mark)) {
+			store.setHighWaterMark(product, newMark);
+		}
+		return events;
+	}
+	
+}
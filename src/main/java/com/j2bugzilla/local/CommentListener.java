@@ -0,0 +1,36 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.util.List;
+
+import com.j2bugzilla.base.Comment;
+
+/**
+ * A {@code CommentListener} is notified of new comments appended to a {@link CommentStore} by a
+ * {@link CommentMirror}. Listeners are called on the thread running the poll, after the comments
+ * have been stored.
+ */
+public interface CommentListener {
+
+	/**
+	 * Called after new comments on a bug have been stored.
+	 * @param bugId The ID of the bug.
+	 * @param comments The new {@link Comment Comments}, in order.
+	 */
+	void commentsAdded(int bugId, List<Comment> comments);
+	
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.Comment;
+import com.j2bugzilla.rpc.BugComments;
+
+/**
+ * The {@code CommentMirror} keeps the comment threads of a set of bugs up to date in a {@link CommentStore}.
+ * The last stored comment of each thread serves as its high-water mark: each {@link #poll()} asks the
+ * installation only for comments made since then, appends them to the store and passes them to the
+ * registered {@link CommentListener CommentListeners}. Threads not yet in the store are fetched whole.
+ * 
+ * Bugs are polled in batches, each a single {@link BugComments} call. Bugzilla accepts one
+ * {@code new_since} time per call, so bugs are sorted by the time of their last comment and each batch
+ * asks for comments since the oldest mark in it; comments a bug already has are filtered out by ID.
+ * Bugzilla returns only comments strictly after {@code new_since}, to the second, so the mark is moved
+ * back by a second to catch comments made in the same second as the last stored one.
+ * 
+ * This class is not thread-safe; callers should run one poll at a time.
+ */
+public class CommentMirror {
+
+	private static final int DEFAULT_BATCH_SIZE = 200;
+	
+	/**
+	 * Resolution of the times Bugzilla records for comments
+	 */
+	private static final long TIME_RESOLUTION_MILLIS = 1000;
+	
+	private final BugzillaConnector conn;
+	
+	private final CommentStore store;
+	
+	private final Set<Integer> bugs = new ConcurrentSkipListSet<Integer>();
+	
+	private final List<CommentListener> listeners = new CopyOnWriteArrayList<CommentListener>();
+	
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	
+	/**
+	 * Creates a new {@link CommentMirror}.
+	 * @param conn A {@link BugzillaConnector} connected to the installation to mirror.
+	 * @param store The {@link CommentStore} to keep up to date.
+	 */
+	public CommentMirror(BugzillaConnector conn, CommentStore store) {
+		this.conn = conn;
+		this.store = store;
+	}
+	
+	/**
+	 * Adds a bug to the set whose comments are mirrored.
+	 * @param bugId The ID of a bug.
+	 */
+	public void addBug(int bugId) {
+		bugs.add(bugId);
+	}
+	
+	/**
+	 * Removes a bug from the set whose comments are mirrored. Comments already stored are kept.
+	 * @param bugId The ID of a bug.
+	 */
+	public void removeBug(int bugId) {
+		bugs.remove(bugId);
+	}
+	
+	/**
+	 * Sets the number of bugs polled by each call to the installation.
+	 * @param batchSize A positive batch size.
+	 */
+	public void setBatchSize(int batchSize) {
+		if(batchSize < 1) { throw new IllegalArgumentException("Batch size must be positive"); }
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Registers a {@link CommentListener} to receive new comments.
+	 * @param listener A listener.
+	 */
+	public void addListener(CommentListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Unregisters a {@link CommentListener}.
+	 * @param listener A listener previously added.
+	 */
+	public void removeListener(CommentListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Fetches the comments made on each mirrored bug since the previous poll and appends them to the store.
+	 * If a batch fails, the batches before it have already been applied.
+	 * @return The number of new comments stored.
+	 * @throws BugzillaException If a call to the installation fails.
+	 * @throws BugStoreException If the store cannot be written.
+	 */
+	public int poll() throws BugzillaException, BugStoreException {
+		List<Integer> fresh = new ArrayList<Integer>();
+		List<Mark> known = new ArrayList<Mark>();
+		for(int bugId : bugs) {
+			Comment last = store.getLastComment(bugId);
+			if(last == null || last.getTime() == null) {
+				fresh.add(bugId);
+			} else {
+				known.add(new Mark(bugId, last.getTime()));
+			}
+		}
+		Collections.sort(known, new Comparator<Mark>() {
+			@Override
+			public int compare(Mark a, Mark b) {
+				return a.time.compareTo(b.time);
+			}
+		});
+		
+		int added = 0;
+		for(int start = 0; start < fresh.size(); start += batchSize) {
+			List<Integer> batch = fresh.subList(start, Math.min(start + batchSize, fresh.size()));
+			added += apply(new BugComments(toArray(batch)));
+		}
+		for(int start = 0; start < known.size(); start += batchSize) {
+			List<Mark> batch = known.subList(start, Math.min(start + batchSize, known.size()));
+			int[] ids = new int[batch.size()];
+			for(int i = 0; i < ids.length; i++) {
+				ids[i] = batch.get(i).bugId;
+			}
+			Date since = new Date(batch.get(0).time.getTime() - TIME_RESOLUTION_MILLIS);
+			added += apply(new BugComments(since, ids));
+		}
+		return added;
+	}
+	
+	private int apply(BugComments method) throws BugzillaException, BugStoreException {
+		conn.executeMethod(method);
+		int added = 0;
+		for(Map.Entry<Integer, List<Comment>> entry : method.getCommentsByBug().entrySet()) {
+			List<Comment> comments = store.append(entry.getKey(), entry.getValue());
+			if(!comments.isEmpty()) {
+				added += comments.size();
+				for(CommentListener listener : listeners) {
+					listener.commentsAdded(entry.getKey(), comments);
+				}
+			}
+		}
+		return added;
+	}
+	
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for(int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+	
+	private static final class Mark {
+		
+		private final int bugId;
+		
+		private final Date time;
+		
+		Mark(int bugId, Date time) {
+			this.bugId = bugId;
+			this.time = time;
+		}
+	}
+	
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.j2bugzilla.base.Comment;
+
+/**
+ * A {@code CommentStore} holds local copies of the comment threads of {@link com.j2bugzilla.base.Bug Bugs}.
+ * Comments are only ever appended to a thread, in increasing order of comment ID, which matches how
+ * Bugzilla assigns them. The last comment of each thread is the high-water mark from which
+ * {@link CommentMirror} resumes.
+ * 
+ * Implementations must be safe for use from multiple threads.
+ */
+public interface CommentStore {
+
+	/**
+	 * Returns the stored thread of a bug.
+	 * @param bugId The ID of the bug.
+	 * @return The stored {@link Comment Comments} in order, or an empty list if none are stored.
+	 */
+	List<Comment> getComments(int bugId);
+	
+	/**
+	 * Returns the last stored comment of a bug.
+	 * @param bugId The ID of the bug.
+	 * @return The {@link Comment} with the highest ID stored for that bug, or null if none are stored.
+	 */
+	Comment getLastComment(int bugId);
+	
+	/**
+	 * Appends comments to the thread of a bug. Comments whose IDs are not greater than that of the last
+	 * stored comment are already present, and are ignored.
+	 * @param bugId The ID of the bug.
+	 * @param comments New {@link Comment Comments} in increasing order of ID.
+	 * @return The comments which were actually appended.
+	 * @throws BugStoreException If the store cannot be written.
+	 */
+	List<Comment> append(int bugId, List<Comment> comments) throws BugStoreException;
+	
+	/**
+	 * Returns the IDs of every bug with a stored thread.
+	 * @return A snapshot of the bug IDs.
+	 */
+	Collection<Integer> getBugIDs();
+	
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.j2bugzilla.base.BinaryCodec;
+import com.j2bugzilla.base.Bug;
+
+/**
+ * The {@code DiskBugStore} is a {@link BugStore} which persists its bugs in a directory, so that an
+ * application restarts with its mirror intact and can serve reads without a connection to the
+ * installation. Each bug is saved with the fields exposed by {@link Bug#getParameterMap()}, in the
+ * compact format of {@link BinaryCodec}.
+ * 
+ * Changes are appended to a single log file; an index from bug ID to log offset is kept in memory
+ * and rebuilt by scanning the log when the store is opened. Bugs are read back through a memory
+ * mapping of the log, so repeated reads are served from the page cache without system calls. 
+ * Superseded records are reclaimed by compaction, which rewrites the live records into a fresh log.
+ * Compaction runs automatically once most of the log is garbage, and may also be triggered with
+ * {@link #compact()}. A record left incomplete by a crash is discarded on the next open.
+ * 
+ * The log is limited to 2GB, the largest region which can be memory-mapped at once. Compaction
+ * renames the new log over the old one, which some platforms refuse while the old log is mapped; 
+ * there, compaction fails with a {@link BugStoreException} and the store continues on the old log.
+ * A failed automatic compaction is not reported to the write which triggered it, since that write
+ * has already succeeded; it is tried again once the log has grown further.
+ * This class is thread-safe, but only one {@code DiskBugStore} may have a directory open at a time.
+ */
+public class DiskBugStore implements BugStore {
+
+	private static final String LOG_NAME = "bugs.log";
+	
+	private static final String COMPACT_NAME = "bugs.log.compact";
+	
+	/**
+	 * Identifies a log file and the version of the codec its records were written with
+	 */
+	private static final byte[] LOG_HEADER = { 'J', '2', 'B', 'L', BinaryCodec.VERSION };
+	
+	private static final byte RECORD_BUG = 1;
+	private static final byte RECORD_REMOVE = 2;
+	private static final byte RECORD_MARK = 3;
+	private static final byte RECORD_SYMBOLS = 4;
+	
+	/**
+	 * Size of the length and type prefix of each record
+	 */
+	private static final int HEADER_SIZE = 5;
+	
+	/**
+	 * Logs smaller than this are never compacted automatically
+	 */
+	private static final long MIN_COMPACT_SIZE = 1024 * 1024;
+	
+	private final File directory;
+	
+	private final File logFile;
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private final Map<Integer, Long> index = new HashMap<Integer, Long>();
+	
+	private final Map<String, Date> marks = new HashMap<String, Date>();
+	
+	private BinaryCodec codec;
+	
+	private RandomAccessFile file;
+	
+	private FileChannel channel;
+	
+	private volatile MappedByteBuffer mapping;
+	
+	/**
+	 * Bytes of the log occupied by records which are still current
+	 */
+	private long liveBytes;
+	
+	/**
+	 * Log size below which automatic compaction is not tried again after failing
+	 */
+	private long compactRetrySize = 0;
+	
+	/**
+	 * Opens a {@link DiskBugStore} in the given directory, creating the directory and an empty log
+	 * if they do not exist.
+	 * @param directory The directory holding the store.
+	 * @throws BugStoreException If the directory or log cannot be opened.
+	 */
+	public DiskBugStore(File directory) throws BugStoreException {
+		this.directory = directory;
+		this.logFile = new File(directory, LOG_NAME);
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new BugStoreException("Could not create directory " + directory);
+		}
+		try {
+			//A compaction interrupted before its rename is incomplete and can be discarded
+			new File(directory, COMPACT_NAME).delete();
+			reopen();
+		} catch(IOException e) {
+			throw new BugStoreException("Could not open store in " + directory, e);
+		}
+	}
+	
+	/**
+	 * Opens the log, rebuilding all in-memory state from it.
+	 */
+	private void reopen() throws IOException {
+		file = new RandomAccessFile(logFile, "rw");
+		channel = file.getChannel();
+		mapping = null;
+		codec = new BinaryCodec();
+		index.clear();
+		marks.clear();
+		liveBytes = 0;
+		
+		if(channel.size() == 0) {
+			channel.write(ByteBuffer.wrap(LOG_HEADER), 0);
+		}
+		load();
+	}
+	
+	/**
+	 * Scans the log to rebuild the index, discarding any incomplete record at its end.
+	 */
+	private void load() throws IOException {
+		long size = channel.size();
+		if(size > Integer.MAX_VALUE) { throw new IOException("Log exceeds 2GB"); }
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		
+		for(int i = 0; i < LOG_HEADER.length; i++) {
+			if(!buffer.hasRemaining() || buffer.get() != LOG_HEADER[i]) {
+				file.close();
+				throw new IOException(logFile + " is not a bug store log, or was written by an unsupported version");
+			}
+		}
+		
+		long end = buffer.position();
+		while(buffer.remaining() >= HEADER_SIZE) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			byte type = buffer.get();
+			if(length < 0 || buffer.remaining() < length) { break; }
+			
+			ByteBuffer payload = buffer.slice();
+			payload.limit(length);
+			try {
+				apply(type, payload, start, HEADER_SIZE + length);
+			} catch(IOException e) {
+				//A damaged record can only be the last one written; ignore it and everything after
+				break;
+			} catch(RuntimeException e) {
+				break;
+			}
+			buffer.position(start + HEADER_SIZE + length);
+			end = buffer.position();
+		}
+		
+		if(end < size) {
+			channel.truncate(end);
+			mapping = null;
+		}
+	}
+	
+	private void apply(byte type, ByteBuffer payload, long offset, int recordSize) throws IOException {
+		switch(type) {
+		case RECORD_BUG:
+			Long old = index.put(payload.getInt(), offset);
+			if(old != null) { liveBytes -= recordSizeAt(old); }
+			liveBytes += recordSize;
+			break;
+		case RECORD_REMOVE:
+			Long removed = index.remove(payload.getInt());
+			if(removed != null) { liveBytes -= recordSizeAt(removed); }
+			break;
+		case RECORD_MARK:
+			byte[] product = new byte[payload.getInt()];
+			payload.get(product);
+			marks.put(new String(product, "UTF-8"), new Date(payload.getLong()));
+			break;
+		case RECORD_SYMBOLS:
+			codec.decode(payload);
+			liveBytes += recordSize;
+			break;
+		default:
+			throw new IOException("Unknown record type " + type);
+		}
+	}
+	
+	private int recordSizeAt(long offset) {
+		return HEADER_SIZE + map(offset + HEADER_SIZE).getInt((int)offset);
+	}
+	
+	/**
+	 * Returns a mapping of the log which covers at least the given number of bytes.
+	 */
+	private ByteBuffer map(long size) {
+		MappedByteBuffer current = mapping;
+		if(current == null || current.capacity() < size) {
+			synchronized(this) {
+				current = mapping;
+				if(current == null || current.capacity() < size) {
+					try {
+						current = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+					} catch(IOException e) {
+						throw new IllegalStateException("Could not map " + logFile, e);
+					}
+					mapping = current;
+				}
+			}
+		}
+		return current.duplicate();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Bug get(int id) throws BugStoreException {
+		lock.readLock().lock();
+		try {
+			Long offset = index.get(id);
+			if(offset == null) { return null; }
+			int start = offset.intValue();
+			int length = map(start + HEADER_SIZE).getInt(start);
+			ByteBuffer buffer = map(start + HEADER_SIZE + length);
+			buffer.limit(start + HEADER_SIZE + length).position(start + HEADER_SIZE + 4);
+			return (Bug)codec.decode(buffer);
+		} catch(IOException e) {
+			throw new BugStoreException("Could not read bug " + id, e);
+		} catch(IllegalStateException e) {
+			throw new BugStoreException("Could not read bug " + id, e);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void put(Bug bug) throws BugStoreException {
+		lock.writeLock().lock();
+		try {
+			byte[] record = codec.encodeBug(bug);
+			List<String> symbols = codec.getNewSymbols();
+			if(!symbols.isEmpty()) {
+				append(RECORD_SYMBOLS, codec.encodeSymbols(symbols));
+				//Later records may refer to the symbols only once they are in the log
+				codec.markPublished(symbols);
+			}
+			ByteBuffer payload = ByteBuffer.allocate(4 + record.length);
+			payload.putInt(bug.getID()).put(record);
+			append(RECORD_BUG, payload.array());
+			compactIfWasteful();
+		} catch(IOException e) {
+			throw new BugStoreException("Could not write bug " + bug.getID(), e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean remove(int id) throws BugStoreException {
+		lock.writeLock().lock();
+		try {
+			if(!index.containsKey(id)) { return false; }
+			append(RECORD_REMOVE, ByteBuffer.allocate(4).putInt(id).array());
+			compactIfWasteful();
+			return true;
+		} catch(IOException e) {
+			throw new BugStoreException("Could not remove bug " + id, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Collection<Integer> getIDs() {
+		lock.readLock().lock();
+		try {
+			return new ArrayList<Integer>(index.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return index.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Date getHighWaterMark(String product) {
+		lock.readLock().lock();
+		try {
+			return marks.get(product);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setHighWaterMark(String product, Date mark) throws BugStoreException {
+		lock.writeLock().lock();
+		try {
+			append(RECORD_MARK, markRecord(product, mark));
+			compactIfWasteful();
+		} catch(IOException e) {
+			throw new BugStoreException("Could not write high-water mark for " + product, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	private static byte[] markRecord(String product, Date mark) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		byte[] name = product.getBytes("UTF-8");
+		out.writeInt(name.length);
+		out.write(name);
+		out.writeLong(mark.getTime());
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Appends a record to the log and applies it to the in-memory state. The caller must hold the write lock.
+	 */
+	private void append(byte type, byte[] payload) throws IOException {
+		long offset = channel.size();
+		if(offset + HEADER_SIZE + payload.length > Integer.MAX_VALUE) { 
+			throw new IOException("Log would exceed 2GB"); 
+		}
+		try {
+			write(channel, offset, type, payload);
+		} catch(IOException e) {
+			//Drop any part of the record which was written, so that the next append follows a whole record
+			try {
+				channel.truncate(offset);
+			} catch(IOException truncateFailure) {
+				//A torn record at the end is discarded when the log is next opened
+			}
+			throw e;
+		}
+		
+		//Symbols were added to the codec when they were encoded
+		if(type != RECORD_SYMBOLS) {
+			apply(type, ByteBuffer.wrap(payload), offset, HEADER_SIZE + payload.length);
+		} else {
+			liveBytes += HEADER_SIZE + payload.length;
+		}
+	}
+	
+	/**
+	 * Compacts the log once most of it is garbage. The caller must hold the write lock, and must have
+	 * finished appending the records of its change.
+	 */
+	private void compactIfWasteful() {
+		try {
+			long size = channel.size();
+			if(size >= MIN_COMPACT_SIZE && size >= compactRetrySize && liveBytes < size / 2) {
+				try {
+					compactLocked();
+				} catch(IOException e) {
+					//The store carries on with the old log; wait for it to grow before trying again
+					compactRetrySize = size + MIN_COMPACT_SIZE;
+				}
+			}
+		} catch(IOException e) {
+			//The size will be read again on the next append
+		}
+	}
+	
+	private static void write(FileChannel target, long offset, byte type, byte[] payload) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+		record.putInt(payload.length).put(type).put(payload).flip();
+		while(record.hasRemaining()) {
+			target.write(record, offset + record.position());
+		}
+	}
+	
+	/**
+	 * Rewrites the log so that it holds only current bugs, high-water marks and the symbols they use.
+	 * @throws BugStoreException If the new log cannot be written.
+	 */
+	public void compact() throws BugStoreException {
+		lock.writeLock().lock();
+		try {
+			compactLocked();
+		} catch(IOException e) {
+			throw new BugStoreException("Could not compact store in " + directory, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	private void compactLocked() throws IOException {
+		File compactFile = new File(directory, COMPACT_NAME);
+		RandomAccessFile out = new RandomAccessFile(compactFile, "rw");
+		boolean written = false;
+		try {
+			out.setLength(0);
+			FileChannel target = out.getChannel();
+			target.write(ByteBuffer.wrap(LOG_HEADER), 0);
+			long position = LOG_HEADER.length;
+			
+			byte[] symbols = codec.encodeSymbols(codec.getSymbols());
+			write(target, position, RECORD_SYMBOLS, symbols);
+			position += HEADER_SIZE + symbols.length;
+			
+			ByteBuffer source = map(channel.size());
+			for(Long offset : index.values()) {
+				int start = offset.intValue();
+				int size = HEADER_SIZE + source.getInt(start);
+				ByteBuffer record = source.duplicate();
+				record.limit(start + size).position(start);
+				while(record.hasRemaining()) {
+					position += target.write(record, position);
+				}
+			}
+			for(Map.Entry<String, Date> entry : marks.entrySet()) {
+				byte[] mark = markRecord(entry.getKey(), entry.getValue());
+				write(target, position, RECORD_MARK, mark);
+				position += HEADER_SIZE + mark.length;
+			}
+			target.force(true);
+			written = true;
+		} finally {
+			out.close();
+			if(!written) { compactFile.delete(); }
+		}
+		
+		file.close();
+		if(!compactFile.renameTo(logFile)) {
+			//The old log is still intact, so carry on with it
+			compactFile.delete();
+			reopen();
+			throw new IOException("Could not replace " + logFile);
+		}
+		reopen();
+		compactRetrySize = 0;
+	}
+	
+	/**
+	 * Forces all changes made so far to disk.
+	 * @throws BugStoreException If the log cannot be synchronized.
+	 */
+	public void flush() throws BugStoreException {
+		lock.writeLock().lock();
+		try {
+			channel.force(false);
+		} catch(IOException e) {
+			throw new BugStoreException("Could not flush " + logFile, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Flushes and closes the log. The store cannot be used afterwards.
+	 * @throws BugStoreException If the log cannot be closed cleanly.
+	 */
+	public void close() throws BugStoreException {
+		lock.writeLock().lock();
+		try {
+			channel.force(false);
+			file.close();
+			mapping = null;
+		} catch(IOException e) {
+			throw new BugStoreException("Could not close " + logFile, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+}
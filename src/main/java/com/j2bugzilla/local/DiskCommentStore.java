@@ -0,0 +1,165 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.j2bugzilla.base.BinaryDecoder;
+import com.j2bugzilla.base.BinaryEncoder;
+import com.j2bugzilla.base.Comment;
+
+/**
+ * The {@code DiskCommentStore} is a {@link CommentStore} which persists its threads to a file, in the
+ * format of {@link BinaryEncoder}. Threads are held in memory for reading; new comments are appended
+ * to the file as they arrive. Since comments are never changed or removed, the file holds no garbage
+ * and needs no compaction. A comment left incomplete by a crash is discarded when the store is opened.
+ * 
+ * This class is thread-safe, but only one {@code DiskCommentStore} may have a file open at a time.
+ */
+public class DiskCommentStore implements CommentStore {
+
+	private final MemoryCommentStore threads = new MemoryCommentStore();
+	
+	private final File file;
+	
+	private final BinaryEncoder encoder;
+	
+	/**
+	 * Opens a {@link DiskCommentStore}, creating its file if it does not exist.
+	 * @param file The file holding the store.
+	 * @throws BugStoreException If the file cannot be read or opened for writing.
+	 */
+	public DiskCommentStore(File file) throws BugStoreException {
+		this.file = file;
+		try {
+			BinaryDecoder decoder = file.length() > 0 ? load() : null;
+			if(decoder == null) {
+				encoder = new BinaryEncoder(new BufferedOutputStream(new FileOutputStream(file)));
+				encoder.flush();
+			} else {
+				encoder = BinaryEncoder.resume(new BufferedOutputStream(new FileOutputStream(file, true)), decoder);
+			}
+		} catch(IOException e) {
+			throw new BugStoreException("Could not open comment store " + file, e);
+		}
+	}
+	
+	/**
+	 * Reads the file into memory and cuts off any incomplete comment at its end.
+	 * @return The decoder which read the file, or null if not even the header was complete.
+	 */
+	private BinaryDecoder load() throws IOException {
+		BinaryDecoder decoder;
+		try {
+			decoder = new BinaryDecoder(new BufferedInputStream(new FileInputStream(file)));
+		} catch(EOFException e) {
+			return null;
+		}
+		try {
+			while(true) {
+				Comment comment;
+				try {
+					comment = decoder.readComment();
+				} catch(EOFException e) {
+					break;
+				}
+				if(comment == null) { break; }
+				threads.append(comment.getBugID(), Collections.singletonList(comment));
+			}
+		} finally {
+			decoder.close();
+		}
+		
+		if(decoder.getPosition() < file.length()) {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(decoder.getPosition());
+			} finally {
+				raf.close();
+			}
+		}
+		return decoder;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<Comment> getComments(int bugId) {
+		return threads.getComments(bugId);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Comment getLastComment(int bugId) {
+		return threads.getLastComment(bugId);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized List<Comment> append(int bugId, List<Comment> comments) throws BugStoreException {
+		List<Comment> added = MemoryCommentStore.newComments(threads.getLastComment(bugId), comments);
+		try {
+			for(Comment comment : added) {
+				if(comment.getBugID() != bugId) {
+					//The bug ID is what places a comment in its thread when the file is read back
+					comment = new Comment(comment.getID(), bugId, comment.getText(), comment.getCreator(), 
+							comment.getTime(), comment.isPrivate());
+				}
+				encoder.writeComment(comment);
+			}
+			encoder.flush();
+		} catch(IOException e) {
+			throw new BugStoreException("Could not append comments for bug " + bugId, e);
+		}
+		return threads.append(bugId, added);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Collection<Integer> getBugIDs() {
+		return threads.getBugIDs();
+	}
+	
+	/**
+	 * Closes the file. The store cannot be used afterwards.
+	 * @throws BugStoreException If the file cannot be closed cleanly.
+	 */
+	public synchronized void close() throws BugStoreException {
+		try {
+			encoder.close();
+		} catch(IOException e) {
+			throw new BugStoreException("Could not close comment store " + file, e);
+		}
+	}
+	
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.rpc.CommentBug;
+import com.j2bugzilla.rpc.ReportBug;
+
+/**
+ * The {@code DuplicateDetector} recognizes new bugs whose summaries closely match an open bug which is
+ * already known, so that an automated reporter can comment on the existing bug with
+ * {@link #submit(BugzillaConnector, Bug)} instead of filing the same problem again.
+ * 
+ * Summaries are compared by the Jaccard similarity of their words and word pairs, estimated with MinHash:
+ * each summary is reduced to a signature of minimum hash values, and the fraction of positions in which
+ * two signatures agree approximates their similarity. Locality-sensitive hashing splits each signature
+ * into bands, and only bugs sharing at least one whole band with a candidate are compared against it,
+ * so a lookup costs the same however many bugs are indexed.
+ * 
+ * The index is held in flat primitive arrays, keeping only the low byte of each minimum hash for the
+ * comparison, and takes roughly 250 bytes per bug with the default settings, so millions of bugs fit in
+ * an ordinary heap. It is filled from search results or a {@link BugStore}, and kept current as a
+ * {@link BugChangeListener} of a {@link BugSync}; bugs which are resolved are dropped from it.
+ * 
+ * This class is thread-safe.
+ */
+public class DuplicateDetector implements BugChangeListener {
+
+	private static final double DEFAULT_THRESHOLD = 0.7;
+	
+	private static final int DEFAULT_BANDS = 12;
+	
+	private static final int DEFAULT_ROWS = 4;
+	
+	private static final int INITIAL_CAPACITY = 1024;
+	
+	/**
+	 * The chance that two unrelated signature bytes agree, which is subtracted from similarity estimates
+	 */
+	private static final double BYTE_COLLISION = 1.0 / 256;
+	
+	/**
+	 * A bug found to be similar to a candidate.
+	 */
+	public static final class Match {
+		
+		private final int bugId;
+		
+		private final double similarity;
+		
+		Match(int bugId, double similarity) {
+			this.bugId = bugId;
+			this.similarity = similarity;
+		}
+		
+		/**
+		 * Returns the ID of the similar bug.
+		 * @return A bug ID.
+		 */
+		public int getBugID() {
+			return bugId;
+		}
+		
+		/**
+		 * Returns the estimated similarity of the two summaries.
+		 * @return A value between 0, for no words in common, and 1, for the same words.
+		 */
+		public double getSimilarity() {
+			return similarity;
+		}
+		
+		@Override
+		public String toString() {
+			return bugId + ":" + similarity;
+		}
+	}
+	
+	/**
+	 * The outcome of {@link DuplicateDetector#submit(BugzillaConnector, Bug)}.
+	 */
+	public static final class Submission {
+		
+		private final int bugId;
+		
+		private final Match duplicateOf;
+		
+		Submission(int bugId, Match duplicateOf) {
+			this.bugId = bugId;
+			this.duplicateOf = duplicateOf;
+		}
+		
+		/**
+		 * Returns the ID of the bug which now tracks the report: the existing bug it was added to as a
+		 * comment, or the newly reported bug.
+		 * @return A bug ID, or -1 if the installation did not return one.
+		 */
+		public int getBugID() {
+			return bugId;
+		}
+		
+		/**
+		 * Returns whether the report was added as a comment to an existing bug.
+		 * @return {@code true} if a duplicate was found.
+		 */
+		public boolean isDuplicate() {
+			return duplicateOf != null;
+		}
+		
+		/**
+		 * Returns the existing bug the report was found to duplicate.
+		 * @return The {@link Match}, or null if a new bug was reported.
+		 */
+		public Match getDuplicateOf() {
+			return duplicateOf;
+		}
+	}
+	
+	private final double threshold;
+	
+	private final int bands;
+	
+	private final int rows;
+	
+	private final int[] multipliers;
+	
+	private final int[] offsets;
+	
+	/**
+	 * Held while a report is checked and submitted, so that two reports of a new problem arriving
+	 * together do not both file a bug
+	 */
+	private final Object submitLock = new Object();
+	
+	/**
+	 * The bug ID in each slot, or 0 for a slot whose bug was removed
+	 */
+	private int[] slotIds = new int[INITIAL_CAPACITY];
+	
+	/**
+	 * The low byte of each minimum hash, {@code bands * rows} to a slot
+	 */
+	private byte[] sketches;
+	
+	/**
+	 * The hash of each band, {@code bands} to a slot
+	 */
+	private int[] bandKeys;
+	
+	/**
+	 * For each band entry, the next entry in the same bucket plus one, or 0 at the end of the chain
+	 */
+	private int[] next;
+	
+	/**
+	 * For each bucket, the first band entry in it plus one, or 0 if it is empty
+	 */
+	private int[] buckets;
+	
+	/**
+	 * The slot of each indexed bug plus one, by bug ID
+	 */
+	private int[] slotOfBug = new int[INITIAL_CAPACITY];
+	
+	private int used = 0;
+	
+	private int live = 0;
+	
+	/**
+	 * Creates a new, empty {@link DuplicateDetector} which treats summaries with an estimated similarity
+	 * of at least 0.7 as duplicates.
+	 */
+	public DuplicateDetector() {
+		this(DEFAULT_THRESHOLD, DEFAULT_BANDS, DEFAULT_ROWS);
+	}
+	
+	/**
+	 * Creates a new, empty {@link DuplicateDetector}. The number of bands and rows sets the trade-off
+	 * between recall and cost: bugs with a similarity of about {@code (1 / bands) ^ (1 / rows)} have an
+	 * even chance of being compared at all, and each bug takes about {@code bands * (rows + 16)} bytes.
+	 * @param threshold The lowest estimated similarity reported as a duplicate, between 0 and 1.
+	 * @param bands The number of bands each signature is split into.
+	 * @param rows The number of minimum hashes in each band.
+	 */
+	public DuplicateDetector(double threshold, int bands, int rows) {
+		if(threshold <= 0 || threshold > 1) { throw new IllegalArgumentException("Threshold must lie above 0 and at most 1"); }
+		if(bands < 1 || rows < 1) { throw new IllegalArgumentException("Bands and rows must be at least 1"); }
+		this.threshold = threshold;
+		this.bands = bands;
+		this.rows = rows;
+		
+		//A fixed seed keeps signatures comparable between detectors
+		Random random = new Random(0x6a2b7a11aL);
+		multipliers = new int[bands * rows];
+		offsets = new int[bands * rows];
+		for(int i = 0; i < multipliers.length; i++) {
+			multipliers[i] = random.nextInt() | 1;
+			offsets[i] = random.nextInt();
+		}
+		sketches = new byte[INITIAL_CAPACITY * bands * rows];
+		bandKeys = new int[INITIAL_CAPACITY * bands];
+		next = new int[INITIAL_CAPACITY * bands];
+		buckets = new int[Integer.highestOneBit(INITIAL_CAPACITY * bands) * 2];
+	}
+	
+	/**
+	 * Computes the MinHash signature of a summary, or returns null if it has no words.
+	 */
+	int[] signature(String summary) {
+		List<String> words = TextIndex.tokenize(summary);
+		if(words.isEmpty()) { return null; }
+		
+		int[] shingles = new int[words.size() * 2 - 1];
+		for(int i = 0; i < words.size(); i++) {
+			shingles[i] = words.get(i).hashCode();
+			if(i > 0) {
+				shingles[words.size() + i - 1] = words.get(i - 1).hashCode() * 31 + shingles[i] + 0x5bd1e995;
+			}
+		}
+		
+		int[] signature = new int[multipliers.length];
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		for(int shingle : shingles) {
+			int base = mix(shingle);
+			for(int i = 0; i < signature.length; i++) {
+				int hash = mix(base * multipliers[i] + offsets[i]) & Integer.MAX_VALUE;
+				if(hash < signature[i]) {
+					signature[i] = hash;
+				}
+			}
+		}
+		return signature;
+	}
+	
+	private int bandKey(int[] signature, int band) {
+		int hash = band;
+		for(int i = band * rows; i < (band + 1) * rows; i++) {
+			hash = hash * 31 + signature[i];
+		}
+		return mix(hash);
+	}
+	
+	/**
+	 * The finalization step of MurmurHash3, spreading every input bit across the output
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+	
+	/**
+	 * Adds a bug to the index if it is open, replacing its previous entry, or removes it if it is resolved.
+	 * @param bug The {@link Bug} to index.
+	 */
+	public void add(Bug bug) {
+		String resolution = bug.getResolution();
+		if(resolution == null || resolution.length() == 0) {
+			add(bug.getID(), bug.getSummary());
+		} else {
+			remove(bug.getID());
+		}
+	}
+	
+	/**
+	 * Adds every open bug in a collection, such as the results of a
+	 * {@link com.j2bugzilla.rpc.BugSearch BugSearch}, to the index.
+	 * @param bugs The {@link Bug Bugs} to index.
+	 */
+	public void addAll(Collection<Bug> bugs) {
+		for(Bug bug : bugs) {
+			add(bug);
+		}
+	}
+	
+	/**
+	 * Adds every open bug in a {@link BugStore} to the index.
+	 * @param store The {@code BugStore} to index.
+	 * @throws BugStoreException If the store cannot be read.
+	 */
+	public void addAll(BugStore store) throws BugStoreException {
+		for(int id : store.getIDs()) {
+			Bug bug = store.get(id);
+			if(bug != null) {
+				add(bug);
+			}
+		}
+	}
+	
+	/**
+	 * Adds a summary to the index, replacing any summary previously indexed for the bug.
+	 * @param bugId The ID of the bug, which must be positive.
+	 * @param summary The summary of the bug.
+	 */
+	public void add(int bugId, String summary) {
+		if(bugId <= 0) { throw new IllegalArgumentException("Bug ID must be positive"); }
+		int[] signature = signature(summary);
+		int[] keys = null;
+		if(signature != null) {
+			keys = new int[bands];
+			for(int band = 0; band < bands; band++) {
+				keys[band] = bandKey(signature, band);
+			}
+		}
+		
+		synchronized(this) {
+			remove(bugId);
+			if(signature == null) { return; }
+			if(used == slotIds.length) {
+				grow();
+			}
+			int slot = used++;
+			slotIds[slot] = bugId;
+			for(int i = 0; i < signature.length; i++) {
+				sketches[slot * signature.length + i] = (byte)signature[i];
+			}
+			for(int band = 0; band < bands; band++) {
+				int entry = slot * bands + band;
+				bandKeys[entry] = keys[band];
+				link(entry);
+			}
+			if(bugId >= slotOfBug.length) {
+				slotOfBug = Arrays.copyOf(slotOfBug, Math.max(bugId + 1, slotOfBug.length * 2));
+			}
+			slotOfBug[bugId] = slot + 1;
+			live++;
+		}
+	}
+	
+	private void link(int entry) {
+		int bucket = bandKeys[entry] & (buckets.length - 1);
+		next[entry] = buckets[bucket];
+		buckets[bucket] = entry + 1;
+	}
+	
+	/**
+	 * Makes room for more slots, first by dropping the slots of removed bugs and then, if they are
+	 * still mostly in use, by doubling the arrays.
+	 */
+	private void grow() {
+		int capacity = live * 2 > slotIds.length ? slotIds.length * 2 : slotIds.length;
+		int width = bands * rows;
+		int[] newIds = new int[capacity];
+		byte[] newSketches = new byte[capacity * width];
+		int[] newKeys = new int[capacity * bands];
+		int compacted = 0;
+		for(int slot = 0; slot < used; slot++) {
+			int id = slotIds[slot];
+			if(id == 0) { continue; }
+			newIds[compacted] = id;
+			System.arraycopy(sketches, slot * width, newSketches, compacted * width, width);
+			System.arraycopy(bandKeys, slot * bands, newKeys, compacted * bands, bands);
+			slotOfBug[id] = compacted + 1;
+			compacted++;
+		}
+		slotIds = newIds;
+		sketches = newSketches;
+		bandKeys = newKeys;
+		used = compacted;
+		
+		next = new int[capacity * bands];
+		buckets = new int[Integer.highestOneBit(capacity * bands) * 2];
+		for(int entry = 0; entry < used * bands; entry++) {
+			link(entry);
+		}
+	}
+	
+	/**
+	 * Removes a bug from the index.
+	 * @param bugId The ID of the bug.
+	 * @return {@code true} if the bug was indexed.
+	 */
+	public synchronized boolean remove(int bugId) {
+		if(bugId <= 0 || bugId >= slotOfBug.length || slotOfBug[bugId] == 0) { return false; }
+		//The slot stays linked into its buckets until the next compaction, and is skipped by lookups
+		slotIds[slotOfBug[bugId] - 1] = 0;
+		slotOfBug[bugId] = 0;
+		live--;
+		return true;
+	}
+	
+	/**
+	 * Updates the index with a bug changed by a {@link BugSync}.
+	 * @param event The {@link BugChangeEvent} describing the change.
+	 */
+	@Override
+	public void bugChanged(BugChangeEvent event) {
+		add(event.getBug());
+	}
+	
+	/**
+	 * Returns the number of bugs indexed.
+	 * @return The number of open bugs with a non-empty summary.
+	 */
+	public synchronized int size() {
+		return live;
+	}
+	
+	/**
+	 * Finds the indexed bugs whose summaries are at least as similar to the given summary as the
+	 * threshold of this detector.
+	 * @param summary The summary to look up.
+	 * @return The similar bugs, most similar first; ties are broken by ascending bug ID.
+	 */
+	public List<Match> findSimilar(String summary) {
+		List<Match> matches = new ArrayList<Match>();
+		int[] signature = signature(summary);
+		if(signature == null) { return matches; }
+		int[] keys = new int[bands];
+		for(int band = 0; band < bands; band++) {
+			keys[band] = bandKey(signature, band);
+		}
+		int width = signature.length;
+		
+		synchronized(this) {
+			Set<Integer> seen = new HashSet<Integer>();
+			for(int band = 0; band < bands; band++) {
+				for(int link = buckets[keys[band] & (buckets.length - 1)]; link != 0; link = next[link - 1]) {
+					int entry = link - 1;
+					int slot = entry / bands;
+					if(entry % bands != band || bandKeys[entry] != keys[band] || slotIds[slot] == 0 || !seen.add(slot)) {
+						continue;
+					}
+					
+					int agree = 0;
+					for(int i = 0; i < width; i++) {
+						if(sketches[slot * width + i] == (byte)signature[i]) { agree++; }
+					}
+					double similarity = Math.max(0, ((double)agree / width - BYTE_COLLISION) / (1 - BYTE_COLLISION));
+					if(similarity >= threshold) {
+						matches.add(new Match(slotIds[slot], similarity));
+					}
+				}
+			}
+		}
+		
+		Collections.sort(matches, new Comparator<Match>() {
+			@Override
+			public int compare(Match a, Match b) {
+				int diff = Double.compare(b.similarity, a.similarity);
+				return diff != 0 ? diff : (a.bugId < b.bugId ? -1 : (a.bugId == b.bugId ? 0 : 1));
+			}
+		});
+		return matches;
+	}
+	
+	/**
+	 * Finds the open bug most similar to a candidate, other than the candidate itself.
+	 * @param bug The {@link Bug} about to be reported.
+	 * @return The most similar bug at or above the threshold, or null if there is none.
+	 */
+	public Match findDuplicate(Bug bug) {
+		//A bug which has not been reported yet has no ID
+		Object id = bug.getParameterMap().get("id");
+		for(Match match : findSimilar(bug.getSummary())) {
+			if(id == null || match.bugId != (Integer)id) {
+				return match;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Reports a bug unless it duplicates an open bug in the index. A duplicate is added as a comment on
+	 * the existing bug, using the description of the candidate or, failing that, its summary; otherwise
+	 * the bug is reported with {@link ReportBug} and added to the index. Submissions through the same
+	 * detector are made one at a time.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @param bug The {@link Bug} to report.
+	 * @return A {@link Submission} describing what was done.
+	 * @throws BugzillaException If the installation reports an error.
+	 */
+	public Submission submit(BugzillaConnector conn, Bug bug) throws BugzillaException {
+		synchronized(submitLock) {
+			Match duplicate = findDuplicate(bug);
+			if(duplicate != null) {
+				Object description = bug.getParameterMap().get("description");
+				String text = description != null ? description.toString() : bug.getSummary();
+				conn.executeMethod(new CommentBug(duplicate.bugId, text));
+				return new Submission(duplicate.bugId, duplicate);
+			}
+			
+			ReportBug report = new ReportBug(bug);
+			conn.executeMethod(report);
+			int id = report.getID();
+			if(id > 0) {
+				add(id, bug.getSummary());
+			}
+			return new Submission(id, null);
+		}
+	}
+	
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.j2bugzilla.base.Bug;
+
+/**
+ * The {@code MemoryBugStore} is a {@link BugStore} which keeps its bugs on the heap. Its contents
+ * are lost when the application exits. {@link Bug} objects are stored and returned as given, so
+ * callers should not modify a bug after storing it.
+ */
+public class MemoryBugStore implements BugStore {
+
+	private final ConcurrentMap<Integer, Bug> bugs = new ConcurrentHashMap<Integer, Bug>();
+	
+	private final ConcurrentMap<String, Date> marks = new ConcurrentHashMap<String, Date>();
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Bug get(int id) {
+		return bugs.get(id);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void put(Bug bug) {
+		bugs.put(bug.getID(), bug);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean remove(int id) {
+		return bugs.remove(id) != null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Collection<Integer> getIDs() {
+		return new ArrayList<Integer>(bugs.keySet());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return bugs.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Date getHighWaterMark(String product) {
+		return marks.get(product);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setHighWaterMark(String product, Date mark) {
+		marks.put(product, mark);
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.Comment;
+
+/**
+ * The {@code MemoryCommentStore} is a {@link CommentStore} which keeps its threads on the heap. Its
+ * contents are lost when the application exits.
+ */
+public class MemoryCommentStore implements CommentStore {
+
+	private final Map<Integer, List<Comment>> threads = new HashMap<Integer, List<Comment>>();
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized List<Comment> getComments(int bugId) {
+		List<Comment> thread = threads.get(bugId);
+		if(thread == null) { return Collections.emptyList(); }
+		return Collections.unmodifiableList(new ArrayList<Comment>(thread));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Comment getLastComment(int bugId) {
+		List<Comment> thread = threads.get(bugId);
+		return thread == null ? null : thread.get(thread.size() - 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized List<Comment> append(int bugId, List<Comment> comments) {
+		List<Comment> added = newComments(getLastComment(bugId), comments);
+		if(!added.isEmpty()) {
+			List<Comment> thread = threads.get(bugId);
+			if(thread == null) {
+				thread = new ArrayList<Comment>();
+				threads.put(bugId, thread);
+			}
+			thread.addAll(added);
+		}
+		return added;
+	}
+	
+	/**
+	 * Selects the comments which follow the last stored comment.
+	 */
+	static List<Comment> newComments(Comment last, List<Comment> comments) {
+		int lastId = last == null ? Integer.MIN_VALUE : last.getID();
+		List<Comment> added = new ArrayList<Comment>();
+		for(Comment comment : comments) {
+			if(comment.getID() > lastId) {
+				added.add(comment);
+				lastId = comment.getID();
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Collection<Integer> getBugIDs() {
+		return new ArrayList<Integer>(threads.keySet());
+	}
+
+}
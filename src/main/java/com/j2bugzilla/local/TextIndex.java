@@ -0,0 +1,559 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.local;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.Comment;
+
+/**
+ * The {@code TextIndex} is an inverted index over the summaries and comments of bugs held locally, so
+ * that text can be searched in milliseconds without querying the installation. Text is split into
+ * lower-case words of letters and digits; for each word the index keeps a sorted posting list of the
+ * bugs containing it, with the number of occurrences. Results are ranked with BM25, counting a word in
+ * the summary as much as several in the comments.
+ * 
+ * The index is updated incrementally: {@link #addBug(Bug)} replaces a bug's summary and
+ * {@link #addComment(Comment)} adds a comment, ignoring comments already indexed. Registered with a
+ * {@link BugSync} and a {@link CommentMirror}, it follows both as they poll.
+ * 
+ * An index can be written to a single compact segment file with {@link #save(File)} and read back with
+ * {@link #load(File)}. Posting lists are stored with delta-encoded bug IDs and variable-length integers.
+ * A segment is written to a temporary file and renamed over the previous one, so a crash during a save
+ * leaves the last complete segment in place.
+ * 
+ * This class is thread-safe.
+ */
+public class TextIndex implements BugChangeListener, CommentListener {
+
+	/**
+	 * How many comment occurrences a single summary occurrence of a word is worth
+	 */
+	private static final int SUMMARY_WEIGHT = 3;
+	
+	private static final int MIN_TOKEN_LENGTH = 2;
+	
+	private static final int MAX_TOKEN_LENGTH = 64;
+	
+	/**
+	 * BM25 term frequency saturation
+	 */
+	private static final double K1 = 1.2;
+	
+	/**
+	 * BM25 document length normalization
+	 */
+	private static final double B = 0.75;
+	
+	private static final byte[] MAGIC = { 'J', '2', 'T', 'X' };
+	
+	private static final int VERSION = 1;
+	
+	/**
+	 * A single search result.
+	 */
+	public static final class Hit {
+		
+		private final int bugId;
+		
+		private final double score;
+		
+		Hit(int bugId, double score) {
+			this.bugId = bugId;
+			this.score = score;
+		}
+		
+		/**
+		 * Returns the ID of the matching bug.
+		 * @return A bug ID.
+		 */
+		public int getBugID() {
+			return bugId;
+		}
+		
+		/**
+		 * Returns the relevance of the bug to the query; higher is more relevant.
+		 * @return A positive score.
+		 */
+		public double getScore() {
+			return score;
+		}
+		
+		@Override
+		public String toString() {
+			return bugId + ":" + score;
+		}
+	}
+	
+	/**
+	 * The bugs containing a word, sorted by ID, with the weighted number of occurrences in each.
+	 */
+	private static final class Postings {
+		
+		private int[] ids = new int[4];
+		
+		private int[] weights = new int[4];
+		
+		private int size = 0;
+		
+		void set(int id, int weight) {
+			int pos = Arrays.binarySearch(ids, 0, size, id);
+			if(pos >= 0) {
+				weights[pos] = weight;
+				return;
+			}
+			pos = -pos - 1;
+			if(size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				weights = Arrays.copyOf(weights, size * 2);
+			}
+			System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+			System.arraycopy(weights, pos, weights, pos + 1, size - pos);
+			ids[pos] = id;
+			weights[pos] = weight;
+			size++;
+		}
+		
+		void remove(int id) {
+			int pos = Arrays.binarySearch(ids, 0, size, id);
+			if(pos < 0) { return; }
+			System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+			System.arraycopy(weights, pos + 1, weights, pos, size - pos - 1);
+			size--;
+		}
+	}
+	
+	/**
+	 * What is indexed for a single bug.
+	 */
+	private static final class Document {
+		
+		private Map<String, Integer> summaryTerms = Collections.emptyMap();
+		
+		private final Map<String, Integer> commentTerms = new HashMap<String, Integer>();
+		
+		private final Set<Integer> commentIds = new HashSet<Integer>();
+		
+		private int length = 0;
+		
+		int weight(String term) {
+			Integer summary = summaryTerms.get(term);
+			Integer comments = commentTerms.get(term);
+			return (summary == null ? 0 : summary * SUMMARY_WEIGHT) + (comments == null ? 0 : comments);
+		}
+		
+		Set<String> terms() {
+			Set<String> terms = new HashSet<String>(summaryTerms.keySet());
+			terms.addAll(commentTerms.keySet());
+			return terms;
+		}
+	}
+	
+	private final Map<String, Postings> postings = new HashMap<String, Postings>();
+	
+	private final Map<Integer, Document> documents = new HashMap<Integer, Document>();
+	
+	private long totalLength = 0;
+	
+	/**
+	 * Splits text into the words the index holds: runs of letters and digits, in lower case, between
+	 * 2 and 64 characters long.
+	 * @param text The text to split.
+	 * @return The words, in order, including repeats.
+	 */
+	static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<String>();
+		if(text == null) { return tokens; }
+		int start = -1;
+		for(int i = 0; i <= text.length(); i++) {
+			boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if(wordChar && start < 0) {
+				start = i;
+			} else if(!wordChar && start >= 0) {
+				int length = i - start;
+				if(length >= MIN_TOKEN_LENGTH && length <= MAX_TOKEN_LENGTH) {
+					tokens.add(text.substring(start, i).toLowerCase(Locale.ENGLISH));
+				}
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+	
+	private static Map<String, Integer> countTerms(String text) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for(String token : tokenize(text)) {
+			Integer count = counts.get(token);
+			counts.put(token, count == null ? 1 : count + 1);
+		}
+		return counts;
+	}
+	
+	private Document document(int bugId) {
+		Document doc = documents.get(bugId);
+		if(doc == null) {
+			doc = new Document();
+			documents.put(bugId, doc);
+		}
+		return doc;
+	}
+	
+	/**
+	 * Indexes the summary of a bug, replacing any summary indexed for it before. Comments already
+	 * indexed for the bug are kept.
+	 * @param bug The {@link Bug} to index.
+	 */
+	public synchronized void addBug(Bug bug) {
+		Document doc = document(bug.getID());
+		Set<String> changed = new HashSet<String>(doc.summaryTerms.keySet());
+		doc.summaryTerms = countTerms(bug.getSummary());
+		changed.addAll(doc.summaryTerms.keySet());
+		update(bug.getID(), doc, changed);
+	}
+	
+	/**
+	 * Indexes the text of a comment under the bug it belongs to. A comment already indexed is ignored.
+	 * @param comment The {@link Comment} to index, which must carry its bug ID.
+	 */
+	public synchronized void addComment(Comment comment) {
+		if(comment.getBugID() < 0) { throw new IllegalArgumentException("Comment " + comment.getID() + " has no bug ID"); }
+		Document doc = document(comment.getBugID());
+		if(!doc.commentIds.add(comment.getID())) { return; }
+		Map<String, Integer> terms = countTerms(comment.getText());
+		for(Map.Entry<String, Integer> entry : terms.entrySet()) {
+			Integer count = doc.commentTerms.get(entry.getKey());
+			doc.commentTerms.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+		}
+		update(comment.getBugID(), doc, terms.keySet());
+	}
+	
+	/**
+	 * Brings the postings of the given terms and the document length in line with a changed document.
+	 */
+	private void update(int bugId, Document doc, Set<String> terms) {
+		for(String term : terms) {
+			int weight = doc.weight(term);
+			Postings list = postings.get(term);
+			if(weight == 0) {
+				if(list != null) {
+					list.remove(bugId);
+					if(list.size == 0) { postings.remove(term); }
+				}
+			} else {
+				if(list == null) {
+					list = new Postings();
+					postings.put(term, list);
+				}
+				list.set(bugId, weight);
+			}
+		}
+		totalLength -= doc.length;
+		doc.length = 0;
+		for(String term : doc.terms()) {
+			doc.length += doc.weight(term);
+		}
+		totalLength += doc.length;
+	}
+	
+	/**
+	 * Removes a bug and its comments from the index.
+	 * @param bugId The ID of the bug.
+	 * @return {@code true} if the bug was indexed.
+	 */
+	public synchronized boolean remove(int bugId) {
+		Document doc = documents.remove(bugId);
+		if(doc == null) { return false; }
+		for(String term : doc.terms()) {
+			Postings list = postings.get(term);
+			list.remove(bugId);
+			if(list.size == 0) { postings.remove(term); }
+		}
+		totalLength -= doc.length;
+		return true;
+	}
+	
+	/**
+	 * Indexes the summary of a bug changed by a {@link BugSync}.
+	 * @param event The {@link BugChangeEvent} describing the change.
+	 */
+	@Override
+	public void bugChanged(BugChangeEvent event) {
+		addBug(event.getBug());
+	}
+	
+	/**
+	 * Indexes comments added by a {@link CommentMirror}.
+	 * @param bugId The ID of the bug.
+	 * @param comments The new {@link Comment Comments}.
+	 */
+	@Override
+	public synchronized void commentsAdded(int bugId, List<Comment> comments) {
+		for(Comment comment : comments) {
+			if(comment.getBugID() == bugId) {
+				addComment(comment);
+			} else {
+				addComment(new Comment(comment.getID(), bugId, comment.getText(), comment.getCreator(), 
+						comment.getTime(), comment.isPrivate()));
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of bugs indexed.
+	 * @return The number of bugs with a summary or comments in the index.
+	 */
+	public synchronized int size() {
+		return documents.size();
+	}
+	
+	/**
+	 * Finds the bugs most relevant to a query. Every word of the query contributes to the score of the
+	 * bugs containing it, so bugs containing more of the words, or rarer ones, rank higher.
+	 * @param query The text to search for.
+	 * @param limit The maximum number of results.
+	 * @return The matching bugs, most relevant first; ties are broken by ascending bug ID.
+	 */
+	public synchronized List<Hit> search(String query, int limit) {
+		if(limit < 1) { throw new IllegalArgumentException("Limit must be at least 1"); }
+		int count = documents.size();
+		if(count == 0) { return new ArrayList<Hit>(); }
+		double averageLength = Math.max(1.0, (double)totalLength / count);
+		
+		Map<Integer, double[]> scores = new HashMap<Integer, double[]>();
+		for(String term : new HashSet<String>(tokenize(query))) {
+			Postings list = postings.get(term);
+			if(list == null) { continue; }
+			double idf = Math.log(1 + (count - list.size + 0.5) / (list.size + 0.5));
+			for(int i = 0; i < list.size; i++) {
+				int id = list.ids[i];
+				double weight = list.weights[i];
+				double norm = K1 * (1 - B + B * documents.get(id).length / averageLength);
+				double[] score = scores.get(id);
+				if(score == null) {
+					score = new double[1];
+					scores.put(id, score);
+				}
+				score[0] += idf * weight * (K1 + 1) / (weight + norm);
+			}
+		}
+		
+		List<Hit> hits = new ArrayList<Hit>(scores.size());
+		for(Map.Entry<Integer, double[]> entry : scores.entrySet()) {
+			hits.add(new Hit(entry.getKey(), entry.getValue()[0]));
+		}
+		Collections.sort(hits, new Comparator<Hit>() {
+			@Override
+			public int compare(Hit a, Hit b) {
+				int diff = Double.compare(b.score, a.score);
+				return diff != 0 ? diff : (a.bugId < b.bugId ? -1 : (a.bugId == b.bugId ? 0 : 1));
+			}
+		});
+		return hits.size() > limit ? new ArrayList<Hit>(hits.subList(0, limit)) : hits;
+	}
+	
+	/**
+	 * Writes the index to a segment file, replacing any previous segment at that location.
+	 * @param file The segment file to write.
+	 * @throws BugStoreException If the segment cannot be written.
+	 */
+	public synchronized void save(File file) throws BugStoreException {
+		try {
+			writeSegment(file);
+		} catch(IOException e) {
+			throw new BugStoreException("Could not write text index " + file, e);
+		}
+	}
+	
+	private void writeSegment(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		//The temporary file is removed whenever it does not end up in place, including on write errors
+		boolean replaced = false;
+		try {
+			FileOutputStream stream = new FileOutputStream(temp);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+				out.write(MAGIC);
+				writeVarint(out, VERSION);
+				
+				//Terms are written in order so that segments are reproducible
+				Map<String, Postings> sorted = new TreeMap<String, Postings>(postings);
+				writeVarint(out, sorted.size());
+				for(Map.Entry<String, Postings> entry : sorted.entrySet()) {
+					out.writeUTF(entry.getKey());
+					Postings list = entry.getValue();
+					writeVarint(out, list.size);
+					int previous = 0;
+					for(int i = 0; i < list.size; i++) {
+						int id = list.ids[i];
+						Document doc = documents.get(id);
+						Integer summary = doc.summaryTerms.get(entry.getKey());
+						Integer comments = doc.commentTerms.get(entry.getKey());
+						writeVarint(out, id - previous);
+						writeVarint(out, summary == null ? 0 : summary);
+						writeVarint(out, comments == null ? 0 : comments);
+						previous = id;
+					}
+				}
+				
+				List<Integer> ids = new ArrayList<Integer>(documents.keySet());
+				Collections.sort(ids);
+				writeVarint(out, ids.size());
+				int previous = 0;
+				for(int id : ids) {
+					writeVarint(out, id - previous);
+					previous = id;
+					List<Integer> comments = new ArrayList<Integer>(documents.get(id).commentIds);
+					Collections.sort(comments);
+					writeVarint(out, comments.size());
+					int previousComment = 0;
+					for(int commentId : comments) {
+						writeVarint(out, commentId - previousComment);
+						previousComment = commentId;
+					}
+				}
+				out.flush();
+				stream.getFD().sync();
+			} finally {
+				stream.close();
+			}
+			
+			if(!temp.renameTo(file)) {
+				//Some platforms will not rename over an existing file
+				if(!file.delete() || !temp.renameTo(file)) {
+					throw new IOException("Could not replace " + file);
+				}
+			}
+			replaced = true;
+		} finally {
+			if(!replaced) {
+				temp.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Reads an index from a segment file written by {@link #save(File)}.
+	 * @param file The segment file to read.
+	 * @return A new {@code TextIndex}.
+	 * @throws BugStoreException If the segment cannot be read or is malformed.
+	 */
+	public static TextIndex load(File file) throws BugStoreException {
+		try {
+			return readSegment(file);
+		} catch(IOException e) {
+			throw new BugStoreException("Could not read text index " + file, e);
+		}
+	}
+	
+	private static TextIndex readSegment(File file) throws IOException {
+		TextIndex index = new TextIndex();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC) || readVarint(in) != VERSION) {
+				throw new IOException(file + " is not a text index segment, or was written by an unsupported version");
+			}
+			
+			int terms = readVarint(in);
+			for(int t = 0; t < terms; t++) {
+				String term = in.readUTF();
+				int size = readVarint(in);
+				Postings list = new Postings();
+				list.ids = new int[Math.max(1, size)];
+				list.weights = new int[Math.max(1, size)];
+				int id = 0;
+				for(int i = 0; i < size; i++) {
+					id += readVarint(in);
+					int summary = readVarint(in);
+					int comments = readVarint(in);
+					Document doc = index.document(id);
+					if(summary > 0) {
+						if(doc.summaryTerms.isEmpty()) { doc.summaryTerms = new HashMap<String, Integer>(); }
+						doc.summaryTerms.put(term, summary);
+					}
+					if(comments > 0) { doc.commentTerms.put(term, comments); }
+					list.ids[i] = id;
+					list.weights[i] = summary * SUMMARY_WEIGHT + comments;
+					doc.length += list.weights[i];
+				}
+				list.size = size;
+				index.postings.put(term, list);
+			}
+			
+			int docs = readVarint(in);
+			int id = 0;
+			for(int d = 0; d < docs; d++) {
+				id += readVarint(in);
+				Document doc = index.document(id);
+				int comments = readVarint(in);
+				int commentId = 0;
+				for(int c = 0; c < comments; c++) {
+					commentId += readVarint(in);
+					doc.commentIds.add(commentId);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		for(Document doc : index.documents.values()) {
+			index.totalLength += doc.length;
+		}
+		return index;
+	}
+	
+	private static void writeVarint(OutputStream out, int value) throws IOException {
+		while((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+	
+	private static int readVarint(InputStream in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			int b = in.read();
+			if(b < 0) { throw new EOFException("Truncated segment"); }
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) { return value; }
+		}
+		throw new IOException("Malformed segment");
+	}
+	
+}
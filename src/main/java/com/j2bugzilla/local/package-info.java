@@ -0,0 +1,23 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * <p>This package keeps a local mirror of bugs retrieved from a Bugzilla installation.
+ * A {@link com.j2bugzilla.local.BugStore} holds the mirrored {@link com.j2bugzilla.base.Bug Bugs},
+ * and {@link com.j2bugzilla.local.BugSync} keeps it up to date by asking the installation only
+ * for bugs which changed since the previous poll. Comment threads are mirrored the same way, into a
+ * {@link com.j2bugzilla.local.CommentStore} kept up to date by {@link com.j2bugzilla.local.CommentMirror}.</p>
+ */
+package com.j2bugzilla.local;
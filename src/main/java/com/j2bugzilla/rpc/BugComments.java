@@ -17,7 +17,9 @@ package com.j2bugzilla.rpc;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -30,6 +32,10 @@ import com.j2bugzilla.base.Comment;
  * specific {@link Bug} in a Bugzilla installation. The {@link Bug} must already
  * exist in the installation. 
  * 
+ * Comments for many bugs, and individual comments by ID, can be requested in a single call. When
+ * refreshing threads which are already known, a time may be given so that only comments made
+ * since then are returned.
+ * 
  * @author Tom
  *
  */
@@ -51,9 +57,9 @@ public class BugComments implements BugzillaMethod {
 	private Map<Object, Object> hash = new HashMap<Object, Object>();
 	
 	/**
-	 * The ID of the {@link Bug}
+	 * The IDs of the {@link Bug Bugs} whose comments were requested
 	 */
-	private final int id;
+	private final int[] ids;
 	
 	/**
 	 * Creates a new {@link BugComments} object for the specified
@@ -72,44 +78,133 @@ public class BugComments implements BugzillaMethod {
 	 * comments for
 	 */
 	public BugComments(int id) {
-		this.id = id;
+		this.ids = new int[] { id };
 		params.put("ids", id);
 	}
 	
+	/**
+	 * Creates a new {@link BugComments} object to retrieve the comments on several {@link Bug Bugs} at once.
+	 * @param ids The IDs of the bugs to retrieve comments for
+	 */
+	public BugComments(int... ids) {
+		this(ids, new int[0]);
+	}
+	
+	/**
+	 * Creates a new {@link BugComments} object to retrieve the comments on several {@link Bug Bugs}, along
+	 * with individual comments identified by their own IDs.
+	 * @param ids The IDs of the bugs to retrieve comments for
+	 * @param commentIds The IDs of individual comments to retrieve
+	 */
+	public BugComments(int[] ids, int[] commentIds) {
+		if(ids.length == 0 && commentIds.length == 0) {
+			throw new IllegalArgumentException("At least one bug or comment ID is required");
+		}
+		this.ids = ids.clone();
+		if(ids.length > 0) {
+			params.put("ids", box(ids));
+		}
+		if(commentIds.length > 0) {
+			params.put("comment_ids", box(commentIds));
+		}
+	}
+	
+	/**
+	 * Creates a new {@link BugComments} object to retrieve only those comments made on several 
+	 * {@link Bug Bugs} strictly after a given time. Bugzilla records times to the second, so a comment
+	 * made in the same second as {@code newSince} is not returned.
+	 * @param newSince The time after which comments are returned
+	 * @param ids The IDs of the bugs to retrieve comments for
+	 */
+	public BugComments(Date newSince, int... ids) {
+		this(ids, new int[0]);
+		params.put("new_since", new Date(newSince.getTime()));
+	}
+	
+	private static Object[] box(int[] ints) {
+		Object[] boxed = new Object[ints.length];
+		for(int i = 0; i < ints.length; i++) {
+			boxed[i] = ints[i];
+		}
+		return boxed;
+	}
+	
 	/**
 	 * Returns a <code>List</code> of all public comments made on the
-	 * {@link Bug} requested from the installation
+	 * {@link Bug Bugs} requested from the installation. When several bugs were
+	 * requested, their comments are listed in the order the bugs were given.
 	 * 
 	 * @return A List of {@link Comment} objects representing user comments
 	 */
 	public List<Comment> getComments() {
 		List<Comment> commentList = new ArrayList<Comment>();
+		for(List<Comment> comments : getCommentsByBug().values()) {
+			commentList.addAll(comments);
+		}
+		return commentList;
+	}
+	
+	/**
+	 * Returns the comments made on each requested {@link Bug}.
+	 * 
+	 * @return A <code>Map</code> from bug ID to the {@link Comment Comments} on that bug, in the order the
+	 * bugs were given. Bugs with no (new) comments map to an empty list.
+	 */
+	public Map<Integer, List<Comment>> getCommentsByBug() {
+		Map<Integer, List<Comment>> byBug = new LinkedHashMap<Integer, List<Comment>>();
 		
 		if(hash.containsKey("bugs")) {
 			/*
-			 * Hideous, but it's the structure of the XML that
-			 * Bugzilla returns. Since it's designed to return comments for
-			 * multiple bugs at a time, there's extra nesting we don't need.
-			 * TODO Allow requests for lists of Bugs
+			 * Bugzilla nests the comments for each bug in a map keyed by
+			 * the bug ID as a string, under a single "comments" key.
 			 */
-			@SuppressWarnings("unchecked")
-			Map<String, Map<String, Map<Object, Object>[]>> m = 
-				(Map<String, Map<String, Map<Object, Object>[]>>)hash.get("bugs");
-			
-			Map<String, Map<Object, Object>[]> weird = m.get(String.valueOf(id));
-			Object[] comments = weird.get("comments");
-			
-			if(comments.length == 0) { return commentList; } //Early return to prevent ClassCast
+			Map<?, ?> bugs = (Map<?, ?>)hash.get("bugs");
 			
-			for(Object o : comments) {
-				@SuppressWarnings("unchecked")
-				Map<Object, Object> comment = (Map<Object, Object>)o;
-				Comment c = new Comment((Integer)comment.get("id"), (String)comment.get("text"));
-				commentList.add(c);
+			for(int id : ids) {
+				List<Comment> commentList = new ArrayList<Comment>();
+				Map<?, ?> bug = (Map<?, ?>)bugs.get(String.valueOf(id));
+				if(bug != null) {
+					for(Object o : (Object[])bug.get("comments")) {
+						commentList.add(toComment((Map<?, ?>)o, id));
+					}
+				}
+				byBug.put(id, commentList);
 			}
 		}
 		
-		return commentList;
+		return byBug;
+	}
+	
+	/**
+	 * Returns the individual comments requested by comment ID.
+	 * 
+	 * @return A <code>Map</code> from comment ID to {@link Comment}
+	 */
+	public Map<Integer, Comment> getCommentsByID() {
+		Map<Integer, Comment> byId = new HashMap<Integer, Comment>();
+		
+		if(hash.containsKey("comments")) {
+			Map<?, ?> comments = (Map<?, ?>)hash.get("comments");
+			for(Object o : comments.values()) {
+				Comment comment = toComment((Map<?, ?>)o, -1);
+				byId.put(comment.getID(), comment);
+			}
+		}
+		
+		return byId;
+	}
+	
+	private static Comment toComment(Map<?, ?> comment, int bugId) {
+		Object bug = comment.get("bug_id");
+		//Bugzilla 3.x reported the author rather than the creator
+		Object creator = comment.containsKey("creator") ? comment.get("creator") : comment.get("author");
+		Object isPrivate = comment.get("is_private");
+		return new Comment((Integer)comment.get("id"), 
+				bug instanceof Integer ? (Integer)bug : bugId,
+				(String)comment.get("text"), 
+				(String)creator, 
+				(Date)comment.get("time"), 
+				Boolean.TRUE.equals(isPrivate));
 	}
 	
 	/**
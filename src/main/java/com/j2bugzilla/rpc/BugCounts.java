@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+
+/**
+ * {@code BugCounts} computes how many bugs share each value of one or more fields, such as the number
+ * of bugs in each status or assigned to each user, directly from the records of executed
+ * {@link BugSearch BugSearches}. Counting starts once the XML-RPC transport has parsed the whole
+ * response; what it saves is the {@link com.j2bugzilla.base.Bug Bug} that would otherwise be built for
+ * each record. Each count is a primitive counter updated in place.
+ * 
+ * Counts accumulate across every search added, so a result too large for one request can be counted
+ * page by page, for example through a {@link BugCursor} with {@link #addAll(BugCursor, BugzillaConnector)}.
+ * Searches should be limited to the {@link #getIncludeFields() fields counted} so that Bugzilla does not
+ * send the rest.
+ * 
+ * Fields with several values per bug, such as {@code keywords} or {@code cc}, count each value once;
+ * missing or empty values are counted under the empty string. This class is not thread-safe, but counts
+ * gathered separately can be combined with {@link #merge(BugCounts)}.
+ */
+public class BugCounts {
+
+	private final String[] fields;
+	
+	/**
+	 * For each field, a counter per value. Counters are single-element arrays so that they can be
+	 * incremented without boxing.
+	 */
+	private final Map<String, Map<String, int[]>> counts = new LinkedHashMap<String, Map<String, int[]>>();
+	
+	private long total = 0;
+	
+	/**
+	 * Creates a new {@link BugCounts} grouping bugs by each of the given fields separately.
+	 * @param fields The names of the fields to count, as returned by {@code Bug.search}, such as 
+	 * {@code "status"}, {@code "component"}, {@code "assigned_to"} or {@code "priority"}. Each field may
+	 * be given only once.
+	 */
+	public BugCounts(String... fields) {
+		if(fields.length == 0) { throw new IllegalArgumentException("At least one field is required"); }
+		this.fields = fields.clone();
+		for(String field : fields) {
+			if(counts.put(field, new HashMap<String, int[]>()) != null) {
+				throw new IllegalArgumentException("Duplicate field: " + field);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the fields a search must return for these counts, for use with 
+	 * {@link BugSearch#setIncludeFields(String...)}.
+	 * @return A new array holding the counted fields and the bug ID.
+	 */
+	public String[] getIncludeFields() {
+		String[] include = Arrays.copyOf(fields, fields.length + 1);
+		include[fields.length] = "id";
+		return include;
+	}
+	
+	/**
+	 * Counts every bug returned by an executed {@link BugSearch}.
+	 * @param search A {@code BugSearch} which has been executed.
+	 */
+	public void add(BugSearch search) {
+		for(Object record : search.getRecords()) {
+			add((Map<?, ?>)record);
+		}
+	}
+	
+	private void add(Map<?, ?> record) {
+		total++;
+		for(String field : fields) {
+			Map<String, int[]> fieldCounts = counts.get(field);
+			Object value = record.get(field);
+			if(value instanceof Object[]) {
+				Object[] values = (Object[])value;
+				if(values.length == 0) {
+					increment(fieldCounts, "", 1);
+				}
+				for(Object element : values) {
+					increment(fieldCounts, element == null ? "" : element.toString(), 1);
+				}
+			} else {
+				increment(fieldCounts, value == null ? "" : value.toString(), 1);
+			}
+		}
+	}
+	
+	private static void increment(Map<String, int[]> fieldCounts, String value, int amount) {
+		int[] counter = fieldCounts.get(value);
+		if(counter == null) {
+			fieldCounts.put(value, new int[] { amount });
+		} else {
+			counter[0] += amount;
+		}
+	}
+	
+	/**
+	 * Pages through every result of a {@link BugCursor} and counts them, asking Bugzilla for only the
+	 * counted fields.
+	 * @param cursor The {@code BugCursor} to drain.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @throws BugzillaException If a page cannot be fetched. Pages counted before the failure are kept,
+	 * and the cursor can be resumed.
+	 */
+	public void addAll(BugCursor cursor, BugzillaConnector conn) throws BugzillaException {
+		String[] include = getIncludeFields();
+		while(cursor.hasNext()) {
+			add(cursor.nextSearch(conn, include));
+		}
+	}
+	
+	/**
+	 * Adds the counts gathered by another {@link BugCounts} over the same fields to these.
+	 * @param other The {@code BugCounts} to add.
+	 */
+	public void merge(BugCounts other) {
+		if(!Arrays.equals(fields, other.fields)) {
+			throw new IllegalArgumentException("Counts are over different fields");
+		}
+		total += other.total;
+		for(String field : fields) {
+			Map<String, int[]> fieldCounts = counts.get(field);
+			for(Map.Entry<String, int[]> entry : other.counts.get(field).entrySet()) {
+				increment(fieldCounts, entry.getKey(), entry.getValue()[0]);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of bugs counted.
+	 * @return The number of records added.
+	 */
+	public long getTotal() {
+		return total;
+	}
+	
+	/**
+	 * Returns the number of bugs counted with the given value in a field.
+	 * @param field One of the counted fields.
+	 * @param value A value of that field.
+	 * @return The count, which is 0 for values never seen.
+	 */
+	public int getCount(String field, String value) {
+		int[] counter = fieldCounts(field).get(value);
+		return counter == null ? 0 : counter[0];
+	}
+	
+	/**
+	 * Returns the counts for every value seen in a field, largest first.
+	 * @param field One of the counted fields.
+	 * @return A read-only {@code Map} from value to count, iterating from the most to the least common value.
+	 */
+	public Map<String, Integer> getCounts(String field) {
+		List<Map.Entry<String, int[]>> entries = new ArrayList<Map.Entry<String, int[]>>(fieldCounts(field).entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, int[]>>() {
+			@Override
+			public int compare(Map.Entry<String, int[]> a, Map.Entry<String, int[]> b) {
+				int diff = b.getValue()[0] - a.getValue()[0];
+				return diff != 0 ? diff : a.getKey().compareTo(b.getKey());
+			}
+		});
+		Map<String, Integer> sorted = new LinkedHashMap<String, Integer>();
+		for(Map.Entry<String, int[]> entry : entries) {
+			sorted.put(entry.getKey(), entry.getValue()[0]);
+		}
+		return Collections.unmodifiableMap(sorted);
+	}
+	
+	private Map<String, int[]> fieldCounts(String field) {
+		Map<String, int[]> fieldCounts = counts.get(field);
+		if(fieldCounts == null) { throw new IllegalArgumentException("Field is not counted: " + field); }
+		return fieldCounts;
+	}
+	
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugSummary;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+import com.j2bugzilla.rpc.SearchCriteria.Operator;
+
+/**
+ * A {@code BugCursor} pages through the results of a search in order of bug ID. Instead of asking for
+ * an {@link SearchLimiter#OFFSET offset}, which Bugzilla must count past on every page and which shifts
+ * when bugs change during the scan, each page asks for the bugs with an ID greater than the last one seen.
+ * Every page therefore costs the same to fetch, and no bug is skipped or returned twice.
+ * 
+ * The position of a cursor is a single bug ID, which can be saved with {@link #getToken()} and later
+ * restored with {@link #resume(String)}, for example to continue a long scan after a restart. Bugs
+ * created after the scan started have higher IDs, so they are picked up by the last pages of the scan.
+ * 
+ * Keyset paging relies on advanced search criteria and sort orders, and so requires Bugzilla 5.0 or later.
+ * This class is not thread-safe.
+ */
+public class BugCursor {
+
+	/**
+	 * Prefix of the tokens written by {@link #getToken()}, so that a change of format can be recognized
+	 */
+	private static final String TOKEN_PREFIX = "id>";
+	
+	private final SearchCriteria criteria;
+	
+	private final SearchQuery[] queries;
+	
+	private final int pageSize;
+	
+	/**
+	 * The highest bug ID returned so far, or 0 before the first page
+	 */
+	private int lastSeen = 0;
+	
+	private boolean exhausted = false;
+	
+	/**
+	 * Creates a new {@link BugCursor} over the bugs matching the given queries.
+	 * @param pageSize The maximum number of bugs to fetch with each request.
+	 * @param queries One or more {@link SearchQuery SearchQueries} to narrow the search by. A limit or
+	 * offset may not be given, since the cursor manages both.
+	 */
+	public BugCursor(int pageSize, SearchQuery... queries) {
+		this(pageSize, SearchCriteria.all(), queries);
+	}
+	
+	/**
+	 * Creates a new {@link BugCursor} over the bugs matching the given criteria and queries.
+	 * @param pageSize The maximum number of bugs to fetch with each request.
+	 * @param criteria The {@link SearchCriteria} bugs must match. They are copied, so later changes have no effect.
+	 * @param queries Any {@link SearchQuery SearchQueries} to narrow the search by. A limit or offset may
+	 * not be given, since the cursor manages both.
+	 */
+	public BugCursor(int pageSize, SearchCriteria criteria, SearchQuery... queries) {
+		if(pageSize < 1) { throw new IllegalArgumentException("Page size must be at least 1"); }
+		for(SearchQuery query : queries) {
+			if(query.getLimiter() == SearchLimiter.LIMIT || query.getLimiter() == SearchLimiter.OFFSET) {
+				throw new IllegalArgumentException("A cursor manages its own limit and offset");
+			}
+		}
+		this.pageSize = pageSize;
+		this.criteria = criteria.copy();
+		this.queries = queries.clone();
+	}
+	
+	/**
+	 * Returns whether another page may hold bugs. This is {@code false} once a page came back empty. A page
+	 * with fewer bugs than the page size does not end the scan, since the installation may cap each search
+	 * at a lower {@code max_search_results}.
+	 * @return {@code true} if {@link #next(BugzillaConnector)} should be called again.
+	 */
+	public boolean hasNext() {
+		return !exhausted;
+	}
+	
+	/**
+	 * Fetches the next page of bugs and advances the cursor past them.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @return The next {@link Bug Bugs} in order of ID, or an empty {@code List} at the end of the results.
+	 * @throws BugzillaException If the search fails, in which case the cursor does not move.
+	 */
+	public List<Bug> next(BugzillaConnector conn) throws BugzillaException {
+		return nextSearch(conn, null).getSearchResults();
+	}
+	
+	/**
+	 * Fetches the next page as {@link BugSummary BugSummaries}, asking Bugzilla for only the summary
+	 * fields, and advances the cursor past them.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @return The next {@code BugSummaries} in order of ID, or an empty {@code List} at the end of the results.
+	 * @throws BugzillaException If the search fails, in which case the cursor does not move.
+	 */
+	public List<BugSummary> nextSummaries(BugzillaConnector conn) throws BugzillaException {
+		return nextSearch(conn, BugSummary.getFields()).getSummaryResults();
+	}
+	
+	/**
+	 * Fetches the next page and advances the cursor past it, returning the executed search so that
+	 * callers can read its records however they need.
+	 * @param includeFields The fields to ask for, which must include {@code "id"}, or null for all fields.
+	 */
+	BugSearch nextSearch(BugzillaConnector conn, String[] includeFields) throws BugzillaException {
+		BugSearch search = newPageSearch(includeFields);
+		conn.executeMethod(search);
+		advance(search);
+		return search;
+	}
+	
+	/**
+	 * Creates the search for the next page without sending it, for callers which execute it themselves.
+	 * Once it has completed, it must be passed to {@link #advance(BugSearch)} before the following page
+	 * is created.
+	 * @param includeFields The fields to ask for, which must include {@code "id"}, or null for all fields.
+	 */
+	BugSearch newPageSearch(String[] includeFields) {
+		SearchCriteria page = SearchCriteria.all();
+		if(!criteria.isEmpty()) {
+			page.add(criteria);
+		}
+		page.add("bug_id", Operator.GREATER_THAN, String.valueOf(lastSeen));
+		
+		SearchQuery[] all = new SearchQuery[queries.length + 1];
+		System.arraycopy(queries, 0, all, 0, queries.length);
+		all[queries.length] = new SearchQuery(SearchLimiter.LIMIT, String.valueOf(pageSize));
+		
+		BugSearch search = new BugSearch(page, all);
+		search.setOrder("bug_id");
+		if(includeFields != null) {
+			search.setIncludeFields(includeFields);
+		}
+		return search;
+	}
+	
+	/**
+	 * Moves the cursor past the bugs returned by an executed page search.
+	 * @param search A search created by {@link #newPageSearch(String[])} which has been executed.
+	 */
+	void advance(BugSearch search) {
+		Object[] records = search.getRecords();
+		for(Object record : records) {
+			lastSeen = Math.max(lastSeen, (Integer)((Map<?, ?>)record).get("id"));
+		}
+		exhausted = records.length == 0;
+	}
+	
+	/**
+	 * Returns the ID of the last bug returned by this cursor.
+	 * @return A bug ID, or 0 if no bugs have been returned yet.
+	 */
+	public int getLastSeenID() {
+		return lastSeen;
+	}
+	
+	/**
+	 * Returns a token recording the position of this cursor, which can be stored and later passed to
+	 * {@link #resume(String)} on a cursor over the same search.
+	 * @return A short {@code String}.
+	 */
+	public String getToken() {
+		return TOKEN_PREFIX + lastSeen;
+	}
+	
+	/**
+	 * Moves this cursor to a position recorded by {@link #getToken()}, so that the next page starts with
+	 * the first bug after the one last returned when the token was taken.
+	 * @param token A token from {@link #getToken()}.
+	 * @throws IllegalArgumentException If the token is malformed.
+	 */
+	public void resume(String token) {
+		if(token == null || !token.startsWith(TOKEN_PREFIX)) {
+			throw new IllegalArgumentException("Not a cursor token: " + token);
+		}
+		try {
+			int id = Integer.parseInt(token.substring(TOKEN_PREFIX.length()));
+			if(id < 0) { throw new IllegalArgumentException("Not a cursor token: " + token); }
+			lastSeen = id;
+			exhausted = false;
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Not a cursor token: " + token);
+		}
+	}
+	
+}
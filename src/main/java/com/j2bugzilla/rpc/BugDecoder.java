@@ -0,0 +1,126 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugFactory;
+import com.j2bugzilla.base.BugSummary;
+
+/**
+ * Converts the bug records returned by {@code Bug.get} and {@code Bug.search} into {@link Bug Bugs},
+ * either on the calling thread or split into chunks across an {@link ExecutorService}, or into
+ * {@link BugSummary BugSummaries}.
+ */
+final class BugDecoder {
+
+	/**
+	 * Results smaller than this are always decoded on the calling thread
+	 */
+	private static final int PARALLEL_THRESHOLD = 512;
+	
+	/**
+	 * The smallest number of bugs worth handing to another thread
+	 */
+	private static final int MIN_CHUNK_SIZE = 128;
+	
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private BugDecoder() { }
+	
+	/**
+	 * Converts a single bug record into a {@link Bug} backed by that record.
+	 */
+	static Bug decode(Object record) {
+		@SuppressWarnings("unchecked")
+		Map<String, Object> bugMap = (Map<String, Object>)record;
+		//The Bug reads straight from the record and copies it only if modified, so the
+		//version fallback for older installations is handled by the Bug itself
+		return new BugFactory().createLazyBug(bugMap);
+	}
+	
+	/**
+	 * Converts an array of bug records, preserving their order.
+	 * @param records The records returned by Bugzilla.
+	 * @param executor An {@code ExecutorService} to spread large arrays across, or null to decode on
+	 * the calling thread.
+	 */
+	static List<Bug> decodeAll(final Object[] records, ExecutorService executor) {
+		if(executor == null || records.length < PARALLEL_THRESHOLD) {
+			return decodeRange(records, 0, records.length);
+		}
+		
+		int chunks = Math.max(1, Math.min(records.length / MIN_CHUNK_SIZE, 
+				Runtime.getRuntime().availableProcessors() * 4));
+		int chunkSize = (records.length + chunks - 1) / chunks;
+		List<Callable<List<Bug>>> tasks = new ArrayList<Callable<List<Bug>>>();
+		for(int start = 0; start < records.length; start += chunkSize) {
+			final int from = start;
+			final int to = Math.min(start + chunkSize, records.length);
+			tasks.add(new Callable<List<Bug>>() {
+				@Override
+				public List<Bug> call() {
+					return decodeRange(records, from, to);
+				}
+			});
+		}
+		
+		List<Bug> bugs = new ArrayList<Bug>(records.length);
+		try {
+			for(Future<List<Bug>> chunk : executor.invokeAll(tasks)) {
+				bugs.addAll(chunk.get());
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return decodeRange(records, 0, records.length);
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) { throw (RuntimeException)cause; }
+			if(cause instanceof Error) { throw (Error)cause; }
+			throw new IllegalStateException(cause);
+		}
+		return bugs;
+	}
+	
+	/**
+	 * Converts an array of bug records into {@link BugSummary BugSummaries}, preserving their order.
+	 */
+	static List<BugSummary> decodeSummaries(Object[] records) {
+		List<BugSummary> summaries = new ArrayList<BugSummary>(records.length);
+		for(Object record : records) {
+			summaries.add(BugSummary.fromRecord((Map<?, ?>)record));
+		}
+		return summaries;
+	}
+	
+	private static List<Bug> decodeRange(Object[] records, int from, int to) {
+		Bug[] bugs = new Bug[to - from];
+		for(int i = from; i < to; i++) {
+			bugs[i - from] = decode(records[i]);
+		}
+		return Arrays.asList(bugs);
+	}
+	
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import com.j2bugzilla.base.Bug;
+
+/**
+ * A {@code BugFilter} is a condition on a {@link Bug} which can only be evaluated by the client. It is used
+ * within a {@link BugQuery} for tests which Bugzilla's search cannot express.
+ */
+public interface BugFilter {
+
+	/**
+	 * Decides whether a {@link Bug} satisfies this filter.
+	 * @param bug A {@code Bug} returned by a search.
+	 * @return {@code true} if the bug should be kept.
+	 */
+	boolean accept(Bug bug);
+	
+}
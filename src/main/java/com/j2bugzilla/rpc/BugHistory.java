@@ -0,0 +1,191 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.HistoryEntry;
+import com.j2bugzilla.base.HistoryEntry.FieldChange;
+
+/**
+ * This class allows clients to retrieve the activity log of one or more {@link Bug Bugs}: every change
+ * made to their fields, grouped into {@link HistoryEntry change sets} by who made them and when.
+ * Optionally, only changes made strictly after a given time are returned; this requires Bugzilla 5.0
+ * or later.
+ * 
+ * Histories can be long, so besides {@link #getHistoryByBug()}, which collects every change set, the
+ * result can be consumed one change set at a time through {@link #readHistory(HistoryHandler)}. Change
+ * sets are then decoded as they are handed over and not retained, so callers can aggregate or write out
+ * the history of many bugs without holding a second copy of it as objects alongside the raw response.
+ * User and field names are shared between change sets to keep retained histories small.
+ */
+public class BugHistory implements BugzillaMethod {
+
+	/**
+	 * The XML-RPC method Bugzilla will use
+	 */
+	private static final String METHOD_NAME = "Bug.history";
+	
+	/**
+	 * A {@code Map} of parameter objects required by the XML-RPC method call.
+	 */
+	private final Map<Object, Object> params = new HashMap<Object, Object>();
+	
+	/**
+	 * A {@code Map} of objects returned by the XML-RPC method call.
+	 */
+	private Map<Object, Object> hash = new HashMap<Object, Object>();
+	
+	/**
+	 * Receives the change sets of a {@link BugHistory} one at a time.
+	 */
+	public interface HistoryHandler {
+		
+		/**
+		 * Called for each change set, in the order Bugzilla returned them.
+		 * @param bugId The ID of the bug which was changed.
+		 * @param entry The {@link HistoryEntry} describing the change.
+		 */
+		void handle(int bugId, HistoryEntry entry);
+	}
+	
+	/**
+	 * Creates a new {@link BugHistory} object to retrieve the full history of the given bugs.
+	 * @param ids The IDs of the bugs.
+	 */
+	public BugHistory(int... ids) {
+		if(ids.length == 0) { throw new IllegalArgumentException("At least one bug ID is required"); }
+		if(ids.length == 1) {
+			params.put("ids", ids[0]);
+		} else {
+			Object[] boxed = new Object[ids.length];
+			for(int i = 0; i < ids.length; i++) {
+				boxed[i] = ids[i];
+			}
+			params.put("ids", boxed);
+		}
+	}
+	
+	/**
+	 * Creates a new {@link BugHistory} object to retrieve the changes made to the given bugs strictly after
+	 * a given time. Bugzilla records times to the second, so changes made in the same second as
+	 * {@code newSince} are not returned.
+	 * @param newSince The time after which changes are returned.
+	 * @param ids The IDs of the bugs.
+	 */
+	public BugHistory(Date newSince, int... ids) {
+		this(ids);
+		params.put("new_since", new Date(newSince.getTime()));
+	}
+	
+	/**
+	 * Passes each change set returned by the installation to a {@link HistoryHandler}, decoding it only
+	 * when it is handed over.
+	 * @param handler The {@code HistoryHandler} to receive the change sets.
+	 */
+	public void readHistory(HistoryHandler handler) {
+		if(!hash.containsKey("bugs")) { return; }
+		Map<String, String> names = new HashMap<String, String>();
+		
+		for(Object b : (Object[])hash.get("bugs")) {
+			Map<?, ?> bug = (Map<?, ?>)b;
+			int bugId = (Integer)bug.get("id");
+			Object[] history = (Object[])bug.get("history");
+			if(history == null) { continue; }
+			
+			for(Object h : history) {
+				Map<?, ?> entry = (Map<?, ?>)h;
+				Object[] changes = (Object[])entry.get("changes");
+				FieldChange[] fieldChanges = new FieldChange[changes.length];
+				for(int i = 0; i < changes.length; i++) {
+					Map<?, ?> change = (Map<?, ?>)changes[i];
+					Object attachment = change.get("attachment_id");
+					fieldChanges[i] = new FieldChange(share(names, (String)change.get("field_name")), 
+							(String)change.get("removed"), (String)change.get("added"),
+							attachment instanceof Integer ? (Integer)attachment : -1);
+				}
+				handler.handle(bugId, new HistoryEntry(share(names, (String)entry.get("who")), 
+						(Date)entry.get("when"), fieldChanges));
+			}
+		}
+	}
+	
+	/**
+	 * Returns one shared instance for each distinct name seen while decoding.
+	 */
+	private static String share(Map<String, String> names, String name) {
+		if(name == null) { return null; }
+		String shared = names.get(name);
+		if(shared == null) {
+			names.put(name, name);
+			shared = name;
+		}
+		return shared;
+	}
+	
+	/**
+	 * Returns the change sets of each requested {@link Bug}.
+	 * @return A <code>Map</code> from bug ID to its {@link HistoryEntry change sets}, oldest first.
+	 */
+	public Map<Integer, List<HistoryEntry>> getHistoryByBug() {
+		final Map<Integer, List<HistoryEntry>> byBug = new LinkedHashMap<Integer, List<HistoryEntry>>();
+		readHistory(new HistoryHandler() {
+			@Override
+			public void handle(int bugId, HistoryEntry entry) {
+				List<HistoryEntry> entries = byBug.get(bugId);
+				if(entries == null) {
+					entries = new ArrayList<HistoryEntry>();
+					byBug.put(bugId, entries);
+				}
+				entries.add(entry);
+			}
+		});
+		return byBug;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setResultMap(Map<Object, Object> hash) {
+		this.hash = hash;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<Object, Object> getParameterMap() {
+		return Collections.unmodifiableMap(params);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getMethodName() {
+		return METHOD_NAME;
+	}
+
+}
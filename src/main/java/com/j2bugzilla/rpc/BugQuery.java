@@ -0,0 +1,437 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.SearchCriteria.Operator;
+
+/**
+ * A {@code BugQuery} is a predicate over the fields of a {@link Bug}, built from comparisons combined with
+ * AND, OR and NOT. Unlike a plain Java condition, a {@code BugQuery} knows how each of its parts can be
+ * expressed as Bugzilla search parameters, so a {@link QueryPlan} can send as much of it as possible to
+ * the installation and apply only the remainder on the client. Conditions Bugzilla cannot evaluate are
+ * supplied as a {@link BugFilter} through {@link #filter(String, BugFilter)}.
+ * 
+ * For example, to find open P1 bugs in a product whose summary mentions a crash and which pass a custom check:
+ * <pre>
+ * BugQuery query = BugQuery.and(
+ *     BugQuery.eq(Field.PRODUCT, "J2Bugzilla"),
+ *     BugQuery.anyOf(Field.STATUS, "NEW", "ASSIGNED"),
+ *     BugQuery.or(BugQuery.eq(Field.PRIORITY, "P1"), BugQuery.contains(Field.SUMMARY, "crash")),
+ *     BugQuery.filter("needs triage", triageFilter));
+ * </pre>
+ * 
+ * Instances are immutable.
+ */
+public abstract class BugQuery {
+
+	/**
+	 * The fields of a {@link Bug} a {@link BugQuery} can compare.
+	 */
+	public enum Field {
+		
+		/**
+		 * The product the bug is filed under
+		 */
+		PRODUCT("product", SearchLimiter.PRODUCT),
+		
+		/**
+		 * The component of the product the bug is filed under
+		 */
+		COMPONENT("component", SearchLimiter.COMPONENT),
+		
+		/**
+		 * The version of the product affected by the bug
+		 */
+		VERSION("version", SearchLimiter.VERSION),
+		
+		/**
+		 * The status of the bug
+		 */
+		STATUS("bug_status", SearchLimiter.STATUS),
+		
+		/**
+		 * The resolution of the bug, which is empty while it is open
+		 */
+		RESOLUTION("resolution", SearchLimiter.RESOLUTION),
+		
+		/**
+		 * The priority of the bug
+		 */
+		PRIORITY("priority", SearchLimiter.PRIORITY),
+		
+		/**
+		 * The severity of the bug
+		 */
+		SEVERITY("bug_severity", null),
+		
+		/**
+		 * The operating system affected by the bug
+		 */
+		OPERATING_SYSTEM("op_sys", SearchLimiter.OPERATING_SYSTEM),
+		
+		/**
+		 * The hardware affected by the bug
+		 */
+		PLATFORM("rep_platform", SearchLimiter.PLATFORM),
+		
+		/**
+		 * The one-line summary of the bug. Bugzilla matches the summary limiter as a substring, so exact
+		 * comparisons on this field are sent as advanced criteria instead.
+		 */
+		SUMMARY("short_desc", null),
+		
+		/**
+		 * The unique alias of the bug
+		 */
+		ALIAS("alias", SearchLimiter.ALIAS);
+		
+		private final String chartName;
+		
+		private final SearchLimiter limiter;
+		
+		/**
+		 * Creates a new {@link Field}
+		 * @param chartName The name of the field in Bugzilla's advanced search
+		 * @param limiter The {@link SearchLimiter} which matches this field exactly, or null if there is none
+		 */
+		Field(String chartName, SearchLimiter limiter) {
+			this.chartName = chartName;
+			this.limiter = limiter;
+		}
+		
+		String getChartName() {
+			return chartName;
+		}
+		
+		SearchLimiter getLimiter() {
+			return limiter;
+		}
+		
+		/**
+		 * Reads this field from a {@link Bug}.
+		 */
+		String valueOf(Bug bug) {
+			switch(this) {
+			case PRODUCT: return bug.getProduct();
+			case COMPONENT: return bug.getComponent();
+			case VERSION: return bug.getVersion();
+			case STATUS: return bug.getStatus();
+			case RESOLUTION: return bug.getResolution();
+			case PRIORITY: return bug.getPriority();
+			case SEVERITY: return bug.getSeverity();
+			case OPERATING_SYSTEM: return bug.getOperatingSystem();
+			case PLATFORM: return bug.getPlatform();
+			case SUMMARY: return bug.getSummary();
+			case ALIAS: return bug.getAlias();
+			default: throw new IllegalStateException("Unknown field " + this);
+			}
+		}
+	}
+	
+	/**
+	 * Package-private constructor; queries are created through the static factory methods.
+	 */
+	BugQuery() { }
+	
+	/**
+	 * Creates a query matching bugs whose field is exactly the given value.
+	 * @param field The {@link Field} to compare.
+	 * @param value The value to match.
+	 * @return A new {@code BugQuery}.
+	 */
+	public static BugQuery eq(Field field, String value) {
+		return new Comparison(field, Operator.EQUALS, value);
+	}
+	
+	/**
+	 * Creates a query matching bugs whose field is exactly any one of the given values.
+	 * @param field The {@link Field} to compare.
+	 * @param values The values to accept. Values must not contain commas.
+	 * @return A new {@code BugQuery}.
+	 */
+	public static BugQuery anyOf(Field field, String... values) {
+		if(values.length == 0) { throw new IllegalArgumentException("At least one value is required"); }
+		for(String value : values) {
+			if(value.indexOf(',') >= 0) { throw new IllegalArgumentException("Values cannot contain commas: " + value); }
+		}
+		return new Comparison(field, Operator.ANY_EXACT, values);
+	}
+	
+	/**
+	 * Creates a query matching bugs whose field contains the given text, ignoring case.
+	 * @param field The {@link Field} to compare.
+	 * @param text The text to look for.
+	 * @return A new {@code BugQuery}.
+	 */
+	public static BugQuery contains(Field field, String text) {
+		return new Comparison(field, Operator.SUBSTRING, text);
+	}
+	
+	/**
+	 * Creates a query matching bugs which satisfy all of the given queries.
+	 * @param queries The queries to combine.
+	 * @return A new {@code BugQuery}.
+	 */
+	public static BugQuery and(BugQuery... queries) {
+		return new Junction(true, queries);
+	}
+	
+	/**
+	 * Creates a query matching bugs which satisfy any of the given queries.
+	 * @param queries The queries to combine.
+	 * @return A new {@code BugQuery}.
+	 */
+	public static BugQuery or(BugQuery... queries) {
+		return new Junction(false, queries);
+	}
+	
+	/**
+	 * Creates a query matching bugs which do not satisfy the given query.
+	 * @param query The query to invert.
+	 * @return A new {@code BugQuery}.
+	 */
+	public static BugQuery not(BugQuery query) {
+		return new Negation(query);
+	}
+	
+	/**
+	 * Creates a query which can only be evaluated on the client, by the given {@link BugFilter}.
+	 * @param description A short description of the filter, used when reporting a {@link QueryPlan}.
+	 * @param filter The {@code BugFilter} to apply.
+	 * @return A new {@code BugQuery}.
+	 */
+	public static BugQuery filter(String description, BugFilter filter) {
+		return new Custom(description, filter);
+	}
+	
+	/**
+	 * Evaluates this query against a {@link Bug} on the client.
+	 * @param bug The {@code Bug} to test.
+	 * @return {@code true} if the bug satisfies this query.
+	 */
+	public abstract boolean matches(Bug bug);
+	
+	/**
+	 * Returns whether this whole query can be evaluated by Bugzilla.
+	 */
+	abstract boolean isPushable();
+	
+	/**
+	 * Adds this query, which must be {@link #isPushable() pushable}, to the given criteria.
+	 */
+	abstract void pushTo(SearchCriteria criteria);
+	
+	/**
+	 * A comparison of a single field with one or more values.
+	 */
+	static final class Comparison extends BugQuery {
+		
+		private final Field field;
+		private final Operator operator;
+		private final List<String> values;
+		
+		Comparison(Field field, Operator operator, String... values) {
+			if(field == null) { throw new IllegalArgumentException("A field is required"); }
+			this.field = field;
+			this.operator = operator;
+			this.values = Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(values)));
+		}
+		
+		Field getField() {
+			return field;
+		}
+		
+		List<String> getValues() {
+			return values;
+		}
+		
+		/**
+		 * Returns whether this comparison can be sent as {@link SearchLimiter} queries, which match exactly.
+		 */
+		boolean isLimiterMatch() {
+			return field.getLimiter() != null && operator != Operator.SUBSTRING;
+		}
+		
+		@Override
+		public boolean matches(Bug bug) {
+			String actual = field.valueOf(bug);
+			if(actual == null) { actual = ""; }
+			if(operator == Operator.SUBSTRING) {
+				return actual.toLowerCase(Locale.ENGLISH).contains(values.get(0).toLowerCase(Locale.ENGLISH));
+			}
+			return values.contains(actual);
+		}
+		
+		@Override
+		boolean isPushable() {
+			return true;
+		}
+		
+		@Override
+		void pushTo(SearchCriteria criteria) {
+			if(operator == Operator.ANY_EXACT) {
+				criteria.addAnyOf(field.getChartName(), values.toArray(new String[values.size()]));
+			} else {
+				criteria.add(field.getChartName(), operator, values.get(0));
+			}
+		}
+		
+		@Override
+		public String toString() {
+			String name = field.name().toLowerCase(Locale.ENGLISH);
+			if(operator == Operator.SUBSTRING) { return name + " contains \"" + values.get(0) + "\""; }
+			if(values.size() == 1) { return name + " = " + values.get(0); }
+			return name + " in " + values;
+		}
+	}
+	
+	/**
+	 * Several queries joined with AND or OR.
+	 */
+	static final class Junction extends BugQuery {
+		
+		private final boolean matchAll;
+		private final List<BugQuery> children;
+		
+		Junction(boolean matchAll, BugQuery... children) {
+			if(children.length == 0) { throw new IllegalArgumentException("At least one query is required"); }
+			this.matchAll = matchAll;
+			this.children = Collections.unmodifiableList(new ArrayList<BugQuery>(Arrays.asList(children)));
+		}
+		
+		boolean isConjunction() {
+			return matchAll;
+		}
+		
+		List<BugQuery> getChildren() {
+			return children;
+		}
+		
+		@Override
+		public boolean matches(Bug bug) {
+			for(BugQuery child : children) {
+				if(child.matches(bug) != matchAll) { return !matchAll; }
+			}
+			return matchAll;
+		}
+		
+		@Override
+		boolean isPushable() {
+			for(BugQuery child : children) {
+				if(!child.isPushable()) { return false; }
+			}
+			return true;
+		}
+		
+		@Override
+		void pushTo(SearchCriteria criteria) {
+			SearchCriteria group = matchAll ? SearchCriteria.all() : SearchCriteria.any();
+			for(BugQuery child : children) {
+				child.pushTo(group);
+			}
+			criteria.add(group);
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder str = new StringBuilder("(");
+			for(BugQuery child : children) {
+				if(str.length() > 1) { str.append(matchAll ? " AND " : " OR "); }
+				str.append(child);
+			}
+			return str.append(')').toString();
+		}
+	}
+	
+	/**
+	 * The inverse of another query.
+	 */
+	static final class Negation extends BugQuery {
+		
+		private final BugQuery query;
+		
+		Negation(BugQuery query) {
+			if(query == null) { throw new IllegalArgumentException("A query is required"); }
+			this.query = query;
+		}
+		
+		@Override
+		public boolean matches(Bug bug) {
+			return !query.matches(bug);
+		}
+		
+		@Override
+		boolean isPushable() {
+			return query.isPushable();
+		}
+		
+		@Override
+		void pushTo(SearchCriteria criteria) {
+			SearchCriteria group = SearchCriteria.all();
+			query.pushTo(group);
+			criteria.add(group.negate());
+		}
+		
+		@Override
+		public String toString() {
+			return "NOT " + query;
+		}
+	}
+	
+	/**
+	 * A condition evaluated by a {@link BugFilter} on the client.
+	 */
+	static final class Custom extends BugQuery {
+		
+		private final String description;
+		private final BugFilter filter;
+		
+		Custom(String description, BugFilter filter) {
+			if(filter == null) { throw new IllegalArgumentException("A filter is required"); }
+			this.description = description;
+			this.filter = filter;
+		}
+		
+		@Override
+		public boolean matches(Bug bug) {
+			return filter.accept(bug);
+		}
+		
+		@Override
+		boolean isPushable() {
+			return false;
+		}
+		
+		@Override
+		void pushTo(SearchCriteria criteria) {
+			throw new IllegalStateException("Client-side filters cannot be sent to Bugzilla");
+		}
+		
+		@Override
+		public String toString() {
+			return "[" + description + "]";
+		}
+	}
+	
+}
@@ -15,14 +15,18 @@
  */
 package com.j2bugzilla.rpc;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import com.j2bugzilla.base.Bug;
-import com.j2bugzilla.base.BugFactory;
+import com.j2bugzilla.base.BugSummary;
 import com.j2bugzilla.base.BugzillaMethod;
 
 /**
@@ -124,21 +128,50 @@ public class BugSearch implements BugzillaMethod {
 		/**
 		 * The maximum number of bugs to return.
 		 */
-		LIMIT("limit"),
+		LIMIT("limit", false),
 		
 		/**
 		 * An offset into bugs returned by search.
 		 */
-		OFFSET("offset"); 
+		OFFSET("offset", false),
+		
+		/**
+		 * The time a bug was last changed. Searching on this limiter returns bugs changed
+		 * at or after the given time.
+		 */
+		LAST_CHANGE_TIME("last_change_time", false); 
 		
 		private final String name;
+		
+		private final boolean multiValued;
+		
 		/**
 		 * Creates a new {@link SearchLimiter} with the
-		 * designated name
+		 * designated name, which accepts several values
 		 * @param name The name Bugzilla expects for this search limiter
 		 */
 		SearchLimiter(String name) {
+			this(name, true);
+		}
+		
+		/**
+		 * Creates a new {@link SearchLimiter} with the
+		 * designated name
+		 * @param name The name Bugzilla expects for this search limiter
+		 * @param multiValued Whether Bugzilla accepts a list of values for this limiter
+		 */
+		SearchLimiter(String name, boolean multiValued) {
 			this.name = name;
+			this.multiValued = multiValued;
+		}
+		
+		/**
+		 * Returns whether several values may be given for this search limiter, in which case bugs
+		 * matching any one of them are found.
+		 * @return {@code true} if this limiter accepts several values
+		 */
+		public boolean isMultiValued() {
+			return multiValued;
 		}
 		/**
 		 * Get the name Bugzilla expects for this search limiter
@@ -151,14 +184,49 @@ public class BugSearch implements BugzillaMethod {
 	
 	/**
 	 * Creates a new {@link BugSearch} object to query the Bugzilla installation based on one or more
-	 * {@link SearchQuery SearchQueries}.
+	 * {@link SearchQuery SearchQueries}. Queries on different limiters are joined with AND; several
+	 * queries on the same limiter are joined with OR, so that for example two {@link SearchLimiter#STATUS}
+	 * queries find bugs having either status.
 	 * @param queries One or more {@code SearchQuery} objects to narrow the search by.
+	 * @throws IllegalArgumentException If no queries are given, or a limiter which only takes a single
+	 * value, such as {@link SearchLimiter#LIMIT}, is given more than once.
 	 */
 	public BugSearch(SearchQuery... queries) {
 		if(queries.length == 0) { throw new IllegalArgumentException("At least one search query is required"); }
-		
+		addQueries(queries);
+	}
+	
+	/**
+	 * Creates a new {@link BugSearch} object to query the Bugzilla installation based on a boolean
+	 * combination of conditions, optionally narrowed further by {@link SearchQuery SearchQueries}.
+	 * The criteria are evaluated by Bugzilla, which requires version 5.0 or later.
+	 * @param criteria The {@link SearchCriteria} bugs must match.
+	 * @param queries Any {@code SearchQuery} objects to narrow the search by, such as a {@link SearchLimiter#LIMIT}.
+	 */
+	public BugSearch(SearchCriteria criteria, SearchQuery... queries) {
+		if(criteria.isEmpty() && queries.length == 0) { 
+			throw new IllegalArgumentException("At least one search condition is required"); 
+		}
+		criteria.addTo(params);
+		addQueries(queries);
+	}
+	
+	private void addQueries(SearchQuery... queries) {
+		Map<String, List<Object>> values = new LinkedHashMap<String, List<Object>>();
 		for(SearchQuery query : queries) {
-			params.put(query.getLimiter().getName(), query.getQuery());
+			String name = query.getLimiter().getName();
+			List<Object> list = values.get(name);
+			if(list == null) {
+				list = new ArrayList<Object>();
+				values.put(name, list);
+			} else if(!query.getLimiter().isMultiValued()) {
+				throw new IllegalArgumentException("Only one value may be given for " + query.getLimiter());
+			}
+			list.add(query.getValue());
+		}
+		for(Map.Entry<String, List<Object>> entry : values.entrySet()) {
+			List<Object> list = entry.getValue();
+			params.put(entry.getKey(), list.size() == 1 ? list.get(0) : list.toArray());
 		}
 	}
 	
@@ -167,27 +235,69 @@ public class BugSearch implements BugzillaMethod {
 	 * @return a {@link List} of {@link Bug Bugs} that match the query and limit
 	 */
 	public List<Bug> getSearchResults() {
-		List<Bug> results = new ArrayList<Bug>();
-		/*
-		 * The following is messy, but necessary due to how the returned XML document nests
-		 * Maps.
-		 */
-		if(hash.containsKey("bugs")) {
-			Object[] bugs = (Object[])hash.get("bugs");
-			
-			for(Object o : bugs) {
-				@SuppressWarnings("unchecked")
-				Map<String, Object> bugMap = (HashMap<String, Object>)o;
-				//Handle version property for older Bugzillas which did not include it in the public portion of the hash
-				if(!bugMap.containsKey("version")) {
-					Map<?, ?> internals = (Map<?, ?>) bugMap.get("internals");
-					bugMap.put("version", internals.get("version"));
-				}
-				Bug bug = new BugFactory().createBug(bugMap);
-				results.add(bug);
-			}
+		return getSearchResults(null);
+	}
+	
+	/**
+	 * Returns the {@link Bug Bugs} found by the query as a <code>List</code>, spreading the work of
+	 * decoding large results across an {@link ExecutorService}. The order of the results is the same as
+	 * that of {@link #getSearchResults()}; small results are decoded on the calling thread.
+	 * @param executor The {@code ExecutorService} to decode with, or null to decode on the calling thread.
+	 * @return a {@link List} of {@link Bug Bugs} that match the query and limit
+	 */
+	public List<Bug> getSearchResults(ExecutorService executor) {
+		if(!hash.containsKey("bugs")) {
+			return new ArrayList<Bug>();
 		}
-		return results;
+		return new ArrayList<Bug>(BugDecoder.decodeAll((Object[])hash.get("bugs"), executor));
+	}
+	
+	/**
+	 * Returns the raw bug records found by the query, or an empty array if it has not been executed.
+	 */
+	Object[] getRecords() {
+		return hash.containsKey("bugs") ? (Object[])hash.get("bugs") : new Object[0];
+	}
+
+	/**
+	 * Sets the order in which Bugzilla returns the bugs found. This must be called before the search
+	 * is executed, and requires Bugzilla 5.0 or later.
+	 * @param order A comma-separated list of Bugzilla field names to sort by, such as {@code "bug_id"};
+	 * a field may be followed by {@code DESC} to reverse it.
+	 */
+	public void setOrder(String order) {
+		params.put("order", order);
+	}
+	
+	/**
+	 * Asks Bugzilla to return only the fields needed for a {@link BugSummary} instead of whole bugs.
+	 * This must be called before the search is executed; afterwards the results are available from
+	 * {@link #getSummaryResults()} rather than {@link #getSearchResults()}.
+	 */
+	public void setSummaryOnly() {
+		setIncludeFields(BugSummary.getFields());
+	}
+	
+	/**
+	 * Asks Bugzilla to return only the given fields of each bug. This must be called before the search is
+	 * executed. Bugs missing the fields required by {@link Bug} can then only be read through
+	 * {@link #getSummaryResults()} or an aggregation such as {@link BugCounts}.
+	 * @param fields The names of the fields to return, such as {@code "id"} or {@code "status"}.
+	 */
+	public void setIncludeFields(String... fields) {
+		params.put("include_fields", fields.clone());
+	}
+	
+	/**
+	 * Returns the {@link BugSummary BugSummaries} of the bugs found by the query. This works whether or not
+	 * the search was limited with {@link #setSummaryOnly()}.
+	 * @return a {@link List} of {@code BugSummaries} that match the query and limit
+	 */
+	public List<BugSummary> getSummaryResults() {
+		if(!hash.containsKey("bugs")) {
+			return new ArrayList<BugSummary>();
+		}
+		return BugDecoder.decodeSummaries((Object[])hash.get("bugs"));
 	}
 
 	/**
@@ -221,8 +331,8 @@ public class BugSearch implements BugzillaMethod {
 	 * {@link SearchLimiter#PRODUCT "Product"} and the query {@code "J2Bugzilla"}.
 	 * 
 	 * When a {@code SearchQuery} is applied within the {@link BugSearch} class, it is joined with the
-	 * other queries in a logical AND. That is, bugs will be returned that match all the criteria, not
-	 * any of them.
+	 * queries on other limiters in a logical AND, and with queries on the same limiter in a logical OR.
+	 * For more involved conditions, see {@link SearchCriteria}.
 	 * 
 	 * @author Tom
 	 *
@@ -233,6 +343,11 @@ public class BugSearch implements BugzillaMethod {
 		
 		private final String query;
 		
+		/**
+		 * The value sent to Bugzilla, which is the query string unless a typed value was supplied
+		 */
+		private final Object value;
+		
 		/**
 		 * Creates a new {@link SearchQuery} to filter the bug database through.
 		 * @param limiter A {@link SearchLimiter} enum.
@@ -242,6 +357,19 @@ public class BugSearch implements BugzillaMethod {
 		public SearchQuery(SearchLimiter limiter, String query) {
 			this.limiter = limiter;
 			this.query = query;
+			this.value = query;
+		}
+		
+		/**
+		 * Creates a new {@link SearchQuery} which filters on a time, such as 
+		 * {@link SearchLimiter#LAST_CHANGE_TIME}. The time is sent to Bugzilla as an XML-RPC date.
+		 * @param limiter A {@link SearchLimiter} enum.
+		 * @param time The {@code Date} to filter with.
+		 */
+		public SearchQuery(SearchLimiter limiter, Date time) {
+			this.limiter = limiter;
+			this.query = new SimpleDateFormat("yyyyMMdd'T'HH:mm:ss").format(time);
+			this.value = new Date(time.getTime());
 		}
 		
 		/**
@@ -259,5 +387,13 @@ public class BugSearch implements BugzillaMethod {
 		public String getQuery() { 
 			return query; 
 		}
+		
+		/**
+		 * Returns the value passed to Bugzilla for this query.
+		 * @return The query {@code String}, or a {@code Date} for time-based queries.
+		 */
+		Object getValue() {
+			return value;
+		}
 	}
 }
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+
+/**
+ * The {@code BugTable} holds many bugs in columns for reporting. Each row is a bug; its ID and its
+ * creation and last change times are kept in primitive arrays, and each of a small set of enum-like
+ * fields, such as status or component, is dictionary-encoded: every distinct value is stored once and
+ * the column holds an {@code int} code per row. A million bugs take a few tens of megabytes, against
+ * the kilobyte or so that each {@link Bug} and its map would occupy.
+ * 
+ * Queries work on whole columns. Filters such as {@link #where(String, String...)} scan one column and
+ * return the matching rows as a {@link BitSet}, which can be combined with {@link BitSet#and(BitSet)},
+ * {@link BitSet#or(BitSet)} and {@link BitSet#andNot(BitSet)}. Group-by operators such as
+ * {@link #countBy(String, BitSet)} then count the selected rows into arrays indexed by dictionary code.
+ * 
+ * A table is filled directly from the records of executed {@link BugSearch BugSearches} and
+ * {@link GetBug GetBugs}, without creating a {@code Bug} for each record, or from existing bugs.
+ * Searches should be limited to the {@link #getIncludeFields() fields the table holds}. Fields with
+ * several values per bug are stored as their values joined by commas, and missing values as the empty
+ * string. This class is not thread-safe.
+ */
+public class BugTable {
+
+	private static final String[] DEFAULT_COLUMNS = { "product", "component", "status", "resolution", 
+		"priority", "severity", "assigned_to" };
+	
+	/**
+	 * Marks a row whose record carried no time
+	 */
+	private static final long NO_TIME = Long.MIN_VALUE;
+	
+	private static final int INITIAL_CAPACITY = 1024;
+	
+	/**
+	 * The distinct values of a column, each with the code it is stored as.
+	 */
+	private static final class Dictionary {
+		
+		private final List<String> values = new ArrayList<String>();
+		
+		private final Map<String, Integer> codes = new HashMap<String, Integer>();
+		
+		int encode(String value) {
+			Integer code = codes.get(value);
+			if(code == null) {
+				code = values.size();
+				values.add(value);
+				codes.put(value, code);
+			}
+			return code;
+		}
+	}
+	
+	private final String[] columns;
+	
+	private final Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+	
+	private final Dictionary[] dictionaries;
+	
+	private int[][] codes;
+	
+	private int[] ids = new int[INITIAL_CAPACITY];
+	
+	private long[] created = new long[INITIAL_CAPACITY];
+	
+	private long[] changed = new long[INITIAL_CAPACITY];
+	
+	private int size = 0;
+	
+	/**
+	 * Creates a new, empty {@link BugTable} with columns for the product, component, status, resolution,
+	 * priority, severity and assignee of each bug.
+	 */
+	public BugTable() {
+		this(DEFAULT_COLUMNS);
+	}
+	
+	/**
+	 * Creates a new, empty {@link BugTable} with the given dictionary-encoded columns. The ID, creation
+	 * time and last change time of each bug are always held.
+	 * @param columns The names of the fields to hold, as returned by {@code Bug.search}, such as
+	 * {@code "status"} or {@code "assigned_to"}. These should have few distinct values compared to the
+	 * number of bugs.
+	 */
+	public BugTable(String... columns) {
+		if(columns.length == 0) { throw new IllegalArgumentException("At least one column is required"); }
+		this.columns = columns.clone();
+		dictionaries = new Dictionary[columns.length];
+		codes = new int[columns.length][INITIAL_CAPACITY];
+		for(int i = 0; i < columns.length; i++) {
+			if(columnIndex.put(columns[i], i) != null) {
+				throw new IllegalArgumentException("Duplicate column: " + columns[i]);
+			}
+			dictionaries[i] = new Dictionary();
+		}
+	}
+	
+	/**
+	 * Returns the fields a search must return to fill this table, for use with 
+	 * {@link BugSearch#setIncludeFields(String...)}.
+	 * @return A new array holding the columns, the bug ID and the creation and last change times.
+	 */
+	public String[] getIncludeFields() {
+		String[] include = Arrays.copyOf(columns, columns.length + 3);
+		include[columns.length] = "id";
+		include[columns.length + 1] = "creation_time";
+		include[columns.length + 2] = "last_change_time";
+		return include;
+	}
+	
+	/**
+	 * Adds every bug returned by an executed {@link BugSearch} as a row.
+	 * @param search A {@code BugSearch} which has been executed.
+	 */
+	public void add(BugSearch search) {
+		for(Object record : search.getRecords()) {
+			add((Map<?, ?>)record);
+		}
+	}
+	
+	/**
+	 * Adds every bug returned by an executed {@link GetBug} as a row.
+	 * @param get A {@code GetBug} which has been executed.
+	 */
+	public void add(GetBug get) {
+		for(Object record : get.getRecords()) {
+			add((Map<?, ?>)record);
+		}
+	}
+	
+	/**
+	 * Adds a bug as a row.
+	 * @param bug A {@link Bug} retrieved from the installation.
+	 */
+	public void add(Bug bug) {
+		add(bug.getParameterMap());
+	}
+	
+	/**
+	 * Adds each of a collection of bugs as a row.
+	 * @param bugs {@link Bug Bugs} retrieved from the installation.
+	 */
+	public void addAll(Collection<Bug> bugs) {
+		for(Bug bug : bugs) {
+			add(bug);
+		}
+	}
+	
+	/**
+	 * Pages through every result of a {@link BugCursor} and adds them as rows, asking Bugzilla for only
+	 * the fields this table holds.
+	 * @param cursor The {@code BugCursor} to drain.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @throws BugzillaException If a page cannot be fetched. Pages added before the failure are kept,
+	 * and the cursor can be resumed.
+	 */
+	public void addAll(BugCursor cursor, BugzillaConnector conn) throws BugzillaException {
+		String[] include = getIncludeFields();
+		while(cursor.hasNext()) {
+			add(cursor.nextSearch(conn, include));
+		}
+	}
+	
+	private void add(Map<?, ?> record) {
+		if(size == ids.length) {
+			int capacity = size * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			created = Arrays.copyOf(created, capacity);
+			changed = Arrays.copyOf(changed, capacity);
+			for(int i = 0; i < columns.length; i++) {
+				codes[i] = Arrays.copyOf(codes[i], capacity);
+			}
+		}
+		Object id = record.get("id");
+		ids[size] = id == null ? -1 : ((Number)id).intValue();
+		created[size] = timeOf(record.get("creation_time"));
+		changed[size] = timeOf(record.get("last_change_time"));
+		for(int i = 0; i < columns.length; i++) {
+			codes[i][size] = dictionaries[i].encode(valueOf(record.get(columns[i])));
+		}
+		size++;
+	}
+	
+	private static long timeOf(Object value) {
+		return value instanceof Date ? ((Date)value).getTime() : NO_TIME;
+	}
+	
+	private static String valueOf(Object value) {
+		if(value == null) { return ""; }
+		if(value instanceof Object[]) {
+			StringBuilder joined = new StringBuilder();
+			for(Object element : (Object[])value) {
+				if(joined.length() > 0) { joined.append(", "); }
+				joined.append(element);
+			}
+			return joined.toString();
+		}
+		return value.toString();
+	}
+	
+	private int column(String name) {
+		Integer index = columnIndex.get(name);
+		if(index == null) { throw new IllegalArgumentException("No such column: " + name); }
+		return index;
+	}
+	
+	/**
+	 * Returns the number of rows in the table.
+	 * @return The number of bugs added.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the bug ID of a row.
+	 * @param row The index of a row.
+	 * @return The bug ID, or -1 if the record had none.
+	 */
+	public int getID(int row) {
+		checkRow(row);
+		return ids[row];
+	}
+	
+	/**
+	 * Returns the value of a column in a row.
+	 * @param column One of the columns of this table.
+	 * @param row The index of a row.
+	 * @return The value, or the empty string if the record had none.
+	 */
+	public String getValue(String column, int row) {
+		checkRow(row);
+		int index = column(column);
+		return dictionaries[index].values.get(codes[index][row]);
+	}
+	
+	/**
+	 * Returns the creation time of a row.
+	 * @param row The index of a row.
+	 * @return The time the bug was created, or null if the record had none.
+	 */
+	public Date getCreationTime(int row) {
+		checkRow(row);
+		return created[row] == NO_TIME ? null : new Date(created[row]);
+	}
+	
+	/**
+	 * Returns the last change time of a row.
+	 * @param row The index of a row.
+	 * @return The time the bug was last changed, or null if the record had none.
+	 */
+	public Date getLastChangeTime(int row) {
+		checkRow(row);
+		return changed[row] == NO_TIME ? null : new Date(changed[row]);
+	}
+	
+	private void checkRow(int row) {
+		if(row < 0 || row >= size) { throw new IndexOutOfBoundsException("Row " + row + " of " + size); }
+	}
+	
+	/**
+	 * Returns the distinct values seen in a column.
+	 * @param column One of the columns of this table.
+	 * @return A read-only {@code List} of values, in the order they were first seen.
+	 */
+	public List<String> getValues(String column) {
+		return Collections.unmodifiableList(dictionaries[column(column)].values);
+	}
+	
+	/**
+	 * Selects every row.
+	 * @return A new {@link BitSet} with a bit set for each row.
+	 */
+	public BitSet all() {
+		BitSet rows = new BitSet(size);
+		rows.set(0, size);
+		return rows;
+	}
+	
+	/**
+	 * Selects the rows whose value in a column is any of the given values.
+	 * @param column One of the columns of this table.
+	 * @param values The values to match; the empty string matches missing values.
+	 * @return A new {@link BitSet} with a bit set for each matching row.
+	 */
+	public BitSet where(String column, String... values) {
+		int index = column(column);
+		Dictionary dictionary = dictionaries[index];
+		boolean[] match = new boolean[dictionary.values.size()];
+		for(String value : values) {
+			Integer code = dictionary.codes.get(value);
+			if(code != null) { match[code] = true; }
+		}
+		int[] columnCodes = codes[index];
+		BitSet rows = new BitSet(size);
+		for(int row = 0; row < size; row++) {
+			if(match[columnCodes[row]]) { rows.set(row); }
+		}
+		return rows;
+	}
+	
+	/**
+	 * Selects the rows created within a period.
+	 * @param from The start of the period, inclusive, or null for no lower bound.
+	 * @param to The end of the period, exclusive, or null for no upper bound.
+	 * @return A new {@link BitSet} with a bit set for each matching row. Rows without a creation time never match.
+	 */
+	public BitSet createdBetween(Date from, Date to) {
+		return between(created, from, to);
+	}
+	
+	/**
+	 * Selects the rows last changed within a period.
+	 * @param from The start of the period, inclusive, or null for no lower bound.
+	 * @param to The end of the period, exclusive, or null for no upper bound.
+	 * @return A new {@link BitSet} with a bit set for each matching row. Rows without a change time never match.
+	 */
+	public BitSet changedBetween(Date from, Date to) {
+		return between(changed, from, to);
+	}
+	
+	private BitSet between(long[] times, Date from, Date to) {
+		//NO_TIME lies below every real lower bound, so rows without a time are excluded by the first test
+		long lower = from == null ? NO_TIME + 1 : from.getTime();
+		long upper = to == null ? Long.MAX_VALUE : to.getTime();
+		BitSet rows = new BitSet(size);
+		for(int row = 0; row < size; row++) {
+			long time = times[row];
+			if(time >= lower && time < upper) { rows.set(row); }
+		}
+		return rows;
+	}
+	
+	/**
+	 * Returns the bug IDs of the selected rows.
+	 * @param rows The rows to read, or null for every row.
+	 * @return The bug IDs, in row order.
+	 */
+	public int[] getIDs(BitSet rows) {
+		if(rows == null) { return Arrays.copyOf(ids, size); }
+		int[] selected = new int[rows.cardinality()];
+		int i = 0;
+		for(int row = rows.nextSetBit(0); row >= 0 && row < size; row = rows.nextSetBit(row + 1)) {
+			selected[i++] = ids[row];
+		}
+		return i == selected.length ? selected : Arrays.copyOf(selected, i);
+	}
+	
+	/**
+	 * Counts the selected rows by their value in a column.
+	 * @param column One of the columns of this table.
+	 * @param rows The rows to count, or null for every row.
+	 * @return A read-only {@code Map} from value to count, iterating from the most to the least common value.
+	 * Values with no selected rows are left out.
+	 */
+	public Map<String, Integer> countBy(String column, BitSet rows) {
+		int index = column(column);
+		int[] counts = count(codes[index], dictionaries[index].values.size(), rows);
+		return sorted(dictionaries[index].values, counts);
+	}
+	
+	/**
+	 * Counts the selected rows by their values in two columns, such as the number of bugs in each status
+	 * for each component.
+	 * @param column One of the columns of this table, grouping the outer {@code Map}.
+	 * @param by Another column of this table, grouping each inner {@code Map}.
+	 * @param rows The rows to count, or null for every row.
+	 * @return A read-only {@code Map} from each value of {@code column} to the counts for each value of
+	 * {@code by}. Both levels iterate from the largest to the smallest count.
+	 */
+	public Map<String, Map<String, Integer>> countBy(String column, String by, BitSet rows) {
+		int outer = column(column);
+		int inner = column(by);
+		int[] outerCodes = codes[outer];
+		int[] innerCodes = codes[inner];
+		int innerSize = dictionaries[inner].values.size();
+		int[][] counts = new int[dictionaries[outer].values.size()][];
+		int[] totals = new int[counts.length];
+		
+		if(rows == null) {
+			for(int row = 0; row < size; row++) {
+				countPair(counts, totals, innerSize, outerCodes[row], innerCodes[row]);
+			}
+		} else {
+			for(int row = rows.nextSetBit(0); row >= 0 && row < size; row = rows.nextSetBit(row + 1)) {
+				countPair(counts, totals, innerSize, outerCodes[row], innerCodes[row]);
+			}
+		}
+		
+		Map<String, Map<String, Integer>> grouped = new LinkedHashMap<String, Map<String, Integer>>();
+		for(String value : sorted(dictionaries[outer].values, totals).keySet()) {
+			int code = dictionaries[outer].codes.get(value);
+			grouped.put(value, sorted(dictionaries[inner].values, counts[code]));
+		}
+		return Collections.unmodifiableMap(grouped);
+	}
+	
+	private static void countPair(int[][] counts, int[] totals, int innerSize, int outerCode, int innerCode) {
+		if(counts[outerCode] == null) {
+			counts[outerCode] = new int[innerSize];
+		}
+		counts[outerCode][innerCode]++;
+		totals[outerCode]++;
+	}
+	
+	private int[] count(int[] columnCodes, int distinct, BitSet rows) {
+		int[] counts = new int[distinct];
+		if(rows == null) {
+			for(int row = 0; row < size; row++) {
+				counts[columnCodes[row]]++;
+			}
+		} else {
+			for(int row = rows.nextSetBit(0); row >= 0 && row < size; row = rows.nextSetBit(row + 1)) {
+				counts[columnCodes[row]]++;
+			}
+		}
+		return counts;
+	}
+	
+	private static Map<String, Integer> sorted(final List<String> values, final int[] counts) {
+		List<Integer> present = new ArrayList<Integer>();
+		for(int code = 0; code < counts.length; code++) {
+			if(counts[code] > 0) { present.add(code); }
+		}
+		Collections.sort(present, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int diff = counts[b] - counts[a];
+				return diff != 0 ? diff : values.get(a).compareTo(values.get(b));
+			}
+		});
+		Map<String, Integer> sorted = new LinkedHashMap<String, Integer>();
+		for(int code : present) {
+			sorted.put(values.get(code), counts[code]);
+		}
+		return Collections.unmodifiableMap(sorted);
+	}
+	
+}
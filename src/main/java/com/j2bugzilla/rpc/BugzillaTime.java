@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.j2bugzilla.base.BugzillaMethod;
+
+/**
+ * The {@code BugzillaTime} class asks an installation for its current time. The time of the database
+ * server is the clock against which change times such as {@code last_change_time} are recorded, so it
+ * is the one to use when remembering how far a poll for changes has got.
+ */
+public class BugzillaTime implements BugzillaMethod {
+
+	/**
+	 * The method Bugzilla will execute via XML-RPC
+	 */
+	private static final String METHOD_NAME = "Bugzilla.time";
+	
+	private Map<Object, Object> params = new HashMap<Object, Object>();
+	private Map<Object, Object> hash = new HashMap<Object, Object>();
+	
+	/**
+	 * Constructs a new {@link BugzillaTime} object for querying an installation as to its current time.
+	 */
+	public BugzillaTime() { }
+	
+	/**
+	 * Returns the current time of the installation's database server.
+	 * @return The database time, or null if the method has not been executed.
+	 */
+	public Date getDatabaseTime() {
+		Object time = hash.get("db_time");
+		if(time instanceof Date) {
+			return (Date)time;
+		} else {
+			return null;
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setResultMap(Map<Object, Object> hash) {
+		this.hash = hash;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<Object, Object> getParameterMap() {
+		return Collections.unmodifiableMap(params);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getMethodName() {
+		return METHOD_NAME;
+	}
+
+}
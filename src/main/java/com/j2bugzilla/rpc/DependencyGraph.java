@@ -0,0 +1,654 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+
+/**
+ * The {@code DependencyGraph} is a local copy of the {@code depends_on} and {@code blocks} relations
+ * between a set of bugs, for questions such as "everything this release bug transitively depends on",
+ * "which dependencies form a cycle" or "the longest chain of open bugs still in the way".
+ * 
+ * A graph is fetched by a {@link Loader}, which starts from a few root bugs and expands the graph one
+ * level at a time: every bug discovered on a level is requested in batched {@link GetBug} calls, sent
+ * concurrently and limited to the few fields the graph needs. The graph itself is stored in compressed
+ * sparse row form, as primitive arrays of offsets and neighbours in each direction, so traversals
+ * allocate nothing per edge.
+ * 
+ * Bugs referred to by a loaded bug but not fetched themselves, for example because they lie beyond the
+ * maximum depth or because the user cannot see them, are part of the graph but are not
+ * {@link #isLoaded(int) loaded}: their own edges and status are unknown. Instances are immutable and may be shared between threads.
+ */
+public class DependencyGraph {
+
+	/**
+	 * Which relations a {@link Loader} follows when it expands the graph.
+	 */
+	public enum Direction {
+		
+		/**
+		 * Follow the bugs each bug depends on
+		 */
+		DEPENDS_ON,
+		
+		/**
+		 * Follow the bugs each bug blocks
+		 */
+		BLOCKS,
+		
+		/**
+		 * Follow both relations, loading every bug connected to the roots
+		 */
+		BOTH
+	}
+	
+	/**
+	 * Fetches a {@link DependencyGraph} from an installation, level by level from a set of root bugs.
+	 * This class is not thread-safe, but one loader may load several graphs in turn.
+	 */
+	public static class Loader {
+		
+		private static final String[] FIELDS = { "id", "depends_on", "blocks", "status", "is_open" };
+		
+		private static final int DEFAULT_BATCH_SIZE = 200;
+		
+		private static final int DEFAULT_PARALLELISM = 4;
+		
+		private Direction direction = Direction.DEPENDS_ON;
+		
+		private int batchSize = DEFAULT_BATCH_SIZE;
+		
+		private int parallelism = DEFAULT_PARALLELISM;
+		
+		private int maxDepth = Integer.MAX_VALUE;
+		
+		/**
+		 * Sets which relations are followed from the roots. By default only {@code depends_on} is followed.
+		 * @param direction The {@link Direction} to expand in.
+		 */
+		public void setDirection(Direction direction) {
+			if(direction == null) { throw new IllegalArgumentException("Direction cannot be null"); }
+			this.direction = direction;
+		}
+		
+		/**
+		 * Sets the number of bugs requested in each {@link GetBug} call. The default is 200.
+		 * @param batchSize The number of bug IDs per call, at least 1.
+		 */
+		public void setBatchSize(int batchSize) {
+			if(batchSize < 1) { throw new IllegalArgumentException("Batch size must be at least 1"); }
+			this.batchSize = batchSize;
+		}
+		
+		/**
+		 * Sets how many {@link GetBug} calls may be in flight at once. The default is 4.
+		 * @param parallelism The number of concurrent requests, at least 1.
+		 */
+		public void setParallelism(int parallelism) {
+			if(parallelism < 1) { throw new IllegalArgumentException("Parallelism must be at least 1"); }
+			this.parallelism = parallelism;
+		}
+		
+		/**
+		 * Limits how many levels away from the roots bugs are fetched. By default the graph is expanded
+		 * until no new bugs are found.
+		 * @param maxDepth The number of levels to expand, where 0 fetches only the roots.
+		 */
+		public void setMaxDepth(int maxDepth) {
+			if(maxDepth < 0) { throw new IllegalArgumentException("Depth cannot be negative"); }
+			this.maxDepth = maxDepth;
+		}
+		
+		/**
+		 * Fetches the graph reachable from the given bugs.
+		 * @param conn A {@link BugzillaConnector} connected to the installation.
+		 * @param roots The IDs of the bugs to start from.
+		 * @return A new {@link DependencyGraph}. Bugs which do not exist or cannot be seen, including roots,
+		 * are left unloaded.
+		 * @throws BugzillaException If a batch cannot be fetched. Batches still in flight are cancelled.
+		 */
+		public DependencyGraph load(BugzillaConnector conn, int... roots) throws BugzillaException {
+			if(roots.length == 0) { throw new IllegalArgumentException("At least one root is required"); }
+			Builder builder = new Builder();
+			boolean followDepends = direction != Direction.BLOCKS;
+			boolean followBlocks = direction != Direction.DEPENDS_ON;
+			
+			BitSet requested = new BitSet();
+			int[] frontier = new int[roots.length];
+			int frontierSize = 0;
+			for(int root : roots) {
+				builder.node(root);
+				if(!requested.get(root)) {
+					requested.set(root);
+					frontier[frontierSize++] = root;
+				}
+			}
+			
+			for(int depth = 0; frontierSize > 0; depth++) {
+				boolean expand = depth < maxDepth;
+				int[] next = new int[16];
+				int nextSize = 0;
+				for(GetBug get : fetch(conn, frontier, frontierSize)) {
+					for(Object record : get.getRecords()) {
+						Map<?, ?> fields = (Map<?, ?>)record;
+						int id = ((Number)fields.get("id")).intValue();
+						int node = builder.node(id);
+						builder.load(node, (String)fields.get("status"), fields.get("is_open"));
+						for(int dependency : idsOf(fields.get("depends_on"))) {
+							builder.edge(node, builder.node(dependency));
+							if(expand && followDepends && !requested.get(dependency)) {
+								requested.set(dependency);
+								next = append(next, nextSize++, dependency);
+							}
+						}
+						for(int blocked : idsOf(fields.get("blocks"))) {
+							builder.edge(builder.node(blocked), node);
+							if(expand && followBlocks && !requested.get(blocked)) {
+								requested.set(blocked);
+								next = append(next, nextSize++, blocked);
+							}
+						}
+					}
+				}
+				frontier = next;
+				frontierSize = nextSize;
+			}
+			return builder.build();
+		}
+		
+		/**
+		 * Requests a level of bugs in batches, keeping up to {@code parallelism} batches in flight.
+		 */
+		private List<GetBug> fetch(BugzillaConnector conn, int[] ids, int count) throws BugzillaException {
+			List<GetBug> done = new ArrayList<GetBug>();
+			LinkedList<Future<GetBug>> inFlight = new LinkedList<Future<GetBug>>();
+			int next = 0;
+			try {
+				while(next < count || !inFlight.isEmpty()) {
+					while(next < count && inFlight.size() < parallelism) {
+						GetBug get = new GetBug(Arrays.copyOfRange(ids, next, Math.min(count, next + batchSize)));
+						get.setIncludeFields(FIELDS);
+						//One hidden or deleted bug would otherwise fail its whole batch
+						get.setPermissive();
+						inFlight.add(conn.executeMethodAsync(get));
+						next += batchSize;
+					}
+					done.add(await(inFlight.removeFirst()));
+				}
+			} finally {
+				for(Future<GetBug> future : inFlight) {
+					future.cancel(true);
+				}
+			}
+			return done;
+		}
+		
+		private static GetBug await(Future<GetBug> future) throws BugzillaException {
+			try {
+				return future.get();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BugzillaException("Interrupted while loading dependencies", e);
+			} catch(ExecutionException e) {
+				Throwable cause = e.getCause();
+				if(cause instanceof BugzillaException) { throw (BugzillaException)cause; }
+				throw new BugzillaException("Could not load dependencies", cause);
+			}
+		}
+		
+		private static int[] idsOf(Object value) {
+			if(!(value instanceof Object[])) { return new int[0]; }
+			Object[] values = (Object[])value;
+			int[] ids = new int[values.length];
+			for(int i = 0; i < values.length; i++) {
+				ids[i] = ((Number)values[i]).intValue();
+			}
+			return ids;
+		}
+	}
+	
+	/**
+	 * Collects nodes and edges while a graph is loaded, then packs them into a {@link DependencyGraph}.
+	 */
+	private static class Builder {
+		
+		private final Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+		
+		private int[] ids = new int[16];
+		
+		private final List<String> statuses = new ArrayList<String>();
+		
+		private final BitSet loaded = new BitSet();
+		
+		private final BitSet open = new BitSet();
+		
+		/**
+		 * Each edge from a bug to one it depends on, as the two node numbers packed into a {@code long}
+		 */
+		private long[] edges = new long[16];
+		
+		private int edgeCount = 0;
+		
+		int node(int id) {
+			Integer node = index.get(id);
+			if(node == null) {
+				node = index.size();
+				index.put(id, node);
+				ids = append(ids, node, id);
+				statuses.add(null);
+			}
+			return node;
+		}
+		
+		void load(int node, String status, Object isOpen) {
+			loaded.set(node);
+			statuses.set(node, status);
+			//Installations too old to report is_open are taken to list only open bugs as dependencies
+			open.set(node, !Boolean.FALSE.equals(isOpen));
+		}
+		
+		void edge(int from, int to) {
+			if(edgeCount == edges.length) {
+				edges = Arrays.copyOf(edges, edgeCount * 2);
+			}
+			edges[edgeCount++] = (long)from << 32 | to;
+		}
+		
+		DependencyGraph build() {
+			int nodes = index.size();
+			//The same edge is usually reported from both ends, as depends_on of one bug and blocks of the other
+			long[] forward = Arrays.copyOf(edges, edgeCount);
+			Arrays.sort(forward);
+			int unique = 0;
+			for(int i = 0; i < forward.length; i++) {
+				if(i == 0 || forward[i] != forward[i - 1]) {
+					forward[unique++] = forward[i];
+				}
+			}
+			long[] reverse = new long[unique];
+			for(int i = 0; i < unique; i++) {
+				reverse[i] = (forward[i] & 0xFFFFFFFFL) << 32 | forward[i] >>> 32;
+			}
+			Arrays.sort(reverse);
+			
+			int[] dependsOffsets = new int[nodes + 1];
+			int[] dependsTargets = new int[unique];
+			pack(forward, unique, dependsOffsets, dependsTargets);
+			int[] blocksOffsets = new int[nodes + 1];
+			int[] blocksTargets = new int[unique];
+			pack(reverse, unique, blocksOffsets, blocksTargets);
+			
+			return new DependencyGraph(new HashMap<Integer, Integer>(index), Arrays.copyOf(ids, nodes), 
+					statuses.toArray(new String[nodes]), (BitSet)loaded.clone(), (BitSet)open.clone(),
+					dependsOffsets, dependsTargets, blocksOffsets, blocksTargets);
+		}
+		
+		private static void pack(long[] sorted, int count, int[] offsets, int[] targets) {
+			for(int i = 0; i < count; i++) {
+				offsets[(int)(sorted[i] >>> 32) + 1]++;
+				targets[i] = (int)sorted[i];
+			}
+			for(int node = 1; node < offsets.length; node++) {
+				offsets[node] += offsets[node - 1];
+			}
+		}
+	}
+	
+	private static int[] append(int[] array, int size, int value) {
+		if(size == array.length) {
+			array = Arrays.copyOf(array, size * 2);
+		}
+		array[size] = value;
+		return array;
+	}
+	
+	private final Map<Integer, Integer> index;
+	
+	private final int[] ids;
+	
+	private final String[] statuses;
+	
+	private final BitSet loaded;
+	
+	private final BitSet open;
+	
+	private final int[] dependsOffsets;
+	
+	private final int[] dependsTargets;
+	
+	private final int[] blocksOffsets;
+	
+	private final int[] blocksTargets;
+	
+	private DependencyGraph(Map<Integer, Integer> index, int[] ids, String[] statuses, BitSet loaded, BitSet open,
+			int[] dependsOffsets, int[] dependsTargets, int[] blocksOffsets, int[] blocksTargets) {
+		this.index = index;
+		this.ids = ids;
+		this.statuses = statuses;
+		this.loaded = loaded;
+		this.open = open;
+		this.dependsOffsets = dependsOffsets;
+		this.dependsTargets = dependsTargets;
+		this.blocksOffsets = blocksOffsets;
+		this.blocksTargets = blocksTargets;
+	}
+	
+	private int nodeOf(int id) {
+		Integer node = index.get(id);
+		if(node == null) { throw new IllegalArgumentException("Bug " + id + " is not in the graph"); }
+		return node;
+	}
+	
+	/**
+	 * Returns the number of bugs in the graph, including those referred to but not loaded.
+	 * @return The number of bugs.
+	 */
+	public int size() {
+		return ids.length;
+	}
+	
+	/**
+	 * Returns the number of dependencies in the graph.
+	 * @return The number of distinct edges.
+	 */
+	public int getEdgeCount() {
+		return dependsTargets.length;
+	}
+	
+	/**
+	 * Returns whether a bug is in the graph.
+	 * @param id The ID of a bug.
+	 * @return {@code true} if the bug was loaded or is referred to by a loaded bug.
+	 */
+	public boolean contains(int id) {
+		return index.containsKey(id);
+	}
+	
+	/**
+	 * Returns whether a bug was fetched, so that its status and all of its edges are known.
+	 * @param id The ID of a bug in the graph.
+	 * @return {@code true} if the bug was loaded.
+	 */
+	public boolean isLoaded(int id) {
+		return loaded.get(nodeOf(id));
+	}
+	
+	/**
+	 * Returns the status of a bug.
+	 * @param id The ID of a bug in the graph.
+	 * @return The status, or null if the bug was not loaded.
+	 */
+	public String getStatus(int id) {
+		return statuses[nodeOf(id)];
+	}
+	
+	/**
+	 * Returns whether a bug is open. Bugs which were not loaded are not open.
+	 * @param id The ID of a bug in the graph.
+	 * @return {@code true} if the bug was loaded and is open.
+	 */
+	public boolean isOpen(int id) {
+		int node = nodeOf(id);
+		return loaded.get(node) && open.get(node);
+	}
+	
+	/**
+	 * Returns the bugs a bug directly depends on.
+	 * @param id The ID of a bug in the graph.
+	 * @return The IDs of its dependencies known to the graph.
+	 */
+	public int[] getDependsOn(int id) {
+		return neighbours(dependsOffsets, dependsTargets, nodeOf(id));
+	}
+	
+	/**
+	 * Returns the bugs a bug directly blocks.
+	 * @param id The ID of a bug in the graph.
+	 * @return The IDs of the bugs depending on it known to the graph.
+	 */
+	public int[] getBlocks(int id) {
+		return neighbours(blocksOffsets, blocksTargets, nodeOf(id));
+	}
+	
+	private int[] neighbours(int[] offsets, int[] targets, int node) {
+		int[] result = new int[offsets[node + 1] - offsets[node]];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = ids[targets[offsets[node] + i]];
+		}
+		Arrays.sort(result);
+		return result;
+	}
+	
+	/**
+	 * Returns every bug a bug transitively depends on.
+	 * @param id The ID of a bug in the graph.
+	 * @return The IDs of its direct and indirect dependencies in ascending order, excluding the bug
+	 * itself unless it depends on itself through a cycle.
+	 */
+	public int[] getDependencyClosure(int id) {
+		return closure(dependsOffsets, dependsTargets, nodeOf(id));
+	}
+	
+	/**
+	 * Returns every bug a bug transitively blocks.
+	 * @param id The ID of a bug in the graph.
+	 * @return The IDs of the bugs directly and indirectly depending on it in ascending order, excluding
+	 * the bug itself unless it blocks itself through a cycle.
+	 */
+	public int[] getBlockedClosure(int id) {
+		return closure(blocksOffsets, blocksTargets, nodeOf(id));
+	}
+	
+	private int[] closure(int[] offsets, int[] targets, int start) {
+		BitSet visited = new BitSet(ids.length);
+		//The start is queued again if it lies on a cycle
+		int[] queue = new int[ids.length + 1];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = start;
+		boolean reachesStart = false;
+		while(head < tail) {
+			int node = queue[head++];
+			for(int i = offsets[node]; i < offsets[node + 1]; i++) {
+				int target = targets[i];
+				if(target == start) { reachesStart = true; }
+				if(!visited.get(target)) {
+					visited.set(target);
+					queue[tail++] = target;
+				}
+			}
+		}
+		if(!reachesStart) { visited.clear(start); }
+		
+		int[] result = new int[visited.cardinality()];
+		int i = 0;
+		for(int node = visited.nextSetBit(0); node >= 0; node = visited.nextSetBit(node + 1)) {
+			result[i++] = ids[node];
+		}
+		Arrays.sort(result);
+		return result;
+	}
+	
+	/**
+	 * Finds the dependency cycles in the graph, which Bugzilla normally refuses to create but which can
+	 * still arise, for example between bugs in different installations' histories.
+	 * @return Each group of bugs which all transitively depend on one another, as IDs in ascending order,
+	 * including a bug which depends on itself. Groups are ordered by their smallest ID.
+	 */
+	public List<int[]> findCycles() {
+		//Tarjan's strongly connected components algorithm, iterative so that long chains cannot
+		//overflow the stack
+		int n = ids.length;
+		int[] order = new int[n];
+		int[] low = new int[n];
+		Arrays.fill(order, -1);
+		BitSet onStack = new BitSet(n);
+		int[] stack = new int[n];
+		int stackSize = 0;
+		int[] callNode = new int[n];
+		int[] callEdge = new int[n];
+		int counter = 0;
+		List<int[]> cycles = new ArrayList<int[]>();
+		
+		for(int root = 0; root < n; root++) {
+			if(order[root] >= 0) { continue; }
+			int depth = 0;
+			callNode[0] = root;
+			callEdge[0] = dependsOffsets[root];
+			order[root] = low[root] = counter++;
+			stack[stackSize++] = root;
+			onStack.set(root);
+			
+			while(depth >= 0) {
+				int node = callNode[depth];
+				if(callEdge[depth] < dependsOffsets[node + 1]) {
+					int target = dependsTargets[callEdge[depth]++];
+					if(order[target] < 0) {
+						order[target] = low[target] = counter++;
+						stack[stackSize++] = target;
+						onStack.set(target);
+						depth++;
+						callNode[depth] = target;
+						callEdge[depth] = dependsOffsets[target];
+					} else if(onStack.get(target)) {
+						low[node] = Math.min(low[node], order[target]);
+					}
+					continue;
+				}
+				
+				if(low[node] == order[node]) {
+					int start = stackSize;
+					do {
+						start--;
+						onStack.clear(stack[start]);
+					} while(stack[start] != node);
+					int size = stackSize - start;
+					if(size > 1 || dependsOn(node, node)) {
+						int[] cycle = new int[size];
+						for(int i = 0; i < size; i++) {
+							cycle[i] = ids[stack[start + i]];
+						}
+						Arrays.sort(cycle);
+						cycles.add(cycle);
+					}
+					stackSize = start;
+				}
+				depth--;
+				if(depth >= 0) {
+					int parent = callNode[depth];
+					low[parent] = Math.min(low[parent], low[node]);
+				}
+			}
+		}
+		
+		Collections.sort(cycles, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+			}
+		});
+		return cycles;
+	}
+	
+	private boolean dependsOn(int node, int target) {
+		for(int i = dependsOffsets[node]; i < dependsOffsets[node + 1]; i++) {
+			if(dependsTargets[i] == target) { return true; }
+		}
+		return false;
+	}
+	
+	/**
+	 * Finds the longest chain of open bugs a bug is waiting on: the bug itself, then one of its open
+	 * dependencies, then one of that bug's open dependencies, and so on. Every bug in the chain has to
+	 * be fixed, one after another, before the first can be. Closed bugs and bugs which were not loaded
+	 * end a chain.
+	 * @param id The ID of a bug in the graph.
+	 * @return The IDs along the chain, starting with {@code id}. Of several equally long chains, the one
+	 * through the smallest IDs is returned.
+	 * @throws IllegalStateException If the open dependencies of the bug contain a cycle, so that no
+	 * chain is longest; {@link #findCycles()} locates it.
+	 */
+	public int[] getCriticalPath(int id) {
+		int start = nodeOf(id);
+		int n = ids.length;
+		//For each node, the length of the longest chain of open dependencies below it and the next node
+		//on that chain; 0 marks a node not yet visited and -1 one still being visited
+		int[] length = new int[n];
+		int[] successor = new int[n];
+		int[] callNode = new int[n];
+		int[] callEdge = new int[n];
+		
+		int depth = 0;
+		callNode[0] = start;
+		callEdge[0] = dependsOffsets[start];
+		length[start] = -1;
+		successor[start] = -1;
+		while(depth >= 0) {
+			int node = callNode[depth];
+			if(callEdge[depth] < dependsOffsets[node + 1]) {
+				int target = dependsTargets[callEdge[depth]++];
+				if(!loaded.get(target) || !open.get(target)) { continue; }
+				if(length[target] == -1) {
+					throw new IllegalStateException("Bug " + ids[target] + " is part of a dependency cycle");
+				}
+				if(length[target] == 0) {
+					length[target] = -1;
+					successor[target] = -1;
+					depth++;
+					callNode[depth] = target;
+					callEdge[depth] = dependsOffsets[target];
+				}
+				continue;
+			}
+			
+			int best = 0;
+			int bestNext = -1;
+			for(int i = dependsOffsets[node]; i < dependsOffsets[node + 1]; i++) {
+				int target = dependsTargets[i];
+				if(!loaded.get(target) || !open.get(target)) { continue; }
+				if(length[target] > best || (length[target] == best && ids[target] < ids[bestNext])) {
+					best = length[target];
+					bestNext = target;
+				}
+			}
+			length[node] = best + 1;
+			successor[node] = bestNext;
+			depth--;
+		}
+		
+		int[] path = new int[length[start]];
+		int node = start;
+		for(int i = 0; i < path.length; i++) {
+			path[i] = ids[node];
+			node = successor[node];
+		}
+		return path;
+	}
+	
+}
@@ -16,12 +16,15 @@
 package com.j2bugzilla.rpc;
 
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import com.j2bugzilla.base.Bug;
-import com.j2bugzilla.base.BugFactory;
+import com.j2bugzilla.base.BugSummary;
 import com.j2bugzilla.base.BugzillaMethod;
 
 
@@ -51,6 +54,19 @@ public class GetBug implements BugzillaMethod {
 		params.put("ids", id);
 	}
 	
+	/**
+	 * Creates a new {@link GetBug} object to retrieve several bugs in a single call
+	 * @param ids The IDs of existing bugs in the installation connected to
+	 */
+	public GetBug(int... ids) {
+		if(ids.length == 0) { throw new IllegalArgumentException("At least one bug ID is required"); }
+		Object[] boxed = new Object[ids.length];
+		for(int i = 0; i < ids.length; i++) {
+			boxed[i] = ids[i];
+		}
+		params.put("ids", boxed);
+	}
+	
 	/**
 	 * Creates a new {@link GetBug} object to retrieve the {@code Bug} specified by the
 	 * unique alias.
@@ -82,35 +98,78 @@ public class GetBug implements BugzillaMethod {
 	 * does not contain a match
 	 */
 	public Bug getBug() {
-		Bug result = null;
-		if(hash.containsKey("bugs")) {
-			
-			Object[] bugs = (Object[])hash.get("bugs");
-			if(bugs.length == 0) { 
-				return result; //early return if map is empty
-			}
-			
-			for(Object o : bugs) {
-				@SuppressWarnings("unchecked")
-				Map<String, Object> bugMap = (HashMap<String, Object>)o;
-				
-				if(!bugMap.containsKey("version")) {
-					//version required for bugs, but older versions of Bugzilla
-					//didn't return it in the outer map -- check the 'internals'
-					@SuppressWarnings("unchecked")
-					Map<String, Object> internals = (Map<String, Object>)bugMap.get("internals");
-					Object version = internals.get("version");
-					if(version instanceof Double) {
-						bugMap.put("version", Double.toString((Double) version));
-					} else if(version instanceof String) {
-						bugMap.put("version", (String)version);
-					}
-				}
-				
-				result =  new BugFactory().createBug(bugMap);
-			}
+		List<Bug> bugs = getBugs();
+		return bugs.isEmpty() ? null : bugs.get(bugs.size() - 1);
+	}
+	
+	/**
+	 * Retrieves every {@link com.j2bugzilla.base.Bug} returned by the installation, in the order
+	 * the IDs were given.
+	 * @return A {@code List} of the bugs found
+	 */
+	public List<Bug> getBugs() {
+		return getBugs(null);
+	}
+	
+	/**
+	 * Retrieves every {@link com.j2bugzilla.base.Bug} returned by the installation, spreading the work
+	 * of decoding large results across an {@link ExecutorService}.
+	 * @param executor The {@code ExecutorService} to decode with, or null to decode on the calling thread.
+	 * @return A {@code List} of the bugs found, in the order the IDs were given
+	 */
+	public List<Bug> getBugs(ExecutorService executor) {
+		if(!hash.containsKey("bugs")) {
+			return new ArrayList<Bug>();
+		}
+		return new ArrayList<Bug>(BugDecoder.decodeAll((Object[])hash.get("bugs"), executor));
+	}
+
+	/**
+	 * Returns the raw bug records returned by the installation, or an empty array if the method has
+	 * not been executed.
+	 */
+	Object[] getRecords() {
+		return hash.containsKey("bugs") ? (Object[])hash.get("bugs") : new Object[0];
+	}
+
+	/**
+	 * Asks Bugzilla to return only the fields needed for a {@link BugSummary} instead of whole bugs.
+	 * This must be called before the method is executed; afterwards the results are available from
+	 * {@link #getSummaries()} rather than {@link #getBugs()}.
+	 */
+	public void setSummaryOnly() {
+		setIncludeFields(BugSummary.getFields());
+	}
+	
+	/**
+	 * Asks Bugzilla to return only the given fields of each bug. This must be called before the method is
+	 * executed. Bugs missing the fields required by {@link Bug} can then only be read through
+	 * {@link #getSummaries()} or an aggregation such as {@link BugTable}.
+	 * @param fields The names of the fields to return, such as {@code "id"} or {@code "depends_on"}.
+	 */
+	public void setIncludeFields(String... fields) {
+		params.put("include_fields", fields.clone());
+	}
+	
+	/**
+	 * Asks Bugzilla to skip bugs which do not exist or which the user cannot see, instead of failing the
+	 * whole call. This must be called before the method is executed; the skipped bugs are then simply
+	 * missing from the results.
+	 */
+	public void setPermissive() {
+		params.put("permissive", true);
+	}
+	
+	/**
+	 * Retrieves the {@link BugSummary BugSummaries} of the bugs returned by the installation. This works
+	 * whether or not the request was limited with {@link #setSummaryOnly()}.
+	 * @return A {@code List} of the summaries found, in the order the IDs were given
+	 */
+	public List<BugSummary> getSummaries() {
+		if(!hash.containsKey("bugs")) {
+			return new ArrayList<BugSummary>();
 		}
-		return result;
+		return BugDecoder.decodeSummaries((Object[])hash.get("bugs"));
 	}
 
 	/**
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.rpc.BugQuery.Comparison;
+import com.j2bugzilla.rpc.BugQuery.Junction;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+
+/**
+ * A {@code QueryPlan} splits a {@link BugQuery} into the parts Bugzilla can evaluate and the parts which
+ * must be evaluated on the client. Every condition at the top level of the query is considered separately:
+ * exact matches on fields with a {@link BugSearch.SearchLimiter} become {@link SearchQuery SearchQueries},
+ * other conditions Bugzilla understands become {@link SearchCriteria}, and the rest, such as
+ * {@link BugQuery#filter(String, BugFilter) client-side filters} or an OR containing one, form the residual
+ * query. Results are checked against the residual query as they are decoded, so bugs which fail it are
+ * never materialized in the result list.
+ * 
+ * Because the residual part is only ever dropped from a conjunction, the search sent to Bugzilla always
+ * returns a superset of the matching bugs, and the final result is exact.
+ */
+public final class QueryPlan {
+
+	private final List<SearchQuery> queries;
+	
+	/**
+	 * The parts of the query sent as advanced criteria
+	 */
+	private final List<BugQuery> criteria;
+	
+	/**
+	 * Every part of the query sent to Bugzilla, as limiters or as criteria
+	 */
+	private final List<BugQuery> pushedDown;
+	
+	private final BugQuery residual;
+	
+	private QueryPlan(List<SearchQuery> queries, List<BugQuery> criteria, List<BugQuery> pushedDown, BugQuery residual) {
+		this.queries = queries;
+		this.criteria = criteria;
+		this.pushedDown = pushedDown;
+		this.residual = residual;
+	}
+	
+	/**
+	 * Plans the execution of a {@link BugQuery}.
+	 * @param query The {@code BugQuery} to plan.
+	 * @return A new {@code QueryPlan}.
+	 */
+	public static QueryPlan plan(BugQuery query) {
+		List<BugQuery> conjuncts = new ArrayList<BugQuery>();
+		flatten(query, conjuncts);
+		
+		List<SearchQuery> queries = new ArrayList<SearchQuery>();
+		List<BugQuery> criteria = new ArrayList<BugQuery>();
+		List<BugQuery> pushedDown = new ArrayList<BugQuery>();
+		List<BugQuery> residual = new ArrayList<BugQuery>();
+		//Queries on the same limiter are joined with OR, so each field may only be sent as a limiter once
+		Set<BugQuery.Field> limited = EnumSet.noneOf(BugQuery.Field.class);
+		for(BugQuery conjunct : conjuncts) {
+			if(!conjunct.isPushable()) {
+				residual.add(conjunct);
+				continue;
+			}
+			pushedDown.add(conjunct);
+			if(conjunct instanceof Comparison && ((Comparison)conjunct).isLimiterMatch() 
+					&& limited.add(((Comparison)conjunct).getField())) {
+				Comparison comparison = (Comparison)conjunct;
+				for(String value : comparison.getValues()) {
+					queries.add(new SearchQuery(comparison.getField().getLimiter(), value));
+				}
+			} else {
+				criteria.add(conjunct);
+			}
+		}
+		
+		BugQuery remainder;
+		if(residual.isEmpty()) {
+			remainder = null;
+		} else if(residual.size() == 1) {
+			remainder = residual.get(0);
+		} else {
+			remainder = BugQuery.and(residual.toArray(new BugQuery[residual.size()]));
+		}
+		return new QueryPlan(queries, criteria, Collections.unmodifiableList(pushedDown), remainder);
+	}
+	
+	private static void flatten(BugQuery query, List<BugQuery> conjuncts) {
+		if(query instanceof Junction && ((Junction)query).isConjunction()) {
+			for(BugQuery child : ((Junction)query).getChildren()) {
+				flatten(child, conjuncts);
+			}
+		} else {
+			conjuncts.add(query);
+		}
+	}
+	
+	/**
+	 * Returns the parts of the query which are evaluated by Bugzilla.
+	 * @return A read-only {@code List} of the top-level conditions sent with the search.
+	 */
+	public List<BugQuery> getPushedDown() {
+		return pushedDown;
+	}
+	
+	/**
+	 * Returns the part of the query which is evaluated on the client.
+	 * @return A {@link BugQuery}, or null if Bugzilla evaluates the whole query.
+	 */
+	public BugQuery getResidual() {
+		return residual;
+	}
+	
+	/**
+	 * Returns whether Bugzilla evaluates the whole query, so that every bug returned is a match.
+	 * @return {@code true} if there is no residual query.
+	 */
+	public boolean isFullyPushedDown() {
+		return residual == null;
+	}
+	
+	/**
+	 * Creates the {@link BugSearch} which sends the pushed-down part of the query to Bugzilla.
+	 * @param extra Further {@link SearchQuery SearchQueries} to send, such as a limit or offset.
+	 * @return A new {@code BugSearch}.
+	 * @throws IllegalStateException If no part of the query can be evaluated by Bugzilla.
+	 */
+	public BugSearch newSearch(SearchQuery... extra) {
+		if(pushedDown.isEmpty()) {
+			throw new IllegalStateException("No part of the query can be evaluated by Bugzilla: " + residual);
+		}
+		SearchQuery[] all = new SearchQuery[queries.size() + extra.length];
+		queries.toArray(all);
+		System.arraycopy(extra, 0, all, queries.size(), extra.length);
+		if(criteria.isEmpty()) {
+			return new BugSearch(all);
+		}
+		SearchCriteria compiled = SearchCriteria.all();
+		for(BugQuery query : criteria) {
+			query.pushTo(compiled);
+		}
+		return new BugSearch(compiled, all);
+	}
+	
+	/**
+	 * Decodes the results of an executed search created by {@link #newSearch(SearchQuery...)}, keeping
+	 * only the bugs which satisfy the residual query.
+	 * @param search The executed {@code BugSearch}.
+	 * @return The matching {@link Bug Bugs}, in the order Bugzilla returned them.
+	 */
+	public List<Bug> filter(BugSearch search) {
+		Object[] records = search.getRecords();
+		List<Bug> bugs = new ArrayList<Bug>();
+		for(Object record : records) {
+			Bug bug = BugDecoder.decode(record);
+			if(residual == null || residual.matches(bug)) {
+				bugs.add(bug);
+			}
+		}
+		return bugs;
+	}
+	
+	/**
+	 * Runs the query against an installation, sending the pushed-down part with the search and
+	 * evaluating the residual part on the results.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @param extra Further {@link SearchQuery SearchQueries} to send, such as a limit or offset. Note that
+	 * a limit applies before the residual query is evaluated.
+	 * @return The matching {@link Bug Bugs}.
+	 * @throws BugzillaException If the search fails.
+	 */
+	public List<Bug> execute(BugzillaConnector conn, SearchQuery... extra) throws BugzillaException {
+		BugSearch search = newSearch(extra);
+		conn.executeMethod(search);
+		return filter(search);
+	}
+	
+	/**
+	 * Describes which parts of the query are evaluated where.
+	 * @return A {@code String} listing the pushed-down and client-side conditions.
+	 */
+	@Override
+	public String toString() {
+		return "pushed down: " + pushedDown + ", client: " + (residual == null ? "none" : residual.toString());
+	}
+	
+}
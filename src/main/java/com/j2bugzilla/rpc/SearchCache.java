@@ -0,0 +1,356 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.RequestKey;
+
+/**
+ * The {@code SearchCache} keeps the responses to {@link BugSearch BugSearches} in memory, so that the same
+ * search run repeatedly by different jobs is only sent to Bugzilla once in a while. Searches are
+ * identified by a {@link RequestKey} built from their parameters, so two searches built separately from
+ * the same queries share an entry.
+ * 
+ * What a search finds depends on who runs it, so responses are also keyed by the
+ * {@link BugzillaConnector} they were loaded through and its {@link BugzillaConnector#getSession() session}.
+ * A cache may be shared between connectors logged in as different users, but each user only sees
+ * responses loaded with their own login; logging in or out through a connector starts afresh.
+ * 
+ * A cached response is served as is while it is fresh. Once it is older than the time to live, it is
+ * still served for a further grace period, but the first request to find it stale also starts a refresh
+ * in the background through {@link BugzillaConnector#executeMethodAsync(BugzillaMethod)}, so popular
+ * searches never make their callers wait. Responses older than both periods are discarded and loaded
+ * again on the calling thread. If a background refresh fails, the stale response is kept and a later
+ * request tries again.
+ * 
+ * The cache is bounded by a total weight, where each response weighs one plus the number of bugs it
+ * holds; the least recently used responses are evicted first. Responses are shared between callers and
+ * must not be modified; {@link BugSearch} only reads them. This class is thread-safe.
+ */
+public class SearchCache {
+
+	private final long ttlNanos;
+	
+	private final long staleNanos;
+	
+	private final long maxWeight;
+	
+	private final LinkedHashMap<CacheKey, CachedResponse> entries = new LinkedHashMap<CacheKey, CachedResponse>(16, 0.75f, true);
+	
+	/**
+	 * Counts invalidations, so that a load can tell whether its response was invalidated while it ran
+	 */
+	private long generation = 0;
+	
+	private long weight = 0;
+	
+	private long hits = 0;
+	
+	private long staleHits = 0;
+	
+	private long misses = 0;
+	
+	private long refreshes = 0;
+	
+	private long evictions = 0;
+	
+	/**
+	 * Identifies a response by the search and the login it was loaded with.
+	 */
+	private static final class CacheKey {
+		
+		private final BugzillaConnector conn;
+		
+		private final long session;
+		
+		private final RequestKey request;
+		
+		CacheKey(BugzillaConnector conn, RequestKey request) {
+			this.conn = conn;
+			this.session = conn.getSession();
+			this.request = request;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(conn) * 31 + (int)(session ^ (session >>> 32))) * 31 + request.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof CacheKey)) { return false; }
+			CacheKey other = (CacheKey)obj;
+			return conn == other.conn && session == other.session && request.equals(other.request);
+		}
+	}
+	
+	/**
+	 * A cached response.
+	 */
+	private static final class CachedResponse {
+		
+		private final Map<Object, Object> result;
+		
+		private final long loadedAt;
+		
+		private final long weight;
+		
+		/**
+		 * The background refresh started for this entry, if any
+		 */
+		private Future<?> refresh;
+		
+		CachedResponse(Map<Object, Object> result, long loadedAt) {
+			this.result = result;
+			this.loadedAt = loadedAt;
+			Object bugs = result.get("bugs");
+			this.weight = 1 + (bugs instanceof Object[] ? ((Object[])bugs).length : 0);
+		}
+	}
+	
+	/**
+	 * Sends a copy of a search's request and stores its response in the cache.
+	 */
+	private final class Load implements BugzillaMethod {
+		
+		private final CacheKey key;
+		
+		private final long startedAt;
+		
+		private final String methodName;
+		
+		private final Map<Object, Object> params;
+		
+		private Map<Object, Object> result;
+		
+		/**
+		 * Must be called holding the lock of the cache.
+		 */
+		Load(CacheKey key, BugSearch search) {
+			this.key = key;
+			this.startedAt = generation;
+			this.methodName = search.getMethodName();
+			this.params = new HashMap<Object, Object>(search.getParameterMap());
+		}
+		
+		@Override
+		public void setResultMap(Map<Object, Object> hash) {
+			result = hash;
+			store(key, hash, startedAt);
+		}
+		
+		@Override
+		public Map<Object, Object> getParameterMap() {
+			return Collections.unmodifiableMap(params);
+		}
+		
+		@Override
+		public String getMethodName() {
+			return methodName;
+		}
+	}
+	
+	/**
+	 * Creates a new {@link SearchCache}.
+	 * @param ttl How long a response is served without refreshing it.
+	 * @param staleTtl How much longer a response may be served while it is refreshed in the background.
+	 * @param unit The {@link TimeUnit} of both times.
+	 * @param maxWeight The total weight of the responses kept, where each response weighs one plus the
+	 * number of bugs it holds.
+	 */
+	public SearchCache(long ttl, long staleTtl, TimeUnit unit, long maxWeight) {
+		if(ttl < 0 || staleTtl < 0) { throw new IllegalArgumentException("Times cannot be negative"); }
+		if(maxWeight < 1) { throw new IllegalArgumentException("Cache must hold at least one response"); }
+		this.ttlNanos = unit.toNanos(ttl);
+		this.staleNanos = unit.toNanos(staleTtl);
+		this.maxWeight = maxWeight;
+	}
+	
+	/**
+	 * Executes a {@link BugSearch}, answering it from the cache when possible. Afterwards the search's
+	 * results can be read as if it had been executed directly.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @param search The {@code BugSearch} to execute.
+	 * @throws BugzillaException If the response was not cached and the search fails.
+	 */
+	public void execute(BugzillaConnector conn, BugSearch search) throws BugzillaException {
+		CacheKey key = new CacheKey(conn, RequestKey.of(search));
+		Load load;
+		synchronized(this) {
+			Map<Object, Object> cached = lookup(conn, key, search);
+			if(cached != null) {
+				search.setResultMap(cached);
+				return;
+			}
+			load = new Load(key, search);
+		}
+		conn.executeMethod(load);
+		search.setResultMap(load.result);
+	}
+	
+	/**
+	 * Returns the time used to age cached responses; tests override this to control expiry.
+	 */
+	long nanoTime() {
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Returns a usable cached response, starting a background refresh if it is stale, or null on a miss.
+	 */
+	private synchronized Map<Object, Object> lookup(BugzillaConnector conn, CacheKey key, BugSearch search) {
+		CachedResponse entry = entries.get(key);
+		long age = entry == null ? 0 : nanoTime() - entry.loadedAt;
+		if(entry == null || age > ttlNanos + staleNanos) {
+			misses++;
+			return null;
+		}
+		if(age <= ttlNanos) {
+			hits++;
+			return entry.result;
+		}
+		
+		staleHits++;
+		if(entry.refresh == null || entry.refresh.isDone()) {
+			refreshes++;
+			entry.refresh = conn.executeMethodAsync(new Load(key, search));
+		}
+		return entry.result;
+	}
+	
+	/**
+	 * Caches a loaded response, unless the cache was invalidated after the load started; the response
+	 * may then predate the change that prompted the invalidation. Any invalidation discards the loads in
+	 * flight at the time, not only those for the invalidated search, which costs at most a reload.
+	 */
+	private synchronized void store(CacheKey key, Map<Object, Object> result, long startedAt) {
+		if(startedAt != generation) { return; }
+		CachedResponse entry = new CachedResponse(result, nanoTime());
+		CachedResponse previous = entries.remove(key);
+		if(previous != null) {
+			weight -= previous.weight;
+		}
+		if(entry.weight > maxWeight) {
+			//A response larger than the whole cache would only evict everything else
+			return;
+		}
+		entries.put(key, entry);
+		weight += entry.weight;
+		
+		//The new entry is the most recently used, so it is reached last
+		Iterator<CachedResponse> eldest = entries.values().iterator();
+		while(weight > maxWeight) {
+			CachedResponse evicted = eldest.next();
+			eldest.remove();
+			weight -= evicted.weight;
+			evictions++;
+		}
+	}
+	
+	/**
+	 * Removes the cached responses to a search for every user, for example after changing bugs it would
+	 * find. Responses still being loaded when this is called are not cached.
+	 * @param search The {@code BugSearch} whose response should be dropped.
+	 */
+	public synchronized void invalidate(BugSearch search) {
+		generation++;
+		RequestKey request = RequestKey.of(search);
+		Iterator<Map.Entry<CacheKey, CachedResponse>> it = entries.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<CacheKey, CachedResponse> cached = it.next();
+			if(cached.getKey().request.equals(request)) {
+				weight -= cached.getValue().weight;
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Removes every cached response.
+	 */
+	public synchronized void invalidateAll() {
+		generation++;
+		entries.clear();
+		weight = 0;
+	}
+	
+	/**
+	 * Returns the number of searches answered with a fresh cached response.
+	 * @return The fresh hit count.
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+	
+	/**
+	 * Returns the number of searches answered with a stale cached response while it was refreshed.
+	 * @return The stale hit count.
+	 */
+	public synchronized long getStaleHitCount() {
+		return staleHits;
+	}
+	
+	/**
+	 * Returns the number of searches which had to be sent to Bugzilla on the calling thread.
+	 * @return The miss count.
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+	
+	/**
+	 * Returns the number of background refreshes started.
+	 * @return The refresh count.
+	 */
+	public synchronized long getRefreshCount() {
+		return refreshes;
+	}
+	
+	/**
+	 * Returns the number of responses evicted to stay within the maximum weight.
+	 * @return The eviction count.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+	
+	/**
+	 * Returns the number of cached responses.
+	 * @return The number of entries.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Returns the total weight of the cached responses.
+	 * @return The sum of the weight of each entry.
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+	
+}
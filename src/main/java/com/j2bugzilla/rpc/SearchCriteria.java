@@ -0,0 +1,396 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code SearchCriteria} class builds a boolean combination of conditions which a {@link BugSearch}
+ * sends to Bugzilla as an advanced search, so that the installation does the filtering instead of the
+ * client. Each condition compares a field with a value using one of Bugzilla's {@link Operator Operators};
+ * conditions may be negated and nested in groups which are joined with either AND or OR.
+ * 
+ * For example, to find bugs which are NEW or ASSIGNED, and which either have priority P1 or are
+ * assigned to a particular user:
+ * <pre>
+ * SearchCriteria criteria = SearchCriteria.all()
+ *     .add("bug_status", Operator.ANY_EXACT, "NEW,ASSIGNED")
+ *     .add(SearchCriteria.any()
+ *         .add("priority", Operator.EQUALS, "P1")
+ *         .add("assigned_to", Operator.EQUALS, "dev@example.com"));
+ * BugSearch search = new BugSearch(criteria);
+ * </pre>
+ * 
+ * Field names are those used by Bugzilla's own advanced search, such as {@code bug_status},
+ * {@code short_desc} or {@code cf_custom}. The criteria are compiled into the numbered {@code f}, 
+ * {@code o}, {@code v} and {@code n} parameters understood by {@code Bug.search} on Bugzilla 5.0 and later.
+ */
+public class SearchCriteria {
+
+	/**
+	 * The comparisons Bugzilla can apply between a field and a value.
+	 */
+	public enum Operator {
+		
+		/**
+		 * The field is exactly the value
+		 */
+		EQUALS("equals"),
+		
+		/**
+		 * The field is not the value
+		 */
+		NOT_EQUALS("notequals"),
+		
+		/**
+		 * The field is exactly one of a comma-separated list of values
+		 */
+		ANY_EXACT("anyexact"),
+		
+		/**
+		 * The field contains the value, ignoring case
+		 */
+		SUBSTRING("substring"),
+		
+		/**
+		 * The field contains the value, respecting case
+		 */
+		CASE_SUBSTRING("casesubstring"),
+		
+		/**
+		 * The field does not contain the value
+		 */
+		NOT_SUBSTRING("notsubstring"),
+		
+		/**
+		 * The field contains any of the space-separated words in the value
+		 */
+		ANY_WORDS_SUBSTRING("anywordssubstr"),
+		
+		/**
+		 * The field contains all of the space-separated words in the value
+		 */
+		ALL_WORDS_SUBSTRING("allwordssubstr"),
+		
+		/**
+		 * The field contains none of the space-separated words in the value
+		 */
+		NO_WORDS_SUBSTRING("nowordssubstr"),
+		
+		/**
+		 * The field matches the regular expression given as the value
+		 */
+		REGEXP("regexp"),
+		
+		/**
+		 * The field does not match the regular expression given as the value
+		 */
+		NOT_REGEXP("notregexp"),
+		
+		/**
+		 * The field is less than the value
+		 */
+		LESS_THAN("lessthan"),
+		
+		/**
+		 * The field is less than or equal to the value
+		 */
+		LESS_THAN_EQUAL("lessthaneq"),
+		
+		/**
+		 * The field is greater than the value
+		 */
+		GREATER_THAN("greaterthan"),
+		
+		/**
+		 * The field is greater than or equal to the value
+		 */
+		GREATER_THAN_EQUAL("greaterthaneq"),
+		
+		/**
+		 * The field was changed before the time given as the value
+		 */
+		CHANGED_BEFORE("changedbefore"),
+		
+		/**
+		 * The field was changed after the time given as the value
+		 */
+		CHANGED_AFTER("changedafter"),
+		
+		/**
+		 * The field was changed away from the value
+		 */
+		CHANGED_FROM("changedfrom"),
+		
+		/**
+		 * The field was changed to the value
+		 */
+		CHANGED_TO("changedto"),
+		
+		/**
+		 * The field was changed by the user given as the value
+		 */
+		CHANGED_BY("changedby"),
+		
+		/**
+		 * The field is empty; the value is ignored
+		 */
+		IS_EMPTY("isempty"),
+		
+		/**
+		 * The field is not empty; the value is ignored
+		 */
+		IS_NOT_EMPTY("isnotempty");
+		
+		private final String name;
+		
+		/**
+		 * Creates a new {@link Operator} with the designated name
+		 * @param name The name Bugzilla expects for this operator
+		 */
+		Operator(String name) {
+			this.name = name;
+		}
+		
+		/**
+		 * Get the name Bugzilla expects for this operator
+		 * @return A <code>String</code> representing the operator
+		 */
+		String getName() {
+			return name;
+		}
+	}
+	
+	/**
+	 * The pseudo-field which opens a group of conditions
+	 */
+	private static final String OPEN_GROUP = "OP";
+	
+	/**
+	 * The pseudo-field which closes a group of conditions
+	 */
+	private static final String CLOSE_GROUP = "CP";
+	
+	private final boolean matchAll;
+	
+	private final List<Object> terms = new ArrayList<Object>();
+	
+	private boolean negated = false;
+	
+	/**
+	 * A single comparison between a field and a value.
+	 */
+	private static final class Condition {
+		
+		private final String field;
+		private final Operator operator;
+		private final String value;
+		private final boolean negated;
+		
+		Condition(String field, Operator operator, String value, boolean negated) {
+			this.field = field;
+			this.operator = operator;
+			this.value = value;
+			this.negated = negated;
+		}
+	}
+	
+	private SearchCriteria(boolean matchAll) {
+		this.matchAll = matchAll;
+	}
+	
+	/**
+	 * Creates a new, empty {@link SearchCriteria} which matches bugs satisfying all of its conditions.
+	 * @return A new {@code SearchCriteria} joined with AND.
+	 */
+	public static SearchCriteria all() {
+		return new SearchCriteria(true);
+	}
+	
+	/**
+	 * Creates a new, empty {@link SearchCriteria} which matches bugs satisfying any of its conditions.
+	 * @return A new {@code SearchCriteria} joined with OR.
+	 */
+	public static SearchCriteria any() {
+		return new SearchCriteria(false);
+	}
+	
+	/**
+	 * Adds a condition comparing a field with a value.
+	 * @param field The Bugzilla name of the field to compare.
+	 * @param operator The {@link Operator} to compare with.
+	 * @param value The value to compare against.
+	 * @return A reference to this {@code SearchCriteria}.
+	 */
+	public SearchCriteria add(String field, Operator operator, String value) {
+		return add(field, operator, value, false);
+	}
+	
+	/**
+	 * Adds a condition which matches bugs for which the comparison of a field with a value does
+	 * <em>not</em> hold.
+	 * @param field The Bugzilla name of the field to compare.
+	 * @param operator The {@link Operator} to compare with.
+	 * @param value The value to compare against.
+	 * @return A reference to this {@code SearchCriteria}.
+	 */
+	public SearchCriteria addNot(String field, Operator operator, String value) {
+		return add(field, operator, value, true);
+	}
+	
+	/**
+	 * Adds a condition matching bugs whose field is exactly any one of the given values.
+	 * @param field The Bugzilla name of the field to compare.
+	 * @param values The values to accept. Values must not contain commas.
+	 * @return A reference to this {@code SearchCriteria}.
+	 */
+	public SearchCriteria addAnyOf(String field, String... values) {
+		if(values.length == 0) { throw new IllegalArgumentException("At least one value is required"); }
+		StringBuilder joined = new StringBuilder();
+		for(String value : values) {
+			if(value.indexOf(',') >= 0) { throw new IllegalArgumentException("Values cannot contain commas: " + value); }
+			if(joined.length() > 0) { joined.append(','); }
+			joined.append(value);
+		}
+		return add(field, Operator.ANY_EXACT, joined.toString(), false);
+	}
+	
+	private SearchCriteria add(String field, Operator operator, String value, boolean negate) {
+		if(field == null || operator == null) { throw new IllegalArgumentException("Field and operator are required"); }
+		terms.add(new Condition(field, operator, value == null ? "" : value, negate));
+		return this;
+	}
+	
+	/**
+	 * Adds a nested group of conditions, which is evaluated as a single condition of this
+	 * {@code SearchCriteria}. The group is copied, so later changes to it have no effect here.
+	 * An empty group restricts nothing and is left out of the search.
+	 * @param group The {@code SearchCriteria} to nest.
+	 * @return A reference to this {@code SearchCriteria}.
+	 * @throws IllegalArgumentException If the group is negated but empty, since it would match no bugs,
+	 * which Bugzilla cannot express.
+	 */
+	public SearchCriteria add(SearchCriteria group) {
+		if(group == this) { throw new IllegalArgumentException("A group cannot contain itself"); }
+		group.checkNotNegatedEmpty();
+		terms.add(group.copy());
+		return this;
+	}
+	
+	/**
+	 * Inverts this {@link SearchCriteria} so that it matches exactly the bugs it did not match before.
+	 * Negated criteria must hold at least one condition by the time they are used.
+	 * @return A reference to this {@code SearchCriteria}.
+	 */
+	public SearchCriteria negate() {
+		negated = !negated;
+		return this;
+	}
+	
+	/**
+	 * Returns whether any conditions have been added.
+	 * @return {@code true} if this {@code SearchCriteria} holds no conditions.
+	 */
+	public boolean isEmpty() {
+		return terms.isEmpty();
+	}
+	
+	/**
+	 * Returns a deep copy of these criteria.
+	 */
+	SearchCriteria copy() {
+		SearchCriteria copy = new SearchCriteria(matchAll);
+		copy.negated = negated;
+		for(Object term : terms) {
+			copy.terms.add(term instanceof SearchCriteria ? ((SearchCriteria)term).copy() : term);
+		}
+		return copy;
+	}
+	
+	/**
+	 * Compiles these criteria into the advanced search parameters of {@code Bug.search}.
+	 * @param params The {@code Map} of parameters to add to.
+	 */
+	void addTo(Map<Object, Object> params) {
+		checkNotNegatedEmpty();
+		if(terms.isEmpty()) { return; }
+		params.put("j_top", matchAll ? "AND" : "OR");
+		if(negated) {
+			//Bugzilla cannot negate the top level directly, so wrap everything in a negated group
+			compileGroup(this, params, 1);
+		} else {
+			compileTerms(params, 1);
+		}
+	}
+	
+	/**
+	 * Writes each term of this {@code SearchCriteria} starting at the given chart index.
+	 * @return The next unused index.
+	 */
+	private int compileTerms(Map<Object, Object> params, int index) {
+		for(Object term : terms) {
+			if(term instanceof SearchCriteria) {
+				index = compileGroup((SearchCriteria)term, params, index);
+			} else {
+				Condition condition = (Condition)term;
+				params.put("f" + index, condition.field);
+				params.put("o" + index, condition.operator.getName());
+				params.put("v" + index, condition.value);
+				if(condition.negated) { params.put("n" + index, "1"); }
+				index++;
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Rejects criteria which would match no bugs at all. Dropping them, as is done for empty criteria,
+	 * would instead match every bug.
+	 */
+	private void checkNotNegatedEmpty() {
+		if(negated && terms.isEmpty()) {
+			throw new IllegalArgumentException("Negated criteria must hold at least one condition");
+		}
+	}
+	
+	private static int compileGroup(SearchCriteria group, Map<Object, Object> params, int index) {
+		if(group.terms.isEmpty()) {
+			//An empty group restricts nothing
+			return index;
+		}
+		params.put("f" + index, OPEN_GROUP);
+		params.put("j" + index, group.matchAll ? "AND" : "OR");
+		if(group.negated) { params.put("n" + index, "1"); }
+		index = group.compileTerms(params, index + 1);
+		params.put("f" + index, CLOSE_GROUP);
+		return index + 1;
+	}
+	
+	/**
+	 * Returns the advanced search parameters these criteria compile to, for inspection.
+	 * @return A read-only {@code Map} of parameter names to values.
+	 */
+	public Map<Object, Object> getParameterMap() {
+		Map<Object, Object> params = new HashMap<Object, Object>();
+		addTo(params);
+		return Collections.unmodifiableMap(params);
+	}
+	
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.Product;
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+import com.j2bugzilla.rpc.GetLegalValues.Fields;
+import com.j2bugzilla.rpc.SearchCriteria.Operator;
+
+/**
+ * The {@code ShardedSearch} splits one large search into many smaller {@link BugSearch BugSearches}, one
+ * per shard, and runs them concurrently through {@link BugzillaConnector#executeMethodAsync(com.j2bugzilla.base.BugzillaMethod)}.
+ * A shard is a product, a component of a product, or a range of bug IDs; each shard's search carries the
+ * common conditions of the whole search plus its own restriction. No single request then has to cover the
+ * whole installation, and the total time is close to that of the slowest shard rather than the sum of all.
+ * 
+ * Each shard is paged with a {@link BugCursor}, so that no request asks for more than
+ * {@link #setPageSize(int) a fixed number} of bugs however large the shard, and a shard is not silently
+ * cut short by the installation's {@code max_search_results}. Paging requires Bugzilla 5.0 or later.
+ * 
+ * At most {@link #setParallelism(int) a fixed number} of shards are searched at once, each with one page in
+ * flight. Results are handed over in shard order, and a bug returned by more than one shard, for example
+ * because it moved to another product during the search, is only reported the first time.
+ * 
+ * This class is not thread-safe.
+ */
+public class ShardedSearch {
+
+	/**
+	 * Receives the {@link Bug Bugs} found by a {@link ShardedSearch} as each shard completes.
+	 */
+	public interface BugHandler {
+		
+		/**
+		 * Called once for each distinct bug found, on the thread which called {@link ShardedSearch#execute(BugzillaConnector, BugHandler)}.
+		 * @param bug A {@link Bug} matching the search.
+		 */
+		void handle(Bug bug);
+	}
+	
+	/**
+	 * The restriction which defines a single shard.
+	 */
+	private static final class Shard {
+		
+		private final List<SearchQuery> queries = new ArrayList<SearchQuery>();
+		
+		private int fromId = -1;
+		
+		private int toId = -1;
+	}
+	
+	private static final int DEFAULT_PARALLELISM = 4;
+	
+	private static final int DEFAULT_PAGE_SIZE = 500;
+	
+	private final SearchCriteria criteria;
+	
+	private final SearchQuery[] queries;
+	
+	private final List<Shard> shards = new ArrayList<Shard>();
+	
+	private int parallelism = DEFAULT_PARALLELISM;
+	
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	
+	/**
+	 * Creates a new {@link ShardedSearch} for bugs matching the given queries. Shards must be added before
+	 * the search is executed.
+	 * @param queries Any {@link SearchQuery SearchQueries} sent with every shard.
+	 * @throws IllegalArgumentException If a query is on the product or component, which define shards, or
+	 * is a limit or offset, which paging manages.
+	 */
+	public ShardedSearch(SearchQuery... queries) {
+		this(SearchCriteria.all(), queries);
+	}
+	
+	/**
+	 * Creates a new {@link ShardedSearch} for bugs matching the given criteria and queries. A search
+	 * restricted to some products or components can express that in the criteria, which are joined with
+	 * each shard's own restriction using AND.
+	 * @param criteria The {@link SearchCriteria} sent with every shard. They are copied, so later changes have no effect.
+	 * @param queries Any {@link SearchQuery SearchQueries} sent with every shard.
+	 * @throws IllegalArgumentException If a query is on the product or component, which define shards, or
+	 * is a limit or offset, which paging manages.
+	 */
+	public ShardedSearch(SearchCriteria criteria, SearchQuery... queries) {
+		for(SearchQuery query : queries) {
+			SearchLimiter limiter = query.getLimiter();
+			if(limiter == SearchLimiter.PRODUCT || limiter == SearchLimiter.COMPONENT) {
+				//Bugzilla would join the value with a shard's own product or component using OR
+				throw new IllegalArgumentException("Queries on " + limiter.getName() 
+						+ " would widen each shard; use SearchCriteria instead");
+			}
+			if(limiter == SearchLimiter.LIMIT || limiter == SearchLimiter.OFFSET) {
+				throw new IllegalArgumentException("Shards are paged, so a limit or offset cannot be given");
+			}
+		}
+		this.criteria = criteria.copy();
+		this.queries = queries.clone();
+	}
+	
+	/**
+	 * Sets the maximum number of shard searches in flight at once. The default is 4.
+	 * @param parallelism The number of concurrent requests, at least 1.
+	 */
+	public void setParallelism(int parallelism) {
+		if(parallelism < 1) { throw new IllegalArgumentException("Parallelism must be at least 1"); }
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Sets the number of bugs requested by each page of a shard. The default is 500.
+	 * @param pageSize A positive page size.
+	 */
+	public void setPageSize(int pageSize) {
+		if(pageSize < 1) { throw new IllegalArgumentException("Page size must be at least 1"); }
+		this.pageSize = pageSize;
+	}
+	
+	/**
+	 * Adds a shard for each of the given products.
+	 * @param products The names of the products to search.
+	 */
+	public void addProductShards(String... products) {
+		for(String product : products) {
+			Shard shard = new Shard();
+			shard.queries.add(new SearchQuery(SearchLimiter.PRODUCT, product));
+			shards.add(shard);
+		}
+	}
+	
+	/**
+	 * Adds a shard for each product the logged in user can access, as reported by
+	 * {@link GetAccessibleProducts} and {@link GetProduct}.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @return The names of the products added.
+	 * @throws BugzillaException If the products cannot be retrieved.
+	 */
+	public List<String> addAccessibleProductShards(BugzillaConnector conn) throws BugzillaException {
+		GetAccessibleProducts accessible = new GetAccessibleProducts();
+		conn.executeMethod(accessible);
+		int[] ids = accessible.getProductIDs();
+		List<String> names = new ArrayList<String>();
+		if(ids.length == 0) { return names; }
+		
+		GetProduct getProduct = new GetProduct(ids);
+		conn.executeMethod(getProduct);
+		List<Product> products = getProduct.getProducts();
+		if(products == null) { return names; }
+		for(Product product : products) {
+			names.add(product.getName());
+		}
+		addProductShards(names.toArray(new String[names.size()]));
+		return names;
+	}
+	
+	/**
+	 * Adds a shard for each component of a product, as reported by {@link GetLegalValues}. This suits
+	 * products too large to search in a single request.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @param product The {@link Product} whose components should be searched.
+	 * @return The names of the components added.
+	 * @throws BugzillaException If the components cannot be retrieved.
+	 */
+	public List<String> addComponentShards(BugzillaConnector conn, Product product) throws BugzillaException {
+		GetLegalValues components = new GetLegalValues(Fields.COMPONENT, product);
+		conn.executeMethod(components);
+		List<String> names = new ArrayList<String>(components.getLegalValues());
+		for(String component : names) {
+			Shard shard = new Shard();
+			shard.queries.add(new SearchQuery(SearchLimiter.PRODUCT, product.getName()));
+			shard.queries.add(new SearchQuery(SearchLimiter.COMPONENT, component));
+			shards.add(shard);
+		}
+		return names;
+	}
+	
+	/**
+	 * Adds shards covering bug IDs from 1 up to and including {@code maxId}, each spanning {@code rangeSize}
+	 * IDs. Range shards rely on advanced search criteria, and so require Bugzilla 5.0 or later.
+	 * @param maxId The highest bug ID to search, such as the ID of the newest bug.
+	 * @param rangeSize The number of IDs covered by each shard.
+	 */
+	public void addIdRangeShards(int maxId, int rangeSize) {
+		if(rangeSize < 1) { throw new IllegalArgumentException("Range size must be at least 1"); }
+		for(int from = 0; from < maxId; from += rangeSize) {
+			Shard shard = new Shard();
+			shard.fromId = from;
+			shard.toId = Math.min(maxId, from + rangeSize);
+			shards.add(shard);
+		}
+	}
+	
+	/**
+	 * Returns the number of shards added so far.
+	 * @return The number of shards {@link #execute(BugzillaConnector)} will page through.
+	 */
+	public int getShardCount() {
+		return shards.size();
+	}
+	
+	/**
+	 * Creates the {@link BugCursor} which pages through a single shard.
+	 */
+	BugCursor newCursor(int index) {
+		Shard shard = shards.get(index);
+		List<SearchQuery> all = new ArrayList<SearchQuery>(shard.queries);
+		for(SearchQuery query : queries) {
+			all.add(query);
+		}
+		SearchQuery[] array = all.toArray(new SearchQuery[all.size()]);
+		
+		SearchCriteria shardCriteria = SearchCriteria.all();
+		if(!criteria.isEmpty()) {
+			shardCriteria.add(criteria);
+		}
+		if(shard.fromId >= 0) {
+			shardCriteria.add("bug_id", Operator.GREATER_THAN, String.valueOf(shard.fromId));
+			shardCriteria.add("bug_id", Operator.LESS_THAN_EQUAL, String.valueOf(shard.toId));
+		}
+		return new BugCursor(pageSize, shardCriteria, array);
+	}
+	
+	/**
+	 * Runs every shard and collects the distinct bugs found.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @return The {@link Bug Bugs} found, in shard order.
+	 * @throws BugzillaException If any shard fails.
+	 */
+	public List<Bug> execute(BugzillaConnector conn) throws BugzillaException {
+		final List<Bug> bugs = new ArrayList<Bug>();
+		execute(conn, new BugHandler() {
+			@Override
+			public void handle(Bug bug) {
+				bugs.add(bug);
+			}
+		});
+		return bugs;
+	}
+	
+	/**
+	 * Runs every shard, passing each distinct bug found to a {@link BugHandler} as its shard completes.
+	 * If a shard fails, the shards still in flight are cancelled and the failure is thrown; the handler
+	 * will already have seen the bugs from earlier shards.
+	 * @param conn A {@link BugzillaConnector} connected to the installation.
+	 * @param handler The {@code BugHandler} to receive the results.
+	 * @throws BugzillaException If any shard fails.
+	 */
+	public void execute(BugzillaConnector conn, BugHandler handler) throws BugzillaException {
+		if(shards.isEmpty()) { throw new IllegalStateException("No shards have been added"); }
+		
+		Set<Integer> seen = new HashSet<Integer>();
+		LinkedList<ShardScan> active = new LinkedList<ShardScan>();
+		int next = 0;
+		try {
+			while(next < shards.size() || !active.isEmpty()) {
+				while(next < shards.size() && active.size() < parallelism) {
+					active.add(new ShardScan(newCursor(next++), conn));
+				}
+				//Shards are consumed in order, so results arrive in a stable order while the
+				//remaining shards keep running
+				ShardScan first = active.getFirst();
+				for(Object record : first.take()) {
+					Bug bug = BugDecoder.decode(record);
+					if(seen.add(bug.getID())) {
+						handler.handle(bug);
+					}
+				}
+				if(first.isFinished()) {
+					active.removeFirst();
+				}
+				for(ShardScan scan : active) {
+					scan.poll();
+				}
+			}
+		} finally {
+			for(ShardScan scan : active) {
+				scan.cancel();
+			}
+		}
+	}
+	
+	/**
+	 * The progress of one shard through its pages. At most one page is in flight, and at most one
+	 * received page waits to be handed over, so a shard cannot run far ahead of the one being consumed.
+	 */
+	private static final class ShardScan {
+		
+		private final BugCursor cursor;
+		
+		private final BugzillaConnector conn;
+		
+		private Future<BugSearch> inFlight;
+		
+		private Object[] received;
+		
+		ShardScan(BugCursor cursor, BugzillaConnector conn) {
+			this.cursor = cursor;
+			this.conn = conn;
+			inFlight = conn.executeMethodAsync(cursor.newPageSearch(null));
+		}
+		
+		/**
+		 * Returns the records of the next page, waiting for it if it has not yet arrived.
+		 */
+		Object[] take() throws BugzillaException {
+			if(received == null) {
+				receive();
+			}
+			Object[] records = received;
+			received = null;
+			fetch();
+			return records;
+		}
+		
+		/**
+		 * Collects the page in flight if it has arrived, and requests the next one if there is room.
+		 */
+		void poll() throws BugzillaException {
+			if(inFlight != null && inFlight.isDone()) {
+				receive();
+			}
+			fetch();
+		}
+		
+		boolean isFinished() {
+			return inFlight == null && received == null && !cursor.hasNext();
+		}
+		
+		void cancel() {
+			if(inFlight != null) {
+				inFlight.cancel(true);
+			}
+		}
+		
+		private void receive() throws BugzillaException {
+			BugSearch search = await(inFlight);
+			inFlight = null;
+			cursor.advance(search);
+			received = search.getRecords();
+		}
+		
+		private void fetch() {
+			if(inFlight == null && received == null && cursor.hasNext()) {
+				inFlight = conn.executeMethodAsync(cursor.newPageSearch(null));
+			}
+		}
+	}
+	
+	private static BugSearch await(Future<BugSearch> future) throws BugzillaException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BugzillaException("Interrupted while waiting for a shard", e);
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof BugzillaException) { throw (BugzillaException)cause; }
+			throw new BugzillaException("Shard search failed", cause);
+		}
+	}
+	
+}
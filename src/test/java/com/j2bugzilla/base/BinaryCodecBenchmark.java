@@ -0,0 +1,150 @@
+package com.j2bugzilla.base;
+
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares round trips of a batch of bugs through {@link BinaryEncoder}, Java serialization and
+ * {@link XMLEncoder}. Bugs are not {@code Serializable}, so the latter two work on the maps returned by
+ * {@link Bug#getParameterMap()}. Run its {@code main} method from the test classpath; it is not
+ * part of the test suite.
+ */
+public class BinaryCodecBenchmark {
+
+	private static final String[] STATUSES = { "NEW", "ASSIGNED", "RESOLVED", "VERIFIED" };
+	
+	private static final String[] COMPONENTS = { "Core", "UI", "Networking", "Build" };
+	
+	private interface Format {
+		String name();
+		byte[] write(List<Bug> bugs) throws Exception;
+		int read(byte[] data) throws Exception;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		List<Bug> bugs = new ArrayList<Bug>();
+		for(int i = 0; i < count; i++) {
+			bugs.add(bug(i));
+		}
+		
+		Format[] formats = { new Binary(), new Serialized(), new Xml() };
+		for(Format format : formats) {
+			//Warm up before measuring
+			for(int i = 0; i < 3; i++) {
+				format.read(format.write(bugs));
+			}
+			long start = System.nanoTime();
+			byte[] data = format.write(bugs);
+			long written = System.nanoTime();
+			int read = format.read(data);
+			long end = System.nanoTime();
+			if(read != count) { throw new IllegalStateException(format.name() + " lost bugs"); }
+			System.out.printf("%-12s %10d bytes %8.1f ms write %8.1f ms read%n", format.name(), data.length,
+					(written - start) / 1e6, (end - written) / 1e6);
+		}
+	}
+	
+	private static Bug bug(int id) {
+		Map<String, Object> state = new HashMap<String, Object>();
+		state.put("id", id);
+		state.put("product", "Product " + (id % 3));
+		state.put("component", COMPONENTS[id % COMPONENTS.length]);
+		state.put("summary", "Crash when opening document number " + id);
+		state.put("version", "1." + (id % 5));
+		state.put("status", STATUSES[id % STATUSES.length]);
+		state.put("resolution", "");
+		state.put("priority", "P" + (id % 5 + 1));
+		state.put("severity", "normal");
+		state.put("op_sys", "Linux");
+		state.put("platform", "x86_64");
+		state.put("assigned_to", "dev" + (id % 20) + "@example.com");
+		state.put("creator", "user" + (id % 200) + "@example.com");
+		state.put("is_open", id % 4 < 2);
+		state.put("creation_time", new Date(1300000000000L + id * 60000L));
+		state.put("last_change_time", new Date(1310000000000L + id * 60000L));
+		state.put("cc", new Object[] { "qa@example.com", "dev" + (id % 7) + "@example.com" });
+		return new BugFactory().createBug(state);
+	}
+	
+	private static final class Binary implements Format {
+		public String name() { return "binary"; }
+		public byte[] write(List<Bug> bugs) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			BinaryEncoder encoder = new BinaryEncoder(bytes);
+			for(Bug bug : bugs) {
+				encoder.writeBug(bug);
+			}
+			encoder.close();
+			return bytes.toByteArray();
+		}
+		public int read(byte[] data) throws IOException {
+			BinaryDecoder decoder = new BinaryDecoder(new ByteArrayInputStream(data));
+			int count = 0;
+			while(decoder.readBug() != null) {
+				count++;
+			}
+			return count;
+		}
+	}
+	
+	private static final class Serialized implements Format {
+		public String name() { return "serialized"; }
+		public byte[] write(List<Bug> bugs) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeInt(bugs.size());
+			for(Bug bug : bugs) {
+				out.writeObject(new HashMap<Object, Object>(bug.getParameterMap()));
+			}
+			out.close();
+			return bytes.toByteArray();
+		}
+		public int read(byte[] data) throws Exception {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				@SuppressWarnings("unchecked")
+				Map<String, Object> state = (Map<String, Object>)in.readObject();
+				new BugFactory().createBug(state);
+			}
+			return count;
+		}
+	}
+	
+	private static final class Xml implements Format {
+		public String name() { return "xml"; }
+		public byte[] write(List<Bug> bugs) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			XMLEncoder out = new XMLEncoder(bytes);
+			out.writeObject(bugs.size());
+			for(Bug bug : bugs) {
+				out.writeObject(new HashMap<Object, Object>(bug.getParameterMap()));
+			}
+			out.close();
+			return bytes.toByteArray();
+		}
+		public int read(byte[] data) {
+			XMLDecoder in = new XMLDecoder(new ByteArrayInputStream(data));
+			int count = (Integer)in.readObject();
+			for(int i = 0; i < count; i++) {
+				@SuppressWarnings("unchecked")
+				Map<String, Object> state = (Map<String, Object>)in.readObject();
+				new BugFactory().createBug(state);
+			}
+			in.close();
+			return count;
+		}
+	}
+	
+}
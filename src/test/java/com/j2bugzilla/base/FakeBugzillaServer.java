@@ -0,0 +1,146 @@
+package com.j2bugzilla.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP server answering every XML-RPC request with a canned response, after an optional delay.
+ * Used to exercise {@link BugzillaConnector} without a real Bugzilla installation.
+ */
+public class FakeBugzillaServer {
+
+	private final ServerSocket server;
+	
+	private final List<Socket> sockets = new ArrayList<Socket>();
+	
+	private final AtomicInteger requests = new AtomicInteger();
+	
+	private volatile String response = result("<struct></struct>");
+	
+	private volatile long delayMillis = 0;
+	
+	public FakeBugzillaServer() throws IOException {
+		server = new ServerSocket(0);
+		Thread acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while(true) {
+						final Socket socket = server.accept();
+						synchronized(sockets) {
+							sockets.add(socket);
+						}
+						Thread handler = new Thread() {
+							@Override
+							public void run() {
+								handle(socket);
+							}
+						};
+						handler.setDaemon(true);
+						handler.start();
+					}
+				} catch(IOException e) {
+					//Server closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+	
+	/**
+	 * Wraps an XML-RPC value in a successful method response.
+	 */
+	public static String result(String value) {
+		return "<?xml version=\"1.0\"?><methodResponse><params><param><value>" + value 
+				+ "</value></param></params></methodResponse>";
+	}
+	
+	/**
+	 * Builds an XML-RPC fault response with the given Bugzilla fault code.
+	 */
+	public static String fault(int code) {
+		return "<?xml version=\"1.0\"?><methodResponse><fault><value><struct>"
+				+ "<member><name>faultCode</name><value><int>" + code + "</int></value></member>"
+				+ "<member><name>faultString</name><value><string>Fault</string></value></member>"
+				+ "</struct></value></fault></methodResponse>";
+	}
+	
+	public URL getURL() throws IOException {
+		return new URL("http://localhost:" + server.getLocalPort() + "/xmlrpc.cgi");
+	}
+	
+	public void setResponse(String response) {
+		this.response = response;
+	}
+	
+	public void setDelay(long delayMillis) {
+		this.delayMillis = delayMillis;
+	}
+	
+	public int getRequestCount() {
+		return requests.get();
+	}
+	
+	public void close() throws IOException {
+		server.close();
+		synchronized(sockets) {
+			for(Socket socket : sockets) {
+				socket.close();
+			}
+		}
+	}
+	
+	private void handle(Socket socket) {
+		try {
+			InputStream in = socket.getInputStream();
+			int contentLength = readHeaders(in);
+			for(int i = 0; i < contentLength; i++) {
+				if(in.read() < 0) { return; }
+			}
+			requests.incrementAndGet();
+			if(delayMillis > 0) {
+				Thread.sleep(delayMillis);
+			}
+			byte[] body = response.getBytes("UTF-8");
+			OutputStream out = socket.getOutputStream();
+			out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/xml\r\nContent-Length: " + body.length 
+					+ "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+			out.write(body);
+			out.flush();
+			socket.close();
+		} catch(IOException e) {
+			//Client went away
+		} catch(InterruptedException e) {
+			//Shutting down
+		}
+	}
+	
+	private int readHeaders(InputStream in) throws IOException {
+		int contentLength = 0;
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while((b = in.read()) >= 0) {
+			if(b == '\n') {
+				String header = line.toString("US-ASCII").trim();
+				line.reset();
+				if(header.length() == 0) { break; }
+				if(header.toLowerCase().startsWith("content-length:")) {
+					contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+				}
+			} else {
+				line.write(b);
+			}
+		}
+		return contentLength;
+	}
+	
+}
@@ -0,0 +1,124 @@
+package com.j2bugzilla.base;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.j2bugzilla.base.Flag.Status;
+
+public class TestBinaryCodec {
+
+	private static Bug bug(int id) {
+		Map<String, Object> state = new HashMap<String, Object>();
+		state.put("id", id);
+		state.put("product", "Test");
+		state.put("component", "Test");
+		state.put("summary", "Bug number " + id);
+		state.put("version", "1.0");
+		state.put("status", "NEW");
+		state.put("is_open", true);
+		state.put("last_change_time", new Date(1000L * id));
+		state.put("cc", new Object[] { "a@example.com" });
+		Map<String, Object> flag = new HashMap<String, Object>();
+		flag.put("name", "review");
+		flag.put("status", "?");
+		state.put("flags", new Object[] { flag });
+		return new BugFactory().createBug(state);
+	}
+	
+	@Test
+	public void testRoundTrip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryEncoder encoder = new BinaryEncoder(bytes);
+		encoder.writeBug(bug(1));
+		encoder.writeComment(new Comment(5, "A comment"));
+		encoder.writeAttachment(new AttachmentFactory().newAttachment().setID(3).setBugID(1)
+				.setName("log.txt").setMime("text/plain").setData(new byte[] { 1, 2, 3 })
+				.setCreationDate(new Date(2000)).createAttachment());
+		Product product = new Product(2, "Test");
+		product.setDescription("A product");
+		product.addProductVersion(new ProductVersion(7, "1.0"));
+		encoder.writeProduct(product);
+		encoder.writeFlag(new Flag("review", Status.POSITIVE));
+		BugSummary summary = new BugSummary(1, "RESOLVED", "FIXED", "dev@example.com", "Bug number 1", new Date(1000));
+		encoder.writeSummary(summary);
+		encoder.close();
+		
+		BinaryDecoder decoder = new BinaryDecoder(new ByteArrayInputStream(bytes.toByteArray()));
+		Bug bug = decoder.readBug();
+		assertEquals("Bug fields should survive", bug(1).getParameterMap().keySet(), bug.getParameterMap().keySet());
+		assertEquals("Strings should survive", "Bug number 1", bug.getSummary());
+		assertEquals("Dates should survive", new Date(1000), bug.getLastChangeTime());
+		assertEquals("Flags should survive", Status.UNKNOWN, bug.getFlags().iterator().next().getStatus());
+		
+		Comment comment = decoder.readComment();
+		assertEquals("Comment ID should survive", 5, comment.getID());
+		assertEquals("Comment text should survive", "A comment", comment.getText());
+		
+		Attachment attachment = decoder.readAttachment();
+		assertEquals("Attachment ID should survive", 3, attachment.getAttachmentID());
+		assertEquals("MIME type should survive", "text/plain", attachment.getMIMEType());
+		assertArrayEquals("Data should survive", new byte[] { 1, 2, 3 }, attachment.getRawData());
+		assertEquals("Creation date should survive", new Date(2000), attachment.createdOn());
+		assertNull("Missing dates should stay missing", attachment.lastChangedOn());
+		
+		Product decodedProduct = decoder.readProduct();
+		assertEquals("Product name should survive", "Test", decodedProduct.getName());
+		assertEquals("Versions should survive", "1.0", decodedProduct.getProductVersions().get(0).getName());
+		
+		assertEquals("Flag status should survive", Status.POSITIVE, decoder.readFlag().getStatus());
+		assertEquals("Summary should survive", summary, decoder.readSummary());
+		assertNull("Stream should be exhausted", decoder.read());
+	}
+	
+	@Test
+	public void testSymbolsAreShared() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryEncoder encoder = new BinaryEncoder(bytes);
+		encoder.writeBug(bug(1));
+		int first = bytes.size();
+		encoder.writeBug(bug(2));
+		int second = bytes.size() - first;
+		
+		assertTrue("Later records should reuse symbols", second < first / 2);
+	}
+	
+	@Test
+	public void testSymbolsStayNewUntilPublished() {
+		BinaryCodec codec = new BinaryCodec();
+		codec.encodeBug(bug(1));
+		List<String> symbols = codec.getNewSymbols();
+		assertFalse("Encoding should add symbols", symbols.isEmpty());
+		assertEquals("Unpublished symbols should be returned again", symbols, codec.getNewSymbols());
+		codec.markPublished(symbols);
+		assertTrue("Published symbols are no longer new", codec.getNewSymbols().isEmpty());
+	}
+	
+	@Test
+	public void testUnknownRecordsSkipped() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryEncoder encoder = new BinaryEncoder(bytes);
+		encoder.writeComment(new Comment(1, "Before"));
+		//A record of a type added by some later version of the format
+		bytes.write(new byte[] { 3, 99, 1, 2 });
+		encoder.writeComment(new Comment(2, "After"));
+		
+		BinaryDecoder decoder = new BinaryDecoder(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals("First comment does not match", 1, decoder.readComment().getID());
+		assertEquals("Unknown record should be skipped", 2, decoder.readComment().getID());
+	}
+	
+	@Test(expected = IOException.class)
+	public void testUnsupportedVersion() throws IOException {
+		new BinaryDecoder(new ByteArrayInputStream(new byte[] { 'J', '2', 'B', 'Z', 99 }));
+	}
+	
+}
@@ -1,10 +1,15 @@
 package com.j2bugzilla.base;
 
+import static org.junit.Assert.*;
+
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
+import com.j2bugzilla.base.Flag.Status;
+
 public class TestBug {
 
 	@Test(expected = IllegalStateException.class)
@@ -12,5 +17,57 @@ public class TestBug {
 		Map<String, Object> fields = new HashMap<String, Object>();
 		new Bug(fields);
 	}
+	
+	private static Map<String, Object> record() {
+		Map<String, Object> record = new HashMap<String, Object>();
+		record.put("id", 1);
+		record.put("product", "Product");
+		record.put("component", "Component");
+		record.put("summary", "Summary");
+		Map<String, Object> internals = new HashMap<String, Object>();
+		internals.put("version", 2.0);
+		record.put("internals", internals);
+		Map<String, Object> flag = new HashMap<String, Object>();
+		flag.put("name", "review");
+		flag.put("status", "+");
+		record.put("flags", new Object[] { flag });
+		return record;
+	}
+	
+	@Test
+	public void testLazyBug() {
+		Map<String, Object> record = record();
+		Bug bug = new BugFactory().createLazyBug(record);
+		
+		assertEquals("ID does not match", 1, bug.getID());
+		assertEquals("Version should fall back to the internals", "2.0", bug.getVersion());
+		assertEquals("Version missing from parameters", "2.0", bug.getParameterMap().get("version"));
+		
+		Set<Flag> flags = bug.getFlags();
+		assertEquals("Wrong number of flags", 1, flags.size());
+		Flag flag = flags.iterator().next();
+		assertEquals("Flag name does not match", "review", flag.getName());
+		assertEquals("Flag status does not match", Status.POSITIVE, flag.getStatus());
+		assertSame("Flags should only be parsed once", flags, bug.getFlags());
+	}
+	
+	@Test
+	public void testLazyBugLeavesRecordUnchanged() {
+		Map<String, Object> record = record();
+		Bug bug = new BugFactory().createLazyBug(record);
+		bug.setSummary("Changed");
+		bug.setVersion("3.0");
+		
+		assertEquals("Summary was not changed", "Changed", bug.getSummary());
+		assertEquals("Version was not changed", "3.0", bug.getVersion());
+		assertEquals("Record should not be modified", "Summary", record.get("summary"));
+		assertFalse("Record should not be modified", record.containsKey("version"));
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void testFlagsReadOnly() {
+		Bug bug = new BugFactory().createLazyBug(record());
+		bug.getFlags().clear();
+	}
 
 }
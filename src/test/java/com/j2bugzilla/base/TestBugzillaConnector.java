@@ -0,0 +1,234 @@
+package com.j2bugzilla.base;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j2bugzilla.rpc.BugHistory;
+import com.j2bugzilla.rpc.BugzillaVersion;
+import com.j2bugzilla.rpc.GetBug;
+import com.j2bugzilla.rpc.LogOut;
+
+public class TestBugzillaConnector {
+
+	/**
+	 * Long enough that the fake server appears hung for the duration of a test
+	 */
+	private static final long HUNG = TimeUnit.MINUTES.toMillis(10);
+	
+	private FakeBugzillaServer server;
+	
+	private BugzillaConnector conn;
+	
+	@Before
+	public void setUp() throws IOException {
+		server = new FakeBugzillaServer();
+		server.setResponse(FakeBugzillaServer.result(
+				"<struct><member><name>version</name><value><string>4.4</string></value></member></struct>"));
+		conn = new BugzillaConnector();
+		conn.connectTo(server.getURL(), null, null);
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+	}
+	
+	@Test(timeout = 10000)
+	public void testDeadline() {
+		server.setDelay(HUNG);
+		long start = System.nanoTime();
+		try {
+			conn.executeMethod(new BugzillaVersion(), 200, TimeUnit.MILLISECONDS);
+			fail("Hung server should not produce a result");
+		} catch(BugzillaException e) {
+			assertTrue("Exception should mention the deadline", e.getMessage().contains("deadline"));
+		}
+		assertTrue("Call should end near its deadline", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+	}
+	
+	@Test(timeout = 10000)
+	public void testReadTimeout() {
+		server.setDelay(HUNG);
+		conn.setReadTimeout(200, TimeUnit.MILLISECONDS);
+		try {
+			conn.executeMethod(new BugzillaVersion());
+			fail("Hung server should not produce a result");
+		} catch(BugzillaException e) {
+			//Expected
+		}
+	}
+	
+	@Test(timeout = 10000)
+	public void testCancel() throws InterruptedException, ExecutionException {
+		server.setDelay(HUNG);
+		Future<BugzillaVersion> future = conn.executeMethodAsync(new BugzillaVersion());
+		Thread.sleep(200);
+		assertTrue("Running call should be cancellable", future.cancel(true));
+		try {
+			future.get();
+			fail("Cancelled call should not produce a result");
+		} catch(CancellationException e) {
+			//Expected
+		}
+	}
+	
+	@Test(timeout = 10000)
+	public void testCircuitBreakerFailsFast() {
+		server.setDelay(HUNG);
+		CircuitBreaker breaker = new CircuitBreaker(1.0, 1, 1, 1, TimeUnit.MINUTES, 1);
+		conn.setCircuitBreaker(breaker);
+		conn.setReadTimeout(100, TimeUnit.MILLISECONDS);
+		try {
+			conn.executeMethod(new BugzillaVersion());
+			fail("Hung server should not produce a result");
+		} catch(BugzillaException e) {
+			//Expected
+		}
+		assertEquals("Timeout should open the breaker", CircuitBreaker.State.OPEN, breaker.getState());
+		
+		long start = System.nanoTime();
+		try {
+			conn.executeMethod(new BugzillaVersion());
+			fail("Open breaker should reject the call");
+		} catch(BugzillaException e) {
+			assertTrue("Exception should mention the breaker", e.getMessage().contains("circuit breaker"));
+		}
+		assertTrue("Rejection should be immediate", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+	}
+	
+	@Test(timeout = 10000)
+	public void testDeadlineDoesNotTripBreaker() {
+		server.setDelay(HUNG);
+		CircuitBreaker breaker = new CircuitBreaker(1.0, 1, 1, 1, TimeUnit.MINUTES, 1);
+		conn.setCircuitBreaker(breaker);
+		try {
+			conn.executeMethod(new BugzillaVersion(), 100, TimeUnit.MILLISECONDS);
+			fail("Hung server should not produce a result");
+		} catch(BugzillaException e) {
+			//Expected
+		}
+		assertEquals("The caller's own deadline should not count against the server", 
+				CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+	
+	@Test(timeout = 10000)
+	public void testCoalescing() throws InterruptedException, ExecutionException, BugzillaException {
+		server.setDelay(300);
+		conn.setCoalescing(true);
+		
+		List<Future<BugzillaVersion>> futures = new ArrayList<Future<BugzillaVersion>>();
+		for(int i = 0; i < 5; i++) {
+			futures.add(conn.executeMethodAsync(new BugzillaVersion()));
+		}
+		for(Future<BugzillaVersion> future : futures) {
+			assertEquals("Each caller should receive the result", "4.4", future.get().getVersion());
+		}
+		assertEquals("Identical requests should share one call", 1, server.getRequestCount());
+		
+		conn.executeMethod(new BugzillaVersion());
+		assertEquals("Completed calls should not be reused", 2, server.getRequestCount());
+	}
+	
+	@Test(timeout = 10000)
+	public void testNoCoalescingByDefault() throws InterruptedException, ExecutionException {
+		server.setDelay(100);
+		Future<BugzillaVersion> first = conn.executeMethodAsync(new BugzillaVersion());
+		Future<BugzillaVersion> second = conn.executeMethodAsync(new BugzillaVersion());
+		first.get();
+		second.get();
+		assertEquals("Each request should be sent", 2, server.getRequestCount());
+	}
+
+	@Test
+	public void testNegativeCache() {
+		server.setResponse(FakeBugzillaServer.fault(101));
+		NegativeCache cache = new NegativeCache();
+		conn.setNegativeCache(cache);
+		
+		for(int i = 0; i < 3; i++) {
+			try {
+				conn.executeMethod(new GetBug(5));
+				fail("Nonexistent bug should produce a fault");
+			} catch(BugzillaException e) {
+				assertEquals("Cached fault should match the original", 
+						"The bug you attempted to retrieve does not exist", e.getMessage());
+			}
+		}
+		assertEquals("Only the first request should be sent", 1, server.getRequestCount());
+		
+		cache.invalidate(5);
+		try {
+			conn.executeMethod(new GetBug(5));
+			fail("Nonexistent bug should produce a fault");
+		} catch(BugzillaException e) {
+			//Expected
+		}
+		assertEquals("Invalidated bug should be requested again", 2, server.getRequestCount());
+	}
+	
+	@Test
+	public void testNegativeCacheClearedWithSession() throws IOException {
+		NegativeCache cache = new NegativeCache();
+		conn.setNegativeCache(cache);
+		
+		cache.put(5, 102);
+		conn.setToken("12-abc");
+		assertEquals("Setting a token should clear the cache", 0, cache.getFaultCode(5));
+		
+		cache.put(5, 102);
+		try {
+			conn.executeMethod(new LogOut());
+		} catch(BugzillaException e) {
+			fail(e.getMessage());
+		}
+		assertEquals("Logging out should clear the cache", 0, cache.getFaultCode(5));
+		
+		cache.put(5, 102);
+		conn.connectTo(server.getURL(), null, null);
+		assertEquals("Connecting should clear the cache", 0, cache.getFaultCode(5));
+	}
+	
+	@Test
+	public void testSessionChangesWithLogin() throws IOException {
+		long session = conn.getSession();
+		assertEquals("Session should be stable", session, conn.getSession());
+		conn.setToken("12-abc");
+		long loggedIn = conn.getSession();
+		assertTrue("Setting a token should start a new session", loggedIn != session);
+		conn.connectTo(server.getURL(), null, null);
+		assertTrue("Connecting should start a new session", conn.getSession() != loggedIn);
+	}
+	
+	@Test
+	public void testNegativeCacheAnswersHistory() {
+		server.setResponse(FakeBugzillaServer.fault(101));
+		conn.setNegativeCache(new NegativeCache());
+		
+		try {
+			conn.executeMethod(new GetBug(5));
+			fail("Nonexistent bug should produce a fault");
+		} catch(BugzillaException e) {
+			//Expected
+		}
+		try {
+			conn.executeMethod(new BugHistory(5));
+			fail("History of a nonexistent bug should produce a fault");
+		} catch(BugzillaException e) {
+			assertEquals("Cached fault should match the original", 
+					"The bug you attempted to retrieve does not exist", e.getMessage());
+		}
+		assertEquals("History request should be answered from the cache", 1, server.getRequestCount());
+	}
+	
+}
@@ -0,0 +1,154 @@
+package com.j2bugzilla.base;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.j2bugzilla.base.CircuitBreaker.State;
+
+public class TestCircuitBreaker {
+
+	@Test
+	public void testOpensAtFailureRate() {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 4, 1, TimeUnit.MINUTES, 1);
+		pass(breaker, false);
+		pass(breaker, true);
+		pass(breaker, false);
+		assertEquals("Too few calls to open", State.CLOSED, breaker.getState());
+		pass(breaker, true);
+		assertEquals("Half of the window failed", State.OPEN, breaker.getState());
+		assertNull("Open breaker should reject requests", breaker.tryAcquire());
+	}
+	
+	@Test
+	public void testSlidingWindowForgetsOldFailures() {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 4, 1, TimeUnit.MINUTES, 1);
+		pass(breaker, true);
+		for(int i = 0; i < 10; i++) {
+			pass(breaker, false);
+		}
+		pass(breaker, true);
+		assertEquals("Only one failure remains in the window", State.CLOSED, breaker.getState());
+	}
+	
+	@Test
+	public void testHalfOpenRecovery() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(1.0, 1, 1, 20, TimeUnit.MILLISECONDS, 2);
+		final List<State> transitions = new ArrayList<State>();
+		breaker.addListener(new CircuitBreakerListener() {
+			@Override
+			public void stateChanged(CircuitBreaker breaker, State from, State to) {
+				transitions.add(to);
+			}
+		});
+		
+		pass(breaker, true);
+		Thread.sleep(40);
+		
+		CircuitBreaker.Permit first = breaker.tryAcquire();
+		CircuitBreaker.Permit second = breaker.tryAcquire();
+		assertNotNull("First trial should be allowed", first);
+		assertNotNull("Second trial should be allowed", second);
+		assertNull("Only two trials may run", breaker.tryAcquire());
+		first.recordSuccess();
+		second.recordSuccess();
+		
+		assertEquals("Breaker should have closed", State.CLOSED, breaker.getState());
+		assertEquals("Transitions were not reported", 3, transitions.size());
+		assertEquals(State.OPEN, transitions.get(0));
+		assertEquals(State.HALF_OPEN, transitions.get(1));
+		assertEquals(State.CLOSED, transitions.get(2));
+	}
+	
+	@Test
+	public void testHalfOpenFailureReopens() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(1.0, 1, 1, 20, TimeUnit.MILLISECONDS, 1);
+		pass(breaker, true);
+		Thread.sleep(40);
+		pass(breaker, true);
+		assertEquals("Failed trial should re-open the breaker", State.OPEN, breaker.getState());
+	}
+	
+	@Test
+	public void testStalePermitIgnored() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(1.0, 2, 1, 20, TimeUnit.MILLISECONDS, 1);
+		CircuitBreaker.Permit slow = breaker.tryAcquire();
+		pass(breaker, true);
+		Thread.sleep(40);
+		
+		CircuitBreaker.Permit trial = breaker.tryAcquire();
+		assertNotNull("Trial should be allowed", trial);
+		slow.recordSuccess();
+		assertEquals("A request admitted while closed is not a trial", State.HALF_OPEN, breaker.getState());
+		slow.recordIgnored();
+		assertNull("Stale permit should not free a trial slot", breaker.tryAcquire());
+		trial.recordSuccess();
+		assertEquals("Trial should close the breaker", State.CLOSED, breaker.getState());
+	}
+	
+	@Test
+	public void testOutcomeReportedOnce() {
+		CircuitBreaker breaker = new CircuitBreaker(1.0, 1, 1, 1, TimeUnit.MINUTES, 1);
+		CircuitBreaker.Permit permit = breaker.tryAcquire();
+		permit.recordSuccess();
+		permit.recordFailure();
+		assertEquals("Second outcome should be ignored", State.CLOSED, breaker.getState());
+	}
+	
+	@Test
+	public void testTransitionsReportedInOrder() throws InterruptedException {
+		final CircuitBreaker breaker = new CircuitBreaker(1.0, 1, 1, 0, TimeUnit.MILLISECONDS, 1);
+		final List<State[]> transitions = Collections.synchronizedList(new ArrayList<State[]>());
+		breaker.addListener(new CircuitBreakerListener() {
+			@Override
+			public void stateChanged(CircuitBreaker breaker, State from, State to) {
+				transitions.add(new State[] {from, to});
+			}
+		});
+		
+		Thread[] threads = new Thread[4];
+		for(int i = 0; i < threads.length; i++) {
+			final boolean fail = i % 2 == 0;
+			threads[i] = new Thread() {
+				public void run() {
+					for(int j = 0; j < 500; j++) {
+						CircuitBreaker.Permit permit = breaker.tryAcquire();
+						if(permit == null) { continue; }
+						if(fail) {
+							permit.recordFailure();
+						} else {
+							permit.recordSuccess();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		
+		State current = State.CLOSED;
+		for(State[] transition : transitions) {
+			assertEquals("Transitions should be reported in order", current, transition[0]);
+			current = transition[1];
+		}
+		assertEquals("Last transition should reach the final state", breaker.getState(), current);
+	}
+	
+	private void pass(CircuitBreaker breaker, boolean fail) {
+		CircuitBreaker.Permit permit = breaker.tryAcquire();
+		assertNotNull("Request should be allowed", permit);
+		if(fail) {
+			permit.recordFailure();
+		} else {
+			permit.recordSuccess();
+		}
+	}
+
+}
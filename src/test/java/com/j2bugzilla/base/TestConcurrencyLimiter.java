@@ -0,0 +1,85 @@
+package com.j2bugzilla.base;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestConcurrencyLimiter {
+
+	@Test
+	public void testRejectsBeyondLimit() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 2, 2, 10);
+		assertTrue("First permit should be granted", limiter.acquire(0, TimeUnit.MILLISECONDS));
+		assertTrue("Second permit should be granted", limiter.acquire(0, TimeUnit.MILLISECONDS));
+		assertFalse("Third permit should time out", limiter.acquire(10, TimeUnit.MILLISECONDS));
+		assertEquals("In-flight count is incorrect", 2, limiter.getInFlight());
+		assertEquals("Timed out request should leave the queue", 0, limiter.getQueued());
+	}
+	
+	@Test
+	public void testFullQueueRejectsImmediately() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0);
+		assertTrue("First permit should be granted", limiter.acquire(0, TimeUnit.MILLISECONDS));
+		long start = System.nanoTime();
+		assertFalse("No queueing should be allowed", limiter.acquire(1, TimeUnit.SECONDS));
+		assertTrue("Rejection should not wait", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+	}
+	
+	@Test
+	public void testWaiterReceivesReleasedPermit() throws InterruptedException {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 10);
+		assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+		
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				limiter.release(TimeUnit.MILLISECONDS.toNanos(5), false);
+			}
+		};
+		releaser.start();
+		
+		assertTrue("Queued request should obtain the released permit", limiter.acquire(5, TimeUnit.SECONDS));
+		releaser.join();
+	}
+	
+	@Test
+	public void testLimitGrowsUnderHealthyLatency() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 2, 10, 10);
+		for(int i = 0; i < 50; i++) {
+			limiter.acquire(0, TimeUnit.MILLISECONDS);
+			limiter.acquire(0, TimeUnit.MILLISECONDS);
+			limiter.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+			limiter.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+		}
+		assertTrue("Limit should have grown", limiter.getLimit() > 2);
+	}
+	
+	@Test
+	public void testLimitShrinksOnLatencyAndDrops() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 8, 10, 10);
+		limiter.acquire(0, TimeUnit.MILLISECONDS);
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+		
+		limiter.acquire(0, TimeUnit.MILLISECONDS);
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(100), false);
+		assertEquals("Limit should shrink after a latency spike", 6, limiter.getLimit());
+		
+		limiter.acquire(0, TimeUnit.MILLISECONDS);
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(10), true);
+		assertEquals("Limit should shrink after a dropped request", 4, limiter.getLimit());
+		
+		for(int i = 0; i < 20; i++) {
+			limiter.acquire(0, TimeUnit.MILLISECONDS);
+			limiter.release(0, true);
+		}
+		assertEquals("Limit should not fall below its minimum", 1, limiter.getLimit());
+	}
+
+}
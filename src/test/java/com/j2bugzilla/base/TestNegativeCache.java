@@ -0,0 +1,50 @@
+package com.j2bugzilla.base;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestNegativeCache {
+
+	@Test
+	public void testPutAndInvalidate() {
+		NegativeCache cache = new NegativeCache();
+		assertEquals("Unknown bug should not be cached", 0, cache.getFaultCode(1));
+		
+		cache.put(1, 101);
+		cache.put(2, 102);
+		assertEquals("Fault code does not match", 101, cache.getFaultCode(1));
+		assertEquals("Fault code does not match", 102, cache.getFaultCode(2));
+		
+		cache.invalidate(1);
+		assertEquals("Invalidated bug should not be cached", 0, cache.getFaultCode(1));
+		assertEquals("Other bugs should remain cached", 102, cache.getFaultCode(2));
+		
+		cache.invalidateAll();
+		assertEquals("Cache should be empty", 0, cache.size());
+	}
+	
+	@Test
+	public void testEviction() {
+		NegativeCache cache = new NegativeCache(2, 1, TimeUnit.MINUTES);
+		cache.put(1, 101);
+		cache.put(2, 101);
+		cache.getFaultCode(1);
+		cache.put(3, 101);
+		
+		assertEquals("Cache should stay within its bound", 2, cache.size());
+		assertEquals("Recently used bug should be kept", 101, cache.getFaultCode(1));
+		assertEquals("Least recently used bug should be evicted", 0, cache.getFaultCode(2));
+	}
+	
+	@Test
+	public void testExpiry() throws InterruptedException {
+		NegativeCache cache = new NegativeCache(10, 50, TimeUnit.MILLISECONDS);
+		cache.put(1, 101);
+		Thread.sleep(100);
+		assertEquals("Expired bug should not be cached", 0, cache.getFaultCode(1));
+	}
+	
+}
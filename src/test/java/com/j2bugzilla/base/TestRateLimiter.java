@@ -0,0 +1,36 @@
+package com.j2bugzilla.base;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestRateLimiter {
+
+	@Test
+	public void testBurstIsImmediate() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(1, 3);
+		for(int i = 0; i < 3; i++) {
+			assertTrue("Burst permit " + i + " should be granted", limiter.acquire(0, TimeUnit.MILLISECONDS));
+		}
+		assertFalse("Bucket should be empty", limiter.acquire(0, TimeUnit.MILLISECONDS));
+	}
+	
+	@Test
+	public void testWaitsForNextToken() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(20, 1);
+		assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+		
+		long start = System.nanoTime();
+		assertTrue("Next token should arrive within the timeout", limiter.acquire(1, TimeUnit.SECONDS));
+		long waited = System.nanoTime() - start;
+		assertTrue("Caller should have waited for the token", waited >= TimeUnit.MILLISECONDS.toNanos(30));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidRate() {
+		new RateLimiter(0, 1);
+	}
+
+}
@@ -0,0 +1,38 @@
+package com.j2bugzilla.base;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestRequestKey {
+
+	@Test
+	public void testArraysCompareByValue() {
+		Map<Object, Object> first = new HashMap<Object, Object>();
+		first.put("ids", new Integer[] { 1, 2 });
+		Map<Object, Object> second = new HashMap<Object, Object>();
+		second.put("ids", new Integer[] { 1, 2 });
+		
+		RequestKey a = new RequestKey("Bug.get", first);
+		RequestKey b = new RequestKey("Bug.get", second);
+		assertEquals("Equal parameters should give equal keys", a, b);
+		assertEquals("Equal keys should share a hash code", a.hashCode(), b.hashCode());
+	}
+	
+	@Test
+	public void testDifferentParameters() {
+		Map<Object, Object> first = new HashMap<Object, Object>();
+		first.put("ids", new int[] { 1, 2 });
+		Map<Object, Object> second = new HashMap<Object, Object>();
+		second.put("ids", new int[] { 2, 1 });
+		
+		assertFalse("Order of array elements matters", 
+				new RequestKey("Bug.get", first).equals(new RequestKey("Bug.get", second)));
+		assertFalse("Method name matters", 
+				new RequestKey("Bug.get", first).equals(new RequestKey("Bug.comments", first)));
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.j2bugzilla.local;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugFactory;
+import com.j2bugzilla.local.BugIndex.Field;
+
+public class TestBugIndex {
+
+	private MemoryBugStore store;
+	
+	private static Bug bug(int id, String status, String component, String assignee, Object... keywords) {
+		Map<String, Object> state = new HashMap<String, Object>();
+		state.put("id", id);
+		state.put("product", "Test");
+		state.put("component", component);
+		state.put("summary", "Bug " + id);
+		state.put("version", "1.0");
+		state.put("status", status);
+		state.put("assigned_to", assignee);
+		state.put("keywords", keywords);
+		return new BugFactory().createBug(state);
+	}
+	
+	@Before
+	public void setUp() {
+		store = new MemoryBugStore();
+		store.put(bug(1, "NEW", "UI", "alice", "crash"));
+		store.put(bug(2, "NEW", "UI", "bob"));
+		store.put(bug(3, "ASSIGNED", "UI", "alice", "crash", "regression"));
+		store.put(bug(4, "NEW", "Core", "alice"));
+		store.put(bug(100, "NEW", "UI", "alice", "regression"));
+	}
+	
+	@Test
+	public void testQuery() throws BugStoreException {
+		BugIndex index = BugIndex.build(store);
+		assertEquals("Every bug should be indexed", 5, index.size());
+		
+		int[] ids = index.query().where(Field.STATUS, "NEW").where(Field.COMPONENT, "UI")
+				.where(Field.ASSIGNEE, "alice").getIDs();
+		assertArrayEquals("Wrong bugs found", new int[] { 1, 100 }, ids);
+		
+		assertEquals("Keywords should be indexed individually", 2, index.count(Field.KEYWORDS, "crash"));
+		assertEquals("Alternatives should be joined with OR", 3, index.query()
+				.whereAny(Field.KEYWORDS, "crash", "regression").count());
+		assertEquals("Unknown values match nothing", 0, index.query().where(Field.STATUS, "VERIFIED")
+				.where(Field.COMPONENT, "UI").count());
+		assertEquals("An empty query matches everything", 5, index.query().count());
+		assertEquals("Bugs should be read from the store", "Bug 4", 
+				index.query().where(Field.COMPONENT, "Core").getBugs(store).get(0).getSummary());
+	}
+	
+	@Test
+	public void testIncrementalUpdate() throws BugStoreException {
+		BugIndex index = BugIndex.build(store);
+		Bug previous = store.get(2);
+		Bug changed = bug(2, "RESOLVED", "Core", "alice");
+		index.bugChanged(new BugChangeEvent(changed, previous));
+		
+		assertEquals("Old values should be removed", 3, index.count(Field.STATUS, "NEW"));
+		assertEquals("New values should be added", 1, index.count(Field.STATUS, "RESOLVED"));
+		assertArrayEquals("Changed bug should be found by its new values", new int[] { 2, 4 }, 
+				index.query().where(Field.COMPONENT, "Core").getIDs());
+		
+		assertTrue("Indexed bugs can be removed", index.remove(2));
+		assertFalse("Removed bugs are no longer indexed", index.remove(2));
+		assertEquals("Removed bugs should not be found", 0, index.count(Field.STATUS, "RESOLVED"));
+		assertEquals("Wrong size", 4, index.size());
+	}
+
+}
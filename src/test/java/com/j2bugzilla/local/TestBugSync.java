@@ -0,0 +1,187 @@
+package com.j2bugzilla.local;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.rpc.BugSearch;
+import com.j2bugzilla.rpc.BugzillaTime;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestBugSync {
+
+	@Mock
+	private BugzillaConnector conn;
+	
+	/**
+	 * Bugs held by the fake installation, keyed by ID
+	 */
+	private final Map<Integer, Map<String, Object>> remote = new HashMap<Integer, Map<String, Object>>();
+	
+	/**
+	 * Parameters of each search sent to the fake installation
+	 */
+	private final List<Map<Object, Object>> searches = new ArrayList<Map<Object, Object>>();
+	
+	/**
+	 * Current time of the fake installation, which is the time of its latest change
+	 */
+	private long now = 0;
+	
+	/**
+	 * Run once after the next search is answered, to change bugs while a poll is in progress
+	 */
+	private Runnable afterSearch;
+	
+	@Before
+	public void setUp() throws BugzillaException {
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				if(invocation.getArguments()[0] instanceof BugzillaTime) {
+					Map<Object, Object> hash = new HashMap<Object, Object>();
+					hash.put("db_time", new Date(now));
+					((BugzillaTime)invocation.getArguments()[0]).setResultMap(hash);
+					return null;
+				}
+				BugSearch search = (BugSearch)invocation.getArguments()[0];
+				Map<Object, Object> params = search.getParameterMap();
+				searches.add(params);
+				
+				Date since = (Date)params.get("last_change_time");
+				int limit = Integer.parseInt((String)params.get("limit"));
+				int after = 0;
+				for(int i = 1; params.containsKey("f" + i); i++) {
+					if("bug_id".equals(params.get("f" + i))) {
+						after = Integer.parseInt((String)params.get("v" + i));
+					}
+				}
+				
+				List<Object> page = new ArrayList<Object>();
+				for(int id = after + 1; id <= remote.size() && page.size() < limit; id++) {
+					Map<String, Object> bug = remote.get(id);
+					if(since == null || !((Date)bug.get("last_change_time")).before(since)) {
+						page.add(bug);
+					}
+				}
+				
+				Map<Object, Object> hash = new HashMap<Object, Object>();
+				hash.put("bugs", page.toArray());
+				search.setResultMap(hash);
+				if(afterSearch != null) {
+					Runnable change = afterSearch;
+					afterSearch = null;
+					change.run();
+				}
+				return null;
+			}
+			
+		}).when(conn).executeMethod(any(BugzillaMethod.class));
+	}
+	
+	private void change(int id, long time) {
+		Map<String, Object> bug = new HashMap<String, Object>();
+		bug.put("id", id);
+		bug.put("product", "Test");
+		bug.put("component", "Test");
+		bug.put("summary", "Bug " + id + " at " + time);
+		bug.put("version", "1.0");
+		bug.put("last_change_time", new Date(time));
+		remote.put(id, bug);
+		now = Math.max(now, time);
+	}
+	
+	@Test
+	public void testIncrementalSync() throws BugzillaException, BugStoreException {
+		for(int id = 1; id <= 5; id++) {
+			change(id, 1000 * id);
+		}
+		
+		BugStore store = new MemoryBugStore();
+		BugSync sync = new BugSync(conn, store);
+		sync.addProduct("Test");
+		sync.setPageSize(2);
+		final List<BugChangeEvent> heard = new ArrayList<BugChangeEvent>();
+		sync.addListener(new BugChangeListener() {
+			@Override
+			public void bugChanged(BugChangeEvent event) {
+				heard.add(event);
+			}
+		});
+		
+		List<BugChangeEvent> events = sync.sync();
+		assertEquals("All bugs should be mirrored initially", 5, events.size());
+		assertEquals("Listeners should see every change", events, heard);
+		assertEquals("Store should hold every bug", 5, store.size());
+		assertNull("Initial sync should not filter by time", searches.get(0).get("last_change_time"));
+		assertEquals("Pages should be ordered by ID", "bug_id", searches.get(0).get("order"));
+		assertNull("Offsets should never be used", searches.get(1).get("offset"));
+		assertEquals("High-water mark should be the installation's time", new Date(5000), store.getHighWaterMark("Test"));
+		
+		searches.clear();
+		assertTrue("Nothing changed, so nothing should be reported", sync.sync().isEmpty());
+		assertEquals("Poll should search from the high-water mark", new Date(5000), searches.get(0).get("last_change_time"));
+		
+		change(2, 6000);
+		events = sync.sync();
+		assertEquals("Only the changed bug should be reported", 1, events.size());
+		assertEquals("Changed bug should be stored", "Bug 2 at 6000", store.get(2).getSummary());
+		assertEquals("Previous copy should be reported", "Bug 2 at 2000", events.get(0).getPrevious().getSummary());
+		assertFalse("Changed bug is not new", events.get(0).isNew());
+		assertEquals("High-water mark should advance", new Date(6000), store.getHighWaterMark("Test"));
+	}
+	
+	@Test
+	public void testChangeDuringPoll() throws BugzillaException, BugStoreException {
+		for(int id = 1; id <= 5; id++) {
+			change(id, 1000 * id);
+		}
+		BugStore store = new MemoryBugStore();
+		BugSync sync = new BugSync(conn, store);
+		sync.addProduct("Test");
+		sync.setPageSize(2);
+		sync.sync();
+		
+		change(3, 6000);
+		sync.setPageSize(1);
+		afterSearch = new Runnable() {
+			@Override
+			public void run() {
+				//Bug 1 changes behind the cursor, then bug 4 ahead of it
+				change(1, 7000);
+				change(4, 8000);
+			}
+		};
+		List<BugChangeEvent> events = sync.sync();
+		assertEquals("Bugs changed ahead of the cursor should be reported", 2, events.size());
+		assertEquals(3, events.get(0).getBug().getID());
+		assertEquals(4, events.get(1).getBug().getID());
+		assertEquals("High-water mark should be the time the poll started", new Date(6000), 
+				store.getHighWaterMark("Test"));
+		
+		events = sync.sync();
+		assertEquals("Bug changed behind the cursor should be picked up next time", 1, events.size());
+		assertEquals(1, events.get(0).getBug().getID());
+		assertEquals("Bug 1 at 7000", store.get(1).getSummary());
+		assertTrue("Nothing further changed", sync.sync().isEmpty());
+	}
+	
+}
@@ -0,0 +1,136 @@
+package com.j2bugzilla.local;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.Comment;
+import com.j2bugzilla.rpc.BugComments;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestCommentMirror {
+
+	@Mock
+	private BugzillaConnector conn;
+	
+	/**
+	 * Comment threads held by the fake installation, keyed by bug ID
+	 */
+	private final Map<Integer, List<Map<Object, Object>>> remote = new HashMap<Integer, List<Map<Object, Object>>>();
+	
+	/**
+	 * Number of comments returned by the fake installation
+	 */
+	private int downloaded = 0;
+	
+	private int nextId = 1;
+	
+	@Before
+	public void setUp() throws BugzillaException {
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				BugComments method = (BugComments)invocation.getArguments()[0];
+				Map<Object, Object> params = method.getParameterMap();
+				Date since = (Date)params.get("new_since");
+				
+				Map<String, Object> bugs = new HashMap<String, Object>();
+				for(Object id : (Object[])params.get("ids")) {
+					List<Object> comments = new ArrayList<Object>();
+					for(Map<Object, Object> comment : remote.get(id)) {
+						if(since == null || ((Date)comment.get("time")).after(since)) {
+							comments.add(comment);
+						}
+					}
+					downloaded += comments.size();
+					Map<String, Object> bug = new HashMap<String, Object>();
+					bug.put("comments", comments.toArray());
+					bugs.put(id.toString(), bug);
+				}
+				Map<Object, Object> hash = new HashMap<Object, Object>();
+				hash.put("bugs", bugs);
+				method.setResultMap(hash);
+				return null;
+			}
+			
+		}).when(conn).executeMethod(any(BugzillaMethod.class));
+	}
+	
+	private void comment(int bugId, long time) {
+		Map<Object, Object> comment = new HashMap<Object, Object>();
+		comment.put("id", nextId++);
+		comment.put("bug_id", bugId);
+		comment.put("text", "Comment at " + time);
+		comment.put("time", new Date(time));
+		if(!remote.containsKey(bugId)) {
+			remote.put(bugId, new ArrayList<Map<Object, Object>>());
+		}
+		remote.get(bugId).add(comment);
+	}
+	
+	@Test
+	public void testPoll() throws BugzillaException, BugStoreException {
+		comment(1, 10000);
+		comment(1, 20000);
+		comment(2, 15000);
+		
+		CommentStore store = new MemoryCommentStore();
+		CommentMirror mirror = new CommentMirror(conn, store);
+		mirror.addBug(1);
+		mirror.addBug(2);
+		final List<Comment> heard = new ArrayList<Comment>();
+		mirror.addListener(new CommentListener() {
+			@Override
+			public void commentsAdded(int bugId, List<Comment> comments) {
+				heard.addAll(comments);
+			}
+		});
+		
+		assertEquals("Whole threads should be fetched initially", 3, mirror.poll());
+		assertEquals("Listeners should hear every comment", 3, heard.size());
+		assertEquals("Thread should be stored", 2, store.getComments(1).size());
+		
+		downloaded = 0;
+		assertEquals("Nothing new should be stored", 0, mirror.poll());
+		assertEquals("Only the comments at the marks should be downloaded again", 2, downloaded);
+		
+		comment(2, 30000);
+		heard.clear();
+		assertEquals("New comment should be stored", 1, mirror.poll());
+		assertEquals("Listener should hear only the new comment", "Comment at 30000", heard.get(0).getText());
+		assertEquals("Comment should be appended to its thread", "Comment at 30000", store.getLastComment(2).getText());
+	}
+	
+	@Test
+	public void testCommentsInSameSecond() throws BugzillaException, BugStoreException {
+		comment(1, 10000);
+		CommentStore store = new MemoryCommentStore();
+		CommentMirror mirror = new CommentMirror(conn, store);
+		mirror.addBug(1);
+		assertEquals("Whole thread should be fetched initially", 1, mirror.poll());
+		
+		comment(1, 10000);
+		assertEquals("Comment made in the same second as the mark should be stored", 1, mirror.poll());
+		assertEquals("Thread should hold both comments", 2, store.getComments(1).size());
+		assertEquals("Nothing further should be stored", 0, mirror.poll());
+	}
+	
+}
@@ -0,0 +1,144 @@
+package com.j2bugzilla.local;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugFactory;
+
+public class TestDiskBugStore {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static Bug bug(int id, String summary) {
+		Map<String, Object> state = new HashMap<String, Object>();
+		state.put("id", id);
+		state.put("product", "Test");
+		state.put("component", "Test");
+		state.put("summary", summary);
+		state.put("version", "1.0");
+		state.put("is_open", true);
+		state.put("last_change_time", new Date(1000L * id));
+		state.put("cc", new Object[] { "a@example.com", "b@example.com" });
+		Map<String, Object> flag = new HashMap<String, Object>();
+		flag.put("name", "review");
+		flag.put("status", "+");
+		state.put("flags", new Object[] { flag });
+		return new BugFactory().createBug(state);
+	}
+	
+	@Test
+	public void testRoundTrip() throws BugStoreException, IOException {
+		File dir = folder.newFolder("store");
+		DiskBugStore store = new DiskBugStore(dir);
+		store.put(bug(1, "First"));
+		store.put(bug(2, "Second"));
+		store.put(bug(1, "First, edited"));
+		store.remove(2);
+		store.setHighWaterMark("Test", new Date(5000));
+		store.close();
+		
+		store = new DiskBugStore(dir);
+		assertEquals("Only one bug should remain", 1, store.size());
+		assertNull("Removed bug should stay removed", store.get(2));
+		Bug bug = store.get(1);
+		assertEquals("Latest copy should be kept", "First, edited", bug.getSummary());
+		assertEquals("Dates should survive", new Date(1000), bug.getLastChangeTime());
+		assertEquals("Flags should survive", "review", bug.getFlags().iterator().next().getName());
+		assertEquals("Arrays should survive", "b@example.com", ((Object[])bug.getParameterMap().get("cc"))[1]);
+		assertEquals("High-water marks should survive", new Date(5000), store.getHighWaterMark("Test"));
+		store.close();
+	}
+	
+	@Test
+	public void testCompaction() throws BugStoreException, IOException {
+		File dir = folder.newFolder("store");
+		File log = new File(dir, "bugs.log");
+		DiskBugStore store = new DiskBugStore(dir);
+		for(int i = 0; i < 50; i++) {
+			store.put(bug(i % 5, "Revision " + i));
+		}
+		store.setHighWaterMark("Test", new Date(5000));
+		long before = log.length();
+		store.compact();
+		assertTrue("Compaction should reclaim space", log.length() < before / 5);
+		assertEquals("Bugs should survive compaction", "Revision 49", store.get(4).getSummary());
+		store.put(bug(7, "After compaction"));
+		store.close();
+		
+		store = new DiskBugStore(dir);
+		assertEquals("Store should hold every bug", 6, store.size());
+		assertEquals("Bugs should survive reopening", "Revision 45", store.get(0).getSummary());
+		assertEquals("High-water marks should survive compaction", new Date(5000), store.getHighWaterMark("Test"));
+		store.close();
+	}
+	
+	@Test
+	public void testFailedAutomaticCompaction() throws BugStoreException, IOException {
+		File dir = folder.newFolder("store");
+		File log = new File(dir, "bugs.log");
+		DiskBugStore store = new DiskBugStore(dir);
+		//A non-empty directory in the way of the new log makes every compaction fail
+		File blocker = new File(dir, "bugs.log.compact");
+		assertTrue(blocker.mkdir());
+		File child = new File(blocker, "child");
+		assertTrue(child.createNewFile());
+		
+		for(int i = 0; log.length() < 3 * 1024 * 1024; i++) {
+			store.put(bug(1, "Revision " + i));
+		}
+		try {
+			store.compact();
+			fail("Compaction should fail while the new log cannot be created");
+		} catch(BugStoreException e) {
+			//Expected
+		}
+		
+		assertTrue(child.delete());
+		assertTrue(blocker.delete());
+		long before = log.length();
+		for(int i = 0; i < 100000 && log.length() >= before; i++) {
+			store.put(bug(1, "Revision " + i));
+		}
+		assertTrue("Compaction should be retried as the log grows", log.length() < before);
+		store.put(bug(1, "Final"));
+		store.close();
+		
+		store = new DiskBugStore(dir);
+		assertEquals("Latest copy should survive", "Final", store.get(1).getSummary());
+		store.close();
+	}
+	
+	@Test
+	public void testTornWrite() throws BugStoreException, IOException {
+		File dir = folder.newFolder("store");
+		File log = new File(dir, "bugs.log");
+		DiskBugStore store = new DiskBugStore(dir);
+		store.put(bug(1, "Complete"));
+		store.put(bug(2, "Torn"));
+		store.close();
+		
+		RandomAccessFile file = new RandomAccessFile(log, "rw");
+		file.setLength(file.length() - 3);
+		file.close();
+		
+		store = new DiskBugStore(dir);
+		assertEquals("Torn record should be discarded", 1, store.size());
+		assertEquals("Earlier records should survive", "Complete", store.get(1).getSummary());
+		store.put(bug(2, "Rewritten"));
+		assertEquals("Store should accept writes after recovery", "Rewritten", store.get(2).getSummary());
+		store.close();
+	}
+	
+}
@@ -0,0 +1,67 @@
+package com.j2bugzilla.local;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.j2bugzilla.base.Comment;
+
+public class TestDiskCommentStore {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static Comment comment(int id, int bugId) {
+		return new Comment(id, bugId, "Comment " + id, "user@example.com", new Date(1000L * id), false);
+	}
+	
+	@Test
+	public void testReopen() throws BugStoreException, IOException {
+		File file = new File(folder.getRoot(), "comments");
+		DiskCommentStore store = new DiskCommentStore(file);
+		store.append(1, Arrays.asList(comment(1, 1), comment(2, 1)));
+		store.append(2, Arrays.asList(comment(3, 2)));
+		assertTrue("Known comments should be ignored", store.append(1, Arrays.asList(comment(2, 1))).isEmpty());
+		store.close();
+		
+		store = new DiskCommentStore(file);
+		assertEquals("Thread should survive reopening", 2, store.getComments(1).size());
+		assertEquals("Comment fields should survive", "user@example.com", store.getLastComment(2).getCreator());
+		store.append(2, Arrays.asList(comment(4, 2)));
+		store.close();
+		
+		store = new DiskCommentStore(file);
+		assertEquals("Comments appended after reopening should survive", 4, store.getLastComment(2).getID());
+		store.close();
+	}
+	
+	@Test
+	public void testTornWrite() throws BugStoreException, IOException {
+		File file = new File(folder.getRoot(), "comments");
+		DiskCommentStore store = new DiskCommentStore(file);
+		store.append(1, Arrays.asList(comment(1, 1), comment(2, 1)));
+		store.close();
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 2);
+		raf.close();
+		
+		store = new DiskCommentStore(file);
+		assertEquals("Torn comment should be discarded", 1, store.getLastComment(1).getID());
+		store.append(1, Arrays.asList(comment(2, 1)));
+		store.close();
+		
+		store = new DiskCommentStore(file);
+		assertEquals("Store should accept writes after recovery", 2, store.getLastComment(1).getID());
+		store.close();
+	}
+	
+}
@@ -0,0 +1,162 @@
+package com.j2bugzilla.local;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugFactory;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.rpc.CommentBug;
+import com.j2bugzilla.rpc.ReportBug;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestDuplicateDetector {
+
+	private static final String CRASH = "Crash in nsLayout::Reflow at frame.cpp line 4021 when opening the print preview dialog";
+	
+	@Mock
+	private BugzillaConnector conn;
+	
+	/**
+	 * Methods sent to the fake installation
+	 */
+	private final List<BugzillaMethod> sent = new ArrayList<BugzillaMethod>();
+	
+	private DuplicateDetector detector;
+	
+	private static Bug bug(int id, String summary, String resolution) {
+		Map<String, Object> state = new HashMap<String, Object>();
+		state.put("id", id);
+		state.put("product", "Test");
+		state.put("component", "Crashes");
+		state.put("summary", summary);
+		state.put("version", "1.0");
+		state.put("resolution", resolution);
+		return new BugFactory().createBug(state);
+	}
+	
+	@Before
+	public void setUp() throws BugzillaException {
+		detector = new DuplicateDetector();
+		detector.addAll(Arrays.asList(
+				bug(1, CRASH, ""),
+				bug(2, "Toolbar icons are blurry on high resolution displays", ""),
+				bug(3, "Crash in nsDocShell::Destroy at docshell.cpp line 77 when closing a tab", "FIXED")));
+		
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				BugzillaMethod method = (BugzillaMethod)invocation.getArguments()[0];
+				sent.add(method);
+				Map<Object, Object> hash = new HashMap<Object, Object>();
+				hash.put("id", 100 + sent.size());
+				method.setResultMap(hash);
+				return null;
+			}
+			
+		}).when(conn).executeMethod(any(BugzillaMethod.class));
+	}
+	
+	@Test
+	public void testFindSimilar() {
+		assertEquals(2, detector.size());
+		
+		List<DuplicateDetector.Match> matches = detector.findSimilar(CRASH);
+		assertEquals(1, matches.size());
+		assertEquals(1, matches.get(0).getBugID());
+		assertEquals(1.0, matches.get(0).getSimilarity(), 1e-9);
+		
+		matches = detector.findSimilar("Crash in nsLayout::Reflow at frame.cpp line 4021 when opening print preview");
+		assertEquals(1, matches.size());
+		assertEquals(1, matches.get(0).getBugID());
+		assertTrue(matches.get(0).getSimilarity() < 1.0);
+		
+		assertTrue(detector.findSimilar("Toolbar icons vanish after an update").isEmpty());
+		assertTrue(detector.findSimilar("").isEmpty());
+	}
+	
+	@Test
+	public void testResolvedBugsAreNotDuplicates() {
+		assertTrue(detector.findSimilar("Crash in nsDocShell::Destroy at docshell.cpp line 77 when closing a tab").isEmpty());
+		
+		detector.bugChanged(new BugChangeEvent(bug(1, CRASH, "WORKSFORME"), null));
+		assertTrue(detector.findSimilar(CRASH).isEmpty());
+		assertEquals(1, detector.size());
+	}
+	
+	@Test
+	public void testFindDuplicateIgnoresItself() {
+		assertNull(detector.findDuplicate(bug(1, CRASH, "")));
+		assertEquals(1, detector.findDuplicate(bug(50, CRASH, "")).getBugID());
+	}
+	
+	@Test
+	public void testSubmitDuplicate() throws BugzillaException {
+		Bug report = new BugFactory().newBug().setProduct("Test").setComponent("Crashes").setVersion("1.0")
+				.setSummary(CRASH).setDescription("Stack trace attached").createBug();
+		DuplicateDetector.Submission submission = detector.submit(conn, report);
+		
+		assertTrue(submission.isDuplicate());
+		assertEquals(1, submission.getBugID());
+		assertEquals(1, sent.size());
+		assertTrue(sent.get(0) instanceof CommentBug);
+		assertEquals(1, sent.get(0).getParameterMap().get("id"));
+		assertEquals("Stack trace attached", sent.get(0).getParameterMap().get("comment"));
+	}
+	
+	@Test
+	public void testSubmitNewBug() throws BugzillaException {
+		String summary = "Hang in the spell checker when typing in right to left scripts";
+		Bug report = new BugFactory().newBug().setProduct("Test").setComponent("Crashes").setVersion("1.0")
+				.setSummary(summary).setDescription("Hangs").createBug();
+		DuplicateDetector.Submission submission = detector.submit(conn, report);
+		
+		assertFalse(submission.isDuplicate());
+		assertNull(submission.getDuplicateOf());
+		assertEquals(101, submission.getBugID());
+		assertTrue(sent.get(0) instanceof ReportBug);
+		
+		//A second report of the same problem now finds the new bug
+		submission = detector.submit(conn, report);
+		assertTrue(submission.isDuplicate());
+		assertEquals(101, submission.getBugID());
+		assertTrue(sent.get(1) instanceof CommentBug);
+	}
+	
+	@Test
+	public void testGrowAndCompact() {
+		for(int id = 10; id < 5000; id++) {
+			detector.add(id, "Assertion failure number " + id + " in module " + (id % 7));
+			if(id % 3 == 0) {
+				detector.remove(id - 1);
+			}
+		}
+		for(int id = 10; id < 5000; id++) {
+			detector.add(id, "Assertion failure number " + id + " in module " + (id % 7));
+		}
+		assertEquals(4990 + 2, detector.size());
+		for(int id = 10; id < 5000; id += 499) {
+			List<DuplicateDetector.Match> matches = detector.findSimilar("Assertion failure number " + id + " in module " + (id % 7));
+			assertEquals(id, matches.get(0).getBugID());
+			assertEquals(1.0, matches.get(0).getSimilarity(), 1e-9);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.j2bugzilla.local;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugFactory;
+import com.j2bugzilla.base.Comment;
+
+public class TestTextIndex {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private TextIndex index;
+	
+	private static Bug bug(int id, String summary) {
+		Map<String, Object> state = new HashMap<String, Object>();
+		state.put("id", id);
+		state.put("product", "Test");
+		state.put("component", "UI");
+		state.put("summary", summary);
+		state.put("version", "1.0");
+		return new BugFactory().createBug(state);
+	}
+	
+	private static Comment comment(int id, int bugId, String text) {
+		return new Comment(id, bugId, text, "alice", null, false);
+	}
+	
+	private static int[] ids(List<TextIndex.Hit> hits) {
+		int[] ids = new int[hits.size()];
+		for(int i = 0; i < ids.length; i++) {
+			ids[i] = hits.get(i).getBugID();
+		}
+		return ids;
+	}
+	
+	@Before
+	public void setUp() {
+		index = new TextIndex();
+		index.addBug(bug(1, "Crash when saving a file"));
+		index.addBug(bug(2, "Toolbar icons are blurry"));
+		index.addBug(bug(3, "Slow startup on large projects"));
+		index.addComment(comment(10, 2, "Also crashes sometimes after resizing the window"));
+		index.addComment(comment(11, 3, "Profiling shows the crash reporter is slow to start"));
+	}
+	
+	@Test
+	public void testTokenize() {
+		assertEquals(Arrays.asList("null", "pointer", "in", "foo", "bar", "42"), 
+				TextIndex.tokenize("NULL-pointer in Foo_Bar() #42 x"));
+		assertTrue(TextIndex.tokenize(null).isEmpty());
+	}
+	
+	@Test
+	public void testSummaryRanksAboveComment() {
+		List<TextIndex.Hit> hits = index.search("crash", 10);
+		assertArrayEquals(new int[] { 1, 3 }, ids(hits));
+		assertTrue(hits.get(0).getScore() > hits.get(1).getScore());
+	}
+	
+	@Test
+	public void testMoreTermsRankHigher() {
+		assertArrayEquals(new int[] { 3, 1 }, ids(index.search("slow crash", 10)));
+		assertArrayEquals(new int[] { 3 }, ids(index.search("slow crash", 1)));
+		assertTrue(index.search("nothing matches", 10).isEmpty());
+	}
+	
+	@Test
+	public void testIncrementalUpdates() {
+		index.addBug(bug(1, "Data loss when saving a file"));
+		assertArrayEquals(new int[] { 3 }, ids(index.search("crash", 10)));
+		assertArrayEquals(new int[] { 1 }, ids(index.search("loss", 10)));
+		
+		index.addComment(comment(10, 2, "Also crashes sometimes after resizing the window"));
+		index.addComment(comment(12, 2, "The window toolbar"));
+		assertArrayEquals(new int[] { 2 }, ids(index.search("window", 10)));
+		
+		assertTrue(index.remove(3));
+		assertFalse(index.remove(3));
+		assertTrue(index.search("slow", 10).isEmpty());
+		assertEquals(2, index.size());
+	}
+	
+	@Test
+	public void testListeners() {
+		index.bugChanged(new BugChangeEvent(bug(4, "Printing hangs"), null));
+		index.commentsAdded(4, Arrays.asList(new Comment(20, "Printer queue hangs too")));
+		List<TextIndex.Hit> hits = index.search("hangs", 10);
+		assertArrayEquals(new int[] { 4 }, ids(hits));
+		assertArrayEquals(new int[] { 4 }, ids(index.search("queue", 10)));
+	}
+	
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		File file = new File(folder.getRoot(), "text.idx");
+		index.save(file);
+		index.save(file);
+		TextIndex loaded = TextIndex.load(file);
+		
+		assertEquals(index.size(), loaded.size());
+		for(String query : new String[] { "crash", "slow crash", "window toolbar", "file" }) {
+			List<TextIndex.Hit> expected = index.search(query, 10);
+			List<TextIndex.Hit> actual = loaded.search(query, 10);
+			assertArrayEquals(query, ids(expected), ids(actual));
+			for(int i = 0; i < expected.size(); i++) {
+				assertEquals(query, expected.get(i).getScore(), actual.get(i).getScore(), 1e-9);
+			}
+		}
+		
+		//Comments already indexed are remembered across a reload
+		loaded.addComment(comment(11, 3, "Profiling shows the crash reporter is slow to start"));
+		assertEquals(index.search("profiling", 1).get(0).getScore(), loaded.search("profiling", 1).get(0).getScore(), 1e-9);
+	}
+	
+	@Test
+	public void testFailedSaveRemovesTemporaryFile() throws Exception {
+		//A non-empty directory can be neither replaced nor deleted
+		File file = folder.newFolder("segment");
+		new File(file, "child").createNewFile();
+		try {
+			index.save(file);
+			fail("Save over a directory should fail");
+		} catch(BugStoreException e) {
+			//Expected
+		}
+		assertFalse("Temporary file should be removed", new File(file.getPath() + ".tmp").exists());
+	}
+	
+	@Test(expected = BugStoreException.class)
+	public void testLoadRejectsOtherFiles() throws Exception {
+		File file = folder.newFile("other.idx");
+		TextIndex.load(file);
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+
+/**
+ * Compares counting open bugs by component over {@link Bug} instances with the same count over a
+ * {@link BugTable}, and reports the heap each takes. Run its {@code main} method from the test
+ * classpath; it is not part of the test suite.
+ */
+public class BugTableBenchmark {
+
+	private static final String[] STATUSES = { "NEW", "ASSIGNED", "REOPENED", "RESOLVED", "VERIFIED" };
+	
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int rounds = 20;
+		
+		Object[] records = new Object[count];
+		for(int i = 0; i < count; i++) {
+			Map<String, Object> bug = new HashMap<String, Object>();
+			bug.put("id", i + 1);
+			bug.put("product", "Product " + (i % 10));
+			bug.put("component", "Component " + (i % 200));
+			bug.put("summary", "Summary of bug " + i);
+			bug.put("version", "1.0");
+			bug.put("status", STATUSES[i % STATUSES.length]);
+			bug.put("resolution", i % STATUSES.length >= 3 ? "FIXED" : "");
+			bug.put("priority", "P" + (i % 5 + 1));
+			bug.put("severity", "normal");
+			bug.put("assigned_to", "user" + (i % 1000) + "@example.com");
+			bug.put("creation_time", new Date(i * 1000L));
+			bug.put("last_change_time", new Date(i * 2000L));
+			records[i] = bug;
+		}
+		Map<Object, Object> hash = new HashMap<Object, Object>();
+		hash.put("bugs", records);
+		BugSearch search = new BugSearch(new SearchQuery(SearchLimiter.PRODUCT, "Product"));
+		search.setResultMap(hash);
+		
+		long before = usedHeap();
+		List<Bug> bugs = search.getSearchResults();
+		for(Bug bug : bugs) {
+			//Bugs are decoded lazily; take a private copy of each as a caller editing them would
+			bug.setSummary(bug.getSummary());
+		}
+		long bugHeap = usedHeap() - before;
+		before = usedHeap();
+		BugTable table = new BugTable();
+		table.add(search);
+		long tableHeap = usedHeap() - before;
+		
+		int sink = 0;
+		for(int warmup = 0; warmup < rounds; warmup++) {
+			sink += countObjects(bugs).size() + countTable(table).size();
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < rounds; i++) {
+			sink += countObjects(bugs).size();
+		}
+		long objects = System.nanoTime() - start;
+		start = System.nanoTime();
+		for(int i = 0; i < rounds; i++) {
+			sink += countTable(table).size();
+		}
+		long columns = System.nanoTime() - start;
+		
+		System.out.printf("%d bugs (%d)%n", count, sink);
+		System.out.printf("Bug objects %8.2f ms per count, %6.1f MB%n", objects / 1e6 / rounds, bugHeap / 1e6);
+		System.out.printf("BugTable    %8.2f ms per count, %6.1f MB (%.1fx faster)%n", columns / 1e6 / rounds, 
+				tableHeap / 1e6, (double)objects / columns);
+	}
+	
+	private static Map<String, Integer> countObjects(List<Bug> bugs) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for(Bug bug : bugs) {
+			String resolution = bug.getResolution();
+			if(resolution != null && resolution.length() > 0) { continue; }
+			Integer current = counts.get(bug.getComponent());
+			counts.put(bug.getComponent(), current == null ? 1 : current + 1);
+		}
+		return counts;
+	}
+	
+	private static Map<String, Integer> countTable(BugTable table) {
+		BitSet open = table.where("resolution", "");
+		return table.countBy("component", open);
+	}
+	
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+}
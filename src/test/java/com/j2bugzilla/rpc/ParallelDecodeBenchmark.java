@@ -0,0 +1,87 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+
+/**
+ * Compares sequential and parallel decoding of a large {@link BugSearch} result. Run its {@code main}
+ * method from the test classpath; it is not part of the test suite.
+ */
+public class ParallelDecodeBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int rounds = 20;
+		
+		Object[] records = new Object[count];
+		for(int i = 0; i < count; i++) {
+			Map<String, Object> bug = new HashMap<String, Object>();
+			bug.put("id", i);
+			bug.put("product", "Product");
+			bug.put("component", "Component");
+			bug.put("summary", "Summary of bug " + i);
+			bug.put("status", "NEW");
+			bug.put("creation_time", new Date());
+			//Older installations only report the version among the internals
+			Map<String, Object> internals = new HashMap<String, Object>();
+			internals.put("version", "1.0");
+			bug.put("internals", internals);
+			for(int f = 0; f < 30; f++) {
+				bug.put("cf_field" + f, "value " + f);
+			}
+			records[i] = bug;
+		}
+		Map<Object, Object> hash = new HashMap<Object, Object>();
+		hash.put("bugs", records);
+		BugSearch search = new BugSearch(new SearchQuery(SearchLimiter.PRODUCT, "Product"));
+		search.setResultMap(hash);
+		
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for(int warmup = 0; warmup < rounds; warmup++) {
+				search.getSearchResults();
+				search.getSearchResults(executor);
+			}
+			long start = System.nanoTime();
+			for(int i = 0; i < rounds; i++) {
+				search.getSearchResults();
+			}
+			long sequential = System.nanoTime() - start;
+			start = System.nanoTime();
+			for(int i = 0; i < rounds; i++) {
+				search.getSearchResults(executor);
+			}
+			long parallel = System.nanoTime() - start;
+			
+			System.out.printf("%d bugs, %d threads%n", count, threads);
+			System.out.printf("sequential %8.2f ms per result%n", sequential / 1e6 / rounds);
+			System.out.printf("parallel   %8.2f ms per result (%.1fx)%n", parallel / 1e6 / rounds, 
+					(double)sequential / parallel);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+}
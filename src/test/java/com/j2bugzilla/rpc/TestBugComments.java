@@ -17,6 +17,7 @@ package com.j2bugzilla.rpc;
 
 import static org.junit.Assert.*;
 
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -90,4 +91,57 @@ public class TestBugComments {
 		assertEquals("Second comment has incorrect text", "Second comment", retrieved.get(1).getText());
 	}
 
+	@Test
+	public void testBatch() throws BugzillaException {
+		Date since = new Date(1000);
+		BugComments comments = new BugComments(since, 1, 2);
+		
+		Object[] ids = (Object[])comments.getParameterMap().get("ids");
+		assertEquals("Both bugs should be requested", 2, ids.length);
+		assertEquals("New comments should be requested", since, comments.getParameterMap().get("new_since"));
+		
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				BugComments rpcMethod = (BugComments)invocation.getArguments()[0];
+				
+				Map<Object, Object> comment = new HashMap<Object, Object>();
+				comment.put("id", 7);
+				comment.put("bug_id", 2);
+				comment.put("text", "New comment");
+				comment.put("creator", "user@example.com");
+				comment.put("time", new Date(2000));
+				comment.put("is_private", Boolean.TRUE);
+				
+				Map<String, Object> bug1 = new HashMap<String, Object>();
+				bug1.put("comments", new Object[0]);
+				Map<String, Object> bug2 = new HashMap<String, Object>();
+				bug2.put("comments", new Object[] { comment });
+				
+				Map<String, Object> bugs = new HashMap<String, Object>();
+				bugs.put("1", bug1);
+				bugs.put("2", bug2);
+				
+				Map<Object, Object> hash = new HashMap<Object, Object>();
+				hash.put("bugs", bugs);
+				rpcMethod.setResultMap(hash);
+				return null;
+			}
+			
+		}).when(conn).executeMethod(comments);
+		
+		conn.executeMethod(comments);
+		
+		Map<Integer, List<Comment>> byBug = comments.getCommentsByBug();
+		assertTrue("Bug without new comments should map to an empty list", byBug.get(1).isEmpty());
+		
+		Comment retrieved = byBug.get(2).get(0);
+		assertEquals("Comment has incorrect ID", 7, retrieved.getID());
+		assertEquals("Comment has incorrect bug ID", 2, retrieved.getBugID());
+		assertEquals("Comment has incorrect creator", "user@example.com", retrieved.getCreator());
+		assertEquals("Comment has incorrect time", new Date(2000), retrieved.getTime());
+		assertTrue("Comment should be private", retrieved.isPrivate());
+	}
+
 }
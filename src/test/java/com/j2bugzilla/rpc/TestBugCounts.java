@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestBugCounts {
+
+	private static final String[] STATUSES = { "NEW", "ASSIGNED", "NEW", "RESOLVED", "NEW" };
+
+	@Mock
+	private BugzillaConnector conn;
+	
+	/**
+	 * Records only hold the fields a counting search asks for
+	 */
+	private static Map<String, Object> record(int id) {
+		Map<String, Object> bug = new HashMap<String, Object>();
+		bug.put("id", id);
+		bug.put("status", STATUSES[(id - 1) % STATUSES.length]);
+		bug.put("keywords", id % 2 == 0 ? new Object[] { "crash", "regression" } : new Object[0]);
+		return bug;
+	}
+	
+	@Test
+	public void testCounts() {
+		BugSearch search = new BugSearch(new SearchQuery(SearchLimiter.PRODUCT, "Test"));
+		BugCounts counts = new BugCounts("status", "keywords");
+		search.setIncludeFields(counts.getIncludeFields());
+		assertTrue("IDs should be requested", Arrays.asList((String[])search.getParameterMap().get("include_fields"))
+				.containsAll(Arrays.asList("id", "status", "keywords")));
+		
+		Object[] records = new Object[5];
+		for(int i = 0; i < records.length; i++) {
+			records[i] = record(i + 1);
+		}
+		Map<Object, Object> hash = new HashMap<Object, Object>();
+		hash.put("bugs", records);
+		search.setResultMap(hash);
+		counts.add(search);
+		
+		assertEquals("Wrong total", 5, counts.getTotal());
+		assertEquals("Wrong status count", 3, counts.getCount("status", "NEW"));
+		assertEquals("Unseen values count zero", 0, counts.getCount("status", "CLOSED"));
+		assertEquals("Each keyword should be counted", 2, counts.getCount("keywords", "crash"));
+		assertEquals("Bugs without keywords should be counted as empty", 3, counts.getCount("keywords", ""));
+		
+		Iterator<Map.Entry<String, Integer>> ordered = counts.getCounts("status").entrySet().iterator();
+		assertEquals("Most common value should come first", "NEW", ordered.next().getKey());
+		assertEquals("Ties should be ordered by value", "ASSIGNED", ordered.next().getKey());
+	}
+	
+	@Test
+	public void testCursorAndMerge() throws BugzillaException {
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				BugSearch search = (BugSearch)invocation.getArguments()[0];
+				Map<Object, Object> params = search.getParameterMap();
+				int after = Integer.parseInt((String)params.get("v1"));
+				int limit = Integer.parseInt((String)params.get("limit"));
+				List<Object> page = new ArrayList<Object>();
+				for(int id = after + 1; id <= 12 && page.size() < limit; id++) {
+					page.add(record(id));
+				}
+				Map<Object, Object> hash = new HashMap<Object, Object>();
+				hash.put("bugs", page.toArray());
+				search.setResultMap(hash);
+				return null;
+			}
+			
+		}).when(conn).executeMethod(any(BugzillaMethod.class));
+		
+		BugCounts counts = new BugCounts("status");
+		counts.addAll(new BugCursor(5, new SearchQuery(SearchLimiter.PRODUCT, "Test")), conn);
+		assertEquals("Every page should be counted", 12, counts.getTotal());
+		assertEquals("Wrong status count", 7, counts.getCount("status", "NEW"));
+		
+		BugCounts other = new BugCounts("status");
+		other.merge(counts);
+		other.merge(counts);
+		assertEquals("Merged totals should add up", 24, other.getTotal());
+		assertEquals("Merged counts should add up", 14, other.getCount("status", "NEW"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownField() {
+		new BugCounts("status").getCounts("priority");
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateField() {
+		new BugCounts("status", "component", "status");
+	}
+
+}
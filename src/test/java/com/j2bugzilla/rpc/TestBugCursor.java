@@ -0,0 +1,168 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugSummary;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestBugCursor {
+
+	@Mock
+	private BugzillaConnector conn;
+	
+	/**
+	 * IDs of the bugs held by the fake installation, in ascending order
+	 */
+	private final List<Integer> remote = new ArrayList<Integer>();
+	
+	private final List<Map<Object, Object>> searches = new ArrayList<Map<Object, Object>>();
+	
+	/**
+	 * The fake installation's max_search_results, which caps every page
+	 */
+	private int maxResults = Integer.MAX_VALUE;
+	
+	@Before
+	public void setUp() throws BugzillaException {
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				BugSearch search = (BugSearch)invocation.getArguments()[0];
+				Map<Object, Object> params = search.getParameterMap();
+				searches.add(params);
+				
+				//The keyset condition is the last one sent
+				int after = -1;
+				for(int i = 1; params.containsKey("f" + i); i++) {
+					if("bug_id".equals(params.get("f" + i))) {
+						after = Integer.parseInt((String)params.get("v" + i));
+					}
+				}
+				int limit = Integer.parseInt((String)params.get("limit"));
+				
+				List<Object> page = new ArrayList<Object>();
+				for(int id : remote) {
+					if(id > after && page.size() < Math.min(limit, maxResults)) {
+						Map<String, Object> bug = new HashMap<String, Object>();
+						bug.put("id", id);
+						bug.put("product", "Test");
+						bug.put("component", "Test");
+						bug.put("summary", "Bug " + id);
+						bug.put("version", "1.0");
+						bug.put("status", "NEW");
+						page.add(bug);
+					}
+				}
+				Map<Object, Object> hash = new HashMap<Object, Object>();
+				hash.put("bugs", page.toArray());
+				search.setResultMap(hash);
+				return null;
+			}
+			
+		}).when(conn).executeMethod(any(BugzillaMethod.class));
+		
+		for(int id = 1; id <= 25; id += 2) {
+			remote.add(id);
+		}
+	}
+	
+	@Test
+	public void testScan() throws BugzillaException {
+		BugCursor cursor = new BugCursor(5, new SearchQuery(SearchLimiter.PRODUCT, "Test"));
+		List<Integer> seen = new ArrayList<Integer>();
+		while(cursor.hasNext()) {
+			for(Bug bug : cursor.next(conn)) {
+				seen.add(bug.getID());
+			}
+		}
+		
+		assertEquals("Every bug should be seen once, in order", remote, seen);
+		assertEquals("Scan should end with an empty page", 4, searches.size());
+		assertEquals("Pages should be ordered by ID", "bug_id", searches.get(0).get("order"));
+		assertNull("Offsets should never be used", searches.get(2).get("offset"));
+		assertEquals("Queries should be sent with every page", "Test", searches.get(2).get("product"));
+	}
+	
+	@Test
+	public void testServerCapsPages() throws BugzillaException {
+		maxResults = 3;
+		BugCursor cursor = new BugCursor(5, new SearchQuery(SearchLimiter.PRODUCT, "Test"));
+		List<Integer> seen = new ArrayList<Integer>();
+		while(cursor.hasNext()) {
+			for(Bug bug : cursor.next(conn)) {
+				seen.add(bug.getID());
+			}
+		}
+		assertEquals("Short pages should not end the scan", remote, seen);
+	}
+	
+	@Test
+	public void testResume() throws BugzillaException {
+		BugCursor cursor = new BugCursor(4, new SearchQuery(SearchLimiter.PRODUCT, "Test"));
+		cursor.next(conn);
+		String token = cursor.getToken();
+		assertEquals("Cursor should stop after the last bug seen", 7, cursor.getLastSeenID());
+		
+		//A bug created while the scan was interrupted has a higher ID and is still found
+		remote.add(30);
+		BugCursor resumed = new BugCursor(4, new SearchQuery(SearchLimiter.PRODUCT, "Test"));
+		resumed.resume(token);
+		List<Integer> seen = new ArrayList<Integer>();
+		while(resumed.hasNext()) {
+			for(BugSummary summary : resumed.nextSummaries(conn)) {
+				seen.add(summary.getID());
+			}
+		}
+		assertEquals("Scan should continue after the token", Integer.valueOf(9), seen.get(0));
+		assertEquals("New bugs should be found", Integer.valueOf(30), seen.get(seen.size() - 1));
+		assertEquals("Wrong number of bugs", remote.size() - 4, seen.size());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadToken() {
+		new BugCursor(10, new SearchQuery(SearchLimiter.PRODUCT, "Test")).resume("offset=10");
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testOffsetRejected() {
+		new BugCursor(10, new SearchQuery(SearchLimiter.OFFSET, "10"));
+	}
+
+}
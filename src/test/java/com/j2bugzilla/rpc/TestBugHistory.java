@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.HistoryEntry;
+import com.j2bugzilla.base.HistoryEntry.FieldChange;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestBugHistory {
+
+	@Mock
+	private BugzillaConnector conn;
+	
+	@Test
+	public void test() throws BugzillaException {
+		Date since = new Date(1000);
+		BugHistory history = new BugHistory(since, 1, 2);
+		assertEquals("Only new changes should be requested", since, history.getParameterMap().get("new_since"));
+		
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				BugHistory rpcMethod = (BugHistory)invocation.getArguments()[0];
+				
+				Map<Object, Object> change = new HashMap<Object, Object>();
+				change.put("field_name", "status");
+				change.put("removed", "NEW");
+				change.put("added", "ASSIGNED");
+				
+				Map<Object, Object> entry = new HashMap<Object, Object>();
+				entry.put("who", "user@example.com");
+				entry.put("when", new Date(2000));
+				entry.put("changes", new Object[] { change });
+				
+				Map<Object, Object> bug1 = new HashMap<Object, Object>();
+				bug1.put("id", 1);
+				bug1.put("history", new Object[] { entry, entry });
+				Map<Object, Object> bug2 = new HashMap<Object, Object>();
+				bug2.put("id", 2);
+				bug2.put("history", new Object[0]);
+				
+				Map<Object, Object> hash = new HashMap<Object, Object>();
+				hash.put("bugs", new Object[] { bug1, bug2 });
+				rpcMethod.setResultMap(hash);
+				return null;
+			}
+			
+		}).when(conn).executeMethod(history);
+		
+		conn.executeMethod(history);
+		
+		Map<Integer, List<HistoryEntry>> byBug = history.getHistoryByBug();
+		assertEquals("Bug has incorrect number of change sets", 2, byBug.get(1).size());
+		assertNull("Bug without changes should have no entries", byBug.get(2));
+		
+		HistoryEntry entry = byBug.get(1).get(0);
+		assertEquals("Change set has incorrect author", "user@example.com", entry.getWho());
+		assertEquals("Change set has incorrect time", new Date(2000), entry.getWhen());
+		FieldChange change = entry.getChanges().get(0);
+		assertEquals("Change has incorrect field", "status", change.getFieldName());
+		assertEquals("Change has incorrect removed value", "NEW", change.getRemoved());
+		assertEquals("Change has incorrect added value", "ASSIGNED", change.getAdded());
+		assertEquals("Change should not concern an attachment", -1, change.getAttachmentID());
+	}
+
+}
@@ -17,9 +17,12 @@ package com.j2bugzilla.rpc;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.mockito.Mockito.*;
 
@@ -31,6 +34,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
 import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugSummary;
 import com.j2bugzilla.base.BugzillaConnector;
 import com.j2bugzilla.base.BugzillaException;
 import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
@@ -97,4 +101,77 @@ public class TestBugSearch {
 		assertEquals("Bug version is incorrect", "1.0", bugs.get(0).getVersion());
 	}
 
+	@Test
+	public void testParallelDecode() {
+		Object[] records = new Object[2000];
+		for(int i = 0; i < records.length; i++) {
+			Map<String, Object> bug = new HashMap<String, Object>();
+			bug.put("id", i);
+			bug.put("product", "Test");
+			bug.put("component", "Test");
+			bug.put("summary", "Bug " + i);
+			bug.put("version", "1.0");
+			records[i] = bug;
+		}
+		Map<Object, Object> hash = new HashMap<Object, Object>();
+		hash.put("bugs", records);
+		BugSearch search = new BugSearch(new SearchQuery(SearchLimiter.PRODUCT, "Test"));
+		search.setResultMap(hash);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Bug> bugs = search.getSearchResults(executor);
+			assertEquals("Every bug should be decoded", records.length, bugs.size());
+			for(int i = 0; i < bugs.size(); i++) {
+				assertEquals("Bugs should keep their order", i, bugs.get(i).getID());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSummaryOnly() {
+		BugSearch search = new BugSearch(new SearchQuery(SearchLimiter.PRODUCT, "Test"));
+		search.setSummaryOnly();
+		String[] fields = (String[])search.getParameterMap().get("include_fields");
+		assertTrue("Summary fields should be requested", Arrays.asList(fields).containsAll(
+				Arrays.asList("id", "status", "assigned_to", "summary")));
+		
+		Map<String, Object> bug = new HashMap<String, Object>();
+		bug.put("id", 7);
+		bug.put("status", "NEW");
+		bug.put("resolution", "");
+		bug.put("assigned_to", "dev@example.com");
+		bug.put("summary", "Testing summaries");
+		Map<Object, Object> hash = new HashMap<Object, Object>();
+		hash.put("bugs", new Object[] { bug });
+		search.setResultMap(hash);
+		
+		List<BugSummary> summaries = search.getSummaryResults();
+		assertEquals("Summary list is incorrect size", 1, summaries.size());
+		BugSummary summary = summaries.get(0);
+		assertEquals("ID is incorrect", 7, summary.getID());
+		assertEquals("Status is incorrect", "NEW", summary.getStatus());
+		assertNull("Open bugs should have no resolution", summary.getResolution());
+		assertEquals("Assignee is incorrect", "dev@example.com", summary.getAssignee());
+		assertEquals("Summary is incorrect", "Testing summaries", summary.getSummary());
+		assertNull("Missing time should stay missing", summary.getLastChangeTime());
+	}
+
+	@Test
+	public void testMultiValuedLimiter() {
+		BugSearch search = new BugSearch(new SearchQuery(SearchLimiter.STATUS, "NEW"), 
+				new SearchQuery(SearchLimiter.STATUS, "ASSIGNED"), new SearchQuery(SearchLimiter.PRODUCT, "Test"));
+		Map<Object, Object> params = search.getParameterMap();
+		
+		assertArrayEquals("Both statuses should be sent", new Object[] { "NEW", "ASSIGNED" }, (Object[])params.get("status"));
+		assertEquals("Single values should be sent as is", "Test", params.get("product"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testSingleValuedLimiter() {
+		new BugSearch(new SearchQuery(SearchLimiter.LIMIT, "10"), new SearchQuery(SearchLimiter.LIMIT, "20"));
+	}
+
 }
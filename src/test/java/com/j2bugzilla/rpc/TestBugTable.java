@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j2bugzilla.base.BugFactory;
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+
+public class TestBugTable {
+
+	private BugTable table;
+	
+	private static Map<String, Object> record(int id, String component, String status, String resolution, long created) {
+		Map<String, Object> bug = new HashMap<String, Object>();
+		bug.put("id", id);
+		bug.put("product", "Test");
+		bug.put("component", component);
+		bug.put("summary", "Bug " + id);
+		bug.put("status", status);
+		bug.put("resolution", resolution);
+		bug.put("creation_time", new Date(created));
+		bug.put("last_change_time", new Date(created + 1000));
+		return bug;
+	}
+	
+	@Before
+	public void setUp() {
+		Object[] records = new Object[] {
+				record(1, "UI", "NEW", "", 100),
+				record(2, "UI", "RESOLVED", "FIXED", 200),
+				record(3, "Core", "NEW", "", 300),
+				record(4, "Core", "ASSIGNED", "", 400),
+				record(5, "UI", "NEW", "", 500)
+		};
+		Map<Object, Object> hash = new HashMap<Object, Object>();
+		hash.put("bugs", records);
+		BugSearch search = new BugSearch(new SearchQuery(SearchLimiter.PRODUCT, "Test"));
+		search.setResultMap(hash);
+		
+		table = new BugTable("component", "status", "resolution", "keywords");
+		table.add(search);
+	}
+	
+	@Test
+	public void testColumns() {
+		assertEquals(5, table.size());
+		assertEquals(3, table.getID(2));
+		assertEquals("Core", table.getValue("component", 2));
+		assertEquals("", table.getValue("keywords", 2));
+		assertEquals(new Date(300), table.getCreationTime(2));
+		assertEquals(new Date(1300), table.getLastChangeTime(2));
+		assertEquals(Arrays.asList("UI", "Core"), table.getValues("component"));
+		assertEquals(Arrays.asList("component", "status", "resolution", "keywords", "id", "creation_time", "last_change_time"),
+				Arrays.asList(table.getIncludeFields()));
+	}
+	
+	@Test
+	public void testFilters() {
+		BitSet open = table.where("resolution", "");
+		BitSet ui = table.where("component", "UI");
+		open.and(ui);
+		assertArrayEquals(new int[] { 1, 5 }, table.getIDs(open));
+		
+		assertArrayEquals(new int[] { 1, 3, 4, 5 }, table.getIDs(table.where("status", "NEW", "ASSIGNED", "VERIFIED")));
+		assertArrayEquals(new int[0], table.getIDs(table.where("status", "CLOSED")));
+		assertArrayEquals(new int[] { 2, 3 }, table.getIDs(table.createdBetween(new Date(200), new Date(400))));
+		assertArrayEquals(new int[] { 4, 5 }, table.getIDs(table.changedBetween(new Date(1400), null)));
+		assertArrayEquals(new int[] { 1, 2, 3, 4, 5 }, table.getIDs(table.all()));
+	}
+	
+	@Test
+	public void testCountBy() {
+		Map<String, Integer> counts = table.countBy("status", null);
+		Iterator<Map.Entry<String, Integer>> it = counts.entrySet().iterator();
+		assertEquals("NEW", it.next().getKey());
+		assertEquals(Integer.valueOf(3), counts.get("NEW"));
+		assertEquals(Integer.valueOf(1), counts.get("ASSIGNED"));
+		
+		counts = table.countBy("status", table.where("component", "Core"));
+		assertEquals(2, counts.size());
+		assertNull(counts.get("RESOLVED"));
+		
+		Map<String, Map<String, Integer>> grouped = table.countBy("component", "status", table.where("resolution", ""));
+		assertEquals(Arrays.asList("Core", "UI"), Arrays.asList(grouped.keySet().toArray()));
+		assertEquals(Integer.valueOf(2), grouped.get("UI").get("NEW"));
+		assertEquals(Integer.valueOf(1), grouped.get("Core").get("ASSIGNED"));
+		assertNull(grouped.get("UI").get("RESOLVED"));
+	}
+	
+	@Test
+	public void testGrowFromBugs() {
+		Map<String, Object> state = new HashMap<String, Object>();
+		for(int id = 6; id < 3000; id++) {
+			state.put("id", id);
+			state.put("product", "Test");
+			state.put("component", "Core");
+			state.put("summary", "Bug " + id);
+			state.put("version", "1.0");
+			state.put("status", "NEW");
+			state.put("keywords", new Object[] { "crash", "regression" });
+			table.add(new BugFactory().createBug(state));
+		}
+		assertEquals(2999, table.size());
+		assertEquals(2999, table.getID(2998));
+		assertEquals("crash, regression", table.getValue("keywords", 2998));
+		assertNull(table.getCreationTime(2998));
+		assertEquals(Integer.valueOf(2997), table.countBy("status", null).get("NEW"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownColumn() {
+		table.where("priority", "P1");
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.XmlExceptionHandler;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestDependencyGraph {
+
+	@Mock
+	private BugzillaConnector conn;
+	
+	/**
+	 * The bugs each bug depends on in the fake installation
+	 */
+	private final Map<Integer, int[]> dependsOn = new HashMap<Integer, int[]>();
+	
+	/**
+	 * The IDs requested by each GetBug sent
+	 */
+	private final List<Object[]> requests = new ArrayList<Object[]>();
+	
+	private DependencyGraph.Loader loader;
+	
+	@Before
+	public void setUp() {
+		dependsOn.put(1, new int[] { 2, 3 });
+		dependsOn.put(2, new int[] { 4 });
+		dependsOn.put(3, new int[] { 4, 5 });
+		dependsOn.put(4, new int[] { 6 });
+		dependsOn.put(5, new int[0]);
+		dependsOn.put(6, new int[] { 7 });
+		//Bug 7 is closed, and bug 8 cannot be seen
+		dependsOn.put(7, new int[] { 8 });
+		dependsOn.put(10, new int[] { 11 });
+		dependsOn.put(11, new int[] { 12 });
+		dependsOn.put(12, new int[] { 10, 20 });
+		dependsOn.put(20, new int[] { 20 });
+		
+		doAnswer(new Answer<Object>() {
+
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				final GetBug get = (GetBug)invocation.getArguments()[0];
+				FutureTask<GetBug> task = new FutureTask<GetBug>(new Callable<GetBug>() {
+					@Override
+					public GetBug call() throws Exception {
+						Map<Object, Object> params = get.getParameterMap();
+						assertEquals(Arrays.asList("id", "depends_on", "blocks", "status", "is_open"), 
+								Arrays.asList((String[])params.get("include_fields")));
+						Object[] ids = (Object[])params.get("ids");
+						requests.add(ids);
+						
+						List<Object> bugs = new ArrayList<Object>();
+						List<Object> faults = new ArrayList<Object>();
+						for(Object id : ids) {
+							if(id.equals(99)) { throw new BugzillaException("The installation is unavailable"); }
+							if(dependsOn.containsKey(id)) {
+								bugs.add(record((Integer)id));
+								continue;
+							}
+							//Bug 8 exists but cannot be seen; any other unknown bug does not exist
+							int code = id.equals(8) ? 102 : 101;
+							if(!Boolean.TRUE.equals(params.get("permissive"))) {
+								throw XmlExceptionHandler.handleFault(new XmlRpcException(code, "Bug " + id + " is unavailable"));
+							}
+							Map<String, Object> fault = new HashMap<String, Object>();
+							fault.put("id", id);
+							fault.put("faultCode", code);
+							fault.put("faultString", "Bug " + id + " is unavailable");
+							faults.add(fault);
+						}
+						Map<Object, Object> hash = new HashMap<Object, Object>();
+						hash.put("bugs", bugs.toArray());
+						hash.put("faults", faults.toArray());
+						get.setResultMap(hash);
+						return get;
+					}
+				});
+				task.run();
+				return task;
+			}
+			
+		}).when(conn).executeMethodAsync(any(BugzillaMethod.class));
+		
+		loader = new DependencyGraph.Loader();
+	}
+	
+	private Map<String, Object> record(int id) {
+		List<Object> blocks = new ArrayList<Object>();
+		for(Map.Entry<Integer, int[]> entry : dependsOn.entrySet()) {
+			for(int dependency : entry.getValue()) {
+				if(dependency == id) { blocks.add(entry.getKey()); }
+			}
+		}
+		Object[] depends = new Object[dependsOn.get(id).length];
+		for(int i = 0; i < depends.length; i++) {
+			depends[i] = dependsOn.get(id)[i];
+		}
+		Map<String, Object> bug = new HashMap<String, Object>();
+		bug.put("id", id);
+		bug.put("depends_on", depends);
+		bug.put("blocks", blocks.toArray());
+		bug.put("status", id == 7 ? "RESOLVED" : "NEW");
+		bug.put("is_open", id != 7);
+		return bug;
+	}
+	
+	@Test
+	public void testLoadLevelByLevel() throws BugzillaException {
+		loader.setBatchSize(1);
+		loader.setParallelism(2);
+		DependencyGraph graph = loader.load(conn, 1);
+		
+		assertEquals(8, requests.size());
+		assertArrayEquals(new Object[] { 1 }, requests.get(0));
+		assertArrayEquals(new Object[] { 2 }, requests.get(1));
+		assertArrayEquals(new Object[] { 3 }, requests.get(2));
+		assertArrayEquals(new Object[] { 8 }, requests.get(7));
+		
+		assertEquals(8, graph.size());
+		assertEquals(8, graph.getEdgeCount());
+		assertTrue(graph.contains(8));
+		assertFalse(graph.isLoaded(8));
+		assertNull(graph.getStatus(8));
+		assertEquals("RESOLVED", graph.getStatus(7));
+		assertFalse(graph.isOpen(7));
+		assertTrue(graph.isOpen(6));
+		assertArrayEquals(new int[] { 4, 5 }, graph.getDependsOn(3));
+		assertArrayEquals(new int[] { 2, 3 }, graph.getBlocks(4));
+	}
+	
+	@Test
+	public void testBatching() throws BugzillaException {
+		loader.setBatchSize(2);
+		loader.load(conn, 1, 10, 1);
+		assertArrayEquals(new Object[] { 1, 10 }, requests.get(0));
+		assertArrayEquals(new Object[] { 2, 3 }, requests.get(1));
+		assertArrayEquals(new Object[] { 11 }, requests.get(2));
+	}
+	
+	@Test
+	public void testClosures() throws BugzillaException {
+		DependencyGraph graph = loader.load(conn, 1);
+		assertArrayEquals(new int[] { 2, 3, 4, 5, 6, 7, 8 }, graph.getDependencyClosure(1));
+		assertArrayEquals(new int[] { 6, 7, 8 }, graph.getDependencyClosure(4));
+		assertArrayEquals(new int[0], graph.getDependencyClosure(5));
+		assertArrayEquals(new int[] { 1, 2, 3 }, graph.getBlockedClosure(4));
+	}
+	
+	@Test
+	public void testMaxDepthAndDirection() throws BugzillaException {
+		loader.setMaxDepth(1);
+		DependencyGraph graph = loader.load(conn, 1);
+		assertEquals(2, requests.size());
+		assertTrue(graph.isLoaded(3));
+		assertTrue(graph.contains(5));
+		assertFalse(graph.isLoaded(5));
+		
+		loader.setMaxDepth(Integer.MAX_VALUE);
+		loader.setDirection(DependencyGraph.Direction.BLOCKS);
+		graph = loader.load(conn, 4);
+		assertTrue(graph.isLoaded(1));
+		assertFalse(graph.isLoaded(6));
+		assertArrayEquals(new int[] { 1, 2, 3 }, graph.getBlockedClosure(4));
+	}
+	
+	@Test
+	public void testCriticalPath() throws BugzillaException {
+		DependencyGraph graph = loader.load(conn, 1);
+		assertArrayEquals(new int[] { 1, 2, 4, 6 }, graph.getCriticalPath(1));
+		assertArrayEquals(new int[] { 5 }, graph.getCriticalPath(5));
+		assertArrayEquals(new int[] { 7 }, graph.getCriticalPath(7));
+	}
+	
+	@Test
+	public void testCycles() throws BugzillaException {
+		DependencyGraph graph = loader.load(conn, 10);
+		List<int[]> cycles = graph.findCycles();
+		assertEquals(2, cycles.size());
+		assertArrayEquals(new int[] { 10, 11, 12 }, cycles.get(0));
+		assertArrayEquals(new int[] { 20 }, cycles.get(1));
+		assertArrayEquals(new int[] { 10, 11, 12, 20 }, graph.getDependencyClosure(10));
+		assertArrayEquals(new int[] { 20 }, graph.getDependencyClosure(20));
+		
+		assertTrue(loader.load(conn, 1).findCycles().isEmpty());
+		try {
+			graph.getCriticalPath(10);
+			fail("Cycle not detected");
+		} catch(IllegalStateException e) {
+			//Expected
+		}
+	}
+	
+	@Test
+	public void testUnavailableBugs() throws BugzillaException {
+		dependsOn.put(5, new int[] { 9 });
+		loader.setBatchSize(10);
+		DependencyGraph graph = loader.load(conn, 1, 30);
+		
+		assertTrue("Hidden dependencies should be kept", graph.contains(8));
+		assertFalse(graph.isLoaded(8));
+		assertFalse(graph.isLoaded(9));
+		assertFalse("Missing roots should be kept", graph.isLoaded(30));
+		assertTrue("The rest of the batch should be loaded", graph.isLoaded(5));
+		assertTrue(graph.isLoaded(7));
+		assertArrayEquals(new int[] { 8 }, graph.getDependsOn(7));
+		assertArrayEquals("Unavailable bugs should end a chain", new int[] { 5 }, graph.getCriticalPath(5));
+	}
+	
+	@Test(expected = BugzillaException.class)
+	public void testFailure() throws BugzillaException {
+		dependsOn.put(5, new int[] { 99 });
+		loader.load(conn, 1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownBug() throws BugzillaException {
+		loader.load(conn, 1).getDependsOn(42);
+	}
+}
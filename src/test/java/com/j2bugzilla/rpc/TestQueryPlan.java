@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugFactory;
+import com.j2bugzilla.rpc.BugQuery.Field;
+
+public class TestQueryPlan {
+
+	private static final BugFilter SHORT_SUMMARY = new BugFilter() {
+		@Override
+		public boolean accept(Bug bug) {
+			return bug.getSummary().length() < 10;
+		}
+	};
+	
+	private static Map<String, Object> record(int id, String status, String summary) {
+		Map<String, Object> bug = new HashMap<String, Object>();
+		bug.put("id", id);
+		bug.put("product", "Test");
+		bug.put("component", "Test");
+		bug.put("version", "1.0");
+		bug.put("status", status);
+		bug.put("summary", summary);
+		return bug;
+	}
+	
+	@Test
+	public void testPushDown() {
+		BugQuery query = BugQuery.and(
+				BugQuery.eq(Field.PRODUCT, "Test"),
+				BugQuery.and(BugQuery.anyOf(Field.STATUS, "NEW", "ASSIGNED"), 
+						BugQuery.contains(Field.SUMMARY, "crash")),
+				BugQuery.or(BugQuery.eq(Field.PRIORITY, "P1"), BugQuery.filter("short", SHORT_SUMMARY)));
+		QueryPlan plan = QueryPlan.plan(query);
+		
+		assertEquals("Three conditions should be pushed down", 3, plan.getPushedDown().size());
+		assertFalse("The OR should be evaluated on the client", plan.isFullyPushedDown());
+		assertEquals("Residual does not match", "(priority = P1 OR [short])", plan.getResidual().toString());
+		
+		Map<Object, Object> params = plan.newSearch().getParameterMap();
+		assertEquals("Product should be sent as a limiter", "Test", params.get("product"));
+		assertArrayEquals("Statuses should be sent as a limiter", new Object[] { "NEW", "ASSIGNED" }, 
+				(Object[])params.get("status"));
+		assertEquals("Substring match should be sent as criteria", "short_desc", params.get("f1"));
+		assertEquals("Substring match should be sent as criteria", "substring", params.get("o1"));
+		assertNull("Client-side filters should not be sent", params.get("f2"));
+	}
+	
+	@Test
+	public void testRepeatedFieldUsesCriteria() {
+		QueryPlan plan = QueryPlan.plan(BugQuery.and(BugQuery.eq(Field.STATUS, "NEW"), 
+				BugQuery.not(BugQuery.eq(Field.STATUS, "CLOSED")), BugQuery.eq(Field.STATUS, "ASSIGNED")));
+		assertTrue("Everything can be pushed down", plan.isFullyPushedDown());
+		
+		Map<Object, Object> params = plan.newSearch().getParameterMap();
+		assertEquals("Only the first match may use the limiter", "NEW", params.get("status"));
+		assertEquals("Later matches must stay conjunctive", "bug_status", params.get("f4"));
+		assertEquals("Later matches must stay conjunctive", "ASSIGNED", params.get("v4"));
+	}
+	
+	@Test
+	public void testResidualFilter() {
+		QueryPlan plan = QueryPlan.plan(BugQuery.and(BugQuery.eq(Field.PRODUCT, "Test"), 
+				BugQuery.filter("short", SHORT_SUMMARY)));
+		BugSearch search = plan.newSearch();
+		Map<Object, Object> hash = new HashMap<Object, Object>();
+		hash.put("bugs", new Object[] { record(1, "NEW", "Short"), record(2, "NEW", "A much longer summary"),
+				record(3, "NEW", "Tiny") });
+		search.setResultMap(hash);
+		
+		List<Bug> bugs = plan.filter(search);
+		assertEquals("Only matching bugs should be kept", 2, bugs.size());
+		assertEquals("Order should be kept", 1, bugs.get(0).getID());
+		assertEquals("Order should be kept", 3, bugs.get(1).getID());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testNothingPushable() {
+		QueryPlan.plan(BugQuery.filter("short", SHORT_SUMMARY)).newSearch();
+	}
+	
+	@Test
+	public void testClientEvaluation() {
+		Map<String, Object> record = record(1, "NEW", "Crash on startup");
+		Bug bug = new BugFactory().createLazyBug(record);
+		
+		assertTrue(BugQuery.contains(Field.SUMMARY, "CRASH").matches(bug));
+		assertTrue(BugQuery.anyOf(Field.STATUS, "NEW", "ASSIGNED").matches(bug));
+		assertFalse(BugQuery.not(BugQuery.eq(Field.STATUS, "NEW")).matches(bug));
+		assertTrue(BugQuery.or(BugQuery.eq(Field.STATUS, "CLOSED"), BugQuery.eq(Field.RESOLUTION, "")).matches(bug));
+	}
+
+}
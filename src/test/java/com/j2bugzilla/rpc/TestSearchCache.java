@@ -0,0 +1,237 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestSearchCache {
+
+	@Mock
+	private BugzillaConnector conn;
+	
+	/**
+	 * Number of requests which reached the fake installation; each response holds this many bugs
+	 */
+	private final AtomicInteger requests = new AtomicInteger();
+	
+	/**
+	 * Time seen by caches made with {@link #cache(long, long)}, advanced by the tests instead of sleeping
+	 */
+	private long now;
+	
+	private SearchCache cache(long ttl, long staleTtl) {
+		return new SearchCache(ttl, staleTtl, TimeUnit.SECONDS, 100) {
+			@Override
+			long nanoTime() {
+				return now;
+			}
+		};
+	}
+	
+	private void respond(BugzillaMethod method) {
+		int count = requests.incrementAndGet();
+		Object[] bugs = new Object[count];
+		for(int i = 0; i < count; i++) {
+			Map<String, Object> bug = new HashMap<String, Object>();
+			bug.put("id", i + 1);
+			bug.put("product", "Test");
+			bug.put("component", "Test");
+			bug.put("summary", "Bug");
+			bug.put("version", "1.0");
+			bugs[i] = bug;
+		}
+		Map<Object, Object> hash = new HashMap<Object, Object>();
+		hash.put("bugs", bugs);
+		method.setResultMap(hash);
+	}
+	
+	@Before
+	public void setUp() throws BugzillaException {
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				respond((BugzillaMethod)invocation.getArguments()[0]);
+				return null;
+			}
+		}).when(conn).executeMethod(any(BugzillaMethod.class));
+		
+		//Background refreshes run immediately on the calling thread
+		doAnswer(new Answer<Future<BugzillaMethod>>() {
+			@Override
+			public Future<BugzillaMethod> answer(InvocationOnMock invocation) {
+				final BugzillaMethod method = (BugzillaMethod)invocation.getArguments()[0];
+				FutureTask<BugzillaMethod> task = new FutureTask<BugzillaMethod>(new Runnable() {
+					@Override
+					public void run() {
+						respond(method);
+					}
+				}, method);
+				task.run();
+				return task;
+			}
+		}).when(conn).executeMethodAsync(any(BugzillaMethod.class));
+	}
+	
+	private static BugSearch search(String product) {
+		return new BugSearch(new SearchQuery(SearchLimiter.PRODUCT, product), new SearchQuery(SearchLimiter.STATUS, "NEW"));
+	}
+	
+	@Test
+	public void testHit() throws BugzillaException {
+		SearchCache cache = new SearchCache(1, 1, TimeUnit.MINUTES, 100);
+		BugSearch first = search("Test");
+		cache.execute(conn, first);
+		BugSearch second = search("Test");
+		cache.execute(conn, second);
+		
+		assertEquals("Only one request should be sent", 1, requests.get());
+		assertEquals("Cached results should be returned", 1, second.getSearchResults().size());
+		assertEquals("Wrong hit count", 1, cache.getHitCount());
+		assertEquals("Wrong miss count", 1, cache.getMissCount());
+		
+		cache.invalidate(search("Test"));
+		cache.execute(conn, search("Test"));
+		assertEquals("Invalidated searches should be sent again", 2, requests.get());
+	}
+	
+	@Test
+	public void testStaleWhileRevalidate() throws BugzillaException {
+		SearchCache cache = cache(20, 1000);
+		cache.execute(conn, search("Test"));
+		now += TimeUnit.SECONDS.toNanos(50);
+		
+		BugSearch stale = search("Test");
+		cache.execute(conn, stale);
+		assertEquals("Stale results should be served", 1, stale.getSearchResults().size());
+		assertEquals("A refresh should have been started", 1, cache.getRefreshCount());
+		assertEquals("Wrong stale hit count", 1, cache.getStaleHitCount());
+		
+		BugSearch fresh = search("Test");
+		cache.execute(conn, fresh);
+		assertEquals("Refreshed results should be served", 2, fresh.getSearchResults().size());
+		assertEquals("Wrong hit count", 1, cache.getHitCount());
+	}
+	
+	@Test
+	public void testExpiry() throws BugzillaException {
+		SearchCache cache = cache(10, 10);
+		cache.execute(conn, search("Test"));
+		now += TimeUnit.SECONDS.toNanos(50);
+		cache.execute(conn, search("Test"));
+		assertEquals("Expired results should be loaded again", 2, cache.getMissCount());
+		assertEquals("Expired results should not be refreshed in the background", 0, cache.getRefreshCount());
+	}
+	
+	@Test
+	public void testWeightEviction() throws BugzillaException {
+		SearchCache cache = new SearchCache(1, 1, TimeUnit.MINUTES, 8);
+		cache.execute(conn, search("A"));//weight 2
+		cache.execute(conn, search("B"));//weight 3
+		cache.execute(conn, search("A"));//hit, so B becomes the eldest
+		cache.execute(conn, search("C"));//weight 4, evicts B
+		
+		assertEquals("One entry should be evicted", 1, cache.getEvictionCount());
+		assertEquals("Weight should stay within bounds", 6, cache.getWeight());
+		cache.execute(conn, search("A"));
+		assertEquals("Recently used entries should be kept", 2, cache.getHitCount());
+		
+		cache.execute(conn, search("D"));//weight 5, evicts C
+		assertTrue("Weight should stay within bounds", cache.getWeight() <= 8);
+	}
+	
+	@Test
+	public void testSeparateUsers() throws BugzillaException {
+		BugzillaConnector other = mock(BugzillaConnector.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				respond((BugzillaMethod)invocation.getArguments()[0]);
+				return null;
+			}
+		}).when(other).executeMethod(any(BugzillaMethod.class));
+		
+		SearchCache cache = new SearchCache(1, 1, TimeUnit.MINUTES, 100);
+		cache.execute(conn, search("Test"));
+		BugSearch theirs = search("Test");
+		cache.execute(other, theirs);
+		assertEquals("Each connector should load its own results", 2, requests.get());
+		assertEquals("Results loaded by another connector should not be served", 2, theirs.getSearchResults().size());
+		
+		when(conn.getSession()).thenReturn(1L);
+		cache.execute(conn, search("Test"));
+		assertEquals("A new login should load its own results", 3, requests.get());
+		
+		cache.invalidate(search("Test"));
+		assertEquals("Invalidation should drop the search for every user", 0, cache.size());
+	}
+	
+	@Test
+	public void testInvalidateDuringRefresh() throws BugzillaException {
+		final FutureTask<?>[] pending = new FutureTask<?>[1];
+		doAnswer(new Answer<Future<BugzillaMethod>>() {
+			@Override
+			public Future<BugzillaMethod> answer(InvocationOnMock invocation) {
+				final BugzillaMethod method = (BugzillaMethod)invocation.getArguments()[0];
+				FutureTask<BugzillaMethod> task = new FutureTask<BugzillaMethod>(new Runnable() {
+					@Override
+					public void run() {
+						respond(method);
+					}
+				}, method);
+				pending[0] = task;
+				return task;
+			}
+		}).when(conn).executeMethodAsync(any(BugzillaMethod.class));
+		
+		SearchCache cache = cache(20, 1000);
+		cache.execute(conn, search("Test"));
+		now += TimeUnit.SECONDS.toNanos(50);
+		cache.execute(conn, search("Test"));
+		assertNotNull("A refresh should have been started", pending[0]);
+		
+		cache.invalidate(search("Test"));
+		pending[0].run();
+		assertEquals("A refresh started before the invalidation should not be cached", 0, cache.size());
+		
+		cache.execute(conn, search("Test"));
+		assertEquals("The search should be loaded again", 2, cache.getMissCount());
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+import com.j2bugzilla.rpc.SearchCriteria.Operator;
+
+public class TestSearchCriteria {
+
+	@Test
+	public void testFlatCriteria() {
+		SearchCriteria criteria = SearchCriteria.all()
+				.addAnyOf("bug_status", "NEW", "ASSIGNED")
+				.addNot("component", Operator.SUBSTRING, "Docs");
+		Map<Object, Object> params = criteria.getParameterMap();
+		
+		assertEquals("Top level should be joined with AND", "AND", params.get("j_top"));
+		assertEquals("Field does not match", "bug_status", params.get("f1"));
+		assertEquals("Operator does not match", "anyexact", params.get("o1"));
+		assertEquals("Value does not match", "NEW,ASSIGNED", params.get("v1"));
+		assertNull("First condition is not negated", params.get("n1"));
+		assertEquals("Operator does not match", "substring", params.get("o2"));
+		assertEquals("Second condition is negated", "1", params.get("n2"));
+	}
+	
+	@Test
+	public void testNestedGroups() {
+		SearchCriteria criteria = SearchCriteria.all()
+				.add("bug_status", Operator.EQUALS, "NEW")
+				.add(SearchCriteria.any()
+						.add("priority", Operator.EQUALS, "P1")
+						.add("assigned_to", Operator.EQUALS, "dev@example.com")
+						.negate());
+		Map<Object, Object> params = criteria.getParameterMap();
+		
+		assertEquals("Group should open after the first condition", "OP", params.get("f2"));
+		assertEquals("Group should be joined with OR", "OR", params.get("j2"));
+		assertEquals("Group should be negated", "1", params.get("n2"));
+		assertEquals("Grouped field does not match", "priority", params.get("f3"));
+		assertEquals("Grouped field does not match", "assigned_to", params.get("f4"));
+		assertEquals("Group should close after its conditions", "CP", params.get("f5"));
+		assertNull("Nothing should follow the group", params.get("f6"));
+	}
+	
+	@Test
+	public void testNegatedTopLevel() {
+		SearchCriteria criteria = SearchCriteria.any()
+				.add("priority", Operator.EQUALS, "P1")
+				.negate();
+		Map<Object, Object> params = criteria.getParameterMap();
+		
+		assertEquals("Negation should wrap the criteria in a group", "OP", params.get("f1"));
+		assertEquals("Negation should wrap the criteria in a group", "1", params.get("n1"));
+		assertEquals("Field does not match", "priority", params.get("f2"));
+		assertEquals("Group should be closed", "CP", params.get("f3"));
+	}
+	
+	@Test
+	public void testCriteriaInSearch() {
+		BugSearch search = new BugSearch(SearchCriteria.all().add("priority", Operator.EQUALS, "P1"),
+				new SearchQuery(SearchLimiter.LIMIT, "10"));
+		Map<Object, Object> params = search.getParameterMap();
+		
+		assertEquals("Criteria should be sent", "priority", params.get("f1"));
+		assertEquals("Queries should be sent alongside criteria", "10", params.get("limit"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegatedEmptyGroup() {
+		SearchCriteria.all().add("priority", Operator.EQUALS, "P1").add(SearchCriteria.any().negate());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegatedEmptyCriteria() {
+		new BugSearch(SearchCriteria.all().negate(), new SearchQuery(SearchLimiter.PRODUCT, "Test"));
+	}
+	
+	@Test
+	public void testEmptyGroupDropped() {
+		Map<Object, Object> params = SearchCriteria.all()
+				.add("priority", Operator.EQUALS, "P1")
+				.add(SearchCriteria.any())
+				.getParameterMap();
+		assertEquals("Condition should be sent", "priority", params.get("f1"));
+		assertNull("Empty group should be left out", params.get("f2"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCommaInValue() {
+		SearchCriteria.all().addAnyOf("keywords", "a,b");
+	}
+
+}
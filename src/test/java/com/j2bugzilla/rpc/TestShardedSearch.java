@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011 Thomas Golden
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.j2bugzilla.rpc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.rpc.BugSearch.SearchLimiter;
+import com.j2bugzilla.rpc.BugSearch.SearchQuery;
+import com.j2bugzilla.rpc.SearchCriteria.Operator;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestShardedSearch {
+
+	@Mock
+	private BugzillaConnector conn;
+	
+	private ExecutorService executor;
+	
+	private final AtomicInteger running = new AtomicInteger();
+	
+	private final AtomicInteger maxRunning = new AtomicInteger();
+	
+	private final List<Map<Object, Object>> searches = new ArrayList<Map<Object, Object>>();
+	
+	private static Map<String, Object> bug(int id, String product) {
+		Map<String, Object> bug = new HashMap<String, Object>();
+		bug.put("id", id);
+		bug.put("product", product);
+		bug.put("component", "Test");
+		bug.put("summary", "Bug " + id);
+		bug.put("version", "1.0");
+		return bug;
+	}
+	
+	@Before
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+		doAnswer(new Answer<Object>() {
+
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				final BugSearch search = (BugSearch)invocation.getArguments()[0];
+				synchronized(searches) {
+					searches.add(search.getParameterMap());
+				}
+				return executor.submit(new Callable<BugSearch>() {
+					@Override
+					public BugSearch call() throws Exception {
+						int now = running.incrementAndGet();
+						synchronized(maxRunning) {
+							maxRunning.set(Math.max(maxRunning.get(), now));
+						}
+						Thread.sleep(20);
+						
+						Map<Object, Object> params = search.getParameterMap();
+						String product = (String)params.get("product");
+						int base = product.charAt(0) * 10;
+						List<Integer> ids = new ArrayList<Integer>();
+						//Bug 1 sits in every product, as if it moved while the search ran
+						ids.add(1);
+						for(int i = 0; i < 3; i++) {
+							ids.add(base + i);
+						}
+						
+						//The keyset condition is the last one sent
+						int after = 0;
+						for(int i = 1; params.containsKey("f" + i); i++) {
+							if("bug_id".equals(params.get("f" + i))) {
+								after = Integer.parseInt((String)params.get("v" + i));
+							}
+						}
+						int limit = Integer.parseInt((String)params.get("limit"));
+						List<Object> bugs = new ArrayList<Object>();
+						for(int id : ids) {
+							if(id > after && bugs.size() < limit) {
+								bugs.add(bug(id, product));
+							}
+						}
+						Map<Object, Object> hash = new HashMap<Object, Object>();
+						hash.put("bugs", bugs.toArray());
+						search.setResultMap(hash);
+						running.decrementAndGet();
+						return search;
+					}
+				});
+			}
+			
+		}).when(conn).executeMethodAsync(any(BugzillaMethod.class));
+	}
+	
+	@After
+	public void tearDown() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.SECONDS);
+	}
+	
+	@Test
+	public void testProductShards() throws BugzillaException {
+		ShardedSearch search = new ShardedSearch(new SearchQuery(SearchLimiter.STATUS, "NEW"));
+		search.addProductShards("A", "B", "C", "D", "E", "F");
+		search.setParallelism(2);
+		search.setPageSize(3);
+		List<Bug> bugs = search.execute(conn);
+		
+		assertEquals("Each shard should be paged until an empty page", 6 * 3, searches.size());
+		for(Map<Object, Object> params : searches) {
+			assertEquals("Every page should be limited", "3", params.get("limit"));
+			assertEquals("Common queries should go with each page", "NEW", params.get("status"));
+		}
+		assertTrue("Parallelism should be bounded", maxRunning.get() <= 2);
+		assertEquals("Duplicates should be dropped", 6 * 3 + 1, bugs.size());
+		assertEquals("Results should be in shard order", "A", bugs.get(0).getProduct());
+		assertEquals("Results should be in shard order", "F", bugs.get(bugs.size() - 1).getProduct());
+	}
+	
+	@Test
+	public void testIdRangeShards() {
+		ShardedSearch search = new ShardedSearch(SearchCriteria.all().add("product", Operator.EQUALS, "A"));
+		search.addIdRangeShards(250, 100);
+		assertEquals("Wrong number of shards", 3, search.getShardCount());
+		
+		//The shard's own conditions form the first group of every page
+		Map<Object, Object> last = search.newCursor(2).newPageSearch(null).getParameterMap();
+		assertEquals("Common criteria should be kept", "product", last.get("f3"));
+		assertEquals("Range should start after the previous shard", "200", last.get("v5"));
+		assertEquals("Range should end at the highest ID", "250", last.get("v6"));
+		assertEquals("Range should be inclusive at the top", "lessthaneq", last.get("o6"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testShardLimiterRejected() {
+		new ShardedSearch(new SearchQuery(SearchLimiter.PRODUCT, "A"));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testNoShards() throws BugzillaException {
+		new ShardedSearch(new SearchQuery(SearchLimiter.STATUS, "NEW")).execute(conn);
+	}
+
+}